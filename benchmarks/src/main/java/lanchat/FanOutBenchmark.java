@@ -0,0 +1,86 @@
+package lanchat;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.net.ProtocolException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 群聊扇出：解析一帧群聊消息并经 MessageRouter 广播给房间内所有会话，再由各会话取出字节
+ * mixed 表示一半会话使用文本、一半使用二进制，广播帧需要按两种编码各编码一次
+ * recentSize 为 0 时不记录最近群聊，用于对比 RecentMessages 写入的开销
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FanOutBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int roomSize;
+
+    @Param({"16", "256"})
+    public int messageLength;
+
+    @Param({"text", "binary", "mixed"})
+    public String recipients;
+
+    @Param({"0", "50"})
+    public int recentSize;
+
+    private MessageRouter router;
+    private InMemorySession[] sessions;
+    private Codec senderCodec;
+    private byte[] group;
+    private final FrameView view = new FrameView();
+
+    @Setup
+    public void setup() {
+        SessionRegistry registry = new SessionRegistry();
+        ServerConfig config = Payloads.config("--recent-size=" + recentSize);
+        router = new MessageRouter(registry, config);
+        sessions = new InMemorySession[roomSize];
+        String[] names = Payloads.names(roomSize);
+        for (int i = 0; i < roomSize; i++) {
+            Codec codec = "mixed".equals(recipients) ? Payloads.codec(i % 2 == 0 ? "text" : "binary")
+                    : Payloads.codec(recipients);
+            sessions[i] = new InMemorySession(config.newOutboundQueue(), codec);
+            registry.register(names[i], sessions[i]);
+        }
+        senderCodec = sessions[0].codec();
+        group = senderCodec.encode(Message.of(MessageType.GROUP, names[0], Payloads.content(messageLength)));
+    }
+
+    @Benchmark
+    public void routeGroup(Blackhole bh) throws ProtocolException {
+        senderCodec.view(group, 0, group.length, view);
+        router.route(sessions[0], view);
+        for (InMemorySession session : sessions) {
+            session.drain(bh);
+        }
+    }
+
+    /**
+     * 只测广播本身：同一帧放入所有会话的出站队列
+     */
+    @Benchmark
+    public void broadcastPreEncoded(Blackhole bh) {
+        router.broadcast(Frame.preEncoded(MessageType.GROUP, group));
+        for (InMemorySession session : sessions) {
+            session.drain(bh);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package lanchat;
+
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 基准测试用的内存会话：send 与真实会话一样进入有界出站队列，drain 代替网络写出
+ */
+final class InMemorySession implements ChatSession {
+
+    private final OutboundQueue queue;
+    private final Codec codec;
+    private volatile Set<String> features = Collections.emptySet();
+    private volatile String username;
+
+    InMemorySession(OutboundQueue queue, Codec codec) {
+        this.queue = queue;
+        this.codec = codec;
+    }
+
+    @Override
+    public void send(Frame frame) {
+        queue.offer(frame);
+    }
+
+    @Override
+    public void hold() {
+        queue.hold();
+    }
+
+    @Override
+    public void release(List<Frame> first, long skipLoggedUpTo) {
+        queue.release(first, skipLoggedUpTo);
+    }
+
+    @Override
+    public void close() {
+        queue.clear();
+    }
+
+    @Override
+    public void closeAfterFlush() {
+    }
+
+    @Override
+    public String getUsername() {
+        return username;
+    }
+
+    @Override
+    public void setUsername(String username) {
+        this.username = username;
+    }
+
+    @Override
+    public boolean hasFeature(String feature) {
+        return features.contains(feature);
+    }
+
+    @Override
+    public void setFeatures(Set<String> features) {
+        this.features = features;
+    }
+
+    @Override
+    public Codec codec() {
+        return codec;
+    }
+
+    @Override
+    public void setCompression(DeflateStream stream) {
+        // 基准测试不协商压缩
+    }
+
+    @Override
+    public OutboundQueue outboundQueue() {
+        return queue;
+    }
+
+    @Override
+    public long lastReadNanos() {
+        return System.nanoTime();
+    }
+
+    /**
+     * 取出所有排队帧并按本会话的编码取得字节，相当于写线程的工作
+     */
+    void drain(Blackhole bh) {
+        Frame frame;
+        while ((frame = queue.poll()) != null) {
+            bh.consume(frame.bytes(codec));
+        }
+    }
+}
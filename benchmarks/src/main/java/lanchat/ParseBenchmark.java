@@ -0,0 +1,65 @@
+package lanchat;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.ProtocolException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 入站解析：服务器在读缓冲区上切帧并建立 FrameView（零拷贝路径），
+ * 以及客户端解码为 Message（ClientUI.processServerMessage 之前的解析步骤）
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ParseBenchmark {
+
+    @Param({"text", "binary"})
+    public String codec;
+
+    @Param({"16", "256", "4096"})
+    public int messageLength;
+
+    private Codec wire;
+    private byte[] group;
+    private byte[] privateMessage;
+    private final FrameView view = new FrameView();
+
+    @Setup
+    public void setup() {
+        wire = Payloads.codec(codec);
+        String content = Payloads.content(messageLength);
+        group = wire.encode(Message.of(MessageType.GROUP, "alice", content));
+        privateMessage = wire.encode(Message.of(MessageType.PRIVATE, "alice", "bob", content));
+    }
+
+    @Benchmark
+    public FrameView serverViewGroup() throws ProtocolException {
+        wire.view(group, 0, wire.frameLength(group, 0, group.length), view);
+        return view;
+    }
+
+    @Benchmark
+    public FrameView serverViewPrivate() throws ProtocolException {
+        wire.view(privateMessage, 0, wire.frameLength(privateMessage, 0, privateMessage.length), view);
+        return view;
+    }
+
+    @Benchmark
+    public Message clientDecodeGroup() throws ProtocolException {
+        return wire.decode(group, 0, wire.frameLength(group, 0, group.length));
+    }
+}
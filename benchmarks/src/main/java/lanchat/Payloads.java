@@ -0,0 +1,49 @@
+package lanchat;
+
+import java.util.Arrays;
+
+/**
+ * 基准测试的输入数据
+ */
+final class Payloads {
+
+    private Payloads() {
+    }
+
+    static Codec codec(String name) {
+        switch (name) {
+            case "text":
+                return TextCodec.INSTANCE;
+            case "binary":
+                return BinaryCodec.INSTANCE;
+            default:
+                throw new IllegalArgumentException("未知编码：" + name);
+        }
+    }
+
+    /**
+     * 指定长度的聊天内容（含中文，UTF-8 编码后长度与字符数不同）
+     */
+    static String content(int length) {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = i % 10 == 9 ? '聊' : (char) ('a' + i % 26);
+        }
+        return new String(chars);
+    }
+
+    static String[] names(int count) {
+        String[] names = new String[count];
+        for (int i = 0; i < count; i++) {
+            names[i] = "user" + i;
+        }
+        return names;
+    }
+
+    static ServerConfig config(String... extra) {
+        // 加大合并窗口，避免注册会话时的在线状态广播干扰测量
+        String[] args = Arrays.copyOf(new String[]{"--presence-window=10000"}, 1 + extra.length);
+        System.arraycopy(extra, 0, args, 1, extra.length);
+        return ServerConfig.parse(args);
+    }
+}
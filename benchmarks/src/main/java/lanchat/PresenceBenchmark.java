@@ -0,0 +1,62 @@
+package lanchat;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 用户列表构建：旧版客户端的完整 USER_LIST、新客户端的快照与增量（均含编码）
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PresenceBenchmark {
+
+    @Param({"10", "100", "1000", "10000"})
+    public int roomSize;
+
+    @Param({"text", "binary"})
+    public String codec;
+
+    private Codec wire;
+    private String[] names;
+    private final Map<String, Boolean> changes = new LinkedHashMap<>();
+
+    @Setup
+    public void setup() {
+        wire = Payloads.codec(codec);
+        names = Payloads.names(roomSize);
+        changes.put("newcomer", true);
+        changes.put(names[0], false);
+    }
+
+    @Benchmark
+    public byte[] legacyUserList() {
+        return PresenceBroadcaster.userListFrame(names).bytes(wire);
+    }
+
+    @Benchmark
+    public byte[] presenceSnapshot() {
+        return PresenceBroadcaster.snapshotFrame(42, names).bytes(wire);
+    }
+
+    @Benchmark
+    public byte[] presenceDelta() {
+        return PresenceBroadcaster.deltaFrame(42, changes).bytes(wire);
+    }
+}
@@ -0,0 +1,123 @@
+package lanchat;
+
+import java.net.ProtocolException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 二进制帧编码（握手协商 binary-v1 后使用）：
+ * 帧 = varint(帧体长度) + 帧体；帧体 = 类型编号(1 字节) + 每个字段 [varint(字节数) + UTF-8 字节]
+ * 长度前缀界定边界，内容中的 | 与换行无需转义；解析只记录字段位置，不做任何字符串切分
+ */
+public final class BinaryCodec implements Codec {
+
+    public static final BinaryCodec INSTANCE = new BinaryCodec();
+
+    private BinaryCodec() {
+    }
+
+    @Override
+    public int id() {
+        return 1;
+    }
+
+    @Override
+    public byte[] encode(Message message) {
+        int count = message.fieldCount();
+        byte[][] encoded = new byte[count][];
+        int bodyLength = 1;
+        for (int i = 0; i < count; i++) {
+            encoded[i] = message.field(i).getBytes(StandardCharsets.UTF_8);
+            bodyLength += varintSize(encoded[i].length) + encoded[i].length;
+        }
+        byte[] frame = new byte[varintSize(bodyLength) + bodyLength];
+        int pos = writeVarint(frame, 0, bodyLength);
+        frame[pos++] = message.type();
+        for (byte[] field : encoded) {
+            pos = writeVarint(frame, pos, field.length);
+            System.arraycopy(field, 0, frame, pos, field.length);
+            pos += field.length;
+        }
+        return frame;
+    }
+
+    @Override
+    public int frameLength(byte[] buf, int offset, int length) throws ProtocolException {
+        long header = readVarint(buf, offset, length);
+        if (header < 0) {
+            return -1;
+        }
+        int bodyLength = (int) (header >>> 32);
+        int total = (int) header + bodyLength;
+        if (bodyLength < 1 || total > MAX_FRAME_BYTES) {
+            throw new ProtocolException("帧长度非法：" + bodyLength);
+        }
+        return total <= length ? total : -1;
+    }
+
+    @Override
+    public void view(byte[] buf, int offset, int frameLength, FrameView view) throws ProtocolException {
+        int end = offset + frameLength;
+        int pos = offset + (int) readVarint(buf, offset, frameLength);
+        byte type = buf[pos++];
+        int count = MessageType.fieldCount(type);
+        if (count < 0) {
+            throw new ProtocolException("未知消息类型：" + type);
+        }
+        view.reset(this, buf, offset, frameLength, type);
+        int n = 0;
+        while (pos < end && n < count) {
+            long header = readVarint(buf, pos, end - pos);
+            if (header < 0) {
+                throw new ProtocolException("字段长度不完整");
+            }
+            int length = (int) (header >>> 32);
+            pos += (int) header;
+            if (pos + length > end) {
+                throw new ProtocolException("字段长度非法");
+            }
+            view.addField(pos, length); // 字段不足（格式错误）时按实际个数返回，由路由层判断
+            pos += length;
+            n++;
+        }
+    }
+
+    static int varintSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    static int writeVarint(byte[] buf, int pos, int value) {
+        while ((value & ~0x7F) != 0) {
+            buf[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buf[pos++] = (byte) value;
+        return pos;
+    }
+
+    /**
+     * 读取无符号 varint（最多 5 字节）
+     * @return 高 32 位为数值、低 32 位为占用字节数；数据不完整时返回 -1
+     */
+    static long readVarint(byte[] buf, int offset, int length) throws ProtocolException {
+        int value = 0;
+        for (int i = 0; i < 5; i++) {
+            if (i >= length) {
+                return -1;
+            }
+            byte b = buf[offset + i];
+            value |= (b & 0x7F) << (7 * i);
+            if (b >= 0) {
+                if (value < 0) {
+                    throw new ProtocolException("varint 超出范围");
+                }
+                return ((long) value << 32) | (i + 1);
+            }
+        }
+        throw new ProtocolException("varint 超过 5 字节");
+    }
+}
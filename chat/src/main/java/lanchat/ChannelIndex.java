@@ -0,0 +1,200 @@
+package lanchat;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 频道索引：频道名 → 成员会话
+ * 与 SessionRegistry 相同，以频道名的 UTF-8 字节为键，转发频道消息时直接用接收缓冲区中的字段查找；
+ * 每个频道的成员是加入/离开时整体替换的不可变数组（写时复制），转发只读一次 volatile 数组，不加锁，
+ * 消息只发给该频道的成员，代价与频道人数成正比而不是与在线人数成正比
+ * 加入/离开/下线都在同一把锁下进行，同时维护会话 → 已加入频道的反向表，下线时不必遍历所有频道
+ */
+public final class ChannelIndex {
+
+    static final int MAX_CHANNELS_PER_USER = 32;
+    static final int MAX_NAME_BYTES = 32;
+    private static final ChatSession[] EMPTY = new ChatSession[0];
+
+    /**
+     * 一个频道：成员数组创建后不再修改，变化时整体替换
+     */
+    static final class Channel {
+        final String name;
+        final SessionRegistry.NameKey key;
+        volatile ChatSession[] members = EMPTY;
+
+        Channel(String name, SessionRegistry.NameKey key) {
+            this.name = name;
+            this.key = key;
+        }
+
+        boolean contains(ChatSession session) {
+            for (ChatSession member : members) {
+                if (member == session) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private final ConcurrentHashMap<SessionRegistry.NameKey, Channel> channels = new ConcurrentHashMap<>();
+    private final ReentrantLock lock = new ReentrantLock(); // 只在加入/离开时使用，转发不经过此锁
+    private final Map<ChatSession, List<Channel>> memberships = new IdentityHashMap<>(); // 由 lock 保护
+
+    /**
+     * 加入频道，频道不存在时创建；已是成员时视为成功
+     * @return 失败时返回应发给客户端的提示，成功返回 null
+     */
+    public String join(ChatSession session, String name) {
+        String error = validate(name);
+        if (error != null) {
+            return error;
+        }
+        lock.lock();
+        try {
+            SessionRegistry.NameKey key = SessionRegistry.NameKey.of(name);
+            Channel channel = channels.get(key);
+            if (channel != null && channel.contains(session)) {
+                return null;
+            }
+            List<Channel> joined = memberships.get(session);
+            if (joined != null && joined.size() >= MAX_CHANNELS_PER_USER) {
+                return "最多同时加入 " + MAX_CHANNELS_PER_USER + " 个频道！";
+            }
+            if (channel == null) {
+                channel = new Channel(name, key);
+                channels.put(key, channel);
+            }
+            ChatSession[] members = channel.members;
+            ChatSession[] updated = new ChatSession[members.length + 1];
+            System.arraycopy(members, 0, updated, 0, members.length);
+            updated[members.length] = session;
+            channel.members = updated;
+            if (joined == null) {
+                joined = new ArrayList<>();
+                memberships.put(session, joined);
+            }
+            joined.add(channel);
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 离开频道，最后一个成员离开后删除频道
+     * @return 失败时返回应发给客户端的提示，成功返回 null
+     */
+    public String leave(ChatSession session, String name) {
+        lock.lock();
+        try {
+            Channel channel = channels.get(SessionRegistry.NameKey.of(name));
+            if (channel == null || !remove(channel, session)) {
+                return "未加入频道：" + name;
+            }
+            List<Channel> joined = memberships.get(session);
+            joined.remove(channel);
+            if (joined.isEmpty()) {
+                memberships.remove(session);
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 会话下线：离开它加入的所有频道
+     */
+    public void leaveAll(ChatSession session) {
+        lock.lock();
+        try {
+            List<Channel> joined = memberships.remove(session);
+            if (joined != null) {
+                for (Channel channel : joined) {
+                    remove(channel, session);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 从成员数组中移除（调用方持有 lock），频道变空时从索引中删除
+     */
+    private boolean remove(Channel channel, ChatSession session) {
+        ChatSession[] members = channel.members;
+        for (int i = 0; i < members.length; i++) {
+            if (members[i] == session) {
+                if (members.length == 1) {
+                    channel.members = EMPTY;
+                    channels.remove(channel.key, channel);
+                } else {
+                    ChatSession[] updated = new ChatSession[members.length - 1];
+                    System.arraycopy(members, 0, updated, 0, i);
+                    System.arraycopy(members, i + 1, updated, i, members.length - i - 1);
+                    channel.members = updated;
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 按频道名字节查找（转发热路径），不创建字符串
+     */
+    Channel get(SessionRegistry.NameKey key) {
+        return channels.get(key);
+    }
+
+    /**
+     * 频道列表：频道名1:人数,频道名2:人数（按名称排序）
+     */
+    public String list() {
+        Map<String, Integer> sorted = new TreeMap<>();
+        for (Channel channel : channels.values()) {
+            int count = channel.members.length;
+            if (count > 0) {
+                sorted.put(channel.name, count);
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Integer> entry : sorted.entrySet()) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(entry.getKey()).append(':').append(entry.getValue());
+        }
+        return sb.toString();
+    }
+
+    public int size() {
+        return channels.size();
+    }
+
+    /**
+     * 频道名不能为空、不超过 32 字节，且不能包含列表与协议使用的分隔符
+     */
+    private static String validate(String name) {
+        if (name == null || name.isEmpty()) {
+            return "频道名不能为空！";
+        }
+        if (name.getBytes(StandardCharsets.UTF_8).length > MAX_NAME_BYTES) {
+            return "频道名不能超过 " + MAX_NAME_BYTES + " 字节！";
+        }
+        if (name.indexOf('|') >= 0 || name.indexOf(',') >= 0 || name.indexOf(':') >= 0) {
+            return "频道名不能包含 | , : 字符！";
+        }
+        return null;
+    }
+}
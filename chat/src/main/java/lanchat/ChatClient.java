@@ -0,0 +1,38 @@
+package lanchat;
+
+import javax.swing.*;
+
+/**
+ * 客户端主类:启动客户端窗口,发起服务器连接
+ * 可选参数 --max-lines=5000:聊天区保留的行数,超出后丢弃最早的行
+ */
+public class ChatClient {
+    public static void main(String[] args) {
+        int maxLines = ClientUI.DEFAULT_MAX_LINES;
+        try {
+            for (String arg : args) {
+                if (!arg.startsWith("--max-lines=")) {
+                    throw new IllegalArgumentException("未知参数:" + arg);
+                }
+                maxLines = ServerConfig.parseInt("max-lines", arg.substring("--max-lines=".length()), 100, 1000000);
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+        final int lines = maxLines;
+
+        SwingUtilities.invokeLater(() -> {
+            ClientUI clientUI = new ClientUI(lines);
+            clientUI.setVisible(true); // 显示窗口
+
+            // 启动后自动发起服务器连接
+            boolean connectSuccess = clientUI.connectServer();
+            if (!connectSuccess) {
+                // 连接失败则关闭窗口
+                clientUI.dispose();
+                System.exit(0);
+            }
+        });
+    }
+}
\ No newline at end of file
@@ -0,0 +1,85 @@
+package lanchat;
+
+import javax.swing.AbstractListModel;
+
+/**
+ * 客户端聊天区的行模型：固定容量的环形缓冲区，超出容量时丢弃最早的行
+ * 保存的是已按显示宽度折好的行，配合固定行高、固定行宽的 JList，界面只绘制可见的几十行；
+ * add() 只写入缓冲区，commit() 时每批合并为一次删除事件与一次添加事件，
+ * 消息再多，每次更新的代价也只与本批行数有关，与已保留的行数无关
+ * 只在 EDT 中使用
+ */
+public final class ChatLineModel extends AbstractListModel<String> {
+
+    private static final long serialVersionUID = 1L;
+
+    // 行样式（按位组合）：决定渲染时的颜色与缩进
+    static final byte PLAIN = 0;
+    static final byte SYSTEM = 1;       // 系统提示
+    static final byte CONTINUATION = 2; // 折行后的后续行（缩进显示）
+
+    private final String[] rows;
+    private final byte[] styles;
+    private int head;      // 最早一行在数组中的位置
+    private int size;
+    private int committed; // 上次 commit 时的行数
+    private int added;     // 上次 commit 之后加入的行数
+    private int dropped;   // 上次 commit 之后因超出容量而丢弃的行数（含本批中已被挤掉的新行）
+
+    public ChatLineModel(int capacity) {
+        this.rows = new String[capacity];
+        this.styles = new byte[capacity];
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public String getElementAt(int index) {
+        return rows[(head + index) % rows.length];
+    }
+
+    public byte styleAt(int index) {
+        return styles[(head + index) % rows.length];
+    }
+
+    public int capacity() {
+        return rows.length;
+    }
+
+    /**
+     * 加入一行（不触发事件，由 commit() 统一通知界面）
+     */
+    public void add(String row, byte style) {
+        int tail = (head + size) % rows.length;
+        rows[tail] = row;
+        styles[tail] = style;
+        if (size < rows.length) {
+            size++;
+        } else {
+            head = (head + 1) % rows.length; // 覆盖最早的一行
+            dropped++;
+        }
+        added++;
+    }
+
+    /**
+     * 通知界面上次 commit 之后的变化：先删除被挤掉的旧行，再添加仍保留的新行
+     */
+    public void commit() {
+        if (added == 0) {
+            return;
+        }
+        int removedOld = Math.min(dropped, committed);
+        int keptNew = size - (committed - removedOld);
+        added = 0;
+        dropped = 0;
+        committed = size;
+        if (removedOld > 0) {
+            fireIntervalRemoved(this, 0, removedOld - 1);
+        }
+        fireIntervalAdded(this, size - keptNew, size - 1);
+    }
+}
@@ -0,0 +1,159 @@
+package lanchat;
+
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.channels.ServerSocketChannel;
+import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.Enumeration;
+import java.net.NetworkInterface;
+import java.net.InetAddress;
+import java.net.Inet4Address;
+import java.net.SocketException;
+
+/**
+ * 伺服器主類：監聽端口、接收客戶端連接、管理線上用戶
+ */
+public class ChatServer {
+
+    // 伺服器預設端口（可自行修改或以 --port 指定，需與客戶端保持一致）
+    static final int SERVER_PORT = 8888;
+
+    // 監聽佇列長度：大量客戶端同時連入時避免被拒絕
+    static final int ACCEPT_BACKLOG = 1024;
+
+    // 線上用戶註冊表：用戶名 → 客戶端發送端（無 synchronized，虛擬執行緒不會被釘住；廣播走無鎖快照）
+    public static final SessionRegistry onlineUsers = new SessionRegistry();
+
+    // 訊息路由：各模式共用的登入、廣播與私聊邏輯（依啟動參數建立）
+    static MessageRouter router;
+
+    public static void main(String[] args) {
+        try {
+            ServerConfig config = ServerConfig.parse(args);
+            Log.setLevel(config.getLogLevel());
+            ClusterNode cluster = ClusterNode.open(config, onlineUsers);
+            router = new MessageRouter(onlineUsers, config, MessageLog.open(config),
+                    OfflineStore.open(config, onlineUsers), cluster, FileRelay.open(config, onlineUsers));
+            if (cluster != null) {
+                cluster.start(router); // 叢集模式：監聽節點端口並連線其他節點
+            }
+            new ServerMetrics(onlineUsers).start(config);
+            startStatsReporter(config);
+            if (config.getMode() == ServerConfig.Mode.NIO) {
+                // NIO 模式：少量事件循環執行緒處理全部連線
+                ServerSocketChannel serverChannel = NioChatServer.bind(config);
+                printBanner(config);
+                new NioChatServer(config, router).start(serverChannel);
+                return;
+            }
+
+            // 1. 建立 ServerSocket，監聽指定端口
+            ServerSocket serverSocket = new ServerSocket();
+            config.configure(serverSocket); // 接收緩衝區須在綁定前設定
+            serverSocket.bind(new InetSocketAddress(config.getPort()), ACCEPT_BACKLOG);
+            ExecutorService executor = newHandlerExecutor(config.getMode());
+            ExecutorService writers = newHandlerExecutor(config.getMode()); // 出站佇列排空任務
+            printBanner(config);
+
+            // 2. 持續循環接收客戶端連接（每連進一個客戶端，即交由獨立執行緒處理）
+            while (true) {
+                Socket clientSocket = serverSocket.accept(); // 阻塞等待客戶端連接
+                ServerMetrics.ACCEPTED.increment();
+                ServerMetrics.ACTIVE_CONNECTIONS.increment();
+                Log.debug("新客戶端連線：{}", clientSocket.getInetAddress().getHostAddress());
+
+                // 3. 為該客戶端提交處理任務（傳入 Socket、訊息路由與寫出執行緒池）
+                executor.execute(new ClientHandlerThread(clientSocket, router, config, writers));
+            }
+        } catch (Exception e) {
+            System.err.println("Server startup failed：" + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 建立客戶端處理執行緒池
+     * THREAD：平台執行緒（每個連線一條，閒置後重用）
+     * VIRTUAL：每個連線一條虛擬執行緒（需 JDK 21 以上；以反射呼叫，原始碼仍可用 JDK 8 編譯）
+     */
+    static ExecutorService newHandlerExecutor(ServerConfig.Mode mode) {
+        if (mode != ServerConfig.Mode.VIRTUAL) {
+            return Executors.newCachedThreadPool();
+        }
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException("virtual 模式需要 JDK 21 以上，目前版本：" + System.getProperty("java.version"));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("無法建立虛擬執行緒池：" + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 定時輸出出站佇列統計（--stats-interval 秒，0 表示關閉）；統計值無變化時不重複輸出
+     */
+    private static void startStatsReporter(ServerConfig config) {
+        if (config.getStatsInterval() <= 0) {
+            return;
+        }
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "stats-reporter");
+            t.setDaemon(true);
+            return t;
+        });
+        final String[] last = {""};
+        timer.scheduleAtFixedRate(() -> {
+            String stats = router.outboundStats();
+            if (!stats.equals(last[0])) {
+                Log.info(stats);
+                last[0] = stats;
+            }
+        }, config.getStatsInterval(), config.getStatsInterval(), TimeUnit.SECONDS);
+    }
+
+    private static void printBanner(ServerConfig config) {
+        System.out.println("=== LAN chat server is started ===");
+        System.out.println("Mode: " + config.getMode().name().toLowerCase()
+                + (config.getMode() == ServerConfig.Mode.NIO ? " (" + config.getEventLoops() + " event loops)" : ""));
+        if (config.getClusterPort() != 0) {
+            System.out.println("Cluster node: " + config.getNodeId() + " (cluster port " + config.getClusterPort()
+                    + ", " + config.getPeers().size() + " peers)");
+        }
+        System.out.println("Listening port:：" + config.getPort());
+        if (config.getTransferPort() != 0) {
+            System.out.println("File transfer port: " + config.getTransferPort());
+        }
+        System.out.println("Server IP (for client connection):" + getLocalIp());
+        System.out.println("======================================\n");
+    }
+
+    /**
+     * 取得本機局域網 IP（客戶端連接時必須輸入此 IP）
+     * @return 局域網 IPv4 地址，異常時返回 127.0.0.1
+     */
+    private static String getLocalIp() {
+        try {
+            Enumeration<NetworkInterface> en = NetworkInterface.getNetworkInterfaces();
+            while (en.hasMoreElements()) {
+                NetworkInterface ni = en.nextElement();
+                Enumeration<InetAddress> ipEnum = ni.getInetAddresses();
+                while (ipEnum.hasMoreElements()) {
+                    InetAddress ip = ipEnum.nextElement();
+                    // 排除本地回環地址（127.0.0.1）與 IPv6，只取局域網 IPv4
+                    if (!ip.isLoopbackAddress() && ip instanceof Inet4Address) {
+                        return ip.getHostAddress();
+                    }
+                }
+            }
+        } catch (SocketException e) {
+            // 精確捕捉網路介面異常
+            e.printStackTrace();
+        }
+        // 若無法取得局域網 IP（例如僅有回環或異常），返回 127.0.0.1（僅適合單機測試）
+        return "127.0.0.1";
+    }
+}
\ No newline at end of file
@@ -0,0 +1,79 @@
+package lanchat;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 已连接客户端的发送端：登录时创建一次，与用户名一起保存在在线用户集合中
+ * 线程模式由 SocketSession 实现，NIO 模式由 NioConnection 实现
+ */
+public interface ChatSession {
+
+    /**
+     * 发送一帧消息（线程安全，可由任意发送者线程调用）：只入队，从不阻塞在对方的网络上
+     * 出站队列溢出且策略要求断开时，会话自行关闭
+     */
+    void send(Frame frame);
+
+    /**
+     * 登录注册为在线之前调用：此后 send 的帧暂存在出站队列中，不写出，直到 release
+     */
+    void hold();
+
+    /**
+     * 先发送 first（在线列表快照、最近群聊重放、续传补发等），再按原顺序发送 hold 之后暂存的帧，恢复正常发送
+     * @param skipLoggedUpTo 暂存的帧中已写入消息日志、序号不大于它的不再发送（已随续传补发），-1 表示全部发送
+     */
+    void release(List<Frame> first, long skipLoggedUpTo);
+
+    /**
+     * 关闭连接，尚未发出的消息直接丢弃
+     */
+    void close();
+
+    /**
+     * 发出已入队的消息后再关闭连接（用于登录失败提示等场景）
+     */
+    void closeAfterFlush();
+
+    /**
+     * 登录成功后的用户名，登录前为 null
+     */
+    String getUsername();
+
+    /**
+     * 登录成功时由 MessageRouter 设置，之后不再修改
+     */
+    void setUsername(String username);
+
+    /**
+     * 是否启用了某个握手协商的功能（见 MessageType.FEATURE_*）
+     */
+    boolean hasFeature(String feature);
+
+    /**
+     * 登录时设置协商结果（同时确定编码），之后不再修改
+     */
+    void setFeatures(Set<String> features);
+
+    /**
+     * 该会话双向使用的编码（握手前为 TextCodec）
+     */
+    Codec codec();
+
+    /**
+     * 登录时启用连接级压缩（协商了 deflate-v2，编码为 BinaryCodec），在发送 WELCOME 之前调用：
+     * 之后读到的数据都先解压；写出方向从 WELCOME 之后的第一帧开始压缩
+     */
+    void setCompression(DeflateStream stream);
+
+    /**
+     * 出站队列（用于统计队列深度）
+     */
+    OutboundQueue outboundQueue();
+
+    /**
+     * 最近一次收到该客户端数据的时间（System.nanoTime()），HeartbeatWheel 据此判断连接是否空闲
+     */
+    long lastReadNanos();
+}
@@ -0,0 +1,82 @@
+package lanchat;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.concurrent.Executor;
+
+/**
+ * 客户端会话任务：每个客户端对应一个任务，由 ChatServer 提交到平台线程或虚拟线程执行，
+ * 负责读取消息、交给 MessageRouter 转发、处理上下线
+ * 热路径上不使用 synchronized，避免虚拟线程阻塞时被钉在载体线程上
+ */
+public class ClientHandlerThread implements Runnable {
+
+    private Socket clientSocket; // 当前客户端的Socket
+    private MessageRouter router; // 消息路由（持有所有在线用户）
+    private ServerConfig config; // 启动参数（出站队列容量与溢出策略）
+    private Executor writers; // 执行出站队列排空任务的线程池
+    private String username; // 当前客户端的用户名（登录成功后才赋值）
+    private FrameReader in; // 按协商的编码读取客户端消息
+    private SocketSession session; // 向客户端发送消息的发送端（登录时创建一次，广播时复用）
+// 构造方法：初始化Socket、消息路由、写线程池
+
+    public ClientHandlerThread(Socket clientSocket, MessageRouter router, ServerConfig config, Executor writers) {
+        this.clientSocket = clientSocket;
+        this.router = router;
+        this.config = config;
+        this.writers = writers;
+    }
+
+    @Override
+    public void run() {
+        try {
+// 1. 初始化输入流（读客户端消息）和发送端（发消息给客户端）
+            in = new FrameReader(clientSocket.getInputStream(), TextCodec.INSTANCE);
+
+            config.configure(clientSocket); // TCP_NODELAY 与发送缓冲区大小
+            session = new SocketSession(clientSocket, config, writers);
+
+// 2. 读取客户端发送的用户名（客户端连接后首先发送「用户名」或「用户名|功能」）
+            Handshake handshake = Handshake.parse(in.readLine());
+// 3. 校验用户名并登录：加入在线用户集合，广播上线通知，同步用户列表
+            String error = router.login(handshake, session);
+            if (error != null) {
+                session.send(Frame.text(error)); // 提示发出后在 finally 中关闭连接
+                return;
+            }
+            username = handshake.getUsername();
+            in.setCodec(session.codec()); // 握手之后按协商的编码（文本或二进制）读取
+            if (session.compression() != null) {
+                in.setCompression(session.compression()); // 之后的数据先解压
+            }
+// 4. 循环读取客户端发送的消息，处理并转发
+            FrameView frame = new FrameView(); // 每条消息复用，指向读缓冲区中的字节
+            RateLimiter limiter = router.rateLimiter();
+            RateLimiter.Quota quota = limiter == null ? null : limiter.newQuota();
+            while (in.read(frame)) {
+                session.markRead(); // 空闲检测：任何消息都说明连接仍然有效
+                // 限速：超限时按 --rate-limit 等待（期间不读取，由 TCP 让客户端放慢）、丢弃或断开
+                if (limiter == null || limiter.admit(session, quota, frame.type())) {
+                    router.route(session, frame); // 解析并处理消息，聊天帧原样转发
+                }
+            }
+        } catch (Exception e) {
+// 客户端异常断开（如关闭窗口、网络中断）
+            Log.info("用户异常断开：{}", username);
+        } finally {
+            ServerMetrics.ACTIVE_CONNECTIONS.decrement();
+// 5. 客户端下线：移除在线用户，广播下线通知，同步用户列表，关闭资源
+            router.logout(username, session);
+// 发送端写完已入队的消息后关闭Socket（输入流随Socket一起关闭）
+            if (session != null) {
+                session.closeAfterFlush();
+            } else {
+                try {
+                    clientSocket.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+}
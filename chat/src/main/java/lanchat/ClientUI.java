@@ -0,0 +1,1231 @@
+package lanchat;
+
+import javax.swing.*;
+import javax.swing.border.EmptyBorder;
+import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Client UI class: implements the chat window (online user list, chat area, input area)
+ */
+public class ClientUI extends JFrame {
+    private static final long serialVersionUID = 1L;
+    private JList<String> userList;                    // Online user list
+    private DefaultListModel<String> userListModel;    // Data model for user list
+    private JLabel userListTitle;                      // Online user count title
+    private JList<String> chatList;                    // Chat message display area (only visible rows are painted)
+    private ChatLineModel chatLines;                   // Retained chat rows, oldest dropped beyond maxLines
+    private JScrollPane chatScroll;
+    private final int maxLines;                        // Number of chat rows kept for scrolling back
+    private final List<String> pendingLines = new ArrayList<>(); // Lines produced since the last refresh (EDT only)
+    private final Queue<Message> incoming = new ConcurrentLinkedQueue<>(); // Filled by the reader thread
+    private JTextField inputField;                     // Message input box
+    private JButton sendBtn;                           // Send button
+    private JButton historyBtn;                        // Loads recent history, or leaves the channel in Channel mode
+    private JComboBox<String> chatTypeCombo;           // Chat type (Group / Private / Channel)
+    private JComboBox<String> channelCombo;            // Channel to talk in (editable: type a new name to create it)
+    private final Set<String> joinedChannels = new HashSet<>(); // Channels the server confirmed we joined (EDT only)
+    private JButton fileBtn;                           // Offers a file to the selected user
+    private JPanel transferPanel;                      // One progress row per file transfer, above the input panel
+    private final Map<String, Path> offeredFiles = new HashMap<>(); // "receiver|size|name" -> file, until the server numbers the offer
+    private final Map<String, TransferRow> transfers = new HashMap<>(); // Transfer id -> progress row (EDT only)
+    private Socket socket;                             // Socket connection to server
+    private OutputStream out;                          // Output stream to send messages to server (null while reconnecting)
+    private String username;                           // Current client's username
+    private String serverIp;                           // Server address entered at login, reused to reconnect
+    private Codec codec = TextCodec.INSTANCE;          // Wire format for outgoing messages (binary once accepted)
+    private DeflateStream compression;                 // Per-connection compression once deflate-v2 is accepted, else null
+    private long presenceSeq = -1;                     // Sequence of the last applied presence update (-1 = no snapshot yet)
+    private int ignoredDeltas;                         // Deltas skipped while waiting for a resync snapshot
+    private boolean heartbeat;                         // Server accepted heartbeat-v1: silence means the connection is dead
+    private volatile long lastReceived;                // System.nanoTime() of the last message from the server (reader thread)
+    private long pingedFor = -1;                       // lastReceived value we already sent a PING for (EDT only)
+    private long resumeSeq = -1;                       // History sequence from the last [RESUME]; -1 until the server sends one
+    private boolean loggedIn;                          // The server accepted our name at least once; only then reconnect
+    private int reconnectAttempts;                     // Reconnects since the last successful login (EDT only)
+    private final Set<String> rejoinChannels = new HashSet<>(); // Channels to rejoin once logged in again (EDT only)
+    private volatile boolean closing;                  // Window closed: stop reconnecting
+    private static final Message DISCONNECTED = Message.text("Disconnected from server!"); // Queued by the reader, compared by identity
+    private static final int SERVER_PORT = 8888;
+    private static final long RECONNECT_BASE_MS = 1000; // Backoff ceiling of the first reconnect attempt
+    private static final long MAX_RECONNECT_MS = 30000; // Backoff ceiling never grows past this
+    private static final int HISTORY_PAGE = 50;        // Messages fetched per History click
+    public static final int DEFAULT_MAX_LINES = 5000;
+    private static final int REFRESH_MS = 40;          // The EDT takes incoming messages in batches at this interval
+    private static final int MAX_MESSAGES_PER_REFRESH = 5000; // Bounds one refresh so input stays responsive in a flood
+    private static final int CONTINUATION_INDENT = 16; // Left indent of wrapped rows (pixels)
+    private static final long PING_AFTER_NANOS = 10_000_000_000L;    // Ping the server after 10s without hearing from it
+    private static final long SERVER_TIMEOUT_NANOS = 30_000_000_000L; // Give up on it after 30s
+    private final SimpleDateFormat historyTime = new SimpleDateFormat("MM-dd HH:mm"); // Only used on the EDT
+
+    /**
+     * Constructor: initialize the UI
+     */
+    public ClientUI() {
+        this(DEFAULT_MAX_LINES);
+    }
+
+    /**
+     * @param maxLines chat rows kept for scrolling back (wrapped lines count separately)
+     */
+    public ClientUI(int maxLines) {
+        this.maxLines = maxLines;
+        initUI();                                      // Initialize UI components
+        new Timer(REFRESH_MS, e -> refresh()).start(); // Apply received messages in batches on the EDT
+        setDefaultCloseOperation(EXIT_ON_CLOSE);
+        setSize(800, 600);                             // Window size
+        setLocationRelativeTo(null);                   // Center the window
+        setTitle("LAN Chat Tool - Not Logged In");
+        setResizable(false);                           // Disable window resizing
+    }
+
+    /**
+     * Initialize UI components (layout, styling, event binding)
+     */
+    private void initUI() {
+        // 1. Main layout: BorderLayout
+        setLayout(new BorderLayout(10, 10));
+        ((JComponent) getContentPane()).setBorder(new EmptyBorder(10, 10, 10, 10));
+
+        // 2. Left panel: Online user list (takes 1/4 width)
+        JPanel leftPanel = new JPanel(new BorderLayout());
+        leftPanel.setPreferredSize(new Dimension(200, 0)); // Fixed width 200px
+
+        // 2.1 List title
+        userListTitle = new JLabel(" Online Users (0)");
+        userListTitle.setFont(new Font("Segoe UI", Font.BOLD, 14));
+        userListTitle.setOpaque(true);
+        userListTitle.setBackground(new Color(230, 230, 230));
+        leftPanel.add(userListTitle, BorderLayout.NORTH);
+
+        // 2.2 User list (non-editable, supports selecting private chat target)
+        userListModel = new DefaultListModel<>();
+        userList = new JList<>(userListModel);
+        userList.setFont(new Font("Segoe UI", Font.PLAIN, 13));
+        userList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION); // Single selection only
+        leftPanel.add(new JScrollPane(userList), BorderLayout.CENTER);
+        add(leftPanel, BorderLayout.WEST);
+
+        // 3. Right panel: Chat area + input area (takes 3/4 width)
+        JPanel rightPanel = new JPanel(new BorderLayout(10, 10));
+
+        // 3.1 Chat display area (read-only, with scrollbar). Lines are wrapped when added and every
+        //     row has the same height and width, so the list never measures rows it does not paint
+        chatLines = new ChatLineModel(maxLines);
+        chatList = new JList<>(chatLines);
+        chatList.setFont(new Font("Segoe UI", Font.PLAIN, 13));
+        chatList.setFixedCellHeight(chatList.getFontMetrics(chatList.getFont()).getHeight() + 2);
+        chatList.setCellRenderer(new ChatLineRenderer());
+        chatScroll = new JScrollPane(chatList, ScrollPaneConstants.VERTICAL_SCROLLBAR_ALWAYS,
+                ScrollPaneConstants.HORIZONTAL_SCROLLBAR_NEVER);
+        rightPanel.add(chatScroll, BorderLayout.CENTER);
+
+        // 3.2 Input panel (chat type + input box + send button)
+        JPanel inputPanel = new JPanel(new BorderLayout(10, 10));
+
+        // 3.2.1 Chat type selector (Group / Private / Channel) and channel selector
+        JPanel selectorPanel = new JPanel(new BorderLayout(5, 0));
+        String[] chatTypes = {"Group Chat", "Private Chat", "Channel"};
+        chatTypeCombo = new JComboBox<>(chatTypes);
+        chatTypeCombo.setFont(new Font("Segoe UI", Font.PLAIN, 13));
+        chatTypeCombo.setPreferredSize(new Dimension(120, 0));
+        selectorPanel.add(chatTypeCombo, BorderLayout.WEST);
+        channelCombo = new JComboBox<>();
+        channelCombo.setEditable(true);
+        channelCombo.setFont(new Font("Segoe UI", Font.PLAIN, 13));
+        channelCombo.setPreferredSize(new Dimension(110, 0));
+        channelCombo.setToolTipText("Pick a channel or type a new name; it is joined on the first message");
+        channelCombo.setEnabled(false);
+        selectorPanel.add(channelCombo, BorderLayout.EAST);
+        inputPanel.add(selectorPanel, BorderLayout.WEST);
+
+        // 3.2.2 Message input field
+        inputField = new JTextField();
+        inputField.setFont(new Font("Segoe UI", Font.PLAIN, 13));
+        inputField.setToolTipText("Type your message... (Press Enter to send)");
+        inputPanel.add(inputField, BorderLayout.CENTER);
+
+        // 3.2.3 Send and history buttons
+        JPanel buttonPanel = new JPanel(new GridLayout(1, 3, 5, 0));
+        sendBtn = new JButton("Send");
+        sendBtn.setFont(new Font("Segoe UI", Font.PLAIN, 13));
+        sendBtn.setPreferredSize(new Dimension(100, 0));
+        buttonPanel.add(sendBtn);
+        historyBtn = new JButton("History");
+        historyBtn.setFont(new Font("Segoe UI", Font.PLAIN, 13));
+        historyBtn.setToolTipText("Load the last " + HISTORY_PAGE + " messages of the group or the selected private chat");
+        buttonPanel.add(historyBtn);
+        fileBtn = new JButton("File...");
+        fileBtn.setFont(new Font("Segoe UI", Font.PLAIN, 13));
+        fileBtn.setToolTipText("Send a file to the user selected in the list");
+        buttonPanel.add(fileBtn);
+        inputPanel.add(buttonPanel, BorderLayout.EAST);
+
+        // 3.3 File transfers in progress (empty and invisible until the first one starts)
+        transferPanel = new JPanel(new GridLayout(0, 1, 0, 4));
+        JPanel southPanel = new JPanel(new BorderLayout(0, 5));
+        southPanel.add(transferPanel, BorderLayout.NORTH);
+        southPanel.add(inputPanel, BorderLayout.CENTER);
+        rightPanel.add(southPanel, BorderLayout.SOUTH);
+        add(rightPanel, BorderLayout.CENTER);
+
+        // 4. Bind send events (button click or Enter key)
+        sendBtn.addActionListener(new SendListener());
+        inputField.addActionListener(new SendListener());
+        historyBtn.addActionListener(e -> {
+            if (isChannelMode()) {
+                leaveChannel();
+            } else {
+                requestHistory();
+            }
+        });
+        chatTypeCombo.addActionListener(e -> onChatTypeChanged());
+        fileBtn.addActionListener(e -> offerFile());
+    }
+
+    private boolean isChannelMode() {
+        return "Channel".equals(chatTypeCombo.getSelectedItem());
+    }
+
+    /**
+     * Channel mode enables the channel selector, turns History into Leave (channels keep no history)
+     * and asks the server for the current channel list to fill the selector
+     */
+    private void onChatTypeChanged() {
+        boolean channel = isChannelMode();
+        channelCombo.setEnabled(channel);
+        historyBtn.setText(channel ? "Leave" : "History");
+        historyBtn.setToolTipText(channel ? "Leave the selected channel"
+                : "Load the last " + HISTORY_PAGE + " messages of the group or the selected private chat");
+        if (channel && out != null) {
+            send(Message.of(MessageType.CHANNEL_LIST_TYPE));
+        }
+    }
+
+    /**
+     * Channel name currently typed or selected in the channel selector, or null if empty
+     */
+    private String selectedChannel() {
+        Object item = channelCombo.getEditor().getItem();
+        String name = item == null ? "" : item.toString().trim();
+        return name.isEmpty() ? null : name;
+    }
+
+    /**
+     * Leave button: the server echoes [CHANNEL_LEAVE] back once we are out
+     */
+    private void leaveChannel() {
+        String channel = selectedChannel();
+        if (channel == null || !joinedChannels.contains(channel)) {
+            JOptionPane.showMessageDialog(this, "Please select a channel you have joined!", "Warning", JOptionPane.WARNING_MESSAGE);
+            return;
+        }
+        send(Message.of(MessageType.CHANNEL_LEAVE_TYPE, channel));
+    }
+
+    /**
+     * Add a channel name to the selector unless it is already there
+     */
+    private void addChannelChoice(String channel) {
+        DefaultComboBoxModel<String> model = (DefaultComboBoxModel<String>) channelCombo.getModel();
+        if (model.getIndexOf(channel) < 0) {
+            model.addElement(channel);
+        }
+    }
+
+    /**
+     * Connect to server: enter username and server IP, establish Socket connection
+     */
+    public boolean connectServer() {
+        // 1. Prompt for username
+        username = JOptionPane.showInputDialog(this, "Please enter your username:", "Login", JOptionPane.PLAIN_MESSAGE);
+        if (username == null || username.trim().isEmpty()) {
+            JOptionPane.showMessageDialog(this, "Username cannot be empty!", "Error", JOptionPane.ERROR_MESSAGE);
+            return false;
+        }
+        username = username.trim();
+
+        // 2. Prompt for server IP (pre-filled with local LAN IP)
+        Object serverIpObj = JOptionPane.showInputDialog(
+                this,
+                "Please enter server IP:",
+                "Connect to Server",
+                JOptionPane.PLAIN_MESSAGE,
+                null,
+                null,
+                getLocalIp()
+        );
+        if (serverIpObj == null) {
+            JOptionPane.showMessageDialog(this, "Connection cancelled.", "Info", JOptionPane.INFORMATION_MESSAGE);
+            return false;
+        }
+        serverIp = serverIpObj.toString().trim();
+        if (serverIp.isEmpty()) {
+            JOptionPane.showMessageDialog(this, "Server IP cannot be empty!", "Error", JOptionPane.ERROR_MESSAGE);
+            return false;
+        }
+
+        // 3. Establish Socket connection and send the handshake; later reconnects reuse the same name and IP
+        try {
+            adopt(Connection.open(serverIp, username, -1));
+            setTitle("LAN Chat Tool - " + username);
+            return true;
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(
+                    this,
+                    "Failed to connect to server: " + e.getMessage() + "\nPlease check IP and port.",
+                    "Error",
+                    JOptionPane.ERROR_MESSAGE
+            );
+            return false;
+        }
+    }
+
+    /**
+     * Switch to a freshly opened connection: reset the per-connection state, queue the server's
+     * first reply and start a reader thread bound to this connection's stream
+     */
+    private void adopt(Connection connection) {
+        socket = connection.socket;
+        out = connection.out;
+        codec = connection.codec;
+        compression = connection.compression;
+        heartbeat = connection.heartbeat;
+        pingedFor = -1;
+        presenceSeq = -1;
+        ignoredDeltas = 0;
+        lastReceived = System.nanoTime();
+        if (connection.first != null) {
+            incoming.add(connection.first);
+        }
+        new Thread(this.new ServerMessageReader(connection.in)).start();
+    }
+
+    /**
+     * The reader hit the end of the stream (EDT): drop the connection state, cancel transfers the
+     * server will abandon anyway, remember our channels and start reconnecting in the background.
+     * A connection whose first login was refused is not retried.
+     */
+    private void onDisconnected() {
+        if (closing) {
+            return;
+        }
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+            // Already closed
+        }
+        out = null;
+        heartbeat = false;
+        if (!loggedIn) {
+            appendLine("System: " + DISCONNECTED); // The login itself failed: the reason was shown above
+            return;
+        }
+        for (TransferRow row : new ArrayList<>(transfers.values())) {
+            removeTransferRow(row);
+            appendLine("System: file transfer of " + row.file.getFileName() + " stopped by the disconnect.");
+        }
+        offeredFiles.clear();
+        rejoinChannels.addAll(joinedChannels);
+        joinedChannels.clear();
+        if (reconnectAttempts == 0) {
+            appendLine("System: disconnected from server, reconnecting...");
+        }
+        setTitle("LAN Chat Tool - " + username + " (reconnecting...)");
+        scheduleReconnect();
+    }
+
+    /**
+     * Reconnect on a background thread with full-jitter exponential backoff: before attempt n wait a
+     * random time between 0 and min(MAX_RECONNECT_MS, RECONNECT_BASE_MS * 2^n), so hundreds of clients
+     * dropped by one server restart spread their reconnects out instead of arriving together.
+     * The counter only resets once a login succeeds (see onLoggedIn), so a server that accepts the
+     * connection and then refuses the login keeps backing off too.
+     */
+    private void scheduleReconnect() {
+        String host = serverIp;
+        String name = username;
+        long seq = resumeSeq;
+        int firstAttempt = reconnectAttempts;
+        Thread t = new Thread(() -> {
+            for (int attempt = firstAttempt; !closing; attempt++) {
+                long ceiling = Math.min(MAX_RECONNECT_MS, RECONNECT_BASE_MS << Math.min(attempt, 16));
+                try {
+                    Thread.sleep(ThreadLocalRandom.current().nextLong(ceiling + 1));
+                } catch (InterruptedException e) {
+                    return;
+                }
+                try {
+                    Connection connection = Connection.open(host, name, seq);
+                    int next = attempt + 1;
+                    SwingUtilities.invokeLater(() -> {
+                        reconnectAttempts = next;
+                        if (closing) {
+                            connection.close();
+                        } else {
+                            adopt(connection);
+                        }
+                    });
+                    return;
+                } catch (IOException e) {
+                    // Server still down: wait longer and try again
+                }
+            }
+        }, "reconnect");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * The server accepted our login (first presence update, user list or resume mark): stop counting
+     * reconnect attempts and rejoin the channels we were in before the disconnect
+     */
+    private void onLoggedIn() {
+        loggedIn = true;
+        if (reconnectAttempts == 0) {
+            return;
+        }
+        reconnectAttempts = 0;
+        setTitle("LAN Chat Tool - " + username);
+        for (String channel : rejoinChannels) {
+            send(Message.of(MessageType.CHANNEL_JOIN_TYPE, channel));
+        }
+        rejoinChannels.clear();
+    }
+
+    /**
+     * Send one message to the server in the negotiated format (only called on the EDT)
+     */
+    private void send(Message message) {
+        if (out == null) {
+            appendLine("System: not connected, the message was not sent (reconnecting...)");
+            return;
+        }
+        try {
+            byte[] frame = codec.encode(message);
+            out.write(compression == null ? frame : compression.compress(frame, 0, frame.length));
+            out.flush();
+        } catch (IOException e) {
+            appendLine("Failed to send message: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Process messages received from server
+     */
+    private void processServerMessage(Message message) {
+        if (message == DISCONNECTED) {
+            onDisconnected();
+            return;
+        }
+        switch (message.type()) {
+            case MessageType.WELCOME_TYPE:
+                return; // Handshake accepted; nothing to display
+            case MessageType.RESUME_TYPE:
+                processResume(message);
+                return;
+            case MessageType.PING_TYPE:
+                if (message.fieldCount() == 1) {
+                    send(Message.of(MessageType.PONG_TYPE, message.field(0)));
+                }
+                return;
+            case MessageType.PONG_TYPE:
+                return; // Receiving it already proved the server is alive
+            case MessageType.PRESENCE_TYPE:
+                onLoggedIn();
+                processPresence(message);
+                break;
+            case MessageType.LIST:
+                onLoggedIn();
+                if (message.fieldCount() == 1) {
+                    userListModel.clear();
+                    for (String user : message.field(0).split(",")) {
+                        if (!user.isEmpty()) {
+                            userListModel.addElement(user);
+                        }
+                    }
+                    updateUserCount();
+                }
+                break;
+            case MessageType.ONLINE:
+                if (message.fieldCount() == 1) {
+                    appendLine("System: " + message.field(0) + " is online!");
+                }
+                break;
+            case MessageType.OFFLINE:
+                if (message.fieldCount() == 1) {
+                    appendLine("System: " + message.field(0) + " went offline.");
+                }
+                break;
+            case MessageType.GROUP:
+                if (message.fieldCount() == 2) {
+                    String sender = message.field(0);
+                    if (sender.equals(username)) {
+                        appendLine("[" + sender + " (Me-Group)]: " + message.field(1));
+                    } else {
+                        appendLine("[" + sender + " (Group)]: " + message.field(1));
+                    }
+                }
+                break;
+            case MessageType.HISTORY_GROUP_TYPE:
+            case MessageType.HISTORY_PRIVATE_TYPE:
+                processHistory(message);
+                break;
+            case MessageType.HISTORY_END_TYPE:
+                if (message.fieldCount() == 2) {
+                    String scope = message.field(0).isEmpty() ? "group chat" : "chat with " + message.field(0);
+                    appendLine("System: ---- end of history (" + message.field(1) + " messages, " + scope + ") ----");
+                }
+                break;
+            case MessageType.CHANNEL:
+                if (message.fieldCount() == 3) {
+                    String sender = message.field(1);
+                    String me = sender.equals(username) ? "Me-" : "";
+                    appendLine("[" + sender + " (" + me + "#" + message.field(0) + ")]: " + message.field(2));
+                }
+                break;
+            case MessageType.CHANNEL_JOIN_TYPE:
+                if (message.fieldCount() == 1) {
+                    joinedChannels.add(message.field(0));
+                    addChannelChoice(message.field(0));
+                    appendLine("System: joined channel #" + message.field(0));
+                }
+                break;
+            case MessageType.CHANNEL_LEAVE_TYPE:
+                if (message.fieldCount() == 1) {
+                    joinedChannels.remove(message.field(0));
+                    appendLine("System: left channel #" + message.field(0));
+                }
+                break;
+            case MessageType.CHANNEL_LIST_TYPE:
+                // [CHANNEL_LIST]|name1:count1,name2:count2
+                if (message.fieldCount() == 1) {
+                    StringBuilder channels = new StringBuilder();
+                    for (String entry : message.field(0).split(",")) {
+                        int colon = entry.lastIndexOf(':');
+                        if (colon > 0) {
+                            addChannelChoice(entry.substring(0, colon));
+                            channels.append(channels.length() > 0 ? ", " : "")
+                                    .append('#').append(entry, 0, colon).append(" (").append(entry.substring(colon + 1)).append(')');
+                        }
+                    }
+                    appendLine("System: channels: " + (channels.length() > 0 ? channels : "none yet, type a name to create one"));
+                }
+                break;
+            case MessageType.PRIVATE:
+                if (message.fieldCount() == 3) {
+                    String sender = message.field(0);
+                    String receiver = message.field(1);
+                    String content = message.field(2);
+                    if (sender.equals(username)) {
+                        appendLine("[" + username + " (Private to " + receiver + ")]: " + content);
+                    } else {
+                        appendLine("[" + sender + " (Private to me)]: " + content);
+                    }
+                }
+                break;
+            case MessageType.FILE_OFFER_TYPE:
+            case MessageType.FILE_ACCEPT_TYPE:
+            case MessageType.FILE_CANCEL_TYPE:
+            case MessageType.FILE_DONE_TYPE:
+                processTransfer(message);
+                break;
+            default:
+                appendLine("System: " + message);
+                break;
+        }
+    }
+
+    /**
+     * File button: offer a file to the selected user. The server numbers the offer and echoes it
+     * back; the data only flows once the receiver accepts (see processTransfer)
+     */
+    private void offerFile() {
+        String receiver = userList.getSelectedValue();
+        if (receiver == null || receiver.equals(username)) {
+            JOptionPane.showMessageDialog(this, "Please select a user to send the file to!", "Warning", JOptionPane.WARNING_MESSAGE);
+            return;
+        }
+        JFileChooser chooser = new JFileChooser();
+        if (out == null || chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        Path file = chooser.getSelectedFile().toPath();
+        long size;
+        try {
+            size = Files.size(file);
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(this, "Cannot read file: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        String name = file.getFileName().toString().trim();
+        offeredFiles.put(receiver + "|" + size + "|" + name, file);
+        send(Message.of(MessageType.FILE_OFFER_TYPE, "", username, receiver, String.valueOf(size), name));
+    }
+
+    /**
+     * File transfer messages:
+     * [FILE_OFFER]|id|sender|receiver|size|name    our own offer echoed with its id, or someone offering us a file
+     * [FILE_ACCEPT]|id|port                        the receiver accepted: both sides connect to the transfer port
+     * [FILE_CANCEL]|id|reason                      declined, cancelled or failed on either side
+     * [FILE_DONE]|id                               the server delivered every byte to the receiver
+     */
+    private void processTransfer(Message message) {
+        if (message.fieldCount() < 1) {
+            return;
+        }
+        String id = message.field(0);
+        TransferRow row = transfers.get(id);
+        switch (message.type()) {
+            case MessageType.FILE_OFFER_TYPE:
+                if (message.fieldCount() != 5) {
+                    return;
+                }
+                String sender = message.field(1);
+                String receiver = message.field(2);
+                String name = message.field(4);
+                long size;
+                try {
+                    size = Long.parseLong(message.field(3));
+                } catch (NumberFormatException e) {
+                    return;
+                }
+                if (sender.equals(username)) {
+                    Path file = offeredFiles.remove(receiver + "|" + size + "|" + name);
+                    if (file != null) {
+                        addTransferRow(new TransferRow(id, file, size, true, "To " + receiver + ": " + name));
+                        appendLine("System: offered " + name + " (" + formatBytes(size) + ") to " + receiver + ", waiting for them to accept");
+                    }
+                } else if (receiver.equals(username)) {
+                    // Asked after this refresh: a modal dialog inside refresh() would let the timer re-enter it
+                    SwingUtilities.invokeLater(() -> askToReceive(id, sender, name, size));
+                }
+                break;
+            case MessageType.FILE_ACCEPT_TYPE:
+                if (row != null && row.task == null && message.fieldCount() == 2) {
+                    startTransfer(row, message.field(1));
+                }
+                break;
+            case MessageType.FILE_CANCEL_TYPE:
+                if (row != null) {
+                    String reason = message.fieldCount() > 1 ? message.field(1) : "";
+                    removeTransferRow(row);
+                    appendLine("System: file transfer of " + row.file.getFileName() + " stopped" + (reason.isEmpty() ? "" : ": " + reason));
+                }
+                break;
+            case MessageType.FILE_DONE_TYPE:
+                if (row != null && row.upload) { // The download side finishes when its own task has renamed the file
+                    removeTransferRow(row);
+                    appendLine("System: " + row.file.getFileName() + " was delivered");
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Someone offered us a file: accept and pick where to save it, or decline
+     */
+    private void askToReceive(String id, String sender, String name, long size) {
+        int answer = JOptionPane.showConfirmDialog(this,
+                sender + " wants to send you " + name + " (" + formatBytes(size) + "). Accept?",
+                "Incoming File", JOptionPane.YES_NO_OPTION);
+        Path target = null;
+        if (answer == JOptionPane.YES_OPTION) {
+            JFileChooser chooser = new JFileChooser();
+            chooser.setSelectedFile(new File(name));
+            if (chooser.showSaveDialog(this) == JFileChooser.APPROVE_OPTION) {
+                target = chooser.getSelectedFile().toPath();
+            }
+        }
+        if (target == null) {
+            send(Message.of(MessageType.FILE_CANCEL_TYPE, id, username + " declined " + name));
+            return;
+        }
+        addTransferRow(new TransferRow(id, target, size, false, "From " + sender + ": " + name));
+        send(Message.of(MessageType.FILE_ACCEPT_TYPE, id, ""));
+    }
+
+    /**
+     * Connect to the transfer port on the chat server's address; progress comes back on the EDT
+     */
+    private void startTransfer(TransferRow row, String portText) {
+        int port;
+        try {
+            port = Integer.parseInt(portText);
+        } catch (NumberFormatException e) {
+            return;
+        }
+        if (row.upload && row.size == 0) {
+            row.status.setText("Sent, waiting for the receiver"); // Nothing to upload; the receiver's request completes it
+            return;
+        }
+        String host = socket.getInetAddress().getHostAddress();
+        FileTransfer.Listener listener = new FileTransfer.Listener() {
+            @Override
+            public void progress(FileTransfer transfer, long done) {
+                SwingUtilities.invokeLater(() -> row.setProgress(done));
+            }
+
+            @Override
+            public void finished(FileTransfer transfer, String error) {
+                SwingUtilities.invokeLater(() -> onTransferFinished(row, error));
+            }
+        };
+        row.task = row.upload
+                ? FileTransfer.upload(host, port, row.id, row.file, row.size, listener).start()
+                : FileTransfer.download(host, port, row.id, row.file, row.size, listener).start();
+        row.status.setText(row.upload ? "Sending" : "Receiving");
+    }
+
+    private void onTransferFinished(TransferRow row, String error) {
+        if (transfers.get(row.id) != row) {
+            return; // Already cancelled
+        }
+        if (error != null) {
+            removeTransferRow(row);
+            send(Message.of(MessageType.FILE_CANCEL_TYPE, row.id, "transfer failed: " + error));
+            appendLine("System: file transfer of " + row.file.getFileName() + " failed: " + error);
+        } else if (row.upload) {
+            row.status.setText("Sent, waiting for the receiver"); // Removed on [FILE_DONE]
+        } else {
+            removeTransferRow(row);
+            appendLine("System: received " + row.file.getFileName() + ", saved to " + row.file);
+        }
+    }
+
+    private void addTransferRow(TransferRow row) {
+        transfers.put(row.id, row);
+        transferPanel.add(row.panel);
+        transferPanel.revalidate();
+    }
+
+    private void removeTransferRow(TransferRow row) {
+        transfers.remove(row.id);
+        if (row.task != null) {
+            row.task.cancel();
+        }
+        transferPanel.remove(row.panel);
+        transferPanel.revalidate();
+        transferPanel.repaint();
+    }
+
+    private static String formatBytes(long bytes) {
+        if (bytes < 1024) {
+            return bytes + " B";
+        }
+        if (bytes < 1024 * 1024) {
+            return String.format("%.1f KB", bytes / 1024.0);
+        }
+        return String.format("%.1f MB", bytes / (1024.0 * 1024));
+    }
+
+    /**
+     * One file transfer in the transfer panel: name, status, progress bar and a Cancel button
+     */
+    private class TransferRow {
+        final String id;
+        final Path file;                               // File being sent, or where the received file is saved
+        final long size;
+        final boolean upload;
+        final JPanel panel = new JPanel(new BorderLayout(5, 0));
+        final JLabel status = new JLabel("Waiting");
+        final JProgressBar bar = new JProgressBar(0, 1000);
+        FileTransfer task;                             // Started on [FILE_ACCEPT]
+
+        TransferRow(String id, Path file, long size, boolean upload, String title) {
+            this.id = id;
+            this.file = file;
+            this.size = size;
+            this.upload = upload;
+            JLabel label = new JLabel(title);
+            label.setFont(new Font("Segoe UI", Font.PLAIN, 12));
+            label.setPreferredSize(new Dimension(200, 0));
+            status.setFont(new Font("Segoe UI", Font.PLAIN, 12));
+            bar.setStringPainted(true);
+            bar.setString(formatBytes(size));
+            JButton cancel = new JButton("Cancel");
+            cancel.setFont(new Font("Segoe UI", Font.PLAIN, 12));
+            cancel.addActionListener(e -> {
+                if (transfers.get(id) == this) {
+                    removeTransferRow(this);
+                    send(Message.of(MessageType.FILE_CANCEL_TYPE, id, username + " cancelled " + file.getFileName()));
+                    appendLine("System: cancelled the transfer of " + file.getFileName());
+                }
+            });
+            JPanel east = new JPanel(new BorderLayout(5, 0));
+            east.add(status, BorderLayout.CENTER);
+            east.add(cancel, BorderLayout.EAST);
+            panel.add(label, BorderLayout.WEST);
+            panel.add(bar, BorderLayout.CENTER);
+            panel.add(east, BorderLayout.EAST);
+        }
+
+        void setProgress(long done) {
+            bar.setValue(size == 0 ? 1000 : (int) (done * 1000 / size));
+            bar.setString(formatBytes(done) + " / " + formatBytes(size));
+        }
+    }
+
+    /**
+     * [RESUME]|seq|replayed: remember the history sequence we are caught up to, sent with the next
+     * reconnect. After a resumed login the missed messages came just before it as history lines.
+     */
+    private void processResume(Message message) {
+        if (message.fieldCount() != 2) {
+            return;
+        }
+        try {
+            resumeSeq = Long.parseLong(message.field(0));
+        } catch (NumberFormatException e) {
+            return;
+        }
+        boolean reconnected = reconnectAttempts > 0;
+        onLoggedIn();
+        if (!message.field(1).isEmpty()) {
+            appendLine("System: reconnected, " + message.field(1) + " missed messages shown above.");
+        } else if (reconnected) {
+            appendLine("System: reconnected.");
+        }
+    }
+
+    /**
+     * Display one stored message: [HISTORY_GROUP]|seq|time|sender|content or
+     * [HISTORY_PRIVATE]|seq|time|sender|receiver|content, prefixed with the time it was sent
+     */
+    private void processHistory(Message message) {
+        boolean group = message.type() == MessageType.HISTORY_GROUP_TYPE;
+        if (message.fieldCount() != (group ? 4 : 5)) {
+            return;
+        }
+        String time;
+        try {
+            time = historyTime.format(new Date(Long.parseLong(message.field(1))));
+        } catch (NumberFormatException e) {
+            time = "?";
+        }
+        String sender = message.field(2);
+        String me = sender.equals(username) ? "Me-" : "";
+        if (group) {
+            appendLine("(" + time + ") [" + sender + " (" + me + "Group)]: " + message.field(3));
+        } else {
+            appendLine("(" + time + ") [" + sender + " (Private to " + message.field(3) + ")]: " + message.field(4));
+        }
+    }
+
+    /**
+     * History button: ask for the last messages of the group, or of the private chat
+     * with the selected user when the chat type is Private Chat
+     */
+    private void requestHistory() {
+        String peer = "";
+        if ("Private Chat".equals(chatTypeCombo.getSelectedItem())) {
+            peer = userList.getSelectedValue();
+            if (peer == null) {
+                JOptionPane.showMessageDialog(this, "Please select a user to load your private chat history!", "Warning", JOptionPane.WARNING_MESSAGE);
+                return;
+            }
+        }
+        send(Message.of(MessageType.HISTORY_REQ_TYPE, peer, MessageType.HISTORY_LAST, String.valueOf(HISTORY_PAGE)));
+    }
+
+    /**
+     * Apply a presence update: a snapshot replaces the list, a delta adds/removes users in place.
+     * A delta whose sequence does not directly follow the last one means updates were lost,
+     * so the client asks the server for a fresh snapshot and ignores deltas until it arrives.
+     */
+    private void processPresence(Message message) {
+        // [PRESENCE]|seq|snapshot|user1,user2  or  [PRESENCE]|seq|delta|+user1,-user2
+        if (message.fieldCount() < 2) {
+            return;
+        }
+        long seq;
+        try {
+            seq = Long.parseLong(message.field(0));
+        } catch (NumberFormatException e) {
+            return;
+        }
+        String kind = message.field(1);
+        String body = message.fieldCount() == 3 ? message.field(2) : "";
+
+        if (MessageType.PRESENCE_SNAPSHOT.equals(kind)) {
+            userListModel.clear();
+            for (String user : body.split(",")) {
+                if (!user.isEmpty()) {
+                    userListModel.addElement(user);
+                }
+            }
+            presenceSeq = seq;
+            ignoredDeltas = 0;
+            updateUserCount();
+            return;
+        }
+        if (!MessageType.PRESENCE_DELTA.equals(kind) || (presenceSeq >= 0 && seq <= presenceSeq)) {
+            return; // Unknown kind or already covered by the current snapshot
+        }
+        if (presenceSeq < 0 || seq != presenceSeq + 1) {
+            // Gap detected: request a snapshot once, and again every 16 skipped deltas in case it was lost
+            if (ignoredDeltas++ % 16 == 0) {
+                send(Message.of(MessageType.PRESENCE_SYNC_TYPE));
+            }
+            presenceSeq = -1;
+            return;
+        }
+        for (String change : body.split(",")) {
+            if (change.length() < 2) {
+                continue;
+            }
+            String user = change.substring(1);
+            if (change.charAt(0) == '+') {
+                if (!userListModel.contains(user)) {
+                    userListModel.addElement(user);
+                }
+                appendLine("System: " + user + " is online!");
+            } else {
+                userListModel.removeElement(user);
+                appendLine("System: " + user + " went offline.");
+            }
+        }
+        presenceSeq = seq;
+        updateUserCount();
+    }
+
+    /**
+     * Queue a line for the chat area; it is wrapped and shown on the next refresh (EDT only)
+     */
+    private void appendLine(String line) {
+        pendingLines.add(line);
+    }
+
+    /**
+     * Timer tick on the EDT: process the messages received since the last tick, then add all
+     * new lines to the chat list with a single model update, scrolling only if the user was
+     * already at the bottom
+     */
+    private void refresh() {
+        checkHeartbeat();
+        Message message;
+        for (int n = 0; n < MAX_MESSAGES_PER_REFRESH && (message = incoming.poll()) != null; n++) {
+            processServerMessage(message);
+        }
+        if (pendingLines.isEmpty()) {
+            return;
+        }
+        JScrollBar bar = chatScroll.getVerticalScrollBar();
+        boolean atBottom = bar.getValue() + bar.getVisibleAmount() >= bar.getMaximum() - chatList.getFixedCellHeight();
+        int width = chatScroll.getViewport().getExtentSize().width;
+        if (width > 0 && width != chatList.getFixedCellWidth()) {
+            chatList.setFixedCellWidth(width);
+        }
+        FontMetrics metrics = chatList.getFontMetrics(chatList.getFont());
+        int textWidth = (width > 0 ? width : 540) - 8;
+        for (String line : pendingLines) {
+            byte style = line.startsWith("System:") || line.startsWith("Failed")
+                    ? ChatLineModel.SYSTEM : ChatLineModel.PLAIN;
+            addWrapped(line, style, metrics, textWidth);
+        }
+        pendingLines.clear();
+        chatLines.commit();
+        if (atBottom) {
+            chatList.ensureIndexIsVisible(chatLines.getSize() - 1);
+        }
+    }
+
+    /**
+     * Detect a dead server connection without waiting for TCP: after PING_AFTER_NANOS of silence send
+     * a [PING] (the server answers at once), after SERVER_TIMEOUT_NANOS close the socket so the
+     * reader thread reports the disconnect. Servers without heartbeat-v1 are never pinged.
+     */
+    private void checkHeartbeat() {
+        if (!heartbeat || socket == null || socket.isClosed()) {
+            return;
+        }
+        long last = lastReceived;
+        long idle = System.nanoTime() - last;
+        if (idle >= SERVER_TIMEOUT_NANOS) {
+            appendLine("System: no response from the server for " + SERVER_TIMEOUT_NANOS / 1_000_000_000L + " seconds.");
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // Closing anyway
+            }
+        } else if (idle >= PING_AFTER_NANOS && pingedFor != last) {
+            pingedFor = last;
+            send(Message.of(MessageType.PING_TYPE, String.valueOf(System.currentTimeMillis())));
+        }
+    }
+
+    /**
+     * Split a line into rows that fit the list width, breaking after a space when there is one
+     */
+    private void addWrapped(String line, byte style, FontMetrics metrics, int width) {
+        int start = 0;
+        byte rowStyle = style;
+        do {
+            int available = rowStyle == style ? width : width - CONTINUATION_INDENT;
+            int end = start;
+            int used = 0;
+            int lastSpace = -1;
+            while (end < line.length()) {
+                int w = metrics.charWidth(line.charAt(end));
+                if (used + w > available && end > start) {
+                    break;
+                }
+                if (line.charAt(end) == ' ') {
+                    lastSpace = end;
+                }
+                used += w;
+                end++;
+            }
+            if (end < line.length() && lastSpace > start) {
+                end = lastSpace + 1;
+            }
+            chatLines.add(line.substring(start, end), rowStyle);
+            start = end;
+            rowStyle = (byte) (style | ChatLineModel.CONTINUATION);
+        } while (start < line.length());
+    }
+
+    /**
+     * Update online count in the user list title
+     */
+    private void updateUserCount() {
+        userListTitle.setText(" Online Users (" + userListModel.getSize() + ")");
+    }
+
+    /**
+     * Send button / Enter key listener
+     */
+    private class SendListener implements ActionListener {
+        @Override
+        public void actionPerformed(ActionEvent e) {
+            String content = inputField.getText().trim();
+            if (content.isEmpty()) {
+                JOptionPane.showMessageDialog(ClientUI.this, "Message cannot be empty!", "Warning", JOptionPane.WARNING_MESSAGE);
+                return;
+            }
+
+            String chatType = (String) chatTypeCombo.getSelectedItem();
+            if ("Group Chat".equals(chatType)) {
+                send(Message.of(MessageType.GROUP, username, content));
+            } else if ("Private Chat".equals(chatType)) {
+                String receiver = userList.getSelectedValue();
+                if (receiver == null) {
+                    JOptionPane.showMessageDialog(ClientUI.this, "Please select a recipient!", "Warning", JOptionPane.WARNING_MESSAGE);
+                    return;
+                }
+                send(Message.of(MessageType.PRIVATE, username, receiver, content));
+
+                // Immediately display sent private message
+                appendLine("[" + username + " (Private to " + receiver + ")]: " + content);
+            } else if ("Channel".equals(chatType)) {
+                String channel = selectedChannel();
+                if (channel == null) {
+                    JOptionPane.showMessageDialog(ClientUI.this, "Please select or type a channel!", "Warning", JOptionPane.WARNING_MESSAGE);
+                    return;
+                }
+                if (!joinedChannels.contains(channel)) {
+                    // Join first; the server handles our messages in order, so the join lands before the text
+                    send(Message.of(MessageType.CHANNEL_JOIN_TYPE, channel));
+                }
+                send(Message.of(MessageType.CHANNEL, channel, username, content));
+            }
+            inputField.setText("");
+        }
+    }
+
+    /**
+     * Get local LAN IP (used as default in server IP input box)
+     */
+    private String getLocalIp() {
+        try {
+            Enumeration<NetworkInterface> en = NetworkInterface.getNetworkInterfaces();
+            while (en.hasMoreElements()) {
+                NetworkInterface ni = en.nextElement();
+                Enumeration<InetAddress> ipEnum = ni.getInetAddresses();
+                while (ipEnum.hasMoreElements()) {
+                    InetAddress ip = ipEnum.nextElement();
+                    if (!ip.isLoopbackAddress() && ip instanceof Inet4Address) {
+                        return ip.getHostAddress();
+                    }
+                }
+            }
+        } catch (SocketException e) {
+            e.printStackTrace();
+        }
+        return "127.0.0.1";
+    }
+
+    /**
+     * Clean up resources when window is closed
+     */
+    @Override
+    public void dispose() {
+        closing = true;
+        try {
+            if (out != null) out.close();
+            if (socket != null && !socket.isClosed()) socket.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        super.dispose();
+    }
+
+    /**
+     * Chat row renderer: system lines in gray, wrapped rows indented
+     */
+    private class ChatLineRenderer extends DefaultListCellRenderer {
+        private static final long serialVersionUID = 1L;
+        private final Color systemColor = new Color(110, 110, 110);
+        private final EmptyBorder firstRow = new EmptyBorder(0, 4, 0, 4);
+        private final EmptyBorder wrappedRow = new EmptyBorder(0, 4 + CONTINUATION_INDENT, 0, 4);
+
+        @Override
+        public Component getListCellRendererComponent(JList<?> list, Object value, int index,
+                                                      boolean isSelected, boolean cellHasFocus) {
+            super.getListCellRendererComponent(list, value, index, isSelected, false);
+            byte style = chatLines.styleAt(index);
+            if (!isSelected && (style & ChatLineModel.SYSTEM) != 0) {
+                setForeground(systemColor);
+            }
+            setBorder((style & ChatLineModel.CONTINUATION) != 0 ? wrappedRow : firstRow);
+            return this;
+        }
+    }
+
+    /**
+     * Thread to continuously read messages from one connection; a new one is started per reconnect
+     */
+    private class ServerMessageReader implements Runnable {
+        private final FrameReader in;
+
+        ServerMessageReader(FrameReader in) {
+            this.in = in;
+        }
+
+        @Override
+        public void run() {
+            Message message;
+            try {
+                while ((message = in.read()) != null) {
+                    lastReceived = System.nanoTime();
+                    incoming.add(message); // Picked up by the next refresh instead of one EDT event per message
+                }
+            } catch (IOException e) {
+                // Same as the end of the stream
+            }
+            incoming.add(DISCONNECTED); // Handled after everything read before it
+        }
+    }
+
+    /**
+     * One connection to the server after the handshake: the server's first reply has been read and,
+     * if it was a WELCOME, both directions already use the negotiated format
+     */
+    private static final class Connection {
+        final Socket socket;
+        final OutputStream out;
+        final FrameReader in;
+        Codec codec = TextCodec.INSTANCE;
+        DeflateStream compression;
+        boolean heartbeat;
+        Message first;                                 // Null if an old server sent nothing within the timeout
+
+        private Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            this.out = new BufferedOutputStream(socket.getOutputStream());
+            this.in = new FrameReader(socket.getInputStream(), TextCodec.INSTANCE);
+        }
+
+        /**
+         * Connect and log in as username, asking for incremental presence updates, the binary format
+         * (compressed if the server allows it), heartbeats and resume. resumeSeq >= 0 asks the server
+         * to replay what we missed after that history sequence; resume-v1 goes last so that servers
+         * which do not know the third handshake field only misread that one feature.
+         */
+        static Connection open(String host, String username, long resumeSeq) throws IOException {
+            Socket socket = new Socket(host, SERVER_PORT);
+            try {
+                Connection connection = new Connection(socket);
+                connection.out.write((username + "|" + MessageType.FEATURE_PRESENCE + "," + MessageType.FEATURE_BINARY
+                        + "," + MessageType.FEATURE_DEFLATE + "," + MessageType.FEATURE_HEARTBEAT
+                        + "," + MessageType.FEATURE_RESUME + (resumeSeq >= 0 ? "|" + resumeSeq : "") + "\n")
+                        .getBytes(StandardCharsets.UTF_8));
+                connection.out.flush();
+                connection.first = connection.readFirstMessage();
+                return connection;
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+        }
+
+        /**
+         * Read the server's first reply as a text line. If it is a WELCOME accepting the binary (or
+         * compressed) format, both directions switch codecs before anything else is read or sent.
+         * Servers that do not know the handshake features never send WELCOME, so we wait at most 5s.
+         */
+        private Message readFirstMessage() throws IOException {
+            int timeout = socket.getSoTimeout();
+            socket.setSoTimeout(5000);
+            try {
+                Message message = in.read();
+                if (message != null && message.type() == MessageType.WELCOME_TYPE && message.fieldCount() == 1) {
+                    // "features" or, with deflate-v2, "features|names for the compression dictionary"
+                    String[] welcome = message.field(0).split("\\|", 2);
+                    Set<String> accepted = new HashSet<>(Arrays.asList(welcome[0].split(",")));
+                    codec = Codec.forFeatures(accepted);
+                    in.setCodec(codec);
+                    if (accepted.contains(MessageType.FEATURE_DEFLATE) && welcome.length == 2) {
+                        // Both sides build the same preset dictionary from the names listed in WELCOME
+                        List<String> names = Arrays.asList(welcome[1].split(","));
+                        compression = new DeflateStream(DeflateStream.dictionary(names));
+                        in.setCompression(compression);
+                    }
+                    heartbeat = accepted.contains(MessageType.FEATURE_HEARTBEAT);
+                }
+                return message;
+            } catch (SocketTimeoutException e) {
+                return null;
+            } finally {
+                socket.setSoTimeout(timeout);
+            }
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // Closing anyway
+            }
+        }
+    }
+}
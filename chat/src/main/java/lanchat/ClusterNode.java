@@ -0,0 +1,541 @@
+package lanchat;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 集群节点：多个 ChatServer 经 TCP 互连，共享在线用户列表并跨节点转发消息
+ * 每个节点主动连接 --peers 中的全部节点（全互联），每条连接只朝一个方向发送：
+ * 连接方先发 [PEER_HELLO] 并读取对方回复的节点名，再写出本地用户快照，之后持续写出在线状态增量与转发的消息；
+ * 被连接方的读取线程把在线状态记入注册表（用户列表因此包含全集群的用户），把消息交给路由器投递给本地用户
+ * 节点之间一律使用 BinaryCodec 帧；群聊与频道消息每个节点只发一份，私聊只发给接收者所在的节点
+ * 每条出站链路由一个写线程批量写出：取出队列中已有的全部帧，写入 64KB 缓冲区后一次 flush，
+ * 负载高时一次系统调用携带多条消息，负载低时单条消息立即写出，不额外等待
+ * 在线状态直接推送给所有节点（全互联下相当于一轮 gossip）；链路断开时对方节点的用户视为下线，重连后以快照重新同步
+ * 集群端口只接受集群成员：设置了 --cluster-secret 时核对握手中的密钥，否则只接受来自 --peers 中主机的连接
+ */
+public final class ClusterNode {
+
+    static final LongAdder FORWARDED = new LongAdder(); // 发往其他节点的帧数
+    static final LongAdder BATCHES = new LongAdder();   // 链路写出的批次数，FORWARDED / BATCHES 为平均每批帧数
+    static final LongAdder RECEIVED = new LongAdder();  // 从其他节点收到的帧数
+    static final LongAdder DROPPED = new LongAdder();   // 链路队列已满而丢弃的帧数
+
+    private static final int LINK_QUEUE_CAPACITY = 65536;
+    private static final int BATCH_BYTES = 64 * 1024;
+    private static final int MAX_BATCH_FRAMES = 1024;
+    private static final int SNAPSHOT_CHUNK_CHARS = 16 * 1024; // 用户多时快照分成多帧：按字符计，UTF-8 编码后不超过单帧上限
+    private static final int CONNECT_TIMEOUT_MILLIS = 5000;
+    private static final long RECONNECT_MILLIS = 1000;
+    private static final byte[] WAKE_UP = new byte[0]; // 连接已断开时唤醒写线程
+
+    private final String nodeId;
+    private final int clusterPort;
+    private final String bindAddress; // 集群端口绑定的地址，null 为所有网络接口
+    private final String secret;      // 集群共享密钥，未设置时为空串
+    private final List<InetSocketAddress> peers;
+    private final SessionRegistry onlineUsers;
+    private final List<PeerLink> links = new ArrayList<>();
+    private final ConcurrentHashMap<String, PeerLink> linksByNode = new ConcurrentHashMap<>(); // 已连接的节点名 → 出站链路
+    private final ConcurrentHashMap<String, Inbound> inbound = new ConcurrentHashMap<>();      // 节点名 → 当前入站连接
+    // 本地在线状态入队与链路建立时的快照互斥：对方先收到包含此前变化的快照，再收到之后的增量
+    private final ReentrantLock presenceLock = new ReentrantLock();
+    private final ReentrantLock remoteLock = new ReentrantLock(); // 应用其他节点的在线状态
+    private volatile MessageRouter router;
+
+    private ClusterNode(ServerConfig config, SessionRegistry onlineUsers) {
+        this.nodeId = config.getNodeId();
+        this.clusterPort = config.getClusterPort();
+        this.bindAddress = config.getClusterBind();
+        this.secret = config.getClusterSecret() == null ? "" : config.getClusterSecret();
+        this.peers = config.getPeers();
+        this.onlineUsers = onlineUsers;
+        for (InetSocketAddress peer : peers) {
+            links.add(new PeerLink(peer));
+        }
+    }
+
+    /**
+     * 按 --cluster-port / --peers / --node-id / --cluster-bind / --cluster-secret 创建，--cluster-port=0 时返回 null（单机运行）
+     */
+    public static ClusterNode open(ServerConfig config, SessionRegistry onlineUsers) {
+        if (config.getClusterPort() == 0) {
+            return null;
+        }
+        return new ClusterNode(config, onlineUsers);
+    }
+
+    /**
+     * 监听集群端口并开始连接其他节点；收到的消息交给 router 投递
+     */
+    public void start(MessageRouter router) throws IOException {
+        this.router = router;
+        ServerSocket server = new ServerSocket(clusterPort, 50, bindAddress == null ? null : InetAddress.getByName(bindAddress));
+        daemon(() -> acceptLoop(server), "cluster-acceptor").start();
+        for (PeerLink link : links) {
+            daemon(link, "cluster-out-" + link.label).start();
+        }
+        Log.info("集群节点 {} 已监听 {}", nodeId, (bindAddress == null ? "*" : bindAddress) + ":" + clusterPort);
+    }
+
+    private static Thread daemon(Runnable task, String name) {
+        Thread t = new Thread(task, name);
+        t.setDaemon(true);
+        return t;
+    }
+
+    /**
+     * 本地用户上线/下线（注册表已更新）：把增量发给所有已连接的节点
+     */
+    public void onLocalJoin(String username) {
+        publishPresence("+" + username);
+    }
+
+    public void onLocalLeave(String username) {
+        publishPresence("-" + username);
+        remoteLock.lock();
+        try {
+            retryConflict(username);
+        } finally {
+            remoteLock.unlock();
+        }
+    }
+
+    private void publishPresence(String change) {
+        byte[] frame = encode(MessageType.PEER_PRESENCE_TYPE, MessageType.PRESENCE_DELTA, change);
+        presenceLock.lock();
+        try {
+            for (PeerLink link : links) {
+                link.offer(frame);
+            }
+        } finally {
+            presenceLock.unlock();
+        }
+    }
+
+    /**
+     * 群聊、频道消息：每个已连接的节点发送一份（所有链路共用同一份二进制编码）
+     */
+    public void forwardToAll(Frame frame) {
+        byte[] bytes = frame.bytes(BinaryCodec.INSTANCE);
+        for (PeerLink link : links) {
+            link.offer(bytes);
+        }
+    }
+
+    /**
+     * 私聊：发给接收者所在的节点
+     * @return false 表示与该节点的链路未连接
+     */
+    public boolean forward(String node, Frame frame) {
+        PeerLink link = linksByNode.get(node);
+        if (link == null || !link.connected) {
+            return false;
+        }
+        link.offer(frame.bytes(BinaryCodec.INSTANCE));
+        return true;
+    }
+
+    private static byte[] encode(byte type, String... fields) {
+        return BinaryCodec.INSTANCE.encode(Message.of(type, fields));
+    }
+
+    /**
+     * 出站链路：断开后每秒重连；未连接时不排队，重连后对方通过快照恢复在线状态，期间的消息不补发
+     */
+    private final class PeerLink implements Runnable {
+        final InetSocketAddress address;
+        final String label; // host:port，用于日志与线程名
+        private final BlockingQueue<byte[]> queue = new ArrayBlockingQueue<>(LINK_QUEUE_CAPACITY);
+        private volatile boolean connected;
+        private String peerNode;
+        private boolean warned; // 连续连接失败时只提示一次
+
+        PeerLink(InetSocketAddress address) {
+            this.address = address;
+            this.label = address.getHostString() + ":" + address.getPort();
+        }
+
+        void offer(byte[] frame) {
+            if (!connected) {
+                return;
+            }
+            if (queue.offer(frame)) {
+                FORWARDED.increment();
+            } else {
+                DROPPED.increment(); // 对方节点处理不过来：丢弃而不是阻塞路由线程
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                try (Socket socket = new Socket()) {
+                    socket.connect(new InetSocketAddress(address.getHostString(), address.getPort()), CONNECT_TIMEOUT_MILLIS);
+                    socket.setTcpNoDelay(true); // 合并由写线程完成，不再等待 Nagle 算法
+                    OutputStream out = new BufferedOutputStream(socket.getOutputStream(), BATCH_BYTES);
+                    out.write(encode(MessageType.PEER_HELLO_TYPE, nodeId, secret));
+                    out.flush();
+                    peerNode = readHello(socket);
+                    if (peerNode.equals(nodeId)) {
+                        // 各节点可以使用同一份 --peers 清单：指向本节点的条目不建立链路
+                        Log.info("集群地址 {} 是本节点，或其节点名与本节点相同（{}），不建立链路", label, nodeId);
+                        return;
+                    }
+                    linksByNode.put(peerNode, this);
+                    sendSnapshot();
+                    warned = false;
+                    Log.info("已连接集群节点 {}（{}）", peerNode, label);
+                    daemon(() -> watch(socket), "cluster-watch-" + label).start();
+                    writeLoop(socket, out);
+                } catch (IOException e) {
+                    if (connected || !warned) {
+                        Log.warn("集群节点 {} 无法连接：{}", label, e.getMessage());
+                        warned = true;
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                connected = false;
+                if (peerNode != null) {
+                    linksByNode.remove(peerNode, this);
+                }
+                queue.clear();
+                try {
+                    Thread.sleep(RECONNECT_MILLIS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * 链路建立：先清空残留的帧，再放入本地用户快照，之后的增量一定排在快照后面
+         */
+        private void sendSnapshot() {
+            presenceLock.lock();
+            try {
+                queue.clear();
+                offerSnapshot();
+                connected = true;
+            } finally {
+                presenceLock.unlock();
+            }
+        }
+
+        /**
+         * 对方在握手之后不再发送任何数据：读到流结束即表示对方已关闭或重启，
+         * 立即关闭连接并唤醒写线程重连，不必等到下一次写出失败（否则其间写出的快照与消息会悄悄丢失）
+         */
+        private void watch(Socket socket) {
+            try {
+                while (socket.getInputStream().read() >= 0) {
+                    // 丢弃
+                }
+            } catch (IOException ignored) {
+                // 连接已断开
+            }
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // 已经在关闭
+            }
+            queue.offer(WAKE_UP);
+        }
+
+        private void offerSnapshot() {
+            // 第一帧是快照，放不下的用户以「+用户」增量跟在后面
+            boolean first = true;
+            StringBuilder chunk = new StringBuilder();
+            for (String name : onlineUsers.snapshot().names) {
+                if (chunk.length() > SNAPSHOT_CHUNK_CHARS) {
+                    queue.offer(presenceFrame(first, chunk));
+                    first = false;
+                    chunk.setLength(0);
+                }
+                if (chunk.length() > 0) {
+                    chunk.append(',');
+                }
+                chunk.append(first ? "" : "+").append(name);
+            }
+            queue.offer(presenceFrame(first, chunk));
+        }
+
+        private byte[] presenceFrame(boolean snapshot, StringBuilder users) {
+            return encode(MessageType.PEER_PRESENCE_TYPE,
+                    snapshot ? MessageType.PRESENCE_SNAPSHOT : MessageType.PRESENCE_DELTA, users.toString());
+        }
+
+        /**
+         * 一次取出队列中已有的全部帧（最多 1024 帧），写入缓冲区后 flush 一次
+         */
+        private void writeLoop(Socket socket, OutputStream out) throws IOException, InterruptedException {
+            List<byte[]> batch = new ArrayList<>();
+            while (true) {
+                batch.add(queue.take());
+                if (socket.isClosed()) {
+                    throw new IOException("对方关闭了连接");
+                }
+                queue.drainTo(batch, MAX_BATCH_FRAMES - 1);
+                for (byte[] frame : batch) {
+                    out.write(frame);
+                }
+                out.flush();
+                BATCHES.increment();
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * 读取对方的 [PEER_HELLO]，返回对方的节点名
+     */
+    private String readHello(Socket socket) throws IOException {
+        socket.setSoTimeout(CONNECT_TIMEOUT_MILLIS);
+        FrameReader reader = new FrameReader(socket.getInputStream(), BinaryCodec.INSTANCE);
+        Message hello = reader.read();
+        if (hello == null || hello.type() != MessageType.PEER_HELLO_TYPE || hello.fieldCount() < 1) {
+            throw new ProtocolException("对方不是集群节点，或拒绝了本节点（来源地址不在对方的 --peers 中，或集群密钥不一致）");
+        }
+        socket.setSoTimeout(0);
+        return hello.field(0);
+    }
+
+    /**
+     * 一条入站连接：对方节点的用户集合只在 remoteLock 下读写
+     */
+    private static final class Inbound {
+        final String node;
+        final Socket socket;
+        final Set<String> users = new HashSet<>();     // 已记入注册表的用户
+        final Set<String> conflicts = new HashSet<>(); // 对方在线、但与已登录的同名用户冲突而未记入的用户
+
+        Inbound(String node, Socket socket) {
+            this.node = node;
+            this.socket = socket;
+        }
+    }
+
+    private void acceptLoop(ServerSocket server) {
+        while (true) {
+            try {
+                Socket socket = server.accept();
+                daemon(() -> readLoop(socket), "cluster-in").start();
+            } catch (IOException e) {
+                Log.warn("集群端口接受连接失败：{}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 入站连接的读取线程：握手后逐帧处理，帧指向复用的读缓冲区，聊天消息复制一次后投递
+     */
+    private void readLoop(Socket socket) {
+        Inbound link = null;
+        try (Socket s = socket) {
+            FrameReader reader = new FrameReader(s.getInputStream(), BinaryCodec.INSTANCE);
+            s.setSoTimeout(CONNECT_TIMEOUT_MILLIS);
+            Message hello = reader.read();
+            if (hello == null || hello.type() != MessageType.PEER_HELLO_TYPE || hello.fieldCount() != 2
+                    || !admitted(s, hello.field(1))) {
+                Log.warn("拒绝集群连接：{}", s.getRemoteSocketAddress());
+                return;
+            }
+            s.setSoTimeout(0);
+            OutputStream out = s.getOutputStream();
+            out.write(encode(MessageType.PEER_HELLO_TYPE, nodeId)); // 回复节点名：连接方据此识别节点（或发现连到了自己）
+            out.flush();
+            if (hello.field(0).equals(nodeId)) {
+                return; // 本节点连向自己，或两个节点配置了相同的 --node-id
+            }
+            link = attach(hello.field(0), s);
+            Thread.currentThread().setName("cluster-in-" + link.node);
+            FrameView view = new FrameView();
+            while (reader.read(view)) {
+                RECEIVED.increment();
+                if (view.type() == MessageType.PEER_PRESENCE_TYPE) {
+                    applyPresence(link, view);
+                } else {
+                    router.routeFromPeer(view);
+                }
+            }
+        } catch (IOException e) {
+            if (link != null) {
+                Log.warn("集群节点 {} 的连接断开：{}", link.node, e.getMessage());
+            }
+        } finally {
+            if (link != null) {
+                detach(link);
+            }
+        }
+    }
+
+    /**
+     * 入站连接是否来自集群成员：设置了密钥时只核对密钥，否则来源地址须是 --peers 中某个主机的地址
+     */
+    private boolean admitted(Socket socket, String presented) {
+        if (!secret.isEmpty()) {
+            return MessageDigest.isEqual(secret.getBytes(StandardCharsets.UTF_8),
+                    presented.getBytes(StandardCharsets.UTF_8));
+        }
+        InetAddress from = socket.getInetAddress();
+        for (InetSocketAddress peer : peers) {
+            try {
+                for (InetAddress address : InetAddress.getAllByName(peer.getHostString())) {
+                    if (address.equals(from)) {
+                        return true;
+                    }
+                }
+            } catch (UnknownHostException ignored) {
+                // 暂时无法解析的主机不匹配任何连接
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 登记入站连接；对方重连时接管旧连接记录的用户并关闭旧连接，随后到达的快照只应用差异
+     */
+    private Inbound attach(String node, Socket socket) {
+        Inbound link = new Inbound(node, socket);
+        remoteLock.lock();
+        try {
+            Inbound previous = inbound.put(node, link);
+            if (previous != null) {
+                link.users.addAll(previous.users);
+                link.conflicts.addAll(previous.conflicts);
+                previous.users.clear();
+                previous.conflicts.clear();
+                try {
+                    previous.socket.close();
+                } catch (IOException ignored) {
+                    // 已经在关闭
+                }
+            }
+        } finally {
+            remoteLock.unlock();
+        }
+        return link;
+    }
+
+    /**
+     * 入站连接断开：对方节点的用户全部视为下线（已被新连接接管时不处理）
+     */
+    private void detach(Inbound link) {
+        remoteLock.lock();
+        try {
+            if (inbound.remove(link.node, link)) {
+                link.conflicts.clear();
+                for (String user : link.users.toArray(new String[0])) {
+                    remoteLeave(link, user);
+                }
+            }
+        } finally {
+            remoteLock.unlock();
+        }
+    }
+
+    /**
+     * [PEER_PRESENCE]|snapshot|用户1,用户2 替换该节点的用户集合（只应用差异），[PEER_PRESENCE]|delta|+用户,-用户 逐个应用
+     */
+    private void applyPresence(Inbound link, FrameView view) {
+        if (view.fieldCount() != 2) {
+            return;
+        }
+        String kind = view.field(0);
+        String body = view.field(1);
+        List<String> entries = body.isEmpty() ? new ArrayList<>() : Arrays.asList(body.split(","));
+        remoteLock.lock();
+        try {
+            if (inbound.get(link.node) != link) {
+                return; // 旧连接残留的帧
+            }
+            if (MessageType.PRESENCE_SNAPSHOT.equals(kind)) {
+                Set<String> next = new HashSet<>(entries);
+                link.conflicts.retainAll(next);
+                for (String user : link.users.toArray(new String[0])) {
+                    if (!next.contains(user)) {
+                        remoteLeave(link, user);
+                    }
+                }
+                for (String user : entries) {
+                    remoteJoin(link, user);
+                }
+            } else {
+                for (String change : entries) {
+                    if (change.length() < 2) {
+                        continue;
+                    }
+                    if (change.charAt(0) == '+') {
+                        remoteJoin(link, change.substring(1));
+                    } else {
+                        remoteLeave(link, change.substring(1));
+                    }
+                }
+            }
+        } finally {
+            remoteLock.unlock();
+        }
+    }
+
+    /**
+     * 只有记入注册表之后才加入该连接的用户集合；冲突的用户另外记下，同名用户下线时再记入
+     */
+    private void remoteJoin(Inbound link, String user) {
+        if (link.users.contains(user)) {
+            return;
+        }
+        if (onlineUsers.registerRemote(user, link.node)) {
+            link.users.add(user);
+            link.conflicts.remove(user);
+            router.onRemoteJoin(user, link.node);
+        } else if (link.conflicts.add(user)) {
+            Log.warn("节点 {} 的用户 {} 与已登录的同名用户冲突，保留原用户", link.node, user);
+        }
+    }
+
+    private void remoteLeave(Inbound link, String user) {
+        link.conflicts.remove(user);
+        if (link.users.remove(user) && onlineUsers.unregisterRemote(user, link.node)) {
+            router.onRemoteLeave(user, link.node);
+            retryConflict(user);
+        }
+    }
+
+    /**
+     * 用户名空出（本地用户或其他节点的用户下线，调用方持有 remoteLock）：记入一个因同名冲突而等待的其他节点用户
+     */
+    private void retryConflict(String user) {
+        for (Inbound link : inbound.values()) {
+            if (link.conflicts.contains(user)) {
+                remoteJoin(link, user);
+                if (link.users.contains(user)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+}
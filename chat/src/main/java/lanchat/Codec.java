@@ -0,0 +1,73 @@
+package lanchat;
+
+import java.net.ProtocolException;
+import java.util.Set;
+
+/**
+ * 线路编码：把 Message 编码为一帧字节，并从字节流中切出、解码完整的帧
+ * 实现必须无状态、线程安全，服务器和客户端共用同一个实例
+ */
+public interface Codec {
+
+    /**
+     * 单帧上限（字节），超出视为异常客户端
+     */
+    int MAX_FRAME_BYTES = 64 * 1024;
+
+    /**
+     * 编码编号的上限：Frame 按编号缓存每种编码的结果
+     */
+    int MAX_CODECS = 4;
+
+    /**
+     * 编码编号（0 ~ MAX_CODECS-1，各实现唯一）
+     */
+    int id();
+
+    byte[] encode(Message message);
+
+    /**
+     * 计算 buf[offset, offset+length) 开头第一帧的完整长度
+     * @return 帧长度（含长度前缀或行尾换行符）；数据还不够一帧时返回 -1
+     * @throws ProtocolException 帧超过 MAX_FRAME_BYTES 或格式错误
+     */
+    int frameLength(byte[] buf, int offset, int length) throws ProtocolException;
+
+    /**
+     * 解析一帧的类型与字段位置写入 view，不复制字节、不创建字符串（服务器转发路径使用）
+     * frameLength 为 frameLength() 的返回值
+     */
+    void view(byte[] buf, int offset, int frameLength, FrameView view) throws ProtocolException;
+
+    /**
+     * 解码一帧为 Message（客户端显示等需要字符串的场合）
+     */
+    default Message decode(byte[] buf, int offset, int frameLength) throws ProtocolException {
+        FrameView view = new FrameView();
+        view(buf, offset, frameLength, view);
+        return view.toMessage();
+    }
+
+    /**
+     * 按握手协商的功能选择编码：启用 binary-v1 或 deflate-v2 时用二进制帧（后者再由 DeflateStream 逐连接压缩），
+     * 否则用文本行
+     */
+    static Codec forFeatures(Set<String> features) {
+        return features.contains(MessageType.FEATURE_BINARY) || features.contains(MessageType.FEATURE_DEFLATE)
+                ? BinaryCodec.INSTANCE : TextCodec.INSTANCE;
+    }
+
+    /**
+     * 按编码编号取得实例
+     * @throws IllegalArgumentException 未知编号
+     */
+    static Codec byId(int id) {
+        if (id == TextCodec.INSTANCE.id()) {
+            return TextCodec.INSTANCE;
+        }
+        if (id == BinaryCodec.INSTANCE.id()) {
+            return BinaryCodec.INSTANCE;
+        }
+        throw new IllegalArgumentException("未知编码编号：" + id);
+    }
+}
@@ -0,0 +1,180 @@
+package lanchat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 连接级压缩（握手协商 deflate-v2 后使用，帧格式仍是 binary-v1）：每个连接每个方向一条连续的 raw deflate 流，
+ * 压缩上下文（32KB 窗口）跨帧保留，短消息也能引用同一连接上之前出现过的用户名、字段和内容
+ * 线路帧 = varint(n) + n 字节压缩数据，每帧以 SYNC_FLUSH 结束，收到即可全部解压；
+ * 解压结果是连续的 BinaryCodec 帧字节流（一个线路帧可以含多帧，也可以只含半帧），由调用方再按二进制帧切分
+ * 两个方向在流开始时设置同一个预置字典：协议前缀加上握手时在线的用户名（见 dictionary），由 WELCOME 告知客户端
+ * 压缩只由写出该连接的线程调用，解压只由读取该连接的线程调用，两者互不阻塞；end() 可在任意线程调用
+ * 每个连接约占 300KB 本地内存（Deflater 约 256KB，Inflater 约 44KB），只在 --compression=true 且客户端要求时创建
+ */
+public final class DeflateStream {
+
+    static final int MAX_INPUT_BYTES = 16 * 1024;               // 每个线路帧最多压缩的原始字节，压缩结果远小于单帧上限
+    static final int MAX_INFLATED_BYTES = Codec.MAX_FRAME_BYTES; // 每个线路帧解压后的上限，防止解压炸弹
+    private static final int MAX_DICTIONARY_NAMES = 8 * 1024;   // 字典中用户名部分的字节数上限（deflate 窗口为 32KB）
+
+    // 统计：压缩前后的字节数（每个连接各自压缩，广播按接收者计算）
+    static final LongAdder INPUT_BYTES = new LongAdder();
+    static final LongAdder OUTPUT_BYTES = new LongAdder();
+
+    // 字典的固定部分：服务器提示与常见字段值，越常用的越靠后（deflate 对近处的匹配编码更短）
+    private static final byte[] COMMON = String.join("",
+            "历史记录请求格式错误！", "服务器未开启历史记录！", "频道请求格式错误！", "频道消息格式错误！",
+            "频道消息失败：未加入频道 ", "私聊消息格式错误！", "所在的节点暂时无法连接！", "私聊失败：", "不在线！",
+            "私聊提示：", "不在线，消息将在其上线后送达。", "用户名已被占用，请重新输入！",
+            MessageType.HISTORY_LAST, MessageType.HISTORY_SINCE, MessageType.HISTORY_TIME,
+            "http://", "https://", MessageType.PRESENCE_SNAPSHOT, MessageType.PRESENCE_DELTA)
+            .getBytes(StandardCharsets.UTF_8);
+
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    private final Inflater inflater = new Inflater(true);
+    private byte[] scratch = new byte[1024]; // 压缩输出，只在持有 deflater 锁时使用
+    private boolean deflaterEnded;           // 由 deflater 锁保护
+    private boolean inflaterEnded;           // 由 inflater 锁保护
+
+    public DeflateStream(byte[] dictionary) {
+        deflater.setDictionary(dictionary);
+        inflater.setDictionary(dictionary); // raw deflate 的字典在解压开始前设置
+    }
+
+    /**
+     * 服务器为新连接选出写入字典的用户名：在线用户中靠后（较新）的若干个，最后是连接自己的用户名
+     * 结果原样放进 WELCOME，客户端据此构造同一个字典
+     */
+    static List<String> dictionaryNames(String[] online, String self) {
+        List<String> names = new ArrayList<>();
+        int bytes = self.getBytes(StandardCharsets.UTF_8).length;
+        for (int i = online.length - 1; i >= 0; i--) {
+            String name = online[i];
+            if (name.equals(self)) {
+                continue;
+            }
+            bytes += name.getBytes(StandardCharsets.UTF_8).length + 1;
+            if (bytes > MAX_DICTIONARY_NAMES) {
+                break;
+            }
+            names.add(name);
+        }
+        Collections.reverse(names);
+        names.add(self);
+        return names;
+    }
+
+    /**
+     * 预置字典 = 固定部分 + 每个用户名对应的协议前缀：
+     * 群聊与私聊帧体开头的「类型 + 发送者」，以及出现在其他字段中的「长度前缀 + 用户名」
+     */
+    static byte[] dictionary(List<String> names) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(COMMON.length + names.size() * 32);
+        out.write(COMMON, 0, COMMON.length);
+        byte[] varint = new byte[5];
+        for (String name : names) {
+            byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+            int n = BinaryCodec.writeVarint(varint, 0, bytes.length);
+            for (byte type : new byte[] {MessageType.PRIVATE, MessageType.GROUP}) {
+                out.write(type);
+                out.write(varint, 0, n);
+                out.write(bytes, 0, bytes.length);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * 压缩一段 BinaryCodec 帧字节（写线程调用），按 MAX_INPUT_BYTES 分成一个或多个线路帧
+     * @throws IOException 连接已关闭（end() 之后）
+     */
+    byte[] compress(byte[] data, int offset, int length) throws IOException {
+        synchronized (deflater) {
+            if (deflaterEnded) {
+                throw new IOException("压缩流已关闭");
+            }
+            byte[] frames = new byte[0];
+            int size = 0;
+            int end = offset + length;
+            for (int pos = offset; pos < end; ) {
+                int n = Math.min(MAX_INPUT_BYTES, end - pos);
+                deflater.setInput(data, pos, n);
+                pos += n;
+                int compressed = 0;
+                while (true) {
+                    compressed += deflater.deflate(scratch, compressed, scratch.length - compressed, Deflater.SYNC_FLUSH);
+                    if (compressed < scratch.length) {
+                        break; // 输出缓冲区没有写满：这一段已全部压缩并刷出
+                    }
+                    scratch = Arrays.copyOf(scratch, scratch.length * 2);
+                }
+                frames = Arrays.copyOf(frames, size + BinaryCodec.varintSize(compressed) + compressed);
+                size = BinaryCodec.writeVarint(frames, size, compressed);
+                System.arraycopy(scratch, 0, frames, size, compressed);
+                size += compressed;
+            }
+            INPUT_BYTES.add(length);
+            OUTPUT_BYTES.add(size);
+            return frames;
+        }
+    }
+
+    /**
+     * 解压一个线路帧（读线程调用），frameLength 为 BinaryCodec.frameLength 的返回值
+     * out 从 outOffset 起至少要留出 MAX_INFLATED_BYTES + 1 字节
+     * @return 解压得到的字节数
+     * @throws ProtocolException 数据错误、解压后超过上限或连接已关闭
+     */
+    int inflate(byte[] buf, int offset, int frameLength, byte[] out, int outOffset) throws ProtocolException {
+        long header = BinaryCodec.readVarint(buf, offset, frameLength);
+        int start = offset + (int) header;
+        synchronized (inflater) {
+            if (inflaterEnded) {
+                throw new ProtocolException("压缩流已关闭");
+            }
+            inflater.setInput(buf, start, offset + frameLength - start);
+            int produced = 0;
+            try {
+                int n;
+                do {
+                    n = inflater.inflate(out, outOffset + produced, MAX_INFLATED_BYTES + 1 - produced);
+                    produced += n;
+                    if (produced > MAX_INFLATED_BYTES) {
+                        throw new ProtocolException("压缩帧解压后超过 " + MAX_INFLATED_BYTES + " 字节");
+                    }
+                    if (n == 0 && !inflater.needsInput()) {
+                        throw new ProtocolException("压缩流异常结束");
+                    }
+                } while (n > 0);
+            } catch (DataFormatException e) {
+                throw new ProtocolException("压缩帧数据错误：" + e.getMessage());
+            }
+            return produced;
+        }
+    }
+
+    /**
+     * 释放本地内存（连接关闭时调用），之后的压缩与解压都会失败
+     */
+    void end() {
+        synchronized (deflater) {
+            deflaterEnded = true;
+            deflater.end();
+        }
+        synchronized (inflater) {
+            inflaterEnded = true;
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,443 @@
+package lanchat;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 文件传输中转：聊天连接上只交换 [FILE_OFFER] / [FILE_ACCEPT] / [FILE_CANCEL] / [FILE_DONE]，
+ * 文件内容走单独的传输端口（--transfer-port），每个传输连接由自己的线程读写，大文件不会挡住聊天消息
+ * 发送方上传的字节每读到一段就写入暂存文件，接收方经 FileChannel.transferTo 下载
+ * （Linux 上为 sendfile，数据不经过 Java 堆）；下载可以紧跟上传进行，不必等上传结束，
+ * 双方速度不同时由暂存文件吸收差异，服务器不在内存中堆积数据，快的一方只受 TCP 流量控制
+ * 断线后重连即可续传：上传从服务器已收到的字节数继续，下载从接收方本地已有的字节数继续；
+ * 同一传输的新连接会取代旧连接，半断开的旧连接不会占住传输
+ * 传输编号是随机生成的 128 位串，只告知收发双方，连接传输端口时凭编号认领；
+ * 收发双方须在同一服务器上，任一方下线或取消时删除暂存文件
+ * 传输端口协议（一行文本头，之后为原始字节）：
+ *   上传：PUT|编号 → OK|已收字节数，之后发送方从该偏移写到文件末尾
+ *   下载：GET|编号|偏移 → OK|文件字节数，之后服务器从该偏移写到文件末尾
+ *   出错：ERR|原因，随后关闭连接
+ */
+public final class FileRelay {
+
+    static final LongAdder BYTES_IN = new LongAdder();  // 上传写入暂存文件的字节数
+    static final LongAdder BYTES_OUT = new LongAdder(); // 下载发出的字节数
+    static final LongAdder COMPLETED = new LongAdder(); // 完成的传输数
+
+    static final int MAX_TRANSFERS_PER_USER = 8;         // 每个用户同时进行（含等待接受）的传输数
+    private static final int MAX_CONNECTIONS = 256;      // 传输端口同时打开的连接数
+    private static final long CHUNK_BYTES = 1 << 20;     // 每次 transferTo 的字节数上限
+    private static final int UPLOAD_BUFFER_BYTES = 64 * 1024; // 上传每次读取的字节数上限
+    private static final int MAX_HEADER_BYTES = 256;
+    private static final int HEADER_TIMEOUT_MILLIS = 10000;
+    private static final long WAIT_MILLIS = 1000;        // 下载追上上传后等待新数据的间隔
+    private static final String SPOOL_SUFFIX = ".part";
+
+    /**
+     * 一次传输：以下可变字段由对象锁保护（received 另为 volatile，供统计读取）
+     */
+    private static final class Transfer {
+        final String id;
+        final ChatSession sender;
+        final ChatSession receiver;
+        final long size;
+        final Path spool;
+        FileChannel channel;       // 接受后打开的暂存文件
+        volatile long received;    // 已写入暂存文件的字节数
+        boolean closed;
+        SocketChannel upload;      // 当前的上传连接，新连接取代旧连接
+        SocketChannel download;    // 当前的下载连接
+
+        Transfer(String id, ChatSession sender, ChatSession receiver, long size, Path spool) {
+            this.id = id;
+            this.sender = sender;
+            this.receiver = receiver;
+            this.size = size;
+            this.spool = spool;
+        }
+
+        boolean involves(ChatSession session) {
+            return sender == session || receiver == session;
+        }
+    }
+
+    private final Path dir;
+    private final int port;
+    private final long maxBytes;
+    private final SessionRegistry onlineUsers;
+    private final ConcurrentHashMap<String, Transfer> transfers = new ConcurrentHashMap<>();
+    private final AtomicInteger connections = new AtomicInteger();
+    private final SecureRandom random = new SecureRandom();
+
+    private FileRelay(Path dir, int port, long maxBytes, SessionRegistry onlineUsers) {
+        this.dir = dir;
+        this.port = port;
+        this.maxBytes = maxBytes;
+        this.onlineUsers = onlineUsers;
+    }
+
+    /**
+     * 按 --transfer-port / --transfer-dir / --transfer-max-mb 创建并开始监听，--transfer-port=0 时返回 null
+     * 上次运行留下的暂存文件无法续传（传输编号只在内存中），启动时删除
+     */
+    public static FileRelay open(ServerConfig config, SessionRegistry onlineUsers) throws IOException {
+        if (config.getTransferPort() == 0) {
+            return null;
+        }
+        Path dir = Paths.get(config.getTransferDir());
+        Files.createDirectories(dir);
+        try (DirectoryStream<Path> leftovers = Files.newDirectoryStream(dir, "*" + SPOOL_SUFFIX)) {
+            for (Path leftover : leftovers) {
+                Files.deleteIfExists(leftover);
+            }
+        }
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(config.getTransferPort()));
+        FileRelay relay = new FileRelay(dir, config.getTransferPort(), (long) config.getTransferMaxMb() << 20, onlineUsers);
+        daemon(() -> relay.acceptLoop(server), "file-relay-acceptor").start();
+        Log.info("文件传输端口 {} 已开启（暂存目录 {}）", config.getTransferPort(), dir.toAbsolutePath());
+        return relay;
+    }
+
+    private static Thread daemon(Runnable task, String name) {
+        Thread t = new Thread(task, name);
+        t.setDaemon(true);
+        return t;
+    }
+
+    /**
+     * [FILE_OFFER]|（空）|发送者|接收者|字节数|文件名：分配传输编号，把带编号的提议发给双方
+     */
+    public void offer(ChatSession sender, String receiverName, String sizeText, String name) {
+        ChatSession receiver = onlineUsers.get(receiverName);
+        if (receiver == null) {
+            boolean remote = onlineUsers.remoteNode(SessionRegistry.NameKey.of(receiverName)) != null;
+            sender.send(Frame.text(remote ? "文件只能发送给同一服务器上的用户：" + receiverName + "在其他节点！"
+                    : "发送文件失败：" + receiverName + "不在线！"));
+            return;
+        }
+        if (receiver == sender) {
+            sender.send(Frame.text("不能给自己发送文件！"));
+            return;
+        }
+        long size;
+        try {
+            size = Long.parseLong(sizeText);
+        } catch (NumberFormatException e) {
+            size = -1;
+        }
+        String fileName = baseName(name);
+        if (size < 0 || fileName.isEmpty()) {
+            sender.send(Frame.text("文件传输请求格式错误！"));
+            return;
+        }
+        if (size > maxBytes) {
+            sender.send(Frame.text("文件超过服务器上限 " + (maxBytes >> 20) + " MB！"));
+            return;
+        }
+        if (count(sender) >= MAX_TRANSFERS_PER_USER || count(receiver) >= MAX_TRANSFERS_PER_USER) {
+            sender.send(Frame.text("同时进行的文件传输最多 " + MAX_TRANSFERS_PER_USER + " 个，请稍后再试！"));
+            return;
+        }
+        String id = newId();
+        transfers.put(id, new Transfer(id, sender, receiver, size, dir.resolve(id + SPOOL_SUFFIX)));
+        Frame frame = Frame.of(Message.of(MessageType.FILE_OFFER_TYPE, id, sender.getUsername(), receiver.getUsername(),
+                String.valueOf(size), fileName));
+        sender.send(frame);
+        receiver.send(frame);
+        Log.info("文件传输 {}：{}", id, sender.getUsername() + " → " + receiver.getUsername() + "，" + fileName);
+    }
+
+    /**
+     * [FILE_ACCEPT]|编号|（空）：接收方接受后创建暂存文件，把带传输端口的确认发给双方，双方随即连接传输端口
+     */
+    public void accept(ChatSession session, String id) {
+        Transfer t = transfers.get(id);
+        if (t == null || t.receiver != session) {
+            session.send(Frame.text("文件传输已取消或不存在！"));
+            return;
+        }
+        synchronized (t) {
+            if (t.closed || t.channel != null) {
+                return;
+            }
+            try {
+                t.channel = FileChannel.open(t.spool, StandardOpenOption.CREATE_NEW,
+                        StandardOpenOption.READ, StandardOpenOption.WRITE);
+            } catch (IOException e) {
+                Log.warn("创建暂存文件失败：{}（{}）", t.spool, e.getMessage());
+                cancel(t, "服务器无法保存文件");
+                return;
+            }
+        }
+        Frame frame = Frame.of(Message.of(MessageType.FILE_ACCEPT_TYPE, id, String.valueOf(port)));
+        t.sender.send(frame);
+        t.receiver.send(frame);
+    }
+
+    /**
+     * [FILE_CANCEL]|编号|原因：拒绝或中途取消，通知双方并删除暂存文件
+     */
+    public void cancel(ChatSession session, String id, String reason) {
+        Transfer t = transfers.get(id);
+        if (t != null && t.involves(session)) {
+            cancel(t, reason.isEmpty() ? session.getUsername() + " 取消了传输" : reason);
+        }
+    }
+
+    /**
+     * 用户下线：取消其参与的全部传输
+     */
+    public void cancelAll(ChatSession session) {
+        for (Transfer t : transfers.values()) {
+            if (t.involves(session)) {
+                cancel(t, session.getUsername() + " 已下线");
+            }
+        }
+    }
+
+    private void cancel(Transfer t, String reason) {
+        if (remove(t)) {
+            Frame frame = Frame.of(Message.of(MessageType.FILE_CANCEL_TYPE, t.id, reason));
+            t.sender.send(frame);
+            t.receiver.send(frame);
+        }
+    }
+
+    /**
+     * 从表中删除并释放资源；返回 false 表示已被其他线程删除
+     */
+    private boolean remove(Transfer t) {
+        if (!transfers.remove(t.id, t)) {
+            return false;
+        }
+        synchronized (t) {
+            t.closed = true;
+            closeQuietly(t.upload);
+            closeQuietly(t.download);
+            closeQuietly(t.channel);
+            t.notifyAll();
+        }
+        try {
+            Files.deleteIfExists(t.spool);
+        } catch (IOException e) {
+            Log.warn("删除暂存文件失败：{}（{}）", t.spool, e.getMessage());
+        }
+        return true;
+    }
+
+    private int count(ChatSession session) {
+        int n = 0;
+        for (Transfer t : transfers.values()) {
+            if (t.involves(session)) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    private String newId() {
+        byte[] bytes = new byte[16];
+        random.nextBytes(bytes);
+        StringBuilder sb = new StringBuilder(32);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 只保留文件名部分（去掉发送方的目录），限制长度
+     */
+    private static String baseName(String name) {
+        String base = name.substring(Math.max(name.lastIndexOf('/'), name.lastIndexOf('\\')) + 1).trim();
+        return base.length() > 255 ? base.substring(base.length() - 255) : base;
+    }
+
+    private void acceptLoop(ServerSocketChannel server) {
+        while (true) {
+            try {
+                SocketChannel channel = server.accept();
+                if (connections.incrementAndGet() > MAX_CONNECTIONS) {
+                    connections.decrementAndGet();
+                    closeQuietly(channel);
+                    continue;
+                }
+                daemon(() -> serve(channel), "file-relay").start();
+            } catch (IOException e) {
+                Log.warn("传输端口接受连接失败：{}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 一个传输连接：读取文本头后按 PUT / GET 处理，结束后关闭
+     */
+    private void serve(SocketChannel channel) {
+        try (SocketChannel c = channel) {
+            String[] header = readHeader(c.socket()).split("\\|");
+            Transfer t = header.length >= 2 ? transfers.get(header[1]) : null;
+            if (t == null) {
+                reply(c, "ERR|传输已取消或不存在");
+            } else if (header[0].equals("PUT") && header.length == 2) {
+                upload(t, c);
+            } else if (header[0].equals("GET") && header.length == 3) {
+                download(t, c, header[2]);
+            } else {
+                reply(c, "ERR|请求格式错误");
+            }
+        } catch (IOException e) {
+            Log.debug("传输连接断开：{}", e.getMessage());
+        } finally {
+            connections.decrementAndGet();
+        }
+    }
+
+    /**
+     * 上传：从已收到的偏移继续写入暂存文件，每写一段唤醒等待的下载连接
+     * 不用 transferFrom：源为阻塞的套接字时它要读满整段才返回，下载在这期间看不到新数据
+     */
+    private void upload(Transfer t, SocketChannel c) throws IOException {
+        long pos;
+        synchronized (t) {
+            if (t.closed || t.channel == null) {
+                reply(c, "ERR|传输尚未被接受");
+                return;
+            }
+            closeQuietly(t.upload); // 发送方重连：旧连接作废
+            t.upload = c;
+            pos = t.received;
+        }
+        reply(c, "OK|" + pos);
+        ByteBuffer buffer = ByteBuffer.allocateDirect((int) Math.min(UPLOAD_BUFFER_BYTES, Math.max(1, t.size - pos)));
+        while (pos < t.size) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), t.size - pos));
+            int n = c.read(buffer);
+            if (n <= 0) {
+                return; // 对方关闭连接，之后可从 received 续传
+            }
+            buffer.flip();
+            for (long at = pos; buffer.hasRemaining(); ) {
+                at += t.channel.write(buffer, at);
+            }
+            synchronized (t) {
+                if (t.upload != c) {
+                    return; // 已被新连接取代，这段数据与新连接写入的内容相同
+                }
+                pos += n;
+                t.received = pos;
+                t.notifyAll();
+            }
+            BYTES_IN.add(n);
+        }
+    }
+
+    /**
+     * 下载：从接收方已有的偏移开始发送，追上上传进度后等待新数据；全部发出即完成传输
+     */
+    private void download(Transfer t, SocketChannel c, String offsetText) throws IOException {
+        long pos;
+        try {
+            pos = Long.parseLong(offsetText);
+        } catch (NumberFormatException e) {
+            pos = -1;
+        }
+        synchronized (t) {
+            if (t.closed || t.channel == null || pos < 0 || pos > t.size) {
+                reply(c, "ERR|传输尚未被接受或偏移非法");
+                return;
+            }
+            closeQuietly(t.download);
+            t.download = c;
+        }
+        reply(c, "OK|" + t.size);
+        while (pos < t.size) {
+            long available;
+            synchronized (t) {
+                while (!t.closed && t.download == c && t.received <= pos) {
+                    try {
+                        t.wait(WAIT_MILLIS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+                if (t.closed || t.download != c) {
+                    return;
+                }
+                available = t.received - pos;
+            }
+            long n = t.channel.transferTo(pos, Math.min(CHUNK_BYTES, available), c);
+            pos += n;
+            BYTES_OUT.add(n);
+        }
+        if (remove(t)) {
+            COMPLETED.increment();
+            Frame frame = Frame.of(Message.of(MessageType.FILE_DONE_TYPE, t.id));
+            t.sender.send(frame);
+            t.receiver.send(frame);
+            Log.info("文件传输 {} 完成（{} 字节）", t.id, t.size);
+        }
+    }
+
+    /**
+     * 逐字节读取一行文本头（之后的数据留给 FileChannel 直接读取），最多等待 HEADER_TIMEOUT_MILLIS
+     */
+    private static String readHeader(Socket socket) throws IOException {
+        socket.setSoTimeout(HEADER_TIMEOUT_MILLIS);
+        InputStream in = socket.getInputStream();
+        byte[] line = new byte[MAX_HEADER_BYTES];
+        int length = 0;
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b < 0 || length == line.length) {
+                throw new IOException("传输请求头不完整");
+            }
+            line[length++] = (byte) b;
+        }
+        socket.setSoTimeout(0);
+        return new String(line, 0, length, StandardCharsets.UTF_8).trim();
+    }
+
+    private static void reply(SocketChannel c, String line) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            c.write(buffer);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+                // 关闭失败不影响其他传输
+            }
+        }
+    }
+
+    /**
+     * 正在进行的传输数（含等待接受）
+     */
+    public int size() {
+        return transfers.size();
+    }
+}
@@ -0,0 +1,227 @@
+package lanchat;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 客户端一侧的文件传输任务：在单独的线程中连接服务器的传输端口（协议见 FileRelay）
+ * 上传从服务器已收到的偏移继续发送本地文件；下载写入「目标文件.part」，从其已有长度继续，收完后改名为目标文件
+ * 两个方向都用 FileChannel.transferTo / transferFrom，连接中断时稍等片刻自动续传，最多重试 RETRIES 次
+ * 进度在任务线程中回调，按 PROGRESS_INTERVAL_NANOS 节流
+ */
+public final class FileTransfer implements Runnable {
+
+    /**
+     * 进度与结果回调（在任务线程中调用）
+     */
+    public interface Listener {
+        void progress(FileTransfer transfer, long done);
+
+        /**
+         * @param error 成功时为 null
+         */
+        void finished(FileTransfer transfer, String error);
+    }
+
+    private static final long CHUNK_BYTES = 256 * 1024;
+    private static final int RETRIES = 5;
+    private static final long RETRY_MILLIS = 2000;
+    private static final long PROGRESS_INTERVAL_NANOS = 100_000_000L;
+    private static final int HEADER_TIMEOUT_MILLIS = 10000;
+    private static final int MAX_HEADER_BYTES = 256;
+
+    /**
+     * 服务器以 ERR 拒绝：传输已取消或不存在，重试没有意义
+     */
+    private static final class RefusedException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        RefusedException(String reason) {
+            super(reason);
+        }
+    }
+
+    private final String host;
+    private final int port;
+    private final String id;
+    private final Path file;
+    private final long size;
+    private final boolean upload;
+    private final Listener listener;
+    private volatile boolean cancelled;
+    private volatile SocketChannel channel;
+    private long lastProgress;
+
+    private FileTransfer(String host, int port, String id, Path file, long size, boolean upload, Listener listener) {
+        this.host = host;
+        this.port = port;
+        this.id = id;
+        this.file = file;
+        this.size = size;
+        this.upload = upload;
+        this.listener = listener;
+    }
+
+    public static FileTransfer upload(String host, int port, String id, Path file, long size, Listener listener) {
+        return new FileTransfer(host, port, id, file, size, true, listener);
+    }
+
+    public static FileTransfer download(String host, int port, String id, Path target, long size, Listener listener) {
+        return new FileTransfer(host, port, id, target, size, false, listener);
+    }
+
+    public FileTransfer start() {
+        Thread t = new Thread(this, "file-transfer-" + id.substring(0, Math.min(8, id.length())));
+        t.setDaemon(true);
+        t.start();
+        return this;
+    }
+
+    /**
+     * 停止传输（任意线程）：关闭连接，不再重试，也不再回调
+     */
+    public void cancel() {
+        cancelled = true;
+        SocketChannel c = channel;
+        if (c != null) {
+            try {
+                c.close();
+            } catch (IOException ignored) {
+                // 正在关闭
+            }
+        }
+    }
+
+    public String id() {
+        return id;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public void run() {
+        int failures = 0;
+        while (!cancelled) {
+            try {
+                if (upload) {
+                    uploadOnce();
+                } else {
+                    downloadOnce();
+                }
+                listener.finished(this, null);
+                return;
+            } catch (IOException e) {
+                if (cancelled) {
+                    return;
+                }
+                if (e instanceof RefusedException || ++failures > RETRIES) {
+                    listener.finished(this, e.getMessage());
+                    return;
+                }
+                try {
+                    Thread.sleep(RETRY_MILLIS); // 稍后续传
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void uploadOnce() throws IOException {
+        try (SocketChannel c = connect(); FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            long pos = handshake(c, "PUT|" + id);
+            while (pos < size) {
+                long n = in.transferTo(pos, Math.min(CHUNK_BYTES, size - pos), c);
+                if (n <= 0) {
+                    throw new RefusedException("文件在发送过程中被修改");
+                }
+                pos += n;
+                report(pos);
+            }
+        }
+    }
+
+    private void downloadOnce() throws IOException {
+        Path part = file.resolveSibling(file.getFileName() + ".part");
+        try (SocketChannel c = connect();
+             FileChannel out = FileChannel.open(part, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            long pos = out.size();
+            if (pos > size) {
+                out.truncate(0);
+                pos = 0;
+            }
+            handshake(c, "GET|" + id + "|" + pos);
+            while (pos < size) {
+                long n = out.transferFrom(c, pos, Math.min(CHUNK_BYTES, size - pos));
+                if (n <= 0) {
+                    throw new EOFException("连接中断");
+                }
+                pos += n;
+                report(pos);
+            }
+        }
+        Files.move(part, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private SocketChannel connect() throws IOException {
+        SocketChannel c = SocketChannel.open(new InetSocketAddress(host, port));
+        channel = c;
+        if (cancelled) {
+            c.close();
+        }
+        return c;
+    }
+
+    /**
+     * 发送请求头并读取回复行：OK|数值 返回数值，ERR|原因 抛出 RefusedException
+     */
+    private static long handshake(SocketChannel c, String request) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap((request + "\n").getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            c.write(buffer);
+        }
+        Socket socket = c.socket();
+        socket.setSoTimeout(HEADER_TIMEOUT_MILLIS);
+        InputStream in = socket.getInputStream();
+        byte[] line = new byte[MAX_HEADER_BYTES];
+        int length = 0;
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b < 0 || length == line.length) {
+                throw new EOFException("服务器回复不完整");
+            }
+            line[length++] = (byte) b;
+        }
+        socket.setSoTimeout(0);
+        String reply = new String(line, 0, length, StandardCharsets.UTF_8).trim();
+        if (reply.startsWith("ERR|")) {
+            throw new RefusedException(reply.substring(4));
+        }
+        try {
+            return Long.parseLong(reply.substring(reply.indexOf('|') + 1));
+        } catch (NumberFormatException e) {
+            throw new RefusedException("服务器回复格式错误：" + reply);
+        }
+    }
+
+    private void report(long done) {
+        long now = System.nanoTime();
+        if (done == size || now - lastProgress >= PROGRESS_INTERVAL_NANOS) {
+            lastProgress = now;
+            listener.progress(this, done);
+        }
+    }
+}
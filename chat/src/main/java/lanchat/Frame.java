@@ -0,0 +1,204 @@
+package lanchat;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 待发送的一帧：广播时所有接收者共享同一个 Frame，创建后内容不可修改（只在写入消息日志后记下序号）
+ * 每种编码只在第一次需要时编码一次并缓存，同一编码的接收者共享同一份字节
+ */
+public final class Frame {
+
+    /**
+     * 帧类别：出站队列溢出时据此决定可丢弃或可合并的帧
+     */
+    public enum Kind {
+        CHAT,      // 群聊、私聊及系统提示，不可丢弃
+        PRESENCE,  // 上线/下线通知、在线状态增量（丢失后客户端按序号缺口重新同步）
+        USER_LIST  // 完整用户列表或在线状态快照，新的一帧可取代旧的
+    }
+
+    private volatile Message message; // 转发帧在需要其他编码时才解码；预编码帧始终为 null
+    private final Codec source;        // 转发帧的原始编码，其他帧为 null
+    private final byte[] raw;          // 与编码无关的预编码字节（如 WELCOME），普通帧为 null
+    private final ByteBuffer stored;   // 历史记录帧：消息日志映射内存上的 BinaryCodec 字节，其他帧为 null
+    private final byte type;           // 消息类型编号，用于统计
+    private final Kind kind;
+    private final AtomicReferenceArray<byte[]> encoded; // 编码编号 → 编码结果
+    private volatile long loggedSeq = -1; // 写入消息日志后的序号，未写入为 -1
+
+    private Frame(Message message, Codec source, byte[] raw, ByteBuffer stored, byte type, Kind kind) {
+        this.message = message;
+        this.source = source;
+        this.raw = raw;
+        this.stored = stored;
+        this.type = type;
+        this.kind = kind;
+        this.encoded = raw == null ? new AtomicReferenceArray<byte[]>(Codec.MAX_CODECS) : null;
+    }
+
+    /**
+     * 由消息创建帧，类别由消息类型决定
+     */
+    public static Frame of(Message message) {
+        return new Frame(message, null, null, null, message.type(), kindOf(message));
+    }
+
+    /**
+     * 原样转发客户端发来的聊天帧：复制一次原始字节，使用相同编码的接收者直接发送这份字节，
+     * 只有存在其他编码的接收者时才解码并重新编码
+     */
+    public static Frame forward(FrameView view) {
+        Frame frame = new Frame(null, view.codec(), null, null, view.type(), Kind.CHAT);
+        frame.encoded.set(view.codec().id(), view.copyFrame());
+        return frame;
+    }
+
+    /**
+     * 纯文本提示帧
+     */
+    public static Frame text(String text) {
+        return of(Message.text(text));
+    }
+
+    /**
+     * 不论接收者使用哪种编码都原样发送的帧（用于切换编码前的 WELCOME）
+     */
+    public static Frame preEncoded(byte type, byte[] bytes) {
+        return new Frame(null, null, bytes, null, type, Kind.CHAT);
+    }
+
+    /**
+     * 消息日志中的一条记录（BinaryCodec 编码的只读切片）：二进制接收者直接写出映射内存，
+     * 其他编码在第一次需要时解码
+     */
+    public static Frame stored(ByteBuffer binaryFrame) {
+        int pos = binaryFrame.position();
+        while (binaryFrame.get(pos) < 0) {
+            pos++; // 跳过 varint 帧体长度
+        }
+        return new Frame(null, BinaryCodec.INSTANCE, null, binaryFrame, binaryFrame.get(pos + 1), Kind.CHAT);
+    }
+
+    private static Kind kindOf(Message message) {
+        switch (message.type()) {
+            case MessageType.LIST:
+                return Kind.USER_LIST;
+            case MessageType.PRESENCE_TYPE:
+                return message.fieldCount() > 1 && MessageType.PRESENCE_SNAPSHOT.equals(message.field(1))
+                        ? Kind.USER_LIST : Kind.PRESENCE;
+            case MessageType.ONLINE:
+            case MessageType.OFFLINE:
+                return Kind.PRESENCE;
+            default:
+                return Kind.CHAT;
+        }
+    }
+
+    public byte type() {
+        return type;
+    }
+
+    public Kind kind() {
+        return kind;
+    }
+
+    /**
+     * 由消息日志的写线程在写入后调用
+     */
+    void logged(long seq) {
+        loggedSeq = seq;
+    }
+
+    /**
+     * 该帧在消息日志中的序号，尚未写入（或不记录）时为 -1
+     */
+    long loggedSeq() {
+        return loggedSeq;
+    }
+
+    /**
+     * 转发帧与历史记录帧的原始编码（bytes(sourceCodec()) 不需要重新编码），其他帧返回 null
+     */
+    Codec sourceCodec() {
+        return source;
+    }
+
+    /**
+     * 按指定编码取得字节（首次调用时编码并缓存），调用方不得修改
+     */
+    public byte[] bytes(Codec codec) {
+        if (raw != null) {
+            return raw;
+        }
+        byte[] bytes = encoded.get(codec.id());
+        if (bytes == null) {
+            if (stored != null && codec == source) {
+                bytes = copyStored();
+            } else {
+                bytes = codec.encode(message());
+            }
+            // 并发时可能重复编码，结果相同，保留先写入的一份
+            if (!encoded.compareAndSet(codec.id(), null, bytes)) {
+                bytes = encoded.get(codec.id());
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * 帧的消息内容（转发帧与历史记录帧在第一次调用时解码）
+     */
+    Message message() {
+        Message m = message;
+        if (m == null) {
+            byte[] original = encoded.get(source.id());
+            if (original == null) {
+                original = copyStored();
+            }
+            try {
+                m = source.decode(original, 0, original.length);
+            } catch (ProtocolException e) {
+                throw new IllegalStateException(e); // 转发前已由同一编码解析过，不会出错
+            }
+            message = m; // 并发时可能重复解码，结果相同
+        }
+        return m;
+    }
+
+    /**
+     * @return 写出的字节数
+     */
+    public int writeTo(OutputStream out, Codec codec) throws IOException {
+        byte[] bytes = bytes(codec);
+        out.write(bytes);
+        return bytes.length;
+    }
+
+    /**
+     * 用连接自己的压缩流压缩这一帧的二进制字节（写线程调用，不缓存：压缩结果依赖该连接之前发出的数据）
+     */
+    public byte[] compress(DeflateStream stream) throws IOException {
+        byte[] bytes = raw != null ? raw : bytes(BinaryCodec.INSTANCE);
+        return stream.compress(bytes, 0, bytes.length);
+    }
+
+    /**
+     * 返回只读视图：每个接收者各自的读写位置，底层字节数组共享，不复制
+     */
+    public ByteBuffer buffer(Codec codec) {
+        if (stored != null && codec == source) {
+            return stored.duplicate(); // 直接写出映射内存
+        }
+        return ByteBuffer.wrap(bytes(codec)).asReadOnlyBuffer();
+    }
+
+    private byte[] copyStored() {
+        byte[] copy = new byte[stored.remaining()];
+        stored.duplicate().get(copy);
+        return copy;
+    }
+}
@@ -0,0 +1,156 @@
+package lanchat;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * 从阻塞输入流中按当前编码切出完整帧（线程模式的服务器与客户端共用）
+ * 内部缓冲区重复使用；握手后切换编码时，已读入缓冲区的后续数据按新编码解析
+ * 启用压缩（见 DeflateStream）后，先切出线路帧解压到第二个缓冲区，再从中按编码切帧
+ * 只允许一个线程读取
+ */
+public class FrameReader {
+
+    private final InputStream in;
+    private Codec codec;
+    private byte[] buf = new byte[8192];
+    private int start; // 未处理数据的起点
+    private int end;   // 未处理数据的终点
+    private DeflateStream stream; // 启用压缩后不为 null
+    private byte[] plain;         // 解压后尚未处理的数据
+    private int plainStart;
+    private int plainEnd;
+
+    public FrameReader(InputStream in, Codec codec) {
+        this.in = in;
+        this.codec = codec;
+    }
+
+    public void setCodec(Codec codec) {
+        this.codec = codec;
+    }
+
+    public Codec getCodec() {
+        return codec;
+    }
+
+    /**
+     * 启用压缩：此后读入的数据（包括已在缓冲区中的）都是压缩流的线路帧
+     */
+    public void setCompression(DeflateStream stream) {
+        this.stream = stream;
+        this.plain = new byte[8192];
+    }
+
+    /**
+     * 读取下一条消息
+     * @return 对方正常关闭连接时返回 null
+     */
+    public Message read() throws IOException {
+        int length = nextFrame(codec);
+        if (length < 0) {
+            return null;
+        }
+        Message message = stream == null ? codec.decode(buf, start, length) : codec.decode(plain, plainStart, length);
+        skip(length);
+        return message;
+    }
+
+    /**
+     * 读取下一帧到 view（不创建字符串），view 在下一次读取前有效
+     * @return 对方正常关闭连接时返回 false
+     */
+    public boolean read(FrameView view) throws IOException {
+        int length = nextFrame(codec);
+        if (length < 0) {
+            return false;
+        }
+        if (stream == null) {
+            codec.view(buf, start, length, view);
+        } else {
+            codec.view(plain, plainStart, length, view);
+        }
+        skip(length);
+        return true;
+    }
+
+    /**
+     * 按文本行读取握手首行（不解析前缀）
+     * @return 对方正常关闭连接时返回 null
+     */
+    public String readLine() throws IOException {
+        int length = fill(TextCodec.INSTANCE);
+        if (length < 0) {
+            return null;
+        }
+        String line = TextCodec.decodeLine(buf, start, length);
+        start += length;
+        return line;
+    }
+
+    private void skip(int length) {
+        if (stream == null) {
+            start += length;
+        } else {
+            plainStart += length;
+        }
+    }
+
+    /**
+     * 保证当前数据（未压缩时为读缓冲区，压缩时为解压缓冲区）中至少有一整帧
+     * @return 帧长度；在帧边界上遇到流结束时返回 -1
+     */
+    private int nextFrame(Codec codec) throws IOException {
+        if (stream == null) {
+            return fill(codec);
+        }
+        int length;
+        while ((length = codec.frameLength(plain, plainStart, plainEnd - plainStart)) < 0) {
+            int wire = fill(BinaryCodec.INSTANCE); // 线路帧的长度前缀与二进制帧相同
+            if (wire < 0) {
+                if (plainEnd > plainStart) {
+                    throw new EOFException("连接在帧中途关闭");
+                }
+                return -1;
+            }
+            System.arraycopy(plain, plainStart, plain, 0, plainEnd - plainStart);
+            plainEnd -= plainStart;
+            plainStart = 0;
+            if (plain.length - plainEnd <= DeflateStream.MAX_INFLATED_BYTES) {
+                plain = Arrays.copyOf(plain, plainEnd + DeflateStream.MAX_INFLATED_BYTES + 1);
+            }
+            plainEnd += stream.inflate(buf, start, wire, plain, plainEnd);
+            start += wire;
+        }
+        return length;
+    }
+
+    /**
+     * 保证读缓冲区中至少有一整帧（未压缩的帧或压缩流的线路帧）
+     * @return 帧长度；在帧边界上遇到流结束时返回 -1
+     */
+    private int fill(Codec codec) throws IOException {
+        int length;
+        while ((length = codec.frameLength(buf, start, end - start)) < 0) {
+            if (start > 0) {
+                System.arraycopy(buf, start, buf, 0, end - start); // 整理缓冲区，腾出尾部空间
+                end -= start;
+                start = 0;
+            }
+            if (end == buf.length) {
+                buf = Arrays.copyOf(buf, buf.length * 2); // frameLength 会在超过单帧上限时报错，这里不会无限增长
+            }
+            int n = in.read(buf, end, buf.length - end);
+            if (n < 0) {
+                if (end - start > 0) {
+                    throw new EOFException("连接在帧中途关闭");
+                }
+                return -1;
+            }
+            end += n;
+        }
+        return length;
+    }
+}
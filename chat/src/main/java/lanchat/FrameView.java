@@ -0,0 +1,105 @@
+package lanchat;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * 一帧的零拷贝视图：类型编号与各字段在接收缓冲区中的位置，不创建任何字符串
+ * 每个读取方（读线程或 NIO 连接）持有一个并重复使用，只在本次回调期间有效；
+ * 需要保留的帧用 copyFrame() 复制原始字节后原样转发
+ */
+public final class FrameView {
+
+    static final int MAX_FIELDS = 8;
+
+    private byte[] buf;
+    private int offset;  // 整帧（含长度前缀或换行）的起点
+    private int length;  // 整帧长度
+    private Codec codec; // 该帧所用的编码
+    private byte type;
+    private int fieldCount;
+    private final int[] fieldOffsets = new int[MAX_FIELDS];
+    private final int[] fieldLengths = new int[MAX_FIELDS];
+    private final SessionRegistry.NameKey probe = new SessionRegistry.NameKey(); // 按字段查找在线用户时复用
+
+    /**
+     * 由 Codec.view 调用：指向新的一帧并清空字段
+     */
+    void reset(Codec codec, byte[] buf, int offset, int length, byte type) {
+        this.codec = codec;
+        this.buf = buf;
+        this.offset = offset;
+        this.length = length;
+        this.type = type;
+        this.fieldCount = 0;
+    }
+
+    void addField(int fieldOffset, int fieldLength) {
+        fieldOffsets[fieldCount] = fieldOffset;
+        fieldLengths[fieldCount] = fieldLength;
+        fieldCount++;
+    }
+
+    public Codec codec() {
+        return codec;
+    }
+
+    public byte type() {
+        return type;
+    }
+
+    /**
+     * 整帧字节数（含长度前缀或换行）
+     */
+    public int frameLength() {
+        return length;
+    }
+
+    public int fieldCount() {
+        return fieldCount;
+    }
+
+    /**
+     * 字段内容（会创建字符串，只用于出错提示等冷路径）
+     */
+    public String field(int index) {
+        return new String(buf, fieldOffsets[index], fieldLengths[index], StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 字段在 buffer() 中的起点与字节数，供需要直接读取字节的调用方使用
+     */
+    int fieldOffset(int index) {
+        return fieldOffsets[index];
+    }
+
+    int fieldLength(int index) {
+        return fieldLengths[index];
+    }
+
+    byte[] buffer() {
+        return buf;
+    }
+
+    /**
+     * 以字段字节作为在线用户名查找键，返回的对象在下一次调用时被覆盖
+     */
+    SessionRegistry.NameKey fieldKey(int index) {
+        return probe.set(buf, fieldOffsets[index], fieldLengths[index]);
+    }
+
+    /**
+     * 复制整帧原始字节（含长度前缀或换行），用于原样转发
+     */
+    public byte[] copyFrame() {
+        return Arrays.copyOfRange(buf, offset, offset + length);
+    }
+
+    public Message toMessage() {
+        String[] fields = new String[fieldCount];
+        for (int i = 0; i < fieldCount; i++) {
+            fields[i] = field(i);
+        }
+        return Message.wrap(type, fields);
+    }
+}
@@ -0,0 +1,71 @@
+package lanchat;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * 握手首行解析：「用户名」、「用户名|功能1,功能2」或「用户名|功能1,功能2|续传序号」
+ * 旧版客户端只发送用户名，不带任何功能，服务器按原协议与其通信；续传序号只在断线重连（resume-v1）时带上
+ */
+public final class Handshake {
+
+    private final String username;
+    private final Set<String> features;
+    private final long resumeSeq;
+
+    private Handshake(String username, Set<String> features, long resumeSeq) {
+        this.username = username;
+        this.features = features;
+        this.resumeSeq = resumeSeq;
+    }
+
+    /**
+     * @param line 客户端发送的首行，连接在握手前断开时为 null
+     */
+    public static Handshake parse(String line) {
+        if (line == null) {
+            return new Handshake(null, Collections.<String>emptySet(), -1);
+        }
+        int bar = line.indexOf('|');
+        if (bar < 0) {
+            return new Handshake(line.trim(), Collections.<String>emptySet(), -1);
+        }
+        int end = line.indexOf('|', bar + 1);
+        long resumeSeq = -1;
+        if (end >= 0) {
+            try {
+                resumeSeq = Long.parseLong(line.substring(end + 1).trim());
+            } catch (NumberFormatException e) {
+                resumeSeq = -1; // 格式错误按普通登录处理
+            }
+        } else {
+            end = line.length();
+        }
+        Set<String> features = new LinkedHashSet<>();
+        for (String feature : line.substring(bar + 1, end).split(",")) {
+            if (!feature.trim().isEmpty()) {
+                features.add(feature.trim());
+            }
+        }
+        return new Handshake(line.substring(0, bar).trim(), features, Math.max(resumeSeq, -1));
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    /**
+     * 客户端请求的功能（可能包含服务器不认识的功能）
+     */
+    public Set<String> getFeatures() {
+        return features;
+    }
+
+    /**
+     * 客户端最近收到的历史序号（[RESUME]），普通登录时为 -1
+     */
+    public long getResumeSeq() {
+        return resumeSeq;
+    }
+}
@@ -0,0 +1,159 @@
+package lanchat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 心跳与空闲连接检测：一个时间轮管理所有协商了 heartbeat-v1 的会话，整个服务器只用一条线程
+ * 收到数据时会话只记录时间（ChatSession.lastReadNanos），不触碰时间轮；每个会话在轮上只有一个检查点，到期时：
+ * 空闲不足 --heartbeat-interval 秒则顺延到下一个检查点；达到则发送 [PING]，在 --idle-timeout 秒时再检查；
+ * 超过 --idle-timeout 秒仍没有任何数据（PONG 也算）则关闭连接，由读线程或事件循环按正常下线流程广播下线通知
+ * 每个会话每个心跳周期最多检查两次，代价与在线人数成正比，与消息量无关
+ */
+public final class HeartbeatWheel {
+
+    static final LongAdder PINGS = new LongAdder();       // 发出的 PING
+    static final LongAdder IDLE_CLOSED = new LongAdder(); // 因空闲超时断开的连接
+
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+    private static final int SLOTS = 128; // 2 的幂，一圈 64 秒；更远的检查点留在槽中，转到对应的圈数才处理
+
+    /**
+     * 时间轮上的一个会话，只在时间轮线程中修改
+     */
+    private static final class Entry {
+        final ChatSession session;
+        long deadlineTick;
+        long pingedFor = -1; // 已为哪一个「最近收到数据的时间」发过 PING，同一段空闲只发一次
+
+        Entry(ChatSession session) {
+            this.session = session;
+        }
+    }
+
+    private final SessionRegistry onlineUsers;
+    private final long intervalNanos;
+    private final long timeoutNanos;
+    private final List<List<Entry>> slots = new ArrayList<>(SLOTS);
+    private final Queue<Entry> added = new ConcurrentLinkedQueue<>(); // 登录线程加入，时间轮线程取出
+    private final List<Entry> due = new ArrayList<>();
+    private final long startNanos;
+    private long tick; // 下一个要处理的刻度
+
+    /**
+     * @param startNanos 刻度 0 的时间（System.nanoTime()，测试中可任意给定）
+     */
+    HeartbeatWheel(SessionRegistry onlineUsers, long intervalNanos, long timeoutNanos, long startNanos) {
+        this.onlineUsers = onlineUsers;
+        this.intervalNanos = intervalNanos;
+        this.timeoutNanos = timeoutNanos;
+        this.startNanos = startNanos;
+        for (int i = 0; i < SLOTS; i++) {
+            slots.add(new ArrayList<>());
+        }
+    }
+
+    /**
+     * 按启动参数创建并启动时间轮；--heartbeat-interval=0 时返回 null（不接受 heartbeat-v1）
+     */
+    public static HeartbeatWheel create(ServerConfig config, SessionRegistry onlineUsers) {
+        if (config.getHeartbeatInterval() <= 0) {
+            return null;
+        }
+        HeartbeatWheel wheel = new HeartbeatWheel(onlineUsers,
+                TimeUnit.SECONDS.toNanos(config.getHeartbeatInterval()), TimeUnit.SECONDS.toNanos(config.getIdleTimeout()),
+                System.nanoTime());
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "heartbeat-wheel");
+            t.setDaemon(true);
+            return t;
+        });
+        timer.scheduleAtFixedRate(() -> wheel.advance(System.nanoTime()), TICK_NANOS, TICK_NANOS, TimeUnit.NANOSECONDS);
+        return wheel;
+    }
+
+    /**
+     * 登录成功的会话加入检测（任意线程）；下线的会话在下一个检查点自动移除
+     */
+    public void add(ChatSession session) {
+        added.add(new Entry(session));
+    }
+
+    /**
+     * 时间轮线程：处理到 now 为止的所有刻度（线程被延误时一次补上）
+     */
+    void advance(long now) {
+        try {
+            long current = (now - startNanos) / TICK_NANOS;
+            Frame ping = null;
+            for (; tick <= current; tick++) {
+                Entry entry;
+                while ((entry = added.poll()) != null) {
+                    schedule(entry, entry.session.lastReadNanos() + intervalNanos);
+                }
+                collectDue(slots.get((int) (tick & (SLOTS - 1))));
+                for (Entry e : due) {
+                    if (ping == null) {
+                        ping = Frame.of(Message.of(MessageType.PING_TYPE, String.valueOf(System.currentTimeMillis())));
+                    }
+                    check(e, now, ping);
+                }
+                due.clear();
+            }
+        } catch (RuntimeException e) {
+            Log.error("心跳检测异常：{}", e.toString()); // 不让异常终止定时任务
+        }
+    }
+
+    /**
+     * 把槽中已到期的条目移到 due，未到圈数的留下（交换删除，不保持顺序）
+     */
+    private void collectDue(List<Entry> slot) {
+        for (int i = slot.size() - 1; i >= 0; i--) {
+            Entry e = slot.get(i);
+            if (e.deadlineTick <= tick) {
+                due.add(e);
+                Entry last = slot.remove(slot.size() - 1);
+                if (i < slot.size()) {
+                    slot.set(i, last);
+                }
+            }
+        }
+    }
+
+    private void check(Entry e, long now, Frame ping) {
+        ChatSession session = e.session;
+        String username = session.getUsername();
+        if (username == null || onlineUsers.get(username) != session) {
+            return; // 已下线
+        }
+        long last = session.lastReadNanos();
+        long idle = now - last;
+        if (idle >= timeoutNanos) {
+            IDLE_CLOSED.increment();
+            Log.info("连接空闲超时，断开：{}（{} 秒无数据）", username, TimeUnit.NANOSECONDS.toSeconds(idle));
+            session.close(); // 读线程或事件循环随之完成下线清理
+            return;
+        }
+        if (idle >= intervalNanos && e.pingedFor != last) {
+            e.pingedFor = last;
+            PINGS.increment();
+            session.send(ping);
+        }
+        schedule(e, last + (e.pingedFor == last ? timeoutNanos : intervalNanos));
+    }
+
+    /**
+     * 把条目放到 atNanos 所在的刻度（向上取整，至少是下一个刻度）
+     */
+    private void schedule(Entry e, long atNanos) {
+        e.deadlineTick = Math.max(tick + 1, (atNanos - startNanos + TICK_NANOS - 1) / TICK_NANOS);
+        slots.get((int) (e.deadlineTick & (SLOTS - 1))).add(e);
+    }
+}
@@ -0,0 +1,509 @@
+package lanchat;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 无界面的压测客户端：经回环地址建立大量连接、完成握手后按指定速率发送群聊与私聊消息，
+ * 统计吞吐量与端到端投递延迟（p50/p99/p999）
+ * 消息内容开头嵌入计划发送时刻（纳秒），接收方据此计算延迟；按计划时刻而不是实际发送时刻计时，
+ * 压测端自身落后时的排队时间也计入延迟，不会被掩盖
+ * 少量 Selector 线程承载全部连接，每个线程只向自己负责的连接发送
+ *
+ * 用法：java -cp lanchat.jar lanchat.LoadGenerator --clients=2000 --rate=5000 --duration=30
+ */
+public class LoadGenerator {
+
+    private String host = "127.0.0.1";
+    private int port = ChatServer.SERVER_PORT;
+    private int clients = 1000;
+    private int rate = 1000;            // 每秒发送的消息总数（所有连接合计）
+    private int privatePercent = 10;    // 私聊消息所占百分比，其余为群聊
+    private int channels;               // 大于 0 时连接轮流加入这么多个频道，非私聊消息发到自己的频道而不是群聊
+    private int messageSize = 64;       // 消息内容字节数（含时间戳）
+    private int warmup = 5;             // 预热秒数，期间的延迟不计入结果
+    private int duration = 30;          // 统计秒数
+    private int threads = Math.min(4, Runtime.getRuntime().availableProcessors());
+    private String codecName = "text";  // text / binary（协商 binary-v1）/ deflate（另协商 deflate-v2）
+    private String namePrefix = "load";
+
+    private final long origin = System.nanoTime();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder bytesReceived = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final AtomicInteger loggedIn = new AtomicInteger();
+    private volatile boolean running = true;
+    private Worker[] workers;
+
+    public static void main(String[] args) throws Exception {
+        LoadGenerator generator;
+        try {
+            generator = parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(2);
+            return;
+        }
+        generator.run();
+        System.exit(0);
+    }
+
+    /**
+     * 解析 --key=value 参数（与 ChatServer 相同的格式）
+     * @throws IllegalArgumentException 参数无法识别或取值非法
+     */
+    static LoadGenerator parse(String[] args) {
+        LoadGenerator g = new LoadGenerator();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (!arg.startsWith("--") || eq < 0) {
+                throw new IllegalArgumentException("参数格式错误（应为 --key=value）：" + arg);
+            }
+            String key = arg.substring(2, eq);
+            String value = arg.substring(eq + 1);
+            switch (key) {
+                case "host":
+                    g.host = value;
+                    break;
+                case "port":
+                    g.port = ServerConfig.parseInt(key, value, 1, 65535);
+                    break;
+                case "clients":
+                    g.clients = ServerConfig.parseInt(key, value, 1, 1 << 20);
+                    break;
+                case "rate":
+                    g.rate = ServerConfig.parseInt(key, value, 1, 10000000);
+                    break;
+                case "private-percent":
+                    g.privatePercent = ServerConfig.parseInt(key, value, 0, 100);
+                    break;
+                case "channels":
+                    g.channels = ServerConfig.parseInt(key, value, 0, 1 << 20);
+                    break;
+                case "message-size":
+                    g.messageSize = ServerConfig.parseInt(key, value, 24, Codec.MAX_FRAME_BYTES / 2);
+                    break;
+                case "warmup":
+                    g.warmup = ServerConfig.parseInt(key, value, 0, 3600);
+                    break;
+                case "duration":
+                    g.duration = ServerConfig.parseInt(key, value, 1, 86400);
+                    break;
+                case "threads":
+                    g.threads = ServerConfig.parseInt(key, value, 1, 256);
+                    break;
+                case "codec":
+                    if (!"text".equals(value) && !"binary".equals(value) && !"deflate".equals(value)) {
+                        throw new IllegalArgumentException("未知编码：" + value + "（可选 text / binary / deflate）");
+                    }
+                    g.codecName = value;
+                    break;
+                case "name-prefix":
+                    g.namePrefix = value;
+                    break;
+                default:
+                    throw new IllegalArgumentException("未知参数：--" + key);
+            }
+        }
+        return g;
+    }
+
+    void run() throws IOException, InterruptedException {
+        workers = new Worker[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Worker(i);
+            Thread t = new Thread(workers[i], "load-worker-" + i);
+            t.setDaemon(true);
+            t.start();
+        }
+
+        // 1. 建立连接并发送握手（阻塞连接，之后交给 Worker 以非阻塞方式读写）
+        System.out.println("连接 " + host + ":" + port + "，客户端 " + clients + "，编码 " + codecName);
+        InetSocketAddress address = new InetSocketAddress(host, port);
+        String requested = "|" + MessageType.FEATURE_PRESENCE;
+        if (!"text".equals(codecName)) {
+            requested += "," + MessageType.FEATURE_BINARY;
+        }
+        if ("deflate".equals(codecName)) {
+            requested += "," + MessageType.FEATURE_DEFLATE;
+        }
+        byte[] features = requested.getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < clients; i++) {
+            SocketChannel channel = SocketChannel.open(address);
+            channel.socket().setTcpNoDelay(true);
+            String name = namePrefix + i;
+            byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+            ByteBuffer handshake = ByteBuffer.allocate(nameBytes.length + features.length + 1);
+            handshake.put(nameBytes).put(features).put((byte) '\n').flip();
+            while (handshake.hasRemaining()) {
+                channel.write(handshake);
+            }
+            channel.configureBlocking(false);
+            String channelName = channels > 0 ? namePrefix + "-ch" + (i % channels) : null;
+            workers[i % threads].add(new Client(channel, name, channelName));
+            if ((i + 1) % 1000 == 0) {
+                System.out.println("已连接 " + (i + 1));
+            }
+        }
+        long deadline = System.currentTimeMillis() + 30000;
+        while (loggedIn.get() + errors.intValue() < clients && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        System.out.println("登录成功 " + loggedIn.get() + "/" + clients + "，开始发送：" + rate + " 条/秒，私聊 "
+                + privatePercent + "%，内容 " + messageSize + " 字节");
+
+        // 2. 按速率发送：预热结束后清空统计，再测量 duration 秒
+        long start = System.nanoTime() - origin;
+        for (Worker worker : workers) {
+            worker.startSending(start, rate / (double) threads);
+        }
+        Thread.sleep(warmup * 1000L);
+        for (Worker worker : workers) {
+            worker.latency.reset();
+        }
+        long sentBase = sent.sum();
+        long deliveredBase = delivered.sum();
+        long bytesBase = bytesReceived.sum();
+        long measureStart = System.nanoTime();
+        long lastSent = sentBase;
+        long lastDelivered = deliveredBase;
+        for (int second = 1; second <= duration; second++) {
+            Thread.sleep(1000);
+            long s = sent.sum();
+            long d = delivered.sum();
+            System.out.printf("[%3ds] 发送 %d/s，投递 %d/s，p99 %.2f ms，错误 %d%n",
+                    second, s - lastSent, d - lastDelivered, latency().percentile(99) / 1e6, errors.sum());
+            lastSent = s;
+            lastDelivered = d;
+        }
+        for (Worker worker : workers) {
+            worker.stopSending();
+        }
+        double seconds = (System.nanoTime() - measureStart) / 1e9;
+        Thread.sleep(1000); // 等待在途消息投递完毕
+        running = false;
+
+        // 3. 汇总
+        long totalSent = sent.sum() - sentBase;
+        long totalDelivered = delivered.sum() - deliveredBase;
+        LatencyHistogram latency = latency();
+        System.out.println("=== 结果（" + duration + " 秒，不含 " + warmup + " 秒预热）===");
+        System.out.printf("发送：%d 条，%.0f 条/秒%n", totalSent, totalSent / seconds);
+        System.out.printf("投递：%d 条，%.0f 条/秒，%.1f MB/秒%n",
+                totalDelivered, totalDelivered / seconds, (bytesReceived.sum() - bytesBase) / seconds / 1e6);
+        System.out.printf("延迟：p50 %.3f ms，p99 %.3f ms，p999 %.3f ms，最大 %.3f ms，平均 %.3f ms（%d 个样本）%n",
+                latency.percentile(50) / 1e6, latency.percentile(99) / 1e6, latency.percentile(99.9) / 1e6,
+                latency.max() / 1e6, latency.mean() / 1e6, latency.count());
+        System.out.println("错误/断开：" + errors.sum());
+    }
+
+    /**
+     * 汇总各 Worker 的延迟直方图
+     */
+    private LatencyHistogram latency() {
+        LatencyHistogram merged = new LatencyHistogram();
+        for (Worker worker : workers) {
+            merged.add(worker.latency);
+        }
+        return merged;
+    }
+
+    /**
+     * 消息内容：计划发送时刻（纳秒，十进制）+ 空格 + 填充，总长 messageSize 字节
+     */
+    private String content(long intendedNanos) {
+        StringBuilder sb = new StringBuilder(messageSize).append(intendedNanos).append(' ');
+        while (sb.length() < messageSize) {
+            sb.append((char) ('a' + sb.length() % 26));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 解析内容开头的时间戳并记录延迟，不创建字符串
+     */
+    private static void recordLatency(LatencyHistogram latency, long origin, FrameView view, int contentField) {
+        byte[] buf = view.buffer();
+        int pos = view.fieldOffset(contentField);
+        int end = pos + view.fieldLength(contentField);
+        long intended = 0;
+        int digits = 0;
+        while (pos < end && buf[pos] >= '0' && buf[pos] <= '9') {
+            intended = intended * 10 + (buf[pos++] - '0');
+            digits++;
+        }
+        if (digits > 0) {
+            latency.record(System.nanoTime() - origin - intended);
+        }
+    }
+
+    /**
+     * 一个 Selector 线程：负责一部分连接的读取、发送与写出
+     */
+    private final class Worker implements Runnable {
+        private final int index;
+        private final Selector selector;
+        private final Queue<Client> pending = new ConcurrentLinkedQueue<>(); // 主线程新建、待注册的连接
+        private final List<Client> clientList = new ArrayList<>();
+        private final FrameView view = new FrameView();
+        private final LatencyHistogram latency = new LatencyHistogram(); // 只由本线程记录，避免争用
+        private volatile double ratePerSecond;
+        private volatile long sendStart = -1; // 相对 origin 的纳秒，-1 表示未开始或已停止
+        private long scheduled;               // 已发送的条数（即下一条的计划序号）
+
+        Worker(int index) throws IOException {
+            this.index = index;
+            this.selector = Selector.open();
+        }
+
+        void add(Client client) {
+            pending.add(client);
+            selector.wakeup();
+        }
+
+        void startSending(long start, double ratePerSecond) {
+            this.ratePerSecond = ratePerSecond;
+            this.sendStart = start;
+        }
+
+        void stopSending() {
+            sendStart = -1;
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    selector.select(1);
+                    Client client;
+                    while ((client = pending.poll()) != null) {
+                        client.key = client.channel.register(selector, SelectionKey.OP_READ, client);
+                        clientList.add(client);
+                    }
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        Client c = (Client) key.attachment();
+                        if (key.isValid() && key.isReadable()) {
+                            c.onReadable(view, latency);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            c.flush();
+                        }
+                    }
+                    sendDue();
+                } catch (IOException e) {
+                    System.err.println("load-worker-" + index + "：" + e);
+                }
+            }
+        }
+
+        /**
+         * 发送到目前为止按速率应发出的消息，每轮最多 1000 条，避免长时间不读取
+         */
+        private void sendDue() {
+            long begin = sendStart;
+            if (begin < 0 || clientList.isEmpty()) {
+                return;
+            }
+            double perNano = ratePerSecond / 1e9;
+            long due = (long) ((System.nanoTime() - origin - begin) * perNano);
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int batch = 0; scheduled < due && batch < 1000; batch++, scheduled++) {
+                long intended = begin + (long) (scheduled / perNano);
+                Client sender = clientList.get(random.nextInt(clientList.size()));
+                if (!sender.channel.isOpen()) {
+                    continue;
+                }
+                Message message;
+                if (random.nextInt(100) < privatePercent) {
+                    String receiver = namePrefix + random.nextInt(clients);
+                    message = Message.of(MessageType.PRIVATE, sender.name, receiver, content(intended));
+                } else if (sender.channelName != null) {
+                    message = Message.of(MessageType.CHANNEL, sender.channelName, sender.name, content(intended));
+                } else {
+                    message = Message.of(MessageType.GROUP, sender.name, content(intended));
+                }
+                sender.send(message);
+                sent.increment();
+            }
+        }
+    }
+
+    /**
+     * 一个模拟客户端连接（只由所属 Worker 线程访问）
+     */
+    private final class Client {
+        final SocketChannel channel;
+        final String name;
+        final String channelName; // 加入的频道，未开启 --channels 时为 null
+        SelectionKey key;
+        private boolean welcomed;
+        private Codec codec = TextCodec.INSTANCE; // 收到 WELCOME 后按服务器接受的功能切换
+        private DeflateStream compression;        // 服务器接受 deflate-v2 后不为 null
+        private byte[] plain;                     // 解压后尚未处理的数据
+        private int plainLength;
+        private byte[] in = new byte[8192];
+        private ByteBuffer inBuffer = ByteBuffer.wrap(in);
+        private final ArrayDeque<ByteBuffer> out = new ArrayDeque<>();
+
+        Client(SocketChannel channel, String name, String channelName) {
+            this.channel = channel;
+            this.name = name;
+            this.channelName = channelName;
+        }
+
+        void send(Message message) {
+            byte[] frame = codec.encode(message);
+            if (compression != null) {
+                try {
+                    frame = compression.compress(frame, 0, frame.length);
+                } catch (IOException e) {
+                    fail("压缩失败：" + e.getMessage());
+                    return;
+                }
+            }
+            out.add(ByteBuffer.wrap(frame));
+            flush();
+        }
+
+        void flush() {
+            try {
+                while (!out.isEmpty()) {
+                    ByteBuffer buffer = out.peek();
+                    channel.write(buffer);
+                    if (buffer.hasRemaining()) {
+                        key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                        return; // 内核发送缓冲区已满，等待可写
+                    }
+                    out.poll();
+                }
+                key.interestOps(SelectionKey.OP_READ);
+            } catch (IOException e) {
+                fail("发送失败：" + e.getMessage());
+            }
+        }
+
+        void onReadable(FrameView view, LatencyHistogram latency) {
+            try {
+                int n = channel.read(inBuffer);
+                if (n < 0) {
+                    fail("服务器关闭了连接");
+                    return;
+                }
+                bytesReceived.add(n);
+                int end = inBuffer.position();
+                int pos = 0;
+                int length;
+                while (compression == null && (length = codec.frameLength(in, pos, end - pos)) > 0) {
+                    codec.view(in, pos, length, view);
+                    pos += length;
+                    onFrame(view, latency);
+                }
+                // 启用压缩后（包括 WELCOME 之后同一次读到的数据）逐个解压线路帧，再切出二进制帧
+                while (compression != null && (length = BinaryCodec.INSTANCE.frameLength(in, pos, end - pos)) > 0) {
+                    if (plain.length - plainLength <= DeflateStream.MAX_INFLATED_BYTES) {
+                        plain = Arrays.copyOf(plain, plainLength + DeflateStream.MAX_INFLATED_BYTES + 1);
+                    }
+                    plainLength += compression.inflate(in, pos, length, plain, plainLength);
+                    pos += length;
+                    int p = 0;
+                    int frameLength;
+                    while ((frameLength = codec.frameLength(plain, p, plainLength - p)) > 0) {
+                        codec.view(plain, p, frameLength, view);
+                        p += frameLength;
+                        onFrame(view, latency);
+                    }
+                    System.arraycopy(plain, p, plain, 0, plainLength - p);
+                    plainLength -= p;
+                }
+                System.arraycopy(in, pos, in, 0, end - pos);
+                inBuffer.position(end - pos);
+                if (!inBuffer.hasRemaining()) {
+                    in = Arrays.copyOf(in, in.length * 2); // frameLength 会拒绝超过单帧上限的帧
+                    inBuffer = ByteBuffer.wrap(in);
+                    inBuffer.position(end - pos);
+                }
+            } catch (ProtocolException e) {
+                fail("协议错误：" + e.getMessage());
+            } catch (IOException e) {
+                fail("读取失败：" + e.getMessage());
+            }
+        }
+
+        private void onFrame(FrameView view, LatencyHistogram latency) {
+            switch (view.type()) {
+                case MessageType.WELCOME_TYPE:
+                    // 缓冲区中剩余的数据按新编码解析
+                    String[] welcome = view.field(0).split("\\|", 2); // 协商了 deflate-v2 时功能列表后接字典用户名
+                    Set<String> accepted = new HashSet<>(Arrays.asList(welcome[0].split(",")));
+                    codec = Codec.forFeatures(accepted);
+                    if (accepted.contains(MessageType.FEATURE_DEFLATE) && welcome.length == 2) {
+                        compression = new DeflateStream(DeflateStream.dictionary(Arrays.asList(welcome[1].split(","))));
+                        plain = new byte[8192];
+                    }
+                    welcomed = true;
+                    if (channelName != null) {
+                        send(Message.of(MessageType.CHANNEL_JOIN_TYPE, channelName)); // 在开始发送之前加入
+                    }
+                    loggedIn.incrementAndGet();
+                    break;
+                case MessageType.GROUP:
+                    if (view.fieldCount() == 2) {
+                        delivered.increment();
+                        recordLatency(latency, origin, view, 1);
+                    }
+                    break;
+                case MessageType.PRIVATE:
+                case MessageType.CHANNEL:
+                    if (view.fieldCount() == 3) {
+                        delivered.increment();
+                        recordLatency(latency, origin, view, 2);
+                    }
+                    break;
+                case MessageType.TEXT:
+                    // 服务器的提示：登录失败或私聊对象不在线
+                    if (!welcomed) {
+                        fail("登录失败：" + view.field(0));
+                    }
+                    break;
+                default:
+                    break; // 在线状态等与压测无关的消息
+            }
+        }
+
+        private void fail(String reason) {
+            if (channel.isOpen()) {
+                errors.increment();
+                if (errors.sum() <= 10) {
+                    System.err.println(reason);
+                }
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                    // 已经在关闭
+                }
+            }
+        }
+    }
+}
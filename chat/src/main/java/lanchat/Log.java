@@ -0,0 +1,171 @@
+package lanchat;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 服务器日志：按级别过滤，由后台线程异步写出
+ * 调用方只做一次级别判断和一次非阻塞入队，不在发送/转发线程上格式化字符串或争用 System.out 的锁
+ * 队列满时丢弃并计数，日志不会反过来拖慢服务器
+ * 消息中的 {} 依次替换为参数，替换在后台线程完成；级别未开启时不产生任何开销
+ */
+public final class Log {
+
+    public enum Level {
+        ERROR, WARN, INFO, DEBUG
+    }
+
+    private static final int QUEUE_CAPACITY = 8192;
+
+    private static final class Entry {
+        final long time;
+        final Level level;
+        final String message;
+        final Object arg1;
+        final Object arg2;
+
+        Entry(Level level, String message, Object arg1, Object arg2) {
+            this.time = System.currentTimeMillis();
+            this.level = level;
+            this.message = message;
+            this.arg1 = arg1;
+            this.arg2 = arg2;
+        }
+    }
+
+    static final LongAdder DROPPED = new LongAdder(); // 队列满而丢弃的日志条数
+
+    private static volatile Level level = Level.INFO;
+    private static final BlockingQueue<Entry> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+
+    static {
+        Thread writer = new Thread(Log::writeLoop, "log-writer");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(Log::drain, "log-flush"));
+    }
+
+    private Log() {
+    }
+
+    public static void setLevel(Level newLevel) {
+        level = newLevel;
+    }
+
+    public static Level getLevel() {
+        return level;
+    }
+
+    public static boolean isEnabled(Level l) {
+        return l.ordinal() <= level.ordinal();
+    }
+
+    public static boolean isDebugEnabled() {
+        return isEnabled(Level.DEBUG);
+    }
+
+    public static void error(String message, Object arg1) {
+        log(Level.ERROR, message, arg1, null);
+    }
+
+    public static void warn(String message, Object arg1) {
+        log(Level.WARN, message, arg1, null);
+    }
+
+    public static void warn(String message, Object arg1, Object arg2) {
+        log(Level.WARN, message, arg1, arg2);
+    }
+
+    public static void info(String message) {
+        log(Level.INFO, message, null, null);
+    }
+
+    public static void info(String message, Object arg1) {
+        log(Level.INFO, message, arg1, null);
+    }
+
+    public static void info(String message, Object arg1, Object arg2) {
+        log(Level.INFO, message, arg1, arg2);
+    }
+
+    public static void debug(String message, Object arg1) {
+        log(Level.DEBUG, message, arg1, null);
+    }
+
+    public static void debug(String message, Object arg1, Object arg2) {
+        log(Level.DEBUG, message, arg1, arg2);
+    }
+
+    private static void log(Level l, String message, Object arg1, Object arg2) {
+        if (l.ordinal() > level.ordinal()) {
+            return;
+        }
+        if (!queue.offer(new Entry(l, message, arg1, arg2))) {
+            DROPPED.increment();
+        }
+    }
+
+    private static void writeLoop() {
+        SimpleDateFormat format = new SimpleDateFormat("HH:mm:ss.SSS");
+        List<Entry> batch = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(queue.take());
+                queue.drainTo(batch, 255);
+                StringBuilder sb = new StringBuilder();
+                for (Entry entry : batch) {
+                    append(sb, format, entry);
+                }
+                System.out.print(sb);
+                System.out.flush();
+                batch.clear();
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 退出前写出剩余日志
+     */
+    private static void drain() {
+        SimpleDateFormat format = new SimpleDateFormat("HH:mm:ss.SSS");
+        StringBuilder sb = new StringBuilder();
+        Entry entry;
+        while ((entry = queue.poll()) != null) {
+            append(sb, format, entry);
+        }
+        System.out.print(sb);
+        System.out.flush();
+    }
+
+    private static void append(StringBuilder sb, SimpleDateFormat format, Entry entry) {
+        sb.append(format.format(new Date(entry.time))).append(' ').append(entry.level).append(' ');
+        String message = entry.message;
+        Object[] args = {entry.arg1, entry.arg2};
+        int argIndex = 0;
+        int from = 0;
+        int at;
+        while (argIndex < args.length && (at = message.indexOf("{}", from)) >= 0) {
+            sb.append(message, from, at).append(args[argIndex++]);
+            from = at + 2;
+        }
+        sb.append(message, from, message.length()).append('\n');
+    }
+
+    /**
+     * 解析 --log-level 参数
+     */
+    static Level parseLevel(String value) {
+        try {
+            return Level.valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("未知日志级别：" + value + "（可选 error / warn / info / debug）");
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package lanchat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 消息日志的一个分段：预分配大小的内存映射文件（基准序号.log）加一个稀疏索引文件（基准序号.idx）
+ * 记录 = [int 长度][long 序号][long 时间][int 会话键][帧体][int 长度]，帧体为 BinaryCodec 编码的 HISTORY_* 帧，
+ * 尾部重复的长度用于从后向前扫描；预分配的空间为 0，长度为 0 即数据结尾
+ * 只有写线程调用 append / publish / force；读者只读取 committed 之前的字节，不加锁
+ */
+final class LogSegment {
+
+    static final int HEADER = 24;
+    static final int TRAILER = 4;
+    static final int INDEX_INTERVAL = 4096; // 每写入约 4KB 数据记一条索引
+    private static final int INDEX_ENTRY = 20; // long 序号 + long 时间 + int 位置
+
+    final long baseSeq; // 本分段第一条记录的序号
+    private final Path logFile;
+    private final Path indexFile;
+    private final MappedByteBuffer map;    // 写线程独占其 position
+    private final ByteBuffer readView;     // 读者各自 duplicate，position 互不影响
+    private final FileChannel indexChannel;
+    private final ByteBuffer indexEntry = ByteBuffer.allocate(INDEX_ENTRY);
+
+    // 稀疏索引：容量按分段大小一次分配，写线程先写元素再发布 indexCount
+    private final long[] indexSeq;
+    private final long[] indexTime;
+    private final int[] indexPos;
+    private volatile int indexCount;
+
+    private volatile int committed; // 对读者可见的数据长度
+    private int position;           // 写线程的写入位置（可能尚未发布）
+    private int lastIndexed = -INDEX_INTERVAL;
+    private long lastSeq;           // 最后一条记录的序号，空分段为 baseSeq - 1
+
+    private LogSegment(Path dir, long baseSeq, int capacity) throws IOException {
+        this.baseSeq = baseSeq;
+        this.logFile = dir.resolve(String.format("%020d.log", baseSeq));
+        this.indexFile = dir.resolve(String.format("%020d.idx", baseSeq));
+        try (FileChannel channel = FileChannel.open(logFile,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            if (channel.size() > capacity) {
+                capacity = (int) Math.min(channel.size(), Integer.MAX_VALUE); // 沿用旧分段的大小
+            }
+            this.map = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity); // 映射在通道关闭后仍然有效
+        }
+        this.readView = map.asReadOnlyBuffer();
+        int maxEntries = capacity / INDEX_INTERVAL + 2;
+        this.indexSeq = new long[maxEntries];
+        this.indexTime = new long[maxEntries];
+        this.indexPos = new int[maxEntries];
+        this.indexChannel = FileChannel.open(indexFile,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.lastSeq = baseSeq - 1;
+    }
+
+    /**
+     * 创建新的空分段
+     */
+    static LogSegment create(Path dir, long baseSeq, int capacity) throws IOException {
+        LogSegment segment = new LogSegment(dir, baseSeq, capacity);
+        segment.indexChannel.truncate(0);
+        return segment;
+    }
+
+    /**
+     * 打开已有分段：读入索引文件，再从最后一条索引处向后扫描找到数据结尾
+     * 进程崩溃时最后一条记录可能不完整（长度为 0、首尾长度不一致或序号不连续），从该处截断
+     */
+    static LogSegment open(Path dir, long baseSeq, int capacity) throws IOException {
+        LogSegment segment = new LogSegment(dir, baseSeq, capacity);
+        segment.recover();
+        return segment;
+    }
+
+    private void recover() throws IOException {
+        long entries = indexChannel.size() / INDEX_ENTRY;
+        ByteBuffer buf = ByteBuffer.allocate((int) entries * INDEX_ENTRY);
+        while (buf.hasRemaining() && indexChannel.read(buf, buf.position()) > 0) {
+            // 读满为止
+        }
+        buf.flip();
+        int count = 0;
+        int pos = 0;
+        long seq = baseSeq - 1;
+        while (buf.remaining() >= INDEX_ENTRY && count < indexPos.length) {
+            long entrySeq = buf.getLong();
+            long entryTime = buf.getLong();
+            int entryPos = buf.getInt();
+            // 索引必须指向一条完整的记录，否则丢弃它及之后的索引，改为扫描
+            if (entryPos < pos || entrySeq <= seq || recordSeq(entryPos) != entrySeq) {
+                break;
+            }
+            indexSeq[count] = entrySeq;
+            indexTime[count] = entryTime;
+            indexPos[count] = entryPos;
+            count++;
+            pos = entryPos;
+            seq = entrySeq - 1;
+        }
+        indexCount = count;
+        lastIndexed = count > 0 ? indexPos[count - 1] : -INDEX_INTERVAL;
+        indexChannel.truncate((long) count * INDEX_ENTRY);
+        indexChannel.position((long) count * INDEX_ENTRY);
+
+        long nextSeq = count > 0 ? indexSeq[count - 1] : baseSeq;
+        while (recordSeq(pos) == nextSeq) {
+            if (pos - lastIndexed >= INDEX_INTERVAL) {
+                addIndex(nextSeq, map.getLong(pos + 12), pos);
+            }
+            pos += HEADER + map.getInt(pos) + TRAILER;
+            nextSeq++;
+        }
+        position = pos;
+        committed = pos;
+        lastSeq = nextSeq - 1;
+    }
+
+    /**
+     * pos 处完整记录的序号，不是完整记录时返回 -1
+     */
+    private long recordSeq(int pos) {
+        if (pos < 0 || pos + HEADER + TRAILER > map.capacity()) {
+            return -1;
+        }
+        int length = map.getInt(pos);
+        if (length <= 0 || length > map.capacity() - pos - HEADER - TRAILER
+                || map.getInt(pos + HEADER + length) != length) {
+            return -1;
+        }
+        return map.getLong(pos + 4);
+    }
+
+    /**
+     * 追加一条记录（只写入映射内存，publish 之后读者才可见）
+     * @return false 表示剩余空间不足，应滚动到新分段
+     */
+    boolean append(long seq, long time, int conversation, byte[] body) throws IOException {
+        int size = HEADER + body.length + TRAILER;
+        if (size > map.capacity() - position) {
+            return false;
+        }
+        int pos = position;
+        map.putLong(pos + 4, seq);
+        map.putLong(pos + 12, time);
+        map.putInt(pos + 20, conversation);
+        map.position(pos + HEADER);
+        map.put(body);
+        map.putInt(pos + HEADER + body.length, body.length);
+        map.putInt(pos, body.length); // 最后写入开头的长度：进程中途退出时这条记录读作不存在
+        if (pos - lastIndexed >= INDEX_INTERVAL) {
+            addIndex(seq, time, pos);
+        }
+        position = pos + size;
+        lastSeq = seq;
+        return true;
+    }
+
+    private void addIndex(long seq, long time, int pos) throws IOException {
+        int n = indexCount;
+        indexSeq[n] = seq;
+        indexTime[n] = time;
+        indexPos[n] = pos;
+        indexCount = n + 1;
+        lastIndexed = pos;
+        indexEntry.clear();
+        indexEntry.putLong(seq).putLong(time).putInt(pos).flip();
+        while (indexEntry.hasRemaining()) {
+            indexChannel.write(indexEntry);
+        }
+    }
+
+    /**
+     * 发布已写入的记录（一批记录只写一次 volatile）
+     */
+    void publish() {
+        committed = position;
+    }
+
+    /**
+     * 把映射内存与索引刷到磁盘
+     */
+    void force() throws IOException {
+        map.force();
+        indexChannel.force(false);
+    }
+
+    void close() throws IOException {
+        indexChannel.close();
+    }
+
+    /**
+     * 删除分段文件（保留策略调用）：已取得 reader() 的读者不受影响，映射在被回收前一直有效
+     */
+    void delete() throws IOException {
+        indexChannel.close();
+        Files.deleteIfExists(logFile);
+        Files.deleteIfExists(indexFile);
+    }
+
+    /**
+     * 分段文件的大小（预分配，与已写入多少无关）
+     */
+    int capacity() {
+        return map.capacity();
+    }
+
+    long lastSeq() {
+        return lastSeq;
+    }
+
+    /**
+     * 对读者可见的数据长度（读者先读它，再读之前的字节）
+     */
+    int end() {
+        return committed;
+    }
+
+    /**
+     * 读者独立使用的只读视图，与映射共享内存，不复制
+     */
+    ByteBuffer reader() {
+        return readView.duplicate();
+    }
+
+    /**
+     * 用稀疏索引二分查找扫描起点：最后一条键值小于 key 的索引位置（按序号或按时间），之前的记录都不满足条件
+     */
+    int seek(long key, boolean byTime, int end) {
+        int lo = 0;
+        int hi = indexCount - 1;
+        int found = 0;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            long value = byTime ? indexTime[mid] : indexSeq[mid];
+            if (value < key && indexPos[mid] < end) {
+                found = indexPos[mid];
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * 分段中第一条记录的时间，空分段返回 Long.MAX_VALUE
+     */
+    long firstTime() {
+        return indexCount > 0 ? indexTime[0] : Long.MAX_VALUE;
+    }
+}
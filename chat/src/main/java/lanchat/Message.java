@@ -0,0 +1,75 @@
+package lanchat;
+
+import java.util.Arrays;
+
+/**
+ * 解码后的一条消息：类型编号 + 字段
+ * 与具体编码无关，文本格式与二进制格式都解码成它，创建后不可修改
+ */
+public final class Message {
+
+    private final byte type;
+    private final String[] fields;
+
+    private Message(byte type, String[] fields) {
+        this.type = type;
+        this.fields = fields;
+    }
+
+    /**
+     * @param type   MessageType 中的类型编号
+     * @param fields 各字段，例如群聊为 发送者、内容
+     */
+    public static Message of(byte type, String... fields) {
+        return new Message(type, fields.clone());
+    }
+
+    /**
+     * 无前缀的纯文本提示（如「用户名已被占用」），旧版客户端按原样显示
+     */
+    public static Message text(String text) {
+        return new Message(MessageType.TEXT, new String[]{text});
+    }
+
+    static Message wrap(byte type, String[] fields) {
+        return new Message(type, fields);
+    }
+
+    public byte type() {
+        return type;
+    }
+
+    public int fieldCount() {
+        return fields.length;
+    }
+
+    public String field(int index) {
+        return fields[index];
+    }
+
+    /**
+     * 文本格式（不含换行），用于日志
+     */
+    @Override
+    public String toString() {
+        String prefix = MessageType.prefixOf(type);
+        if (prefix == null) {
+            return fields.length == 0 ? "" : fields[0];
+        }
+        StringBuilder sb = new StringBuilder(prefix);
+        for (String field : fields) {
+            sb.append('|').append(field);
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Message && ((Message) o).type == type && Arrays.equals(((Message) o).fields, fields);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * type + Arrays.hashCode(fields);
+    }
+}
@@ -0,0 +1,458 @@
+package lanchat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 持久化聊天记录：所有路由过的群聊与私聊追加到分段的内存映射日志（见 LogSegment）
+ * 路由线程只做一次无锁入队；后台写线程成批编号、编码并写入映射内存，每批只发布一次，约每秒刷盘一次
+ * 查询按稀疏索引二分定位后顺序扫描，结果是映射内存上的只读切片，二进制客户端直接写出这些字节，不复制
+ */
+public final class MessageLog {
+
+    public static final int MAX_RESULTS = 200; // 一次查询最多返回的条数
+    public static final int MAX_MISSED = 1000; // 断线续传一次最多补发的条数
+    private static final int MAX_PENDING = 65536; // 写线程落后太多时丢弃新记录，不拖慢路由
+    private static final long FORCE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    static final LongAdder APPENDED = new LongAdder(); // 已写入的记录
+    static final LongAdder DROPPED = new LongAdder();  // 因积压或写入失败丢弃的记录
+
+    private final Path dir;
+    private final int segmentBytes;
+    private final long maxBytes; // 所有分段的总大小上限，0 表示不限
+    private volatile LogSegment[] segments; // 按基准序号升序，写线程滚动时整体替换
+    private final Queue<Frame> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private final Thread writer;
+    private volatile boolean closed;
+    private volatile boolean parked; // 写线程正在（或即将）休眠，append 需要唤醒它
+    private volatile long lastSeq; // 已发布（可查询）的最大序号，每批更新一次
+    private final AtomicLong lostAfter = new AtomicLong(-1); // 丢弃记录时已分配的最大序号（被丢弃的记录本应排在其后），-1 表示没有丢弃过
+
+    // 以下只由写线程访问
+    private LogSegment active;
+    private long nextSeq;
+    private boolean dirty;
+    private long lastForce = System.nanoTime();
+
+    private MessageLog(Path dir, int segmentBytes, long maxBytes, LogSegment[] segments) {
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        this.maxBytes = maxBytes;
+        this.segments = segments;
+        this.active = segments[segments.length - 1];
+        this.nextSeq = active.lastSeq() + 1;
+        this.lastSeq = nextSeq - 1;
+        this.writer = new Thread(this::writeLoop, "history-writer");
+        writer.setDaemon(true);
+    }
+
+    /**
+     * 打开 --history-dir 指定的目录（不存在则创建）并启动写线程，--history-dir=off 时返回 null
+     */
+    public static MessageLog open(ServerConfig config) throws IOException {
+        if (config.getHistoryDir() == null) {
+            return null;
+        }
+        Path dir = Paths.get(config.getHistoryDir());
+        Files.createDirectories(dir);
+        int segmentBytes = config.getHistorySegmentMb() << 20;
+        List<Long> bases = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*.log")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    bases.add(Long.parseLong(name.substring(0, name.length() - 4)));
+                } catch (NumberFormatException e) {
+                    Log.warn("忽略无法识别的日志文件：{}", file);
+                }
+            }
+        }
+        Collections.sort(bases);
+        List<LogSegment> opened = new ArrayList<>();
+        for (long base : bases) {
+            opened.add(LogSegment.open(dir, base, segmentBytes));
+        }
+        if (opened.isEmpty()) {
+            opened.add(LogSegment.create(dir, 1, segmentBytes));
+        }
+        MessageLog log = new MessageLog(dir, segmentBytes, (long) config.getHistoryMaxMb() << 20,
+                opened.toArray(new LogSegment[0]));
+        log.retain();
+        log.writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(log::close, "history-flush"));
+        Log.info("历史记录目录：{}（下一序号 {}）", dir.toAbsolutePath(), log.nextSeq);
+        return log;
+    }
+
+    /**
+     * 记录一帧已路由的群聊或私聊（路由线程调用）：只入队，编号与编码都在写线程完成；
+     * 写线程空闲休眠时才唤醒它，忙碌时不产生额外的系统调用
+     */
+    public void append(Frame frame) {
+        if (pendingCount.incrementAndGet() > MAX_PENDING) {
+            pendingCount.decrementAndGet();
+            drop(lastSeq);
+            return;
+        }
+        pending.offer(frame);
+        if (parked) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    private void writeLoop() {
+        while (true) {
+            boolean wrote = false;
+            Frame frame;
+            while ((frame = pending.poll()) != null) {
+                pendingCount.decrementAndGet();
+                write(frame);
+                wrote = true;
+            }
+            if (wrote) {
+                active.publish(); // 一批只写一次 volatile
+                lastSeq = nextSeq - 1;
+                dirty = true;
+            }
+            long now = System.nanoTime();
+            if (dirty && (closed || now - lastForce >= FORCE_INTERVAL_NANOS)) {
+                force();
+                lastForce = now;
+            }
+            if (closed && pending.isEmpty()) {
+                return;
+            }
+            if (!wrote) {
+                park(dirty ? Math.max(1, lastForce + FORCE_INTERVAL_NANOS - now) : 0);
+            }
+        }
+    }
+
+    /**
+     * 没有待写的记录时休眠，直到 append 或 close 唤醒；有尚未刷盘的数据时最多睡到下次刷盘
+     * 先置 parked 再检查队列，与 append 先入队再读 parked 相对：两边至少有一边看到对方，不会漏掉唤醒
+     */
+    private void park(long nanos) {
+        parked = true;
+        if (pending.isEmpty() && !closed) {
+            if (nanos > 0) {
+                LockSupport.parkNanos(this, nanos);
+            } else {
+                LockSupport.park(this);
+            }
+        }
+        parked = false;
+    }
+
+    private void write(Frame frame) {
+        Message message = frame.message();
+        long seq = nextSeq;
+        long time = System.currentTimeMillis();
+        byte[] body;
+        int conversation;
+        if (frame.type() == MessageType.GROUP) {
+            body = BinaryCodec.INSTANCE.encode(Message.of(MessageType.HISTORY_GROUP_TYPE,
+                    Long.toString(seq), Long.toString(time), message.field(0), message.field(1)));
+            conversation = 0;
+        } else {
+            body = BinaryCodec.INSTANCE.encode(Message.of(MessageType.HISTORY_PRIVATE_TYPE,
+                    Long.toString(seq), Long.toString(time), message.field(0), message.field(1), message.field(2)));
+            conversation = conversationOf(message.field(0), message.field(1));
+        }
+        try {
+            if (!active.append(seq, time, conversation, body)) {
+                roll();
+                if (!active.append(seq, time, conversation, body)) {
+                    drop(seq - 1); // 单条记录大于分段（分段至少 1MB，帧最大 64KB，不会发生）
+                    return;
+                }
+            }
+            nextSeq++;
+            frame.logged(seq); // 先于 lastSeq 发布，读到 lastSeq 的线程也能看到不大于它的序号
+            APPENDED.increment();
+        } catch (IOException e) {
+            drop(seq - 1);
+            Log.warn("写入历史记录失败：{}", e.getMessage());
+        }
+    }
+
+    private void drop(long after) {
+        lostAfter.accumulateAndGet(after, Math::max);
+        DROPPED.increment();
+    }
+
+    /**
+     * 当前分段已满：刷盘后创建以下一序号为基准的新分段，旧分段保持映射供查询
+     */
+    private void roll() throws IOException {
+        active.publish();
+        active.force();
+        active.close(); // 旧分段不再写索引，映射保留
+        LogSegment next = LogSegment.create(dir, nextSeq, segmentBytes);
+        LogSegment[] current = segments;
+        LogSegment[] grown = Arrays.copyOf(current, current.length + 1);
+        grown[current.length] = next;
+        segments = grown;
+        active = next;
+        retain();
+    }
+
+    /**
+     * 保留策略：总大小超过 --history-max-mb 时删除最旧的分段，正在写入的分段总是保留
+     * 查询中的读者仍持有旧数组和映射，不受文件删除影响
+     */
+    private void retain() {
+        if (maxBytes <= 0) {
+            return;
+        }
+        LogSegment[] current = segments;
+        long total = 0;
+        for (LogSegment segment : current) {
+            total += segment.capacity();
+        }
+        int drop = 0;
+        while (total > maxBytes && drop < current.length - 1) {
+            total -= current[drop].capacity();
+            drop++;
+        }
+        if (drop == 0) {
+            return;
+        }
+        segments = Arrays.copyOfRange(current, drop, current.length);
+        for (int i = 0; i < drop; i++) {
+            try {
+                current[i].delete();
+                Log.info("历史记录超过 {}MB，删除分段 {}", maxBytes >> 20, current[i].baseSeq);
+            } catch (IOException e) {
+                Log.warn("删除历史记录分段失败：{}", e.getMessage());
+            }
+        }
+    }
+
+    private void force() {
+        try {
+            active.force();
+            dirty = false;
+        } catch (IOException e) {
+            Log.warn("历史记录刷盘失败：{}", e.getMessage());
+        }
+    }
+
+    /**
+     * 停止接收新记录，等待写线程写完积压的记录并刷盘（关闭钩子调用）
+     */
+    void close() {
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 已写入且可查询的最大序号：序号不大于它的消息都已在写入前广播给当时在线的用户，
+     * 因此可作为客户端的续传位置（见 [RESUME]）
+     */
+    public long lastSeq() {
+        return lastSeq;
+    }
+
+    /**
+     * 序号 after 之后的记录是否可能不完整：此后有记录因积压或写入失败被丢弃，或者已被保留策略删除
+     * 断线续传据此判断离线私聊能否视为已随补发送达
+     */
+    public boolean lostSince(long after) {
+        return lostAfter.get() >= after || segments[0].baseSeq > after + 1;
+    }
+
+    /**
+     * 最近 limit 条记录（按序号升序）
+     * @param user 请求者；peer 为空时查询群聊，否则查询两人之间的私聊
+     */
+    public List<ByteBuffer> last(String user, String peer, int limit) {
+        Filter filter = new Filter(user, peer);
+        limit = Math.min(limit, MAX_RESULTS);
+        List<ByteBuffer> result = new ArrayList<>();
+        LogSegment[] all = segments;
+        for (int i = all.length - 1; i >= 0 && result.size() < limit; i--) {
+            LogSegment segment = all[i];
+            ByteBuffer buf = segment.reader();
+            int pos = segment.end();
+            while (pos > 0 && result.size() < limit) {
+                int length = buf.getInt(pos - LogSegment.TRAILER);
+                pos -= LogSegment.HEADER + length + LogSegment.TRAILER;
+                if (filter.matches(buf, pos)) {
+                    result.add(body(buf, pos));
+                }
+            }
+        }
+        Collections.reverse(result);
+        return result;
+    }
+
+    /**
+     * 序号大于 seq 的记录，从最早的开始最多 limit 条
+     */
+    public List<ByteBuffer> since(String user, String peer, long seq, int limit) {
+        return scan(new Filter(user, peer), seq + 1, Long.MAX_VALUE, false, Math.min(limit, MAX_RESULTS));
+    }
+
+    /**
+     * 时间（毫秒）不早于 time 的记录，从最早的开始最多 limit 条
+     */
+    public List<ByteBuffer> sinceTime(String user, String peer, long time, int limit) {
+        return scan(new Filter(user, peer), time, Long.MAX_VALUE, true, Math.min(limit, MAX_RESULTS));
+    }
+
+    /**
+     * 断线续传：序号在 (after, upTo] 之间的群聊与 user 参与的全部私聊，从最早的开始最多 MAX_MISSED 条
+     */
+    public List<ByteBuffer> missed(String user, long after, long upTo) {
+        return scan(new Filter(user, null), after + 1, upTo, false, MAX_MISSED);
+    }
+
+    private List<ByteBuffer> scan(Filter filter, long from, long to, boolean byTime, int limit) {
+        List<ByteBuffer> result = new ArrayList<>();
+        LogSegment[] all = segments;
+        int first = 0;
+        // 分段按序号（也大致按时间）排列：跳过整段都在起点之前的分段
+        for (int i = 1; i < all.length; i++) {
+            long start = byTime ? all[i].firstTime() : all[i].baseSeq;
+            if (start <= from) {
+                first = i;
+            }
+        }
+        for (int i = first; i < all.length && result.size() < limit; i++) {
+            LogSegment segment = all[i];
+            int end = segment.end();
+            ByteBuffer buf = segment.reader();
+            int pos = segment.seek(from, byTime, end);
+            while (pos < end && result.size() < limit) {
+                long key = buf.getLong(pos + (byTime ? 12 : 4));
+                if (key > to) {
+                    return result;
+                }
+                if (key >= from && filter.matches(buf, pos)) {
+                    result.add(body(buf, pos));
+                }
+                pos += LogSegment.HEADER + buf.getInt(pos) + LogSegment.TRAILER;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 记录中帧体的只读切片（共享映射内存）
+     */
+    private static ByteBuffer body(ByteBuffer buf, int pos) {
+        int start = pos + LogSegment.HEADER;
+        ByteBuffer slice = buf.duplicate();
+        slice.position(start).limit(start + buf.getInt(pos));
+        return slice.slice();
+    }
+
+    /**
+     * 私聊会话键：与双方的先后顺序无关，不为 0（0 表示群聊）；只用于快速过滤，命中后再比较用户名
+     */
+    static int conversationOf(String a, String b) {
+        int h = a.compareTo(b) <= 0 ? 31 * a.hashCode() + b.hashCode() : 31 * b.hashCode() + a.hashCode();
+        return h == 0 ? 1 : h;
+    }
+
+    /**
+     * 查询条件：群聊，或请求者与对方之间的私聊（不会返回与请求者无关的私聊）；
+     * peer 为 null 时为续传条件：群聊加上请求者参与的全部私聊
+     */
+    private static final class Filter {
+        private final int conversation;
+        private final byte[] user;
+        private final byte[] peer;
+        private final boolean involving;
+
+        Filter(String user, String peer) {
+            boolean group = peer == null || peer.isEmpty();
+            this.involving = peer == null;
+            this.conversation = group ? 0 : conversationOf(user, peer);
+            this.user = group && !involving ? null : user.getBytes(StandardCharsets.UTF_8);
+            this.peer = group ? null : peer.getBytes(StandardCharsets.UTF_8);
+        }
+
+        boolean matches(ByteBuffer buf, int pos) {
+            int recordConversation = buf.getInt(pos + 20);
+            if (involving && recordConversation != 0) {
+                int p = skipVarint(buf, pos + LogSegment.HEADER) + 1;
+                p = skipField(buf, p);
+                p = skipField(buf, p);
+                return fieldEquals(buf, p, user) || fieldEquals(buf, skipField(buf, p), user);
+            }
+            if (recordConversation != conversation) {
+                return false;
+            }
+            if (conversation == 0) {
+                return true;
+            }
+            // HISTORY_PRIVATE 帧：varint 帧体长度、类型，之后依次为序号、时间、发送者、接收者
+            int p = skipVarint(buf, pos + LogSegment.HEADER) + 1;
+            p = skipField(buf, p);
+            p = skipField(buf, p);
+            int senderEnd = skipField(buf, p); // 接收者字段的起点
+            return fieldEquals(buf, p, user) && fieldEquals(buf, senderEnd, peer)
+                    || fieldEquals(buf, p, peer) && fieldEquals(buf, senderEnd, user);
+        }
+
+        private static int skipVarint(ByteBuffer buf, int p) {
+            while (buf.get(p) < 0) {
+                p++;
+            }
+            return p + 1;
+        }
+
+        private static int varintAt(ByteBuffer buf, int p) {
+            int value = 0;
+            int shift = 0;
+            byte b;
+            while ((b = buf.get(p++)) < 0) {
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            }
+            return value | (b << shift);
+        }
+
+        private static int skipField(ByteBuffer buf, int p) {
+            return skipVarint(buf, p) + varintAt(buf, p);
+        }
+
+        private static boolean fieldEquals(ByteBuffer buf, int p, byte[] expected) {
+            if (varintAt(buf, p) != expected.length) {
+                return false;
+            }
+            p = skipVarint(buf, p);
+            for (int i = 0; i < expected.length; i++) {
+                if (buf.get(p + i) != expected[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,491 @@
+package lanchat;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 消息路由：处理登录、下线、群聊广播、频道转发与私聊转发
+ * 线程模式（ClientHandlerThread）与 NIO 模式（NioChatServer）共用同一套协议逻辑
+ * 集群模式下群聊与频道消息另外发给其他节点各一份，私聊转发给接收者所在的节点（见 ClusterNode）
+ */
+public class MessageRouter {
+
+    private final SessionRegistry onlineUsers; // 在线用户：用户名 → 发送端
+    private final PresenceBroadcaster presence; // 上线/下线合并广播
+    private final ChannelIndex channels = new ChannelIndex(); // 频道 → 成员
+    private final RecentMessages recent; // 最近群聊缓存（登录后重放），未开启时为 null
+    private final MessageLog history; // 聊天记录，未开启时为 null
+    private final OfflineStore offline; // 离线私聊存储转发，未开启时为 null
+    private final ClusterNode cluster; // 集群中的其他节点，单机运行时为 null
+    private final FileRelay transfers; // 文件传输中转，未开启时为 null
+    private final HeartbeatWheel heartbeats; // 心跳与空闲断开，未开启时为 null
+    private final RateLimiter rateLimiter; // 入站限速，未开启时为 null（由读线程或事件循环在路由前检查）
+    private static final long RESUME_MARK_MILLIS = 1000; // 向 resume-v1 客户端发送续传位置的间隔
+
+    private final ScheduledExecutorService historyQueries; // 历史查询与续传补发在独立线程执行，不占用读线程或事件循环
+    private long lastMarked = -1; // 最近一次发出的续传位置，只在查询线程中访问
+    private final Set<String> supportedFeatures; // 服务器接受的握手功能
+
+    public MessageRouter(SessionRegistry onlineUsers, ServerConfig config) {
+        this(onlineUsers, config, null, null, null, null);
+    }
+
+    public MessageRouter(SessionRegistry onlineUsers, ServerConfig config, MessageLog history, OfflineStore offline,
+                         ClusterNode cluster, FileRelay transfers) {
+        this.onlineUsers = onlineUsers;
+        this.recent = RecentMessages.create(config);
+        this.presence = new PresenceBroadcaster(onlineUsers, config.getPresenceWindow(), recent);
+        this.history = history;
+        this.offline = offline;
+        this.cluster = cluster;
+        this.transfers = transfers;
+        this.heartbeats = HeartbeatWheel.create(config, onlineUsers);
+        this.rateLimiter = RateLimiter.create(config);
+        Set<String> features = new HashSet<>(Arrays.asList(MessageType.FEATURE_PRESENCE, MessageType.FEATURE_BINARY));
+        if (config.isCompression()) {
+            features.add(MessageType.FEATURE_DEFLATE);
+        }
+        if (heartbeats != null) {
+            features.add(MessageType.FEATURE_HEARTBEAT);
+        }
+        if (history != null) {
+            features.add(MessageType.FEATURE_RESUME);
+        }
+        this.supportedFeatures = Collections.unmodifiableSet(features);
+        this.historyQueries = history == null ? null : Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "history-query");
+            t.setDaemon(true);
+            return t;
+        });
+        if (historyQueries != null) {
+            lastMarked = history.lastSeq(); // 登录时已单独发送，之后只在有新消息时发送
+            historyQueries.scheduleWithFixedDelay(this::markResume, RESUME_MARK_MILLIS, RESUME_MARK_MILLIS,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 用户登录：校验用户名、协商功能并加入在线用户集合，上线通知与用户列表由 PresenceBroadcaster 合并发出
+     * @return 登录失败时返回应发给客户端的提示，成功返回 null
+     */
+    public String login(Handshake handshake, ChatSession session) {
+        String username = handshake.getUsername();
+        if (username == null || username.isEmpty()) {
+            return "用户名不能为空！";
+        }
+        if (username.indexOf(',') >= 0) {
+            return "用户名不能包含逗号！"; // 逗号是用户列表的分隔符
+        }
+        // 先确定协商结果并回复 WELCOME，保证它是客户端收到的第一帧
+        // WELCOME 固定用文本格式发送：客户端收到它之后才知道是否切换到二进制格式
+        if (!handshake.getFeatures().isEmpty()) {
+            Set<String> accepted = new LinkedHashSet<>(handshake.getFeatures());
+            accepted.retainAll(supportedFeatures);
+            session.setFeatures(Collections.unmodifiableSet(accepted));
+            Message welcome;
+            if (accepted.contains(MessageType.FEATURE_DEFLATE)) {
+                // 压缩字典含握手时在线的用户名，随 WELCOME 告知客户端，两端据此构造同一个字典
+                List<String> names = DeflateStream.dictionaryNames(onlineUsers.snapshot().users, username);
+                session.setCompression(new DeflateStream(DeflateStream.dictionary(names)));
+                // WELCOME 只有一个字段（文本格式中最后一个字段可以包含 |），用户名接在功能列表之后
+                welcome = Message.of(MessageType.WELCOME_TYPE, String.join(",", accepted) + "|" + String.join(",", names));
+            } else {
+                welcome = Message.of(MessageType.WELCOME_TYPE, String.join(",", accepted));
+            }
+            session.send(Frame.preEncoded(MessageType.WELCOME_TYPE, TextCodec.INSTANCE.encode(welcome)));
+        }
+        // 注册之后广播给它的帧先暂存，排在在线列表快照与最近群聊重放之后写出
+        presence.beginJoin(session);
+        // 注册为原子操作，两个同名用户不会同时登录成功
+        if (!onlineUsers.register(username, session)) {
+            presence.abortJoin(session);
+            return "用户名已被占用，请重新输入！";
+        }
+        session.setUsername(username);
+        Log.info("用户上线：{}（当前在线：{}人）", username, onlineUsers.size());
+
+        if (cluster != null) {
+            cluster.onLocalJoin(username);
+        }
+        if (offline != null) {
+            offline.onLogin(username); // 此后才接受发给他的离线私聊
+        }
+        boolean resuming = history != null && session.hasFeature(MessageType.FEATURE_RESUME)
+                && handshake.getResumeSeq() >= 0;
+        // 续传补发与离线私聊都排在在线列表快照和最近群聊重放之后
+        Consumer<List<Frame>> afterSnapshot = null;
+        if (resuming) {
+            long after = handshake.getResumeSeq();
+            // 会话继续暂存注册之后的广播，直到补发的记录排在它们前面
+            afterSnapshot = snapshot -> historyQueries.execute(() -> resume(session, username, after, snapshot));
+        } else {
+            if (history != null && session.hasFeature(MessageType.FEATURE_RESUME)) {
+                session.send(resumeMark(history.lastSeq(), "")); // 此前的消息不需要续传
+            }
+            if (offline != null) {
+                afterSnapshot = snapshot -> {
+                    session.release(snapshot, -1);
+                    offline.deliver(session); // 离线期间收到的私聊，在后台分块送达
+                };
+            }
+        }
+        presence.onJoin(username, session, !resuming, afterSnapshot);
+        if (heartbeats != null && session.hasFeature(MessageType.FEATURE_HEARTBEAT)) {
+            heartbeats.add(session);
+        }
+        return null;
+    }
+
+    /**
+     * 断线续传（查询线程）：补发 after 之后错过的群聊与私聊，再告知新的续传位置与补发条数，
+     * 与在线列表快照一起排在注册之后暂存的广播之前
+     * 补发截止到当前已写入的序号：注册前广播、注册后才写入的消息也在其中，不会遗漏；
+     * 暂存的广播中已写入且不超过该序号的就是补发过的，释放时丢弃，不会重复
+     */
+    private void resume(ChatSession session, String username, long after, List<Frame> snapshot) {
+        long upTo = history.lastSeq();
+        List<ByteBuffer> records = history.missed(username, after, upTo);
+        List<Frame> frames = new ArrayList<>(snapshot.size() + records.size() + 2);
+        frames.addAll(snapshot);
+        for (ByteBuffer record : records) {
+            frames.add(Frame.stored(record));
+        }
+        boolean truncated = records.size() >= MessageLog.MAX_MISSED;
+        frames.add(resumeMark(upTo, String.valueOf(records.size())));
+        if (truncated) {
+            frames.add(Frame.text("错过的消息超过 " + MessageLog.MAX_MISSED + " 条，只补发了最早的部分，其余请查询历史记录。"));
+        }
+        session.release(frames, truncated ? -1 : upTo); // 补发不完整时暂存的广播全部保留
+        if (offline != null) {
+            if (truncated || history.lostSince(after)) {
+                offline.deliver(session); // 补发不完整（超过上限，或历史记录有丢弃、删除）：离线私聊照常送达，可能与补发的重复
+            } else {
+                offline.discard(username); // 离线队列中的私聊都在续传位置之后，已随补发送达
+            }
+        }
+    }
+
+    /**
+     * 定时任务（查询线程）：历史序号有变化时，把新的续传位置发给所有协商了 resume-v1 的在线会话
+     * 序号不大于它的消息都已先于此帧进入各会话的出站队列
+     */
+    private void markResume() {
+        try {
+            long seq = history.lastSeq();
+            if (seq == lastMarked) {
+                return;
+            }
+            lastMarked = seq;
+            Frame mark = resumeMark(seq, "");
+            for (ChatSession session : onlineUsers.recipients()) {
+                if (session.hasFeature(MessageType.FEATURE_RESUME)) {
+                    session.send(mark);
+                }
+            }
+        } catch (RuntimeException e) {
+            Log.error("发送续传位置异常：{}", e.toString()); // 不让异常终止定时任务
+        }
+    }
+
+    private static Frame resumeMark(long seq, String replayed) {
+        return Frame.of(Message.of(MessageType.RESUME_TYPE, String.valueOf(seq), replayed));
+    }
+
+    /**
+     * 用户下线：只移除自己的会话（同名新会话不受影响），下线通知与用户列表由 PresenceBroadcaster 合并发出
+     */
+    public void logout(String username, ChatSession session) {
+        if (username != null && onlineUsers.unregister(username, session)) {
+            channels.leaveAll(session);
+            if (transfers != null) {
+                transfers.cancelAll(session);
+            }
+            Log.info("用户下线：{}（当前在线：{}人）", username, onlineUsers.size());
+            presence.onLeave(username, session);
+            if (cluster != null) {
+                cluster.onLocalLeave(username); // 在下线通知之后：同名的其他节点用户可能随即上线
+            }
+        }
+    }
+
+    /**
+     * 处理客户端消息（区分群聊、私聊、在线状态重新同步）
+     * view 指向读取方复用的缓冲区：按字节判断类型、查找接收者，聊天帧复制一次后原样转发，不解码成字符串
+     */
+    public void route(ChatSession sender, FrameView view) {
+        ServerMetrics.messageIn(view.type(), view.frameLength());
+        if (Log.isDebugEnabled()) {
+            Log.debug("收到消息：{}", view.toMessage()); // 只在 debug 级别解码成字符串
+        }
+        switch (view.type()) {
+            // 群聊消息：[GROUP]|发送者|内容
+            case MessageType.GROUP:
+                if (view.fieldCount() == 2) {
+                    Frame frame = Frame.forward(view);
+                    if (recent != null) {
+                        recent.record(frame); // 先记录再广播：登录时取得的序号之前的消息不会漏掉
+                    }
+                    broadcast(frame); // 只复制一次，广播给所有在线用户
+                    if (cluster != null) {
+                        cluster.forwardToAll(frame);
+                    }
+                    record(frame);
+                }
+                break;
+            // 私聊消息：[PRIVATE]|发送者|接收者|内容
+            case MessageType.PRIVATE:
+                if (view.fieldCount() == 3) {
+                    ChatSession receiverSession = onlineUsers.get(view.fieldKey(1));
+                    String node = receiverSession == null && cluster != null
+                            ? onlineUsers.remoteNode(view.fieldKey(1)) : null;
+                    if (receiverSession != null) {
+                        Frame frame = Frame.forward(view);
+                        receiverSession.send(frame); // 向接收者发送私聊消息
+                        sender.send(frame); // 向发送者回显消息（让发送者确认消息已发送）
+                        record(frame);
+                    } else if (node != null) {
+                        // 接收者在其他节点：转发给该节点投递
+                        Frame frame = Frame.forward(view);
+                        if (cluster.forward(node, frame)) {
+                            sender.send(frame);
+                            record(frame);
+                        } else {
+                            sender.send(Frame.text("私聊失败：" + view.field(1) + "所在的节点暂时无法连接！"));
+                        }
+                    } else if (offline != null && offline.knows(view.field(1))) {
+                        // 接收者不在线但登录过：保存到其离线队列，下次登录时送达（保存结果以文本提示发送者）
+                        Frame frame = Frame.forward(view);
+                        offline.store(view.field(1), frame, sender);
+                        record(frame);
+                    } else {
+                        // 接收者不在线，提示发送者
+                        sender.send(Frame.text("私聊失败：" + view.field(1) + "不在线！"));
+                    }
+                } else {
+                    sender.send(Frame.text("私聊消息格式错误！"));
+                }
+                break;
+            // 在线状态序号出现缺口：[PRESENCE_SYNC]
+            case MessageType.PRESENCE_SYNC_TYPE:
+                presence.requestResync(sender);
+                break;
+            // 历史记录请求：[HISTORY_REQ]|对方用户名（空为群聊）|last/since/time|取值
+            case MessageType.HISTORY_REQ_TYPE:
+                if (view.fieldCount() == 3) {
+                    requestHistory(sender, view.field(0), view.field(1), view.field(2));
+                } else {
+                    sender.send(Frame.text("历史记录请求格式错误！"));
+                }
+                break;
+            // 频道消息：[CHANNEL]|频道名|发送者|内容，只发给频道成员
+            case MessageType.CHANNEL:
+                if (view.fieldCount() == 3) {
+                    ChannelIndex.Channel channel = channels.get(view.fieldKey(0));
+                    if (channel != null && channel.contains(sender)) {
+                        Frame frame = Frame.forward(view);
+                        fanOut(channel.members, frame); // 与群聊相同：只复制一次
+                        if (cluster != null) {
+                            cluster.forwardToAll(frame); // 其他节点上的成员由各自节点投递
+                        }
+                    } else {
+                        sender.send(Frame.text("频道消息失败：未加入频道 " + view.field(0) + "！"));
+                    }
+                } else {
+                    sender.send(Frame.text("频道消息格式错误！"));
+                }
+                break;
+            // 加入/离开频道：成功时原样回复确认，失败时回复文本提示
+            case MessageType.CHANNEL_JOIN_TYPE:
+            case MessageType.CHANNEL_LEAVE_TYPE:
+                if (view.fieldCount() == 1) {
+                    String name = view.field(0);
+                    String error = view.type() == MessageType.CHANNEL_JOIN_TYPE
+                            ? channels.join(sender, name) : channels.leave(sender, name);
+                    sender.send(error == null ? Frame.of(Message.of(view.type(), name)) : Frame.text(error));
+                } else {
+                    sender.send(Frame.text("频道请求格式错误！"));
+                }
+                break;
+            // 频道列表：[CHANNEL_LIST]
+            case MessageType.CHANNEL_LIST_TYPE:
+                sender.send(Frame.of(Message.of(MessageType.CHANNEL_LIST_TYPE, channels.list())));
+                break;
+            // 文件传输：[FILE_OFFER]|（空）|发送者|接收者|字节数|文件名、[FILE_ACCEPT]|编号|（空）、[FILE_CANCEL]|编号|原因
+            case MessageType.FILE_OFFER_TYPE:
+            case MessageType.FILE_ACCEPT_TYPE:
+            case MessageType.FILE_CANCEL_TYPE:
+                if (transfers == null) {
+                    sender.send(Frame.text("服务器未开启文件传输！"));
+                } else if (view.type() == MessageType.FILE_OFFER_TYPE && view.fieldCount() == 5) {
+                    transfers.offer(sender, view.field(2), view.field(3), view.field(4));
+                } else if (view.type() == MessageType.FILE_ACCEPT_TYPE && view.fieldCount() >= 1) {
+                    transfers.accept(sender, view.field(0));
+                } else if (view.type() == MessageType.FILE_CANCEL_TYPE && view.fieldCount() >= 1) {
+                    transfers.cancel(sender, view.field(0), view.fieldCount() == 2 ? view.field(1) : "");
+                } else {
+                    sender.send(Frame.text("文件传输请求格式错误！"));
+                }
+                break;
+            // 心跳：[PING]|时间戳 原样回复 [PONG]；[PONG] 只需更新最近收到数据的时间（读取方已完成）
+            case MessageType.PING_TYPE:
+                if (view.fieldCount() == 1) {
+                    sender.send(Frame.of(Message.of(MessageType.PONG_TYPE, view.field(0))));
+                }
+                break;
+            case MessageType.PONG_TYPE:
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * 其他节点转来的消息（在集群链路的读取线程中调用）：只投递给本节点的用户，不再转发
+     * 发送者是否有权发送已由来源节点检查
+     */
+    void routeFromPeer(FrameView view) {
+        switch (view.type()) {
+            case MessageType.GROUP:
+                if (view.fieldCount() == 2) {
+                    Frame frame = Frame.forward(view);
+                    if (recent != null) {
+                        recent.record(frame);
+                    }
+                    broadcast(frame);
+                    record(frame);
+                }
+                break;
+            case MessageType.PRIVATE:
+                if (view.fieldCount() == 3) {
+                    Frame frame = Frame.forward(view);
+                    ChatSession receiverSession = onlineUsers.get(view.fieldKey(1));
+                    if (receiverSession != null) {
+                        receiverSession.send(frame);
+                    } else if (offline != null) {
+                        offline.store(view.field(1), frame, null); // 转发途中接收者已下线
+                    }
+                    record(frame);
+                }
+                break;
+            case MessageType.CHANNEL:
+                if (view.fieldCount() == 3) {
+                    ChannelIndex.Channel channel = channels.get(view.fieldKey(0));
+                    if (channel != null) {
+                        fanOut(channel.members, Frame.forward(view));
+                    }
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * 其他节点的用户上线/下线（已记入注册表）：通知本节点的客户端
+     */
+    void onRemoteJoin(String username, String node) {
+        Log.info("用户上线：{}（节点 {}）", username, node);
+        presence.onRemoteJoin(username);
+    }
+
+    void onRemoteLeave(String username, String node) {
+        Log.info("用户下线：{}（节点 {}）", username, node);
+        presence.onRemoteLeave(username);
+    }
+
+    /**
+     * 入站限速（两种模式共用一个全局桶），未开启时为 null
+     */
+    RateLimiter rateLimiter() {
+        return rateLimiter;
+    }
+
+    private void record(Frame frame) {
+        if (history != null) {
+            history.append(frame); // 只入队，由写线程成批写入
+        }
+    }
+
+    /**
+     * 在查询线程中读取历史记录，逐条发给请求者（二进制客户端直接写出日志的映射内存），最后发送 [HISTORY_END]
+     */
+    private void requestHistory(ChatSession sender, String peer, String mode, String value) {
+        if (history == null) {
+            sender.send(Frame.text("服务器未开启历史记录！"));
+            return;
+        }
+        long n;
+        try {
+            n = Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            sender.send(Frame.text("历史记录请求格式错误！"));
+            return;
+        }
+        if (!MessageType.HISTORY_LAST.equals(mode) && !MessageType.HISTORY_SINCE.equals(mode)
+                && !MessageType.HISTORY_TIME.equals(mode)) {
+            sender.send(Frame.text("历史记录请求格式错误！"));
+            return;
+        }
+        String user = sender.getUsername();
+        historyQueries.execute(() -> {
+            List<ByteBuffer> records;
+            if (MessageType.HISTORY_LAST.equals(mode)) {
+                records = history.last(user, peer, (int) Math.min(n, MessageLog.MAX_RESULTS));
+            } else if (MessageType.HISTORY_SINCE.equals(mode)) {
+                records = history.since(user, peer, n, MessageLog.MAX_RESULTS);
+            } else {
+                records = history.sinceTime(user, peer, n, MessageLog.MAX_RESULTS);
+            }
+            for (ByteBuffer record : records) {
+                sender.send(Frame.stored(record));
+            }
+            sender.send(Frame.of(Message.of(MessageType.HISTORY_END_TYPE, peer, String.valueOf(records.size()))));
+        });
+    }
+
+    /**
+     * 广播消息：同一帧（同一份字节）发送给所有在线用户，遍历的是注册表的快照数组，无锁
+     */
+    public void broadcast(Frame frame) {
+        fanOut(onlineUsers.recipients(), frame);
+    }
+
+    /**
+     * 把同一帧发送给一组会话（在线用户快照或频道成员数组，调用方不得修改），耗时计入扇出统计
+     */
+    private void fanOut(ChatSession[] recipients, Frame frame) {
+        long start = System.nanoTime();
+        for (ChatSession session : recipients) {
+            session.send(frame);
+        }
+        ServerMetrics.FAN_OUT.record(System.nanoTime() - start);
+    }
+
+    /**
+     * 出站队列统计：在线会话的队列总深度、最大深度，以及累计丢弃/合并/断开次数
+     */
+    public String outboundStats() {
+        long total = 0;
+        int max = 0;
+        ChatSession[] sessions = onlineUsers.recipients();
+        for (ChatSession session : sessions) {
+            int depth = session.outboundQueue().depth();
+            total += depth;
+            max = Math.max(max, depth);
+        }
+        return "出站队列：在线 " + sessions.length + "，排队帧合计 " + total + "，单用户最大 " + max
+                + "，累计丢弃 " + OutboundQueue.DROPPED.sum()
+                + "，合并 " + OutboundQueue.COALESCED.sum()
+                + "，慢客户端断开 " + OutboundQueue.SLOW_CONSUMERS.sum();
+    }
+}
@@ -0,0 +1,179 @@
+package lanchat;
+
+import java.nio.charset.StandardCharsets;
+
+public class MessageType {
+// 群聊消息格式：[GROUP]|发送者|消息内容
+
+    public static final String GROUP_MSG = "[GROUP]";
+// 私聊消息格式：[PRIVATE]|发送者|接收者|消息内容
+    public static final String PRIVATE_MSG = "[PRIVATE]";
+// 用户上线通知：[USER_ONLINE]|用户名
+    public static final String USER_ONLINE = "[USER_ONLINE]";
+// 用户下线通知：[USER_OFFLINE]|用户名
+    public static final String USER_OFFLINE = "[USER_OFFLINE]";
+// 在线用户列表同步：[USER_LIST]|用户名1,用户名2,用户名3
+    public static final String USER_LIST = "[USER_LIST]";
+
+// 握手：客户端首行为「用户名」或「用户名|功能1,功能2」；带功能时服务器先回复 [WELCOME]|已启用的功能1,功能2
+    public static final String WELCOME = "[WELCOME]";
+// 在线状态（启用 presence 功能的客户端取代 USER_ONLINE/USER_OFFLINE/USER_LIST）：
+// 登录后先收到全量快照 [PRESENCE]|序号|snapshot|用户名1,用户名2
+// 之后只收到增量 [PRESENCE]|序号|delta|+上线用户,-下线用户（序号连续递增）
+    public static final String PRESENCE = "[PRESENCE]";
+// 客户端发现序号不连续时请求重新同步：[PRESENCE_SYNC]，服务器回复新的全量快照
+    public static final String PRESENCE_SYNC = "[PRESENCE_SYNC]";
+    public static final String PRESENCE_SNAPSHOT = "snapshot";
+    public static final String PRESENCE_DELTA = "delta";
+// 历史记录请求：[HISTORY_REQ]|对方用户名（空为群聊）|last 或 since 或 time|条数、序号或毫秒时间戳
+// last N 取最近 N 条，since X 取序号大于 X 的消息，time T 取 T 之后的消息；每次最多返回 MessageLog.MAX_RESULTS 条
+    public static final String HISTORY_REQ = "[HISTORY_REQ]";
+// 历史群聊：[HISTORY_GROUP]|序号|毫秒时间戳|发送者|内容
+    public static final String HISTORY_GROUP = "[HISTORY_GROUP]";
+// 历史私聊：[HISTORY_PRIVATE]|序号|毫秒时间戳|发送者|接收者|内容
+    public static final String HISTORY_PRIVATE = "[HISTORY_PRIVATE]";
+// 一次历史记录回复结束：[HISTORY_END]|对方用户名（空为群聊）|返回条数
+    public static final String HISTORY_END = "[HISTORY_END]";
+    public static final String HISTORY_LAST = "last";
+    public static final String HISTORY_SINCE = "since";
+    public static final String HISTORY_TIME = "time";
+// 加入频道：[CHANNEL_JOIN]|频道名，成功时服务器原样回复确认，失败时回复文本提示；频道在第一个成员加入时创建
+    public static final String CHANNEL_JOIN = "[CHANNEL_JOIN]";
+// 离开频道：[CHANNEL_LEAVE]|频道名，服务器原样回复确认；最后一个成员离开后频道删除
+    public static final String CHANNEL_LEAVE = "[CHANNEL_LEAVE]";
+// 频道列表：请求不带字段 [CHANNEL_LIST]，回复 [CHANNEL_LIST]|频道名1:人数,频道名2:人数
+    public static final String CHANNEL_LIST = "[CHANNEL_LIST]";
+// 频道消息：[CHANNEL]|频道名|发送者|消息内容，只转发给该频道的成员（发送者须已加入）
+    public static final String CHANNEL_MSG = "[CHANNEL]";
+// 以下两种只用于集群节点之间的链路（BinaryCodec 编码），客户端发来时忽略
+// 节点握手：[PEER_HELLO]|节点名|集群密钥（未设置时为空），连接方先发，被连接方核对后回复自己的节点名（只有一个字段）
+    public static final String PEER_HELLO = "[PEER_HELLO]";
+// 节点在线用户：[PEER_PRESENCE]|snapshot|用户1,用户2 为该节点的全部本地用户，[PEER_PRESENCE]|delta|+上线,-下线 为变化
+    public static final String PEER_PRESENCE = "[PEER_PRESENCE]";
+// 文件传输（只在同一服务器上的用户之间，文件内容走单独的传输端口，见 FileRelay）：
+// 提议：[FILE_OFFER]|传输编号|发送者|接收者|字节数|文件名，客户端发出时编号留空，服务器分配编号后发给双方
+    public static final String FILE_OFFER = "[FILE_OFFER]";
+// 接受：[FILE_ACCEPT]|传输编号|传输端口，接收方发出时端口留空，服务器填入端口后发给双方，双方随即连接传输端口
+    public static final String FILE_ACCEPT = "[FILE_ACCEPT]";
+// 拒绝或取消：[FILE_CANCEL]|传输编号|原因，任一方可发出，服务器通知双方并删除暂存文件
+    public static final String FILE_CANCEL = "[FILE_CANCEL]";
+// 完成：[FILE_DONE]|传输编号，服务器把全部字节发给接收方后通知双方
+    public static final String FILE_DONE = "[FILE_DONE]";
+// 心跳（双方协商 heartbeat-v1 后使用）：一方一段时间没有收到对方任何数据时发出 [PING]|毫秒时间戳，
+// 对方立即回复 [PONG]|同一时间戳；任何收到的数据都算作对方仍然在线
+    public static final String PING = "[PING]";
+    public static final String PONG = "[PONG]";
+// 续传位置（双方协商 resume-v1 后使用）：[RESUME]|历史序号|重放条数，服务器定期发出当前历史序号（重放条数留空），
+// 客户端记下最近一次的序号，断线重连时在握手中带上；服务器补发该序号之后错过的消息后回复一次带条数的 [RESUME]
+    public static final String RESUME = "[RESUME]";
+
+// 握手可协商的功能
+    public static final String FEATURE_PRESENCE = "presence";
+// 二进制帧（WELCOME 之后双方改用 BinaryCodec），名称中带版本号，格式变化时换新名称
+    public static final String FEATURE_BINARY = "binary-v1";
+// 连接级压缩（WELCOME 之后双方的二进制帧经 DeflateStream 压缩），服务器开启 --compression 时才接受；
+// 此时 WELCOME 的功能列表之后再接「|用户名1,用户名2」：写入预置字典的用户名（用户名不能包含 |）
+    public static final String FEATURE_DEFLATE = "deflate-v2";
+// 心跳（PING/PONG），服务器开启 --heartbeat-interval 时才接受；只有协商了心跳的连接会因空闲被断开
+    public static final String FEATURE_HEARTBEAT = "heartbeat-v1";
+// 断线续传（RESUME），服务器开启 --history 时才接受
+    public static final String FEATURE_RESUME = "resume-v1";
+
+// 类型编号：二进制帧的第一个字节，与上面的文本前缀一一对应
+    public static final byte TEXT = 0; // 无前缀的纯文本提示（如登录失败原因）
+    public static final byte GROUP = 1;
+    public static final byte PRIVATE = 2;
+    public static final byte ONLINE = 3;
+    public static final byte OFFLINE = 4;
+    public static final byte LIST = 5;
+    public static final byte WELCOME_TYPE = 6;
+    public static final byte PRESENCE_TYPE = 7;
+    public static final byte PRESENCE_SYNC_TYPE = 8;
+    public static final byte HISTORY_REQ_TYPE = 9;
+    public static final byte HISTORY_GROUP_TYPE = 10;
+    public static final byte HISTORY_PRIVATE_TYPE = 11;
+    public static final byte HISTORY_END_TYPE = 12;
+    public static final byte CHANNEL_JOIN_TYPE = 13;
+    public static final byte CHANNEL_LEAVE_TYPE = 14;
+    public static final byte CHANNEL_LIST_TYPE = 15;
+    public static final byte CHANNEL = 16;
+    public static final byte PEER_HELLO_TYPE = 17;
+    public static final byte PEER_PRESENCE_TYPE = 18;
+    public static final byte FILE_OFFER_TYPE = 19;
+    public static final byte FILE_ACCEPT_TYPE = 20;
+    public static final byte FILE_CANCEL_TYPE = 21;
+    public static final byte FILE_DONE_TYPE = 22;
+    public static final byte PING_TYPE = 23;
+    public static final byte PONG_TYPE = 24;
+    public static final byte RESUME_TYPE = 25;
+
+// 按类型编号索引：文本前缀与字段个数（文本格式中最后一个字段可以包含 |）
+    private static final String[] PREFIXES = {
+        null, GROUP_MSG, PRIVATE_MSG, USER_ONLINE, USER_OFFLINE, USER_LIST, WELCOME, PRESENCE, PRESENCE_SYNC,
+        HISTORY_REQ, HISTORY_GROUP, HISTORY_PRIVATE, HISTORY_END, CHANNEL_JOIN, CHANNEL_LEAVE, CHANNEL_LIST, CHANNEL_MSG,
+        PEER_HELLO, PEER_PRESENCE, FILE_OFFER, FILE_ACCEPT, FILE_CANCEL, FILE_DONE,
+        PING, PONG, RESUME
+    };
+    private static final int[] FIELD_COUNTS = {1, 2, 3, 1, 1, 1, 1, 3, 0, 3, 4, 5, 2, 1, 1, 1, 3, 2, 2, 5, 2, 2, 1, 1, 1, 2};
+    private static final byte[][] PREFIX_BYTES = new byte[PREFIXES.length][];
+
+    static {
+        for (int type = 1; type < PREFIXES.length; type++) {
+            PREFIX_BYTES[type] = PREFIXES[type].getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    /**
+     * 类型编号对应的文本前缀，TEXT 或未知编号返回 null
+     */
+    public static String prefixOf(byte type) {
+        return type > 0 && type < PREFIXES.length ? PREFIXES[type] : null;
+    }
+
+    /**
+     * 已定义的类型个数（类型编号为 0 ~ typeCount()-1）
+     */
+    public static int typeCount() {
+        return PREFIXES.length;
+    }
+
+    /**
+     * 类型的小写名称（如 group、private），用于统计输出
+     */
+    public static String nameOf(byte type) {
+        String prefix = prefixOf(type);
+        if (prefix == null) {
+            return type == TEXT ? "text" : "unknown";
+        }
+        return prefix.substring(1, prefix.length() - 1).toLowerCase();
+    }
+
+    /**
+     * 按字节比较文本前缀，不创建字符串；未知前缀返回 TEXT
+     */
+    public static byte typeOf(byte[] buf, int offset, int length) {
+        for (byte type = 1; type < PREFIX_BYTES.length; type++) {
+            byte[] prefix = PREFIX_BYTES[type];
+            if (prefix.length == length && regionMatches(prefix, buf, offset)) {
+                return type;
+            }
+        }
+        return TEXT;
+    }
+
+    private static boolean regionMatches(byte[] prefix, byte[] buf, int offset) {
+        for (int i = 0; i < prefix.length; i++) {
+            if (prefix[i] != buf[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 该类型消息的字段个数，未知编号返回 -1
+     */
+    public static int fieldCount(byte type) {
+        return type >= 0 && type < FIELD_COUNTS.length ? FIELD_COUNTS[type] : -1;
+    }
+}
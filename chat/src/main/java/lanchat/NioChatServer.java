@@ -0,0 +1,97 @@
+package lanchat;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * NIO 服务器引擎：一个接收线程 + 少量事件循环线程处理全部连接
+ * 协议逻辑由 MessageRouter 提供，与线程模式完全一致（首行为用户名，之后为 MessageType 格式消息），现有客户端无需修改
+ */
+public class NioChatServer {
+
+    private final ServerConfig config;
+    private final MessageRouter router;
+    private final NioEventLoop[] loops;
+
+    public NioChatServer(ServerConfig config, MessageRouter router) throws IOException {
+        this.config = config;
+        this.router = router;
+        this.loops = new NioEventLoop[config.getEventLoops()];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new NioEventLoop(this);
+        }
+    }
+
+    /**
+     * 启动事件循环并在当前线程持续接收连接（阻塞，不返回）
+     */
+    public void start(ServerSocketChannel serverChannel) throws IOException {
+        for (int i = 0; i < loops.length; i++) {
+            loops[i].start("nio-event-loop-" + i);
+        }
+        int next = 0;
+        while (true) {
+            SocketChannel channel = serverChannel.accept(); // 阻塞等待客户端连接
+            channel.configureBlocking(false);
+            config.configure(channel.socket()); // TCP_NODELAY 与发送缓冲区大小
+            ServerMetrics.ACCEPTED.increment();
+            ServerMetrics.ACTIVE_CONNECTIONS.increment();
+            // 轮询分配给各事件循环
+            loops[next].register(channel);
+            next = (next + 1) % loops.length;
+        }
+    }
+
+    public static ServerSocketChannel bind(ServerConfig config) throws IOException {
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        serverChannel.socket().setReuseAddress(true);
+        config.configure(serverChannel.socket()); // 接收缓冲区须在绑定前设置
+        serverChannel.bind(new InetSocketAddress(config.getPort()), ChatServer.ACCEPT_BACKLOG);
+        return serverChannel;
+    }
+
+    OutboundQueue newOutboundQueue() {
+        return config.newOutboundQueue();
+    }
+
+    ServerConfig config() {
+        return config;
+    }
+
+    RateLimiter rateLimiter() {
+        return router.rateLimiter();
+    }
+
+    /**
+     * 事件循环拆出握手首行后回调
+     */
+    void onHandshake(NioConnection conn, String line) {
+        if (conn.isClosing()) {
+            return; // 登录已被拒绝，等待提示发送完毕后关闭
+        }
+        Handshake handshake = Handshake.parse(line);
+        String error = router.login(handshake, conn);
+        if (error != null) {
+            conn.send(Frame.text(error));
+            conn.closeAfterFlush();
+        }
+        // 登录成功后 router 已设置用户名，之后的数据按协商的编码解析
+    }
+
+    /**
+     * 事件循环切出一帧聊天消息后回调（view 指向事件循环的读缓冲区）
+     */
+    void onFrame(NioConnection conn, FrameView view) {
+        router.route(conn, view);
+    }
+
+    /**
+     * 连接关闭回调（由事件循环调用）：已登录用户需广播下线通知
+     */
+    void onClosed(NioConnection conn) {
+        ServerMetrics.ACTIVE_CONNECTIONS.decrement();
+        router.logout(conn.getUsername(), conn);
+    }
+}
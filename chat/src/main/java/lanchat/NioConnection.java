@@ -0,0 +1,442 @@
+package lanchat;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * NIO 模式下的单个客户端连接：非阻塞按编码拆帧；发送者只入有界出站队列，由所属事件循环写出
+ * 写出时一次取出多帧（最多 64 帧、--write-buffer-kb 字节），以一次聚集写出（writev）发出，
+ * 一批消息只产生一次系统调用；--write-linger-ms 大于 0 时第一帧入队后延迟该时长再写出
+ * 超过限速时（见 RateLimiter）暂停读取：取消 OP_READ，超限的帧留在半帧缓冲区，到期后重新检查并恢复读取
+ * 协商了压缩（见 DeflateStream）时，读到的数据先按线路帧暂存，逐帧解压到半帧缓冲区再切帧；写出时逐帧压缩
+ * 除 send() / close() / closeAfterFlush() 外，所有方法只在所属事件循环线程中调用
+ */
+public class NioConnection implements ChatSession {
+
+    private final NioChatServer server;
+    private final NioEventLoop loop;
+    private final SocketChannel channel;
+    private SelectionKey key;
+    private volatile String username; // 握手完成前为 null
+    private volatile boolean closed;
+    private volatile Set<String> features = Collections.emptySet(); // 握手协商后启用的功能
+    private volatile Codec codec = TextCodec.INSTANCE; // 握手后双向使用的编码
+
+    private byte[] partial; // 尚未读完整的一行（只在出现半行时分配）；压缩连接中为解压后尚未处理的数据
+    private int partialLength;
+    private DeflateStream compression; // 协商了压缩时不为 null
+    private boolean inflating;         // 读取方向已切换为压缩流
+    private byte[] wire;               // 压缩连接尚未解压的线路帧数据
+    private int wireLength;
+    private boolean deflating;         // 写出方向已经开始压缩（WELCOME 之后）
+
+    private final OutboundQueue writeQueue; // 待发送的帧
+    private ByteBuffer[] backlog; // 上次聚集写出未写完的帧（只在内核发送缓冲区满时出现）
+    private int backlogStart;
+    private final int maxWriteBytes;
+    private final long lingerNanos;
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private volatile boolean closeAfterFlush;
+    private volatile long lastRead = System.nanoTime(); // 每次读到数据时更新（每次就绪一次，不按帧）
+    private final RateLimiter limiter; // 未开启限速时为 null
+    private final RateLimiter.Quota quota;
+    private boolean readPaused; // 因限速暂停读取（已取消 OP_READ）
+
+    public NioConnection(NioChatServer server, NioEventLoop loop, SocketChannel channel, OutboundQueue writeQueue) {
+        this.server = server;
+        this.loop = loop;
+        this.channel = channel;
+        this.writeQueue = writeQueue;
+        this.maxWriteBytes = server.config().getWriteBufferKb() << 10;
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(server.config().getWriteLingerMs());
+        this.limiter = server.rateLimiter();
+        this.quota = limiter == null ? null : limiter.newQuota();
+    }
+
+    void attach(SelectionKey key) {
+        this.key = key;
+    }
+
+    @Override
+    public String getUsername() {
+        return username;
+    }
+
+    @Override
+    public void setUsername(String username) {
+        this.username = username;
+    }
+
+    public String getRemoteAddress() {
+        return channel.socket().getInetAddress().getHostAddress();
+    }
+
+    /**
+     * 读取可用数据，按当前编码切出完整帧交给服务器处理（握手前按文本行切分）
+     * 每次就绪只读一个缓冲区，让同一事件循环的其他连接和待写出的数据有机会执行
+     */
+    void onReadable(ByteBuffer buf, FrameView view) {
+        if (readPaused) {
+            return; // 同一轮选择中暂停前已就绪
+        }
+        try {
+            buf.clear();
+            int n = channel.read(buf);
+            if (n < 0) {
+                close();
+                return;
+            }
+            lastRead = System.nanoTime();
+            byte[] data = buf.array();
+            if (inflating) {
+                appendWire(data, 0, n);
+                inflateFrames(view);
+                return;
+            }
+            if (partialLength == 0) {
+                // 常见情况：直接在共享缓冲区上解析，只有剩下的半帧才复制
+                int consumed = splitFrames(data, 0, n, view);
+                if (consumed < n && !closed) {
+                    appendPartial(data, consumed, n - consumed);
+                }
+            } else {
+                appendPartial(data, 0, n);
+                int consumed = splitFrames(partial, 0, partialLength, view);
+                System.arraycopy(partial, consumed, partial, 0, partialLength - consumed);
+                partialLength -= consumed;
+            }
+            if (compression != null && !closed) {
+                // 握手时启用了压缩：握手行之后的数据都是压缩流
+                inflating = true;
+                if (partialLength > 0) {
+                    appendWire(partial, 0, partialLength);
+                    partialLength = 0;
+                }
+                inflateFrames(view);
+            }
+        } catch (ProtocolException e) {
+            Log.warn("协议错误，断开连接：{}（{}）", getRemoteAddress(), e.getMessage());
+            close();
+        } catch (IOException e) {
+            close();
+        }
+    }
+
+    /**
+     * 从 data[offset, offset+length) 中依次切出完整帧
+     * @return 已处理的字节数
+     */
+    private int splitFrames(byte[] data, int offset, int length, FrameView view) throws ProtocolException {
+        int pos = offset;
+        int end = offset + length;
+        while (!closed) {
+            boolean handshake = username == null;
+            Codec frameCodec = handshake ? TextCodec.INSTANCE : codec;
+            int frameLength = frameCodec.frameLength(data, pos, end - pos);
+            if (frameLength < 0) {
+                break;
+            }
+            if (handshake) {
+                server.onHandshake(this, TextCodec.decodeLine(data, pos, frameLength));
+                if (compression != null) {
+                    pos += frameLength;
+                    break; // 之后的数据是压缩流，由调用方转入线路帧缓冲区
+                }
+            } else {
+                frameCodec.view(data, pos, frameLength, view);
+                long wait = limiter == null ? 0 : limiter.acquire(quota, view.type());
+                if (wait == 0) {
+                    server.onFrame(this, view);
+                } else if (limiter.action() == RateLimitAction.DELAY) {
+                    RateLimiter.DELAYS.increment();
+                    stopReading();
+                    loop.schedule(() -> resumeReading(view), wait);
+                    break; // 这一帧不消费，恢复读取时重新检查
+                } else {
+                    limiter.reject(this, quota);
+                    if (closeAfterFlush) {
+                        stopReading(); // 已因限速断开，不再读取
+                        pos += frameLength;
+                        break;
+                    }
+                }
+            }
+            pos += frameLength;
+        }
+        return pos - offset;
+    }
+
+    private void stopReading() {
+        readPaused = true;
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+    }
+
+    /**
+     * 限速等待到期（事件循环线程）：先处理半帧缓冲区中暂停时留下的帧，没有再次超限才恢复 OP_READ
+     * view 是事件循环共用的那一个，只在本线程使用
+     */
+    private void resumeReading(FrameView view) {
+        if (closed) {
+            return;
+        }
+        readPaused = false;
+        try {
+            int consumed = splitFrames(partial, 0, partialLength, view);
+            System.arraycopy(partial, consumed, partial, 0, partialLength - consumed);
+            partialLength -= consumed;
+        } catch (ProtocolException e) {
+            Log.warn("协议错误，断开连接：{}（{}）", getRemoteAddress(), e.getMessage());
+            close();
+            return;
+        }
+        if (inflating && !readPaused && !closed) {
+            try {
+                inflateFrames(view); // 暂停期间未解压的线路帧
+            } catch (ProtocolException e) {
+                Log.warn("协议错误，断开连接：{}（{}）", getRemoteAddress(), e.getMessage());
+                close();
+                return;
+            }
+        }
+        if (!readPaused && !closed) {
+            key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+        }
+    }
+
+    /**
+     * 压缩连接：逐个解压完整的线路帧并立即切帧处理，因限速暂停时剩下的线路帧留到恢复读取时再解压，
+     * 半帧缓冲区最多多出一个线路帧解压后的数据
+     */
+    private void inflateFrames(FrameView view) throws ProtocolException {
+        int pos = 0;
+        int length;
+        while (!readPaused && !closed && (length = BinaryCodec.INSTANCE.frameLength(wire, pos, wireLength - pos)) > 0) {
+            ensurePartial(partialLength + DeflateStream.MAX_INFLATED_BYTES + 1);
+            partialLength += compression.inflate(wire, pos, length, partial, partialLength);
+            pos += length;
+            int consumed = splitFrames(partial, 0, partialLength, view);
+            System.arraycopy(partial, consumed, partial, 0, partialLength - consumed);
+            partialLength -= consumed;
+        }
+        if (wire != null) {
+            System.arraycopy(wire, pos, wire, 0, wireLength - pos);
+            wireLength -= pos;
+        }
+    }
+
+    private void appendWire(byte[] data, int offset, int length) {
+        int required = wireLength + length;
+        if (wire == null || wire.length < required) {
+            wire = Arrays.copyOf(wire == null ? new byte[0] : wire, Math.max(required, wireLength * 2 + 256));
+        }
+        System.arraycopy(data, offset, wire, wireLength, length);
+        wireLength = required;
+    }
+
+    private void ensurePartial(int required) {
+        if (partial == null || partial.length < required) {
+            partial = Arrays.copyOf(partial == null ? new byte[0] : partial, Math.max(required, partialLength * 2 + 256));
+        }
+    }
+
+    private void appendPartial(byte[] data, int offset, int length) {
+        // 单帧上限由 Codec.frameLength 检查，这里最多暂存一帧上限加一次读取的数据
+        int required = partialLength + length;
+        ensurePartial(required);
+        System.arraycopy(data, offset, partial, partialLength, length);
+        partialLength = required;
+    }
+
+    /**
+     * 发送一帧（可在任意线程调用）：只入队，实际写出由所属事件循环完成；队列溢出且策略要求时断开
+     */
+    @Override
+    public void send(Frame frame) {
+        if (closed) {
+            return;
+        }
+        if (!writeQueue.offer(frame)) {
+            Log.warn("客户端消费过慢，断开连接：{}", getRemoteAddress());
+            close();
+            return;
+        }
+        scheduleFlush();
+    }
+
+    @Override
+    public void hold() {
+        writeQueue.hold();
+    }
+
+    @Override
+    public void release(List<Frame> first, long skipLoggedUpTo) {
+        writeQueue.release(first, skipLoggedUpTo);
+        scheduleFlush();
+    }
+
+    @Override
+    public boolean hasFeature(String feature) {
+        return features.contains(feature);
+    }
+
+    @Override
+    public void setFeatures(Set<String> features) {
+        this.features = features;
+        this.codec = Codec.forFeatures(features);
+    }
+
+    @Override
+    public Codec codec() {
+        return codec;
+    }
+
+    @Override
+    public void setCompression(DeflateStream stream) {
+        this.compression = stream; // 在事件循环线程中（握手处理时）调用
+    }
+
+    @Override
+    public OutboundQueue outboundQueue() {
+        return writeQueue;
+    }
+
+    @Override
+    public long lastReadNanos() {
+        return lastRead;
+    }
+
+    /**
+     * 发送完已排队的数据后关闭连接（用于用户名校验失败等场景）
+     */
+    @Override
+    public void closeAfterFlush() {
+        closeAfterFlush = true;
+        scheduleFlush();
+    }
+
+    boolean isClosing() {
+        return closeAfterFlush || closed;
+    }
+
+    private void scheduleFlush() {
+        if (flushScheduled.compareAndSet(false, true)) {
+            if (lingerNanos > 0 && !closeAfterFlush) {
+                loop.schedule(this::flush, lingerNanos); // 等待视窗内入队的帧一并写出
+            } else {
+                loop.execute(this::flush);
+            }
+        }
+    }
+
+    /**
+     * 尽可能写出待发送数据；写不完时注册 OP_WRITE，等待对端窗口可写后继续
+     * 先写完上次剩下的帧，再从队列中按批取帧聚集写出，帧都是共享字节的只读视图，不复制
+     */
+    void flush() {
+        flushScheduled.set(false);
+        if (closed) {
+            return;
+        }
+        try {
+            if (backlog != null) {
+                ServerMetrics.SOCKET_WRITES.increment();
+                channel.write(backlog, backlogStart, backlog.length - backlogStart);
+                if (!keepUnwritten(backlog, backlogStart, backlog.length)) {
+                    return;
+                }
+            }
+            ByteBuffer[] gather = loop.gatherBuffers();
+            while (true) {
+                int count = 0;
+                int bytes = 0;
+                Frame frame;
+                while (count < gather.length && bytes < maxWriteBytes && (frame = writeQueue.poll()) != null) {
+                    ByteBuffer buffer;
+                    if (deflating) {
+                        buffer = ByteBuffer.wrap(frame.compress(compression));
+                    } else {
+                        buffer = frame.buffer(codec);
+                        deflating = compression != null && frame.type() == MessageType.WELCOME_TYPE; // 之后的帧都压缩
+                    }
+                    ServerMetrics.messageOut(frame.type(), buffer.remaining());
+                    gather[count++] = buffer;
+                    bytes += buffer.remaining();
+                }
+                if (count == 0) {
+                    break;
+                }
+                ServerMetrics.SOCKET_WRITES.increment();
+                channel.write(gather, 0, count);
+                boolean done = keepUnwritten(gather, 0, count);
+                Arrays.fill(gather, 0, count, null);
+                if (!done) {
+                    return;
+                }
+            }
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            if (closeAfterFlush) {
+                close();
+            }
+        } catch (IOException e) {
+            close();
+        }
+    }
+
+    /**
+     * 检查一次聚集写出的结果：全部写完返回 true；否则把未写完的帧留到 backlog，注册 OP_WRITE 后返回 false
+     */
+    private boolean keepUnwritten(ByteBuffer[] buffers, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buffers[i].hasRemaining()) {
+                if (buffers != backlog) {
+                    backlog = Arrays.copyOfRange(buffers, i, to);
+                    backlogStart = 0;
+                } else {
+                    backlogStart = i;
+                }
+                key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                return false;
+            }
+        }
+        backlog = null;
+        return true;
+    }
+
+    /**
+     * 关闭连接（可在任意线程调用）
+     */
+    @Override
+    public void close() {
+        if (loop.inEventLoop()) {
+            closeNow();
+        } else {
+            loop.execute(this::closeNow);
+        }
+    }
+
+    private void closeNow() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        writeQueue.clear();
+        backlog = null;
+        if (compression != null) {
+            compression.end();
+        }
+        if (key != null) {
+            key.cancel();
+        }
+        NioEventLoop.closeQuietly(channel);
+        server.onClosed(this);
+    }
+}
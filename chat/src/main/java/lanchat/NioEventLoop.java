@@ -0,0 +1,181 @@
+package lanchat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * NIO 事件迴圈：一條執行緒 + 一個 Selector，負責其名下所有連線的讀寫
+ * 其他執行緒只能透過 execute() 投遞任務，連線狀態只在本執行緒內修改
+ * 延遲任務（--write-linger-ms 的寫出視窗）按到期時間排序，select 的逾時取最早到期者
+ */
+public class NioEventLoop implements Runnable {
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    static final int MAX_GATHER = 64; // 一次聚集寫出（writev）最多合併的幀數
+
+    /**
+     * 延遲任務，只在本執行緒內建立與執行
+     */
+    private static final class Timer implements Comparable<Timer> {
+        final long deadline; // System.nanoTime()
+        final Runnable task;
+
+        Timer(long deadline, Runnable task) {
+            this.deadline = deadline;
+            this.task = task;
+        }
+
+        @Override
+        public int compareTo(Timer o) {
+            return Long.compare(deadline, o.deadline);
+        }
+    }
+
+    private final NioChatServer server;
+    private final Selector selector;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>(); // 跨執行緒投遞的任務
+    private final AtomicBoolean wakeupPending = new AtomicBoolean(); // 避免重複 wakeup
+    // 所有連線共用的讀取緩衝區；未讀完整的一幀才複製到連線自己的緩衝區，閒置連線不佔記憶體
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    private final FrameView frameView = new FrameView(); // 所有連線共用的幀視圖，只在本執行緒的回呼期間有效
+    private final ByteBuffer[] gather = new ByteBuffer[MAX_GATHER]; // 所有連線共用的聚集寫出陣列，寫完即清空
+    private final PriorityQueue<Timer> timers = new PriorityQueue<>(); // 只在本執行緒內存取
+    private Thread thread;
+
+    public NioEventLoop(NioChatServer server) throws IOException {
+        this.server = server;
+        this.selector = Selector.open();
+    }
+
+    public void start(String name) {
+        thread = new Thread(this, name);
+        thread.start();
+    }
+
+    /**
+     * 將新連線交給本事件迴圈（可在任意執行緒呼叫）
+     */
+    public void register(final SocketChannel channel) {
+        execute(() -> {
+            try {
+                NioConnection conn = new NioConnection(server, this, channel, server.newOutboundQueue());
+                conn.attach(channel.register(selector, SelectionKey.OP_READ, conn));
+            } catch (ClosedChannelException e) {
+                closeQuietly(channel);
+            }
+        });
+    }
+
+    /**
+     * 投遞任務到事件迴圈執行；若在本執行緒內呼叫，同樣排入佇列於本輪結束前執行
+     */
+    public void execute(Runnable task) {
+        tasks.add(task);
+        if (!inEventLoop() && wakeupPending.compareAndSet(false, true)) {
+            selector.wakeup();
+        }
+    }
+
+    public boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * 延遲 delayNanos 後在事件迴圈中執行任務（可在任意執行緒呼叫）
+     */
+    public void schedule(Runnable task, long delayNanos) {
+        long deadline = System.nanoTime() + delayNanos;
+        execute(() -> timers.add(new Timer(deadline, task)));
+    }
+
+    ByteBuffer[] gatherBuffers() {
+        return gather;
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            try {
+                Timer next = timers.peek();
+                if (!tasks.isEmpty()) {
+                    selector.selectNow(); // 計時任務中投遞的任務（例如再次 schedule）不能等到下一次喚醒
+                } else if (next == null) {
+                    selector.select();
+                } else {
+                    long wait = next.deadline - System.nanoTime();
+                    if (wait <= 0) {
+                        selector.selectNow();
+                    } else {
+                        selector.select((wait + 999999) / 1000000); // 向上取整到毫秒，不提前返回
+                    }
+                }
+                wakeupPending.set(false);
+                processSelectedKeys();
+                runTasks();
+                runTimers();
+            } catch (Exception e) {
+                // 單一連線的異常已在 NioConnection 內處理，此處只記錄事件迴圈本身的異常
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void processSelectedKeys() {
+        Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+        while (it.hasNext()) {
+            SelectionKey key = it.next();
+            it.remove();
+            NioConnection conn = (NioConnection) key.attachment();
+            if (!key.isValid()) {
+                conn.close();
+                continue;
+            }
+            if (key.isReadable()) {
+                conn.onReadable(readBuffer, frameView);
+            }
+            if (key.isValid() && key.isWritable()) {
+                conn.flush();
+            }
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void runTimers() {
+        long now = System.nanoTime();
+        Timer timer;
+        while ((timer = timers.peek()) != null && timer.deadline - now <= 0) {
+            timers.poll();
+            try {
+                timer.task.run();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
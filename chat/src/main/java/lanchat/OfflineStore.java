@@ -0,0 +1,472 @@
+package lanchat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 离线私聊的存储转发：接收者不在线时，私聊帧按接收者追加到磁盘上的队列文件，接收者下次登录后分块送达
+ * 队列文件 = [long 已送达偏移][BinaryCodec 帧...]，帧自带长度，无需额外索引
+ * 所有文件操作都在单独的 offline-store 线程执行，路由线程只提交任务；队列尾部在总量上限内缓存在内存中，
+ * 少量离线消息送达时不必再读磁盘
+ * 送达时把多条消息合并成一帧（一次写出），接收者的出站队列有积压时稍后再送下一块，
+ * 离线消息很多的用户不会卡住登录，也不会占满出站队列
+ * 只为在本服务器登录过的用户保存（用户名记录在 known-users 文件中），所有队列文件合计不超过 --offline-max-mb，
+ * 发送者不能靠编造用户名占满磁盘
+ */
+public final class OfflineStore {
+
+    private static final int HEADER = 8;
+    private static final int CHUNK_BYTES = 64 * 1024;             // 合并为一帧送出的字节数上限
+    private static final int MAX_QUEUE_BYTES = 4 << 20;           // 每个接收者的离线消息上限
+    private static final long MAX_CACHED_BYTES = 8 << 20;         // 所有接收者合计的内存缓存上限
+    private static final int MAX_OPEN_MAILBOXES = 256;            // 同时打开的队列文件个数
+    private static final int BUSY_QUEUE_DEPTH = 4;                // 接收者出站队列超过该深度时稍后再送
+    private static final long RETRY_MILLIS = 10;
+    private static final String KNOWN_USERS = "known-users"; // 登录过的用户名，每行一个（UTF-8），只追加
+
+    static final LongAdder STORED = new LongAdder();     // 累计保存的离线消息
+    static final LongAdder DELIVERED = new LongAdder();  // 累计送达的离线消息
+
+    private final Path dir;
+    private final SessionRegistry onlineUsers;
+    private final ScheduledExecutorService worker;
+    private final long maxBytes; // 队列文件合计的大小上限，0 表示不限
+    private final Set<String> knownUsers = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private long cachedBytes; // 以下只在 worker 线程访问
+    private long totalBytes;  // 所有队列文件的大小之和
+
+    // 按访问顺序排列，超过上限时关闭最久未用的队列文件（正在送达的除外），下次用到时重新打开
+    private final Map<String, Mailbox> mailboxes = new LinkedHashMap<String, Mailbox>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Mailbox> eldest) {
+            if (size() <= MAX_OPEN_MAILBOXES || eldest.getValue().deliveringTo != null) {
+                return false;
+            }
+            release(eldest.getValue());
+            return true;
+        }
+    };
+
+    /**
+     * 一个接收者的离线队列
+     */
+    private static final class Mailbox {
+        final String name;
+        final Path path;
+        FileChannel channel;       // 文件不存在（队列为空）时为 null
+        long delivered = HEADER;   // 已送达到的文件偏移
+        long size = HEADER;        // 文件长度
+        final ArrayDeque<byte[]> cache = new ArrayDeque<>(); // 文件尾部 [cacheFrom, size) 的帧
+        long cacheFrom = -1;       // -1 表示不缓存（超出总量上限后直到队列清空）
+        long cacheBytes;
+        ChatSession deliveringTo;  // 正在送达的会话
+
+        Mailbox(String name, Path path) {
+            this.name = name;
+            this.path = path;
+        }
+
+        boolean isEmpty() {
+            return delivered >= size;
+        }
+    }
+
+    private OfflineStore(Path dir, SessionRegistry onlineUsers, long maxBytes) {
+        this.dir = dir;
+        this.onlineUsers = onlineUsers;
+        this.maxBytes = maxBytes;
+        this.worker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "offline-store");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * 打开 --offline-dir 指定的目录（不存在则创建），--offline-dir=off 时返回 null
+     */
+    public static OfflineStore open(ServerConfig config, SessionRegistry onlineUsers) throws IOException {
+        if (config.getOfflineDir() == null) {
+            return null;
+        }
+        Path dir = Paths.get(config.getOfflineDir());
+        Files.createDirectories(dir);
+        OfflineStore store = new OfflineStore(dir, onlineUsers, (long) config.getOfflineMaxMb() << 20);
+        store.load();
+        Runtime.getRuntime().addShutdownHook(new Thread(store::close, "offline-flush"));
+        return store;
+    }
+
+    /**
+     * 读入登录过的用户名与现有队列文件的总大小（启动时调用）；已有队列文件的接收者也视为登录过
+     */
+    private void load() throws IOException {
+        Path known = dir.resolve(KNOWN_USERS);
+        if (Files.exists(known)) {
+            for (String name : Files.readAllLines(known, StandardCharsets.UTF_8)) {
+                if (!name.isEmpty()) {
+                    knownUsers.add(name);
+                }
+            }
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*.q")) {
+            for (Path file : files) {
+                totalBytes += Files.size(file);
+                String name = nameOf(file.getFileName().toString());
+                if (name != null && knownUsers.add(name)) {
+                    remember(known, name);
+                }
+            }
+        }
+    }
+
+    /**
+     * 用户登录成功（路由线程调用）：此后才接受发给他的离线私聊
+     */
+    public void onLogin(String username) {
+        if (knownUsers.add(username)) {
+            worker.execute(() -> remember(dir.resolve(KNOWN_USERS), username));
+        }
+    }
+
+    /**
+     * 接收者是否在本服务器登录过（路由线程调用）：没有登录过的用户名不保存离线消息
+     */
+    public boolean knows(String username) {
+        return knownUsers.contains(username);
+    }
+
+    private static void remember(Path known, String username) {
+        try {
+            Files.write(known, Collections.singletonList(username), StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            Log.warn("保存用户名失败：{}", e.getMessage());
+        }
+    }
+
+    /**
+     * 保存一条发给离线用户的私聊（路由线程调用，只提交任务），结果以文本提示告知发送者
+     * sender 为 null 表示消息来自集群中的其他节点，不回复提示
+     */
+    public void store(String receiver, Frame frame, ChatSession sender) {
+        worker.execute(() -> append(receiver, frame, sender));
+    }
+
+    /**
+     * 用户登录后送达其离线消息（在 WELCOME 与在线状态之后，分块进行）
+     */
+    public void deliver(ChatSession session) {
+        worker.execute(() -> startDelivery(session));
+    }
+
+    /**
+     * 断线续传已从历史记录补发了离线期间的全部私聊：丢弃离线队列，不再重复送达
+     */
+    public void discard(String username) {
+        worker.execute(() -> {
+            try {
+                Mailbox box = mailbox(username);
+                if (box.deliveringTo == null) {
+                    remove(box);
+                }
+            } catch (IOException e) {
+                Log.warn("读取离线消息失败：{}", e.getMessage());
+            }
+        });
+    }
+
+    private static void notify(ChatSession sender, String text) {
+        if (sender != null) {
+            sender.send(Frame.text(text));
+        }
+    }
+
+    private void append(String receiver, Frame frame, ChatSession sender) {
+        byte[] bytes = frame.bytes(BinaryCodec.INSTANCE);
+        try {
+            Mailbox box = mailbox(receiver);
+            if (box.size - box.delivered + bytes.length > MAX_QUEUE_BYTES) {
+                notify(sender, "私聊失败：" + receiver + "的离线消息已满！");
+                return;
+            }
+            if (maxBytes > 0 && totalBytes + (box.channel == null ? HEADER : 0) + bytes.length > maxBytes) {
+                notify(sender, "私聊失败：服务器的离线消息已满！");
+                return;
+            }
+            if (box.channel == null) {
+                box.channel = FileChannel.open(box.path,
+                        StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                writeFully(box.channel, ByteBuffer.allocate(HEADER).putLong(0, HEADER), 0);
+                totalBytes += HEADER;
+            }
+            writeFully(box.channel, ByteBuffer.wrap(bytes), box.size);
+            totalBytes += bytes.length;
+            if (box.cacheFrom < 0 && box.isEmpty()) {
+                box.cacheFrom = box.size; // 队列原本为空：从这里开始缓存
+            }
+            box.size += bytes.length;
+            cache(box, bytes);
+            STORED.increment();
+        } catch (IOException e) {
+            Log.warn("保存离线消息失败：{}", e.getMessage());
+            notify(sender, "私聊失败：" + receiver + "不在线，离线消息保存失败！");
+            return;
+        }
+        notify(sender, "私聊提示：" + receiver + "不在线，消息将在其上线后送达。");
+        // 路由时对方不在线，但可能在保存完成前刚好登录：补发一次
+        ChatSession online = onlineUsers.get(receiver);
+        if (online != null) {
+            startDelivery(online);
+        }
+    }
+
+    private void cache(Mailbox box, byte[] bytes) {
+        if (box.cacheFrom < 0) {
+            return;
+        }
+        if (cachedBytes + bytes.length > MAX_CACHED_BYTES) {
+            dropCache(box); // 缓存必须是连续的尾部，放不下时整个队列改为读磁盘
+            return;
+        }
+        box.cache.addLast(bytes);
+        box.cacheBytes += bytes.length;
+        cachedBytes += bytes.length;
+    }
+
+    private void dropCache(Mailbox box) {
+        cachedBytes -= box.cacheBytes;
+        box.cache.clear();
+        box.cacheBytes = 0;
+        box.cacheFrom = -1;
+    }
+
+    private void startDelivery(ChatSession session) {
+        String name = session.getUsername();
+        if (name == null) {
+            return;
+        }
+        try {
+            Mailbox box = mailbox(name);
+            if (box.isEmpty()) {
+                remove(box);
+                return;
+            }
+            if (box.deliveringTo != null) {
+                box.deliveringTo = session; // 已在送达中（或重新登录）：由正在进行的分块继续送出
+                return;
+            }
+            box.deliveringTo = session;
+            sendChunk(box);
+        } catch (IOException e) {
+            Log.warn("读取离线消息失败：{}", e.getMessage());
+        }
+    }
+
+    /**
+     * 送出一块（最多约 CHUNK_BYTES，合并为一帧），之后重新提交自己，让其他任务有机会执行
+     */
+    private void sendChunk(Mailbox box) {
+        ChatSession session = box.deliveringTo;
+        if (session == null || onlineUsers.get(box.name) != session) {
+            box.deliveringTo = null; // 已下线：剩余消息留在磁盘上，下次登录继续
+            return;
+        }
+        if (session.outboundQueue().depth() > BUSY_QUEUE_DEPTH) {
+            worker.schedule(() -> sendChunk(box), RETRY_MILLIS, TimeUnit.MILLISECONDS);
+            return;
+        }
+        try {
+            byte[] chunk = readChunk(box);
+            byte[] payload = session.codec() == BinaryCodec.INSTANCE ? chunk : reencode(chunk, session.codec());
+            session.send(Frame.preEncoded(MessageType.PRIVATE, payload));
+            box.delivered += chunk.length;
+            writeFully(box.channel, ByteBuffer.allocate(HEADER).putLong(0, box.delivered), 0);
+        } catch (IOException e) {
+            Log.warn("送达离线消息失败：{}（{}）", box.name, e.getMessage());
+            box.deliveringTo = null;
+            return;
+        }
+        if (box.isEmpty()) {
+            remove(box);
+        } else {
+            worker.execute(() -> sendChunk(box));
+        }
+    }
+
+    /**
+     * 从已送达位置起读出若干条完整的帧：优先取内存缓存，否则读文件
+     */
+    private byte[] readChunk(Mailbox box) throws IOException {
+        if (box.cacheFrom >= 0 && box.delivered >= box.cacheFrom) {
+            ByteArrayOutputStream chunk = new ByteArrayOutputStream();
+            while (!box.cache.isEmpty() && (chunk.size() == 0 || chunk.size() + box.cache.peekFirst().length <= CHUNK_BYTES)) {
+                byte[] frame = box.cache.pollFirst();
+                chunk.write(frame, 0, frame.length);
+                box.cacheBytes -= frame.length;
+                cachedBytes -= frame.length;
+                DELIVERED.increment();
+            }
+            box.cacheFrom += chunk.size();
+            return chunk.toByteArray();
+        }
+        long limit = box.cacheFrom >= 0 ? box.cacheFrom : box.size;
+        // 多读一帧的最大长度，保证第一帧总是完整的
+        byte[] buf = new byte[(int) Math.min(CHUNK_BYTES + Codec.MAX_FRAME_BYTES, limit - box.delivered)];
+        ByteBuffer target = ByteBuffer.wrap(buf);
+        while (target.hasRemaining()) {
+            if (box.channel.read(target, box.delivered + target.position()) < 0) {
+                throw new IOException("离线消息文件被截断：" + box.path);
+            }
+        }
+        int end = 0;
+        int length;
+        while (end < CHUNK_BYTES && end < buf.length
+                && (length = BinaryCodec.INSTANCE.frameLength(buf, end, buf.length - end)) > 0) {
+            end += length;
+            DELIVERED.increment();
+        }
+        if (end == 0) {
+            throw new ProtocolException("离线消息文件已损坏：" + box.path);
+        }
+        return end == buf.length ? buf : Arrays.copyOf(buf, end);
+    }
+
+    private static byte[] reencode(byte[] chunk, Codec codec) throws ProtocolException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(chunk.length + chunk.length / 4);
+        int pos = 0;
+        while (pos < chunk.length) {
+            int length = BinaryCodec.INSTANCE.frameLength(chunk, pos, chunk.length - pos);
+            byte[] encoded = codec.encode(BinaryCodec.INSTANCE.decode(chunk, pos, length));
+            out.write(encoded, 0, encoded.length);
+            pos += length;
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * 取得接收者的队列：已有文件时读入已送达偏移与文件长度
+     */
+    private Mailbox mailbox(String name) throws IOException {
+        Mailbox box = mailboxes.get(name);
+        if (box != null) {
+            return box;
+        }
+        box = new Mailbox(name, dir.resolve(fileName(name)));
+        if (Files.exists(box.path)) {
+            box.channel = FileChannel.open(box.path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            ByteBuffer header = ByteBuffer.allocate(HEADER);
+            box.channel.read(header, 0);
+            box.size = box.channel.size();
+            box.delivered = header.position() == HEADER ? Math.max(HEADER, Math.min(header.getLong(0), box.size)) : HEADER;
+        }
+        mailboxes.put(name, box);
+        return box;
+    }
+
+    /**
+     * 队列已全部送达：删除文件
+     */
+    private void remove(Mailbox box) {
+        mailboxes.remove(box.name);
+        boolean exists = box.channel != null;
+        release(box);
+        try {
+            if (exists && Files.deleteIfExists(box.path)) {
+                totalBytes -= box.size;
+            }
+        } catch (IOException e) {
+            Log.warn("删除离线消息文件失败：{}", e.getMessage());
+        }
+    }
+
+    private void release(Mailbox box) {
+        dropCache(box);
+        if (box.channel != null) {
+            try {
+                box.channel.close();
+            } catch (IOException e) {
+                Log.warn("关闭离线消息文件失败：{}", e.getMessage());
+            }
+            box.channel = null;
+        }
+    }
+
+    /**
+     * 文件名为用户名 UTF-8 字节的十六进制，任何用户名都能安全地作为文件名
+     */
+    private static String fileName(String name) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : name.getBytes(StandardCharsets.UTF_8)) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.append(".q").toString();
+    }
+
+    /**
+     * fileName 的逆运算，不是合法的队列文件名时返回 null
+     */
+    private static String nameOf(String fileName) {
+        int length = fileName.length() - 2;
+        if (length <= 0 || length % 2 != 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            int high = Character.digit(fileName.charAt(2 * i), 16);
+            int low = Character.digit(fileName.charAt(2 * i + 1), 16);
+            if (high < 0 || low < 0) {
+                return null;
+            }
+            bytes[i] = (byte) (high << 4 | low);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            position += channel.write(buf, position);
+        }
+    }
+
+    /**
+     * 等待已提交的保存任务完成后关闭文件（关闭钩子调用，可重复调用）
+     */
+    void close() {
+        if (worker.isShutdown()) {
+            return;
+        }
+        worker.execute(() -> {
+            for (Mailbox box : mailboxes.values()) {
+                release(box);
+            }
+            mailboxes.clear();
+        });
+        worker.shutdown();
+        try {
+            worker.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package lanchat;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 每个会话一个的有界出站队列：发送者只负责入队（锁只保护队列本身，从不在持锁时做网络 I/O），
+ * 由该会话的写线程或 NIO 事件循环取出写出，一个慢客户端不会拖慢其他用户
+ */
+public class OutboundQueue {
+
+    // 全局统计（所有会话累计）
+    static final LongAdder DROPPED = new LongAdder();           // 因溢出丢弃的帧
+    static final LongAdder COALESCED = new LongAdder();         // 被新用户列表取代的帧
+    static final LongAdder SLOW_CONSUMERS = new LongAdder();    // 因溢出被断开的客户端
+
+    private final int capacity;
+    private final OverflowPolicy policy;
+    private final ArrayDeque<Frame> frames = new ArrayDeque<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private ArrayDeque<Frame> held; // hold() 之后入队、release 之前不取出的帧，未暂存时为 null
+    private int queuedUserLists; // 队列中（含暂存的）用户列表帧的数量，为 0 时合并无需扫描
+    private volatile int depth; // 可取出的帧数，不含暂存的帧
+    private volatile int highWatermark;
+
+    public OutboundQueue(int capacity, OverflowPolicy policy) {
+        this.capacity = capacity;
+        this.policy = policy;
+    }
+
+    /**
+     * 入队一帧，按溢出策略处理队列已满的情况
+     * @return false 表示该客户端消费过慢，应断开连接
+     */
+    public boolean offer(Frame frame) {
+        lock.lock();
+        try {
+            if (policy == OverflowPolicy.COALESCE && frame.kind() == Frame.Kind.USER_LIST) {
+                removeQueuedUserLists();
+            }
+            if (size() >= capacity && !makeRoom()) {
+                if (frame.kind() != Frame.Kind.CHAT && policy == OverflowPolicy.DROP_OLDEST_PRESENCE) {
+                    DROPPED.increment(); // 队列全是聊天消息时，新的状态通知可直接丢弃
+                    return true;
+                }
+                SLOW_CONSUMERS.increment();
+                return false;
+            }
+            (held != null ? held : frames).addLast(frame);
+            if (frame.kind() == Frame.Kind.USER_LIST) {
+                queuedUserLists++;
+            }
+            updateDepth();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 此后入队的帧暂存（仍计入容量、照常按溢出策略处理），直到 release 才可取出
+     */
+    public void hold() {
+        lock.lock();
+        try {
+            if (held == null) {
+                held = new ArrayDeque<>();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 先入队 first（不受容量限制），再把暂存的帧按原顺序接在后面，恢复正常入队
+     * 未暂存时只入队 first
+     * @param skipLoggedUpTo 暂存的帧中已写入消息日志、序号不大于它的丢弃（first 中已含同一批记录），-1 表示全部保留
+     */
+    public void release(List<Frame> first, long skipLoggedUpTo) {
+        lock.lock();
+        try {
+            for (Frame frame : first) {
+                frames.addLast(frame);
+                if (frame.kind() == Frame.Kind.USER_LIST) {
+                    queuedUserLists++;
+                }
+            }
+            if (held != null) {
+                for (Frame frame : held) {
+                    long seq = frame.loggedSeq();
+                    if (seq >= 0 && seq <= skipLoggedUpTo) {
+                        if (frame.kind() == Frame.Kind.USER_LIST) {
+                            queuedUserLists--;
+                        }
+                        continue;
+                    }
+                    frames.addLast(frame);
+                }
+                held = null;
+            }
+            updateDepth();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 取出队首一帧，队列为空时返回 null
+     */
+    public Frame poll() {
+        lock.lock();
+        try {
+            Frame frame = frames.pollFirst();
+            if (frame != null && frame.kind() == Frame.Kind.USER_LIST) {
+                queuedUserLists--;
+            }
+            updateDepth();
+            return frame;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void clear() {
+        lock.lock();
+        try {
+            frames.clear();
+            if (held != null) {
+                held.clear();
+            }
+            queuedUserLists = 0;
+            updateDepth();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isEmpty() {
+        return depth == 0;
+    }
+
+    public int depth() {
+        return depth;
+    }
+
+    public int highWatermark() {
+        return highWatermark;
+    }
+
+    private int size() {
+        return held == null ? frames.size() : frames.size() + held.size();
+    }
+
+    /**
+     * 队列已满时尝试按策略腾出一个位置
+     */
+    private boolean makeRoom() {
+        if (policy != OverflowPolicy.DROP_OLDEST_PRESENCE) {
+            return false;
+        }
+        return dropOldestPresence(frames) || held != null && dropOldestPresence(held);
+    }
+
+    private boolean dropOldestPresence(ArrayDeque<Frame> queue) {
+        Iterator<Frame> it = queue.iterator();
+        while (it.hasNext()) {
+            Frame queued = it.next();
+            if (queued.kind() != Frame.Kind.CHAT) {
+                it.remove();
+                if (queued.kind() == Frame.Kind.USER_LIST) {
+                    queuedUserLists--;
+                }
+                DROPPED.increment();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void removeQueuedUserLists() {
+        if (queuedUserLists == 0) {
+            return;
+        }
+        removeUserLists(frames);
+        if (held != null) {
+            removeUserLists(held);
+        }
+        queuedUserLists = 0;
+    }
+
+    private static void removeUserLists(ArrayDeque<Frame> queue) {
+        Iterator<Frame> it = queue.iterator();
+        while (it.hasNext()) {
+            if (it.next().kind() == Frame.Kind.USER_LIST) {
+                it.remove();
+                COALESCED.increment();
+            }
+        }
+    }
+
+    private void updateDepth() {
+        depth = frames.size();
+        int size = size();
+        if (size > highWatermark) {
+            highWatermark = size;
+        }
+    }
+}
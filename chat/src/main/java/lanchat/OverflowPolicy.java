@@ -0,0 +1,22 @@
+package lanchat;
+
+/**
+ * 出站队列已满时的处理策略
+ */
+public enum OverflowPolicy {
+
+    /**
+     * 丢弃队列中最旧的一帧上线/下线通知或用户列表，腾出位置；队列中只剩聊天消息时断开该客户端
+     */
+    DROP_OLDEST_PRESENCE,
+
+    /**
+     * 新的用户列表取代队列中尚未发出的旧列表（任何时候都合并）；合并后仍满则断开该客户端
+     */
+    COALESCE,
+
+    /**
+     * 队列满即断开该客户端
+     */
+    DISCONNECT
+}
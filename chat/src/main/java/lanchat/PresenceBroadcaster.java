@@ -0,0 +1,299 @@
+package lanchat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * 在线状态广播：把短时间窗口内的上线/下线合并成一帧增量发出
+ * 所有序号分配与快照生成都在同一条线程内完成，快照序号之后的增量一定连续
+ * 启用 presence 功能的客户端收到 [PRESENCE] 快照/增量；旧版客户端仍收到 USER_ONLINE/USER_OFFLINE 与完整 USER_LIST
+ * 新登录的客户端在快照（或用户列表）之后紧接着收到最近的群聊重放（见 RecentMessages），
+ * 注册之后广播给它的帧暂存在出站队列中（ChatSession.hold），排在快照与重放之后才写出；
+ * 登录时要求的后续投递（离线私聊、断线续传）在这些帧进入出站队列之后才开始
+ */
+public class PresenceBroadcaster {
+
+    private enum EventType {
+        JOIN, LEAVE, RESYNC
+    }
+
+    private static final class Event {
+        final EventType type;
+        final String username;
+        final ChatSession session;
+        final long replayUpTo; // JOIN：登录时最近消息缓存的序号，之前的消息需要重放
+        final Consumer<List<Frame>> afterSnapshot; // JOIN：接收快照与重放的帧，为 null 时直接 release
+
+        Event(EventType type, String username, ChatSession session, long replayUpTo) {
+            this(type, username, session, replayUpTo, null);
+        }
+
+        Event(EventType type, String username, ChatSession session, long replayUpTo,
+              Consumer<List<Frame>> afterSnapshot) {
+            this.type = type;
+            this.username = username;
+            this.session = session;
+            this.replayUpTo = replayUpTo;
+            this.afterSnapshot = afterSnapshot;
+        }
+    }
+
+    private final SessionRegistry onlineUsers;
+    private final long windowMillis;
+    private final RecentMessages recent; // 最近群聊缓存，未开启时为 null
+    private final Queue<Event> events = new ConcurrentLinkedQueue<>();
+    // 已 beginJoin、JOIN 尚未合并发出的会话：此前的增量与用户列表已过时，不再发给它们
+    private final Set<ChatSession> joining = Collections.newSetFromMap(new ConcurrentHashMap<ChatSession, Boolean>());
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "presence-broadcaster");
+        t.setDaemon(true);
+        return t;
+    });
+    private long seq; // 最近一次增量的序号，只在广播线程中读写
+
+    /**
+     * @param windowMillis 合并窗口（毫秒），0 表示不等待、立即发出
+     */
+    public PresenceBroadcaster(SessionRegistry onlineUsers, long windowMillis) {
+        this(onlineUsers, windowMillis, null);
+    }
+
+    public PresenceBroadcaster(SessionRegistry onlineUsers, long windowMillis, RecentMessages recent) {
+        this.onlineUsers = onlineUsers;
+        this.windowMillis = windowMillis;
+        this.recent = recent;
+    }
+
+    /**
+     * 注册为在线之前调用：此后发给该会话的帧暂存，直到它的 JOIN 合并发出时排在快照与重放之后写出
+     */
+    public void beginJoin(ChatSession session) {
+        joining.add(session);
+        session.hold();
+    }
+
+    /**
+     * beginJoin 之后注册失败：恢复正常发送（登录失败的提示随后发出）
+     */
+    public void abortJoin(ChatSession session) {
+        joining.remove(session);
+        session.release(Collections.<Frame>emptyList(), -1);
+    }
+
+    /**
+     * 用户已注册为在线后调用：此后记录的群聊会经广播送达，之前的由快照之后的重放补上
+     */
+    public void onJoin(String username, ChatSession session) {
+        onJoin(username, session, true);
+    }
+
+    /**
+     * @param replayRecent 为 false 时不重放最近的群聊（断线续传时由历史记录补发）
+     */
+    public void onJoin(String username, ChatSession session, boolean replayRecent) {
+        onJoin(username, session, replayRecent, (Runnable) null);
+    }
+
+    /**
+     * @param afterSnapshot 快照与最近群聊重放进入该会话的出站队列之后，在广播线程中执行（应很快返回）；
+     *                      会话在此之前已下线则不执行
+     */
+    public void onJoin(String username, ChatSession session, boolean replayRecent, Runnable afterSnapshot) {
+        onJoin(username, session, replayRecent, afterSnapshot == null ? null : frames -> {
+            session.release(frames, -1);
+            afterSnapshot.run();
+        });
+    }
+
+    /**
+     * @param afterSnapshot 在广播线程中接收快照与最近群聊重放的帧（应很快返回），由它负责 session.release；
+     *                      为 null 时直接 release。会话在此之前已下线则不调用
+     */
+    public void onJoin(String username, ChatSession session, boolean replayRecent,
+                       Consumer<List<Frame>> afterSnapshot) {
+        submit(new Event(EventType.JOIN, username, session,
+                recent == null || !replayRecent ? -1 : recent.head(), afterSnapshot));
+    }
+
+    public void onLeave(String username, ChatSession session) {
+        submit(new Event(EventType.LEAVE, username, session, -1));
+    }
+
+    /**
+     * 集群中其他节点的用户上线/下线（已记入注册表）：与本地用户一样合并进增量，没有需要发送快照的会话
+     */
+    public void onRemoteJoin(String username) {
+        submit(new Event(EventType.JOIN, username, null, -1));
+    }
+
+    public void onRemoteLeave(String username) {
+        submit(new Event(EventType.LEAVE, username, null, -1));
+    }
+
+    /**
+     * 客户端发现增量序号不连续，请求重新发送全量快照
+     */
+    public void requestResync(ChatSession session) {
+        submit(new Event(EventType.RESYNC, null, session, -1));
+    }
+
+    private void submit(Event event) {
+        events.add(event);
+        if (flushScheduled.compareAndSet(false, true)) {
+            executor.schedule(this::flush, windowMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 合并窗口到期：计算净变化，分别发给新客户端（快照或增量）与旧版客户端（通知与完整列表）
+     */
+    private void flush() {
+        flushScheduled.set(false);
+        List<Frame> legacyNotices = new ArrayList<>();
+        Map<String, Boolean> changes = new LinkedHashMap<>(); // 用户名 → true 上线 / false 下线（净变化）
+        Set<ChatSession> needSnapshot = Collections.newSetFromMap(new IdentityHashMap<ChatSession, Boolean>());
+        Map<ChatSession, Long> replays = new IdentityHashMap<>(); // 新登录的会话 → 重放截止序号
+        Map<ChatSession, Consumer<List<Frame>>> joins = new IdentityHashMap<>(); // 新登录的会话 → 之后的投递
+        Event event;
+        while ((event = events.poll()) != null) {
+            switch (event.type) {
+                case JOIN:
+                    legacyNotices.add(Frame.of(Message.of(MessageType.ONLINE, event.username)));
+                    applyChange(changes, event.username, true);
+                    if (event.session != null) {
+                        needSnapshot.add(event.session);
+                        joining.remove(event.session);
+                        joins.put(event.session, event.afterSnapshot);
+                    }
+                    if (event.replayUpTo >= 0) {
+                        replays.put(event.session, event.replayUpTo);
+                    }
+                    break;
+                case LEAVE:
+                    legacyNotices.add(Frame.of(Message.of(MessageType.OFFLINE, event.username)));
+                    applyChange(changes, event.username, false);
+                    break;
+                default:
+                    needSnapshot.add(event.session);
+                    break;
+            }
+        }
+
+        if (!changes.isEmpty()) {
+            seq++; // 只有增量前进序号；快照沿用当前序号，客户端随后等待 seq+1
+        }
+        SessionRegistry.Snapshot snapshot = onlineUsers.snapshot();
+        Frame delta = changes.isEmpty() ? null : deltaFrame(seq, changes);
+        Frame full = needSnapshot.isEmpty() ? null : snapshotFrame(seq, snapshot.users);
+        Frame legacyList = null;
+        boolean legacyChanged = !legacyNotices.isEmpty();
+
+        for (ChatSession session : snapshot.sessions) {
+            boolean joined = joins.containsKey(session);
+            if (!joined && joining.contains(session)) {
+                continue; // 它的 JOIN 在之后的窗口中发出，届时的快照已包含这些变化
+            }
+            List<Frame> frames = joined ? new ArrayList<Frame>() : null; // 新登录的会话：快照与重放一起交出
+            if (session.hasFeature(MessageType.FEATURE_PRESENCE)) {
+                if (needSnapshot.contains(session)) {
+                    send(session, frames, full);
+                } else if (delta != null) {
+                    session.send(delta);
+                }
+            } else if (legacyChanged) {
+                for (Frame notice : legacyNotices) {
+                    send(session, frames, notice);
+                }
+                if (legacyList == null) {
+                    legacyList = userListFrame(snapshot.users);
+                }
+                send(session, frames, legacyList);
+            }
+            if (!joined) {
+                continue;
+            }
+            Long replayUpTo = replays.get(session);
+            Frame replay = replayUpTo == null ? null : recent.replay(session.codec(), replayUpTo);
+            if (replay != null) {
+                frames.add(replay);
+            }
+            Consumer<List<Frame>> afterSnapshot = joins.get(session);
+            if (afterSnapshot != null) {
+                afterSnapshot.accept(frames);
+            } else {
+                session.release(frames, -1);
+            }
+        }
+    }
+
+    private static void send(ChatSession session, List<Frame> frames, Frame frame) {
+        if (frames != null) {
+            frames.add(frame);
+        } else {
+            session.send(frame);
+        }
+    }
+
+    /**
+     * 记录净变化：同一窗口内先上线后下线（或相反）互相抵消
+     */
+    private static void applyChange(Map<String, Boolean> changes, String username, boolean online) {
+        Boolean previous = changes.get(username);
+        if (previous != null && previous != online) {
+            changes.remove(username);
+        } else {
+            changes.put(username, online);
+        }
+    }
+
+    /**
+     * [PRESENCE]|seq|delta|+上线,-下线
+     */
+    static Frame deltaFrame(long seq, Map<String, Boolean> changes) {
+        return Frame.of(Message.of(MessageType.PRESENCE_TYPE,
+                String.valueOf(seq), MessageType.PRESENCE_DELTA, formatChanges(changes)));
+    }
+
+    /**
+     * [PRESENCE]|seq|snapshot|用户1,用户2
+     */
+    static Frame snapshotFrame(long seq, String[] names) {
+        return Frame.of(Message.of(MessageType.PRESENCE_TYPE,
+                String.valueOf(seq), MessageType.PRESENCE_SNAPSHOT, String.join(",", names)));
+    }
+
+    /**
+     * 旧版客户端的完整用户列表：[USER_LIST]|用户1,用户2
+     */
+    static Frame userListFrame(String[] names) {
+        return Frame.of(Message.of(MessageType.LIST, String.join(",", names)));
+    }
+
+    private static String formatChanges(Map<String, Boolean> changes) {
+        StringBuilder sb = new StringBuilder();
+        Iterator<Map.Entry<String, Boolean>> it = changes.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Boolean> change = it.next();
+            sb.append(change.getValue() ? '+' : '-').append(change.getKey());
+            if (it.hasNext()) {
+                sb.append(',');
+            }
+        }
+        return sb.toString();
+    }
+}
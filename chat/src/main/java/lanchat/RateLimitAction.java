@@ -0,0 +1,22 @@
+package lanchat;
+
+/**
+ * 客户端发送超过限速（见 RateLimiter）时的处理方式
+ */
+public enum RateLimitAction {
+
+    /**
+     * 暂停读取该连接，等到令牌足够再处理：数据留在内核接收缓冲区，由 TCP 流量控制让客户端放慢
+     */
+    DELAY,
+
+    /**
+     * 丢弃超出的消息，并提示发送者（每秒最多一次）
+     */
+    DROP,
+
+    /**
+     * 断开该客户端
+     */
+    DISCONNECT
+}
@@ -0,0 +1,195 @@
+package lanchat;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 入站限速：每个连接按消息类别各一个令牌桶（群聊与频道、私聊、其他请求），另有一个所有连接共用的全局桶
+ * 令牌桶以「桶重新装满的时刻」表示（一个 long）：每条消息把它推后一个发放间隔，推到超过 BURST_NANOS 之后即为超限，
+ * 与按时间补充令牌的做法等价，但不需要定时任务，也不分配对象
+ * 连接自己的桶只由读取它的线程访问（线程模式的读线程，或 NIO 模式所属的事件循环），是普通字段；
+ * 全局桶是一个 AtomicLong，用 CAS 更新；PING/PONG 不计入任何桶
+ * 先扣连接自己的桶，再扣全局桶，全局桶不足时退回前者：刷屏的客户端被自己的桶挡住，不会耗尽全局额度
+ */
+public final class RateLimiter {
+
+    static final LongAdder DELAYS = new LongAdder();      // 因限速暂停读取的次数
+    static final LongAdder DROPPED = new LongAdder();     // 因限速丢弃的消息
+    static final LongAdder DISCONNECTS = new LongAdder(); // 因限速断开的连接
+
+    private static final long BURST_NANOS = TimeUnit.SECONDS.toNanos(2); // 每个桶最多积攒两秒的令牌
+    private static final long NOTICE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    // 消息类别：各自一个令牌桶
+    private static final int GROUP = 0;   // 群聊与频道消息，每条都要扇出给很多人
+    private static final int PRIVATE = 1;
+    private static final int OTHER = 2;   // 历史查询、频道操作、文件传输请求等
+    private static final int EXEMPT = -1; // 心跳，不限速
+    private static final byte[] CATEGORIES = new byte[MessageType.typeCount()];
+
+    static {
+        Arrays.fill(CATEGORIES, (byte) OTHER);
+        CATEGORIES[MessageType.GROUP] = GROUP;
+        CATEGORIES[MessageType.CHANNEL] = GROUP;
+        CATEGORIES[MessageType.PRIVATE] = PRIVATE;
+        CATEGORIES[MessageType.PING_TYPE] = EXEMPT;
+        CATEGORIES[MessageType.PONG_TYPE] = EXEMPT;
+    }
+
+    /**
+     * 一个连接的令牌桶，登录时创建，只在读取该连接的线程中访问
+     */
+    public static final class Quota {
+        private final long[] refilledAt = new long[3]; // 各类别的桶重新装满的时刻（System.nanoTime）
+        private long lastNotice;
+        private boolean closing; // 已因限速断开，之后的消息直接忽略
+
+        Quota(long now) {
+            Arrays.fill(refilledAt, now);
+            lastNotice = now - NOTICE_INTERVAL_NANOS;
+        }
+    }
+
+    private final RateLimitAction action;
+    private final long[] intervals; // 各类别每条消息的发放间隔（纳秒），0 表示不限
+    private final long globalInterval;
+    private final AtomicLong globalRefilledAt;
+
+    private RateLimiter(RateLimitAction action, long[] intervals, long globalInterval, long now) {
+        this.action = action;
+        this.intervals = intervals;
+        this.globalInterval = globalInterval;
+        this.globalRefilledAt = new AtomicLong(now);
+    }
+
+    /**
+     * 按启动参数创建；--rate-limit=off 或所有速率都为 0 时返回 null（读取路径上不做任何检查）
+     */
+    public static RateLimiter create(ServerConfig config) {
+        return create(config, System.nanoTime());
+    }
+
+    /**
+     * 指定起始时刻（System.nanoTime 的取值），测试用
+     */
+    static RateLimiter create(ServerConfig config, long now) {
+        long[] intervals = {
+            intervalOf(config.getRateGroup()), intervalOf(config.getRatePrivate()), intervalOf(config.getRateOther())
+        };
+        long global = intervalOf(config.getRateGlobal());
+        if (config.getRateLimitAction() == null || global == 0 && intervals[0] == 0 && intervals[1] == 0 && intervals[2] == 0) {
+            return null;
+        }
+        return new RateLimiter(config.getRateLimitAction(), intervals, global, now);
+    }
+
+    private static long intervalOf(int perSecond) {
+        return perSecond <= 0 ? 0 : TimeUnit.SECONDS.toNanos(1) / perSecond;
+    }
+
+    public Quota newQuota() {
+        return new Quota(System.nanoTime());
+    }
+
+    public RateLimitAction action() {
+        return action;
+    }
+
+    /**
+     * 为一条消息取得令牌
+     * @return 0 表示放行（已扣除）；否则为还需等待的纳秒数（未扣除任何桶）
+     */
+    public long acquire(Quota quota, byte type) {
+        return acquire(quota, type, System.nanoTime());
+    }
+
+    /**
+     * 按给定时刻取得令牌，测试用
+     */
+    long acquire(Quota quota, byte type, long now) {
+        int category = type >= 0 && type < CATEGORIES.length ? CATEGORIES[type] : OTHER;
+        if (category == EXEMPT) {
+            return 0;
+        }
+        long interval = intervals[category];
+        if (interval > 0) {
+            long refilledAt = quota.refilledAt[category];
+            long next = (refilledAt - now < 0 ? now : refilledAt) + interval;
+            if (next - now > BURST_NANOS) {
+                return next - now - BURST_NANOS;
+            }
+            quota.refilledAt[category] = next;
+        }
+        if (globalInterval > 0) {
+            long wait = acquireGlobal(now);
+            if (wait > 0) {
+                if (interval > 0) {
+                    quota.refilledAt[category] -= interval; // 退回连接自己的令牌
+                }
+                return wait;
+            }
+        }
+        return 0;
+    }
+
+    private long acquireGlobal(long now) {
+        while (true) {
+            long refilledAt = globalRefilledAt.get();
+            long next = (refilledAt - now < 0 ? now : refilledAt) + globalInterval;
+            if (next - now > BURST_NANOS) {
+                return next - now - BURST_NANOS;
+            }
+            if (globalRefilledAt.compareAndSet(refilledAt, next)) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * 线程模式：取得令牌，超限时按动作处理；DELAY 在读线程中等待，期间不读取该连接
+     * @return true 表示照常路由这条消息
+     */
+    public boolean admit(ChatSession session, Quota quota, byte type) throws InterruptedException {
+        if (quota.closing) {
+            return false;
+        }
+        long wait = acquire(quota, type);
+        if (wait == 0) {
+            return true;
+        }
+        if (action != RateLimitAction.DELAY) {
+            reject(session, quota);
+            return false;
+        }
+        do {
+            DELAYS.increment();
+            TimeUnit.NANOSECONDS.sleep(wait);
+        } while ((wait = acquire(quota, type)) > 0);
+        return true;
+    }
+
+    /**
+     * 超限且动作为 DROP 或 DISCONNECT：丢弃这条消息（每秒最多提示一次），或提示后断开连接
+     */
+    public void reject(ChatSession session, Quota quota) {
+        if (quota.closing) {
+            return;
+        }
+        if (action == RateLimitAction.DISCONNECT) {
+            quota.closing = true;
+            DISCONNECTS.increment();
+            Log.warn("发送过快，断开连接：{}", session.getUsername());
+            session.send(Frame.text("发送过快，连接已被服务器断开！"));
+            session.closeAfterFlush(); // 读线程或事件循环随之完成下线清理
+            return;
+        }
+        DROPPED.increment();
+        long now = System.nanoTime();
+        if (now - quota.lastNotice >= NOTICE_INTERVAL_NANOS) {
+            quota.lastNotice = now;
+            session.send(Frame.text("发送过快，部分消息已被丢弃！"));
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package lanchat;
+
+import java.io.ByteArrayOutputStream;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 最近群聊消息的环形缓存：新用户登录后紧接在在线用户快照之后收到最近的群聊，不必等别人发言
+ * 记录的是转发帧的原始字节（发送者的编码），按条数（--recent-size）与字节数（--recent-max-kb）双重限制，
+ * 字节区可放在堆外（--recent-offheap=true），不增加 GC 扫描的堆大小
+ * 写入无锁：CAS 分配字节区位置、原子递增序号，写完字节后再发布槽位；
+ * 读者按记录头中的序号、分配游标与内容散列校验，被覆盖或尚未写完的记录直接跳过
+ */
+public final class RecentMessages {
+
+    private static final int RECORD_HEADER = 17; // long 序号 + int 长度 + byte 编码编号 + int 内容散列
+
+    private final int slots;
+    private final int capacity;
+    private final ByteBuffer arena;                          // 只用绝对位置读写，或 duplicate 后读写
+    private final byte[] heap;                               // 堆内时为 arena 的底层数组，直接复制不创建视图
+    private final AtomicLong nextSeq = new AtomicLong();      // 下一条记录的序号
+    private final AtomicLong cursor = new AtomicLong();       // 已分配的字节数（绝对位置，取模后为字节区下标）
+    private final AtomicLongArray starts;                     // 槽位 → 记录的绝对起点，-1 为空
+
+    public RecentMessages(int slots, int maxBytes, boolean offHeap) {
+        this.slots = slots;
+        this.capacity = maxBytes;
+        this.arena = offHeap ? ByteBuffer.allocateDirect(maxBytes) : ByteBuffer.allocate(maxBytes);
+        this.heap = offHeap ? null : arena.array();
+        this.starts = new AtomicLongArray(slots);
+        for (int i = 0; i < slots; i++) {
+            starts.set(i, -1);
+        }
+    }
+
+    /**
+     * 按 --recent-size / --recent-max-kb / --recent-offheap 创建，--recent-size=0 时返回 null
+     */
+    public static RecentMessages create(ServerConfig config) {
+        if (config.getRecentSize() == 0) {
+            return null;
+        }
+        return new RecentMessages(config.getRecentSize(), config.getRecentMaxKb() << 10, config.isRecentOffHeap());
+    }
+
+    /**
+     * 记录一帧转发的群聊（路由线程调用，可并发）：一次 CAS、一次复制，不加锁
+     */
+    public void record(Frame frame) {
+        Codec codec = frame.sourceCodec();
+        if (codec == null) {
+            return; // 只记录客户端发来的转发帧
+        }
+        byte[] bytes = frame.bytes(codec);
+        int size = RECORD_HEADER + bytes.length;
+        if (size > capacity / 2) {
+            return; // 过大的消息会挤掉太多记录，不缓存
+        }
+        long seq = nextSeq.getAndIncrement();
+        long start;
+        long claimed;
+        do {
+            claimed = cursor.get();
+            int pos = (int) (claimed % capacity);
+            // 记录不跨越字节区末尾：放不下时跳到下一圈的开头
+            start = pos + size > capacity ? claimed + capacity - pos : claimed;
+        } while (!cursor.compareAndSet(claimed, start + size));
+        int pos = (int) (start % capacity);
+        arena.putLong(pos, seq);
+        arena.putInt(pos + 8, bytes.length);
+        arena.put(pos + 12, (byte) codec.id());
+        arena.putInt(pos + 13, Arrays.hashCode(bytes));
+        if (heap != null) {
+            System.arraycopy(bytes, 0, heap, pos + RECORD_HEADER, bytes.length);
+        } else {
+            ByteBuffer target = arena.duplicate();
+            target.position(pos + RECORD_HEADER);
+            target.put(bytes);
+        }
+        starts.set((int) (seq % slots), start); // 发布：读者读到起点后一定能看到之前写入的字节
+    }
+
+    /**
+     * 序号小于 upTo 的最近记录（登录时用 head() 取得），按接收者的编码合并为一帧，没有记录时返回 null
+     */
+    public Frame replay(Codec target, long upTo) {
+        ByteBuffer source = arena.duplicate();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (long seq = Math.max(0, upTo - slots); seq < upTo; seq++) {
+            long start = starts.get((int) (seq % slots));
+            if (start < 0) {
+                continue;
+            }
+            int pos = (int) (start % capacity);
+            int length = source.getInt(pos + 8);
+            int codecId = source.get(pos + 12);
+            int hash = source.getInt(pos + 13);
+            if (source.getLong(pos) != seq || length < 0 || length > capacity - pos - RECORD_HEADER) {
+                continue; // 槽位已被更新的记录占用，或正被覆盖
+            }
+            byte[] bytes = new byte[length];
+            source.position(pos + RECORD_HEADER);
+            source.get(bytes);
+            if (cursor.get() - start > capacity || Arrays.hashCode(bytes) != hash) {
+                continue; // 复制期间这段字节已被新记录覆盖，或被停顿过久的写者迟到写入的旧记录覆盖
+            }
+            try {
+                Codec codec = Codec.byId(codecId);
+                if (codec != target) {
+                    bytes = target.encode(codec.decode(bytes, 0, bytes.length));
+                }
+            } catch (ProtocolException | IllegalArgumentException e) {
+                continue;
+            }
+            out.write(bytes, 0, bytes.length);
+        }
+        return out.size() > 0 ? Frame.preEncoded(MessageType.GROUP, out.toByteArray()) : null;
+    }
+
+    /**
+     * 下一条记录的序号：登录注册之后取得，之后记录的消息会经广播送达，不再重放
+     */
+    public long head() {
+        return nextSeq.get();
+    }
+}
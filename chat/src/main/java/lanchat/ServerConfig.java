@@ -0,0 +1,546 @@
+package lanchat;
+
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 伺服器啟動參數：解析 main 傳入的 --key=value 參數，未指定者使用預設值
+ */
+public class ServerConfig {
+
+    /**
+     * 伺服器執行模式
+     * THREAD：每個客戶端一條阻塞平台執行緒（原始模式）
+     * VIRTUAL：每個客戶端一條阻塞虛擬執行緒（JDK 21+）
+     * NIO：Selector 事件迴圈，少量執行緒處理全部連線
+     */
+    public enum Mode {
+        THREAD, VIRTUAL, NIO
+    }
+
+    private int port = ChatServer.SERVER_PORT;
+    private Mode mode = Mode.THREAD;
+    private int eventLoops = Runtime.getRuntime().availableProcessors();
+    private int queueCapacity = 1024;
+    private OverflowPolicy overflowPolicy = OverflowPolicy.DROP_OLDEST_PRESENCE;
+    private int statsInterval = 60;
+    private int presenceWindow = 50;
+    private int metricsPort = 0;
+    private Log.Level logLevel = Log.Level.INFO;
+    private String historyDir = "history";
+    private int historySegmentMb = 64;
+    private int historyMaxMb = 4096;
+    private String offlineDir = "offline";
+    private int offlineMaxMb = 1024;
+    private int recentSize = 50;
+    private int recentMaxKb = 256;
+    private boolean recentOffHeap;
+    private String nodeId;
+    private int clusterPort = 0;
+    private String clusterBind;
+    private String clusterSecret;
+    private List<InetSocketAddress> peers = Collections.emptyList();
+    private boolean tcpNoDelay = true;
+    private int sendBufferKb = 0;
+    private int receiveBufferKb = 0;
+    private int writeBufferKb = 64;
+    private int writeLingerMs = 0;
+    private boolean compression;
+    private int transferPort = 0;
+    private String transferDir = "transfers";
+    private int transferMaxMb = 1024;
+    private int heartbeatInterval = 15;
+    private int idleTimeout = 45;
+    private RateLimitAction rateLimitAction = RateLimitAction.DELAY;
+    private int rateGroup = 20;
+    private int ratePrivate = 50;
+    private int rateOther = 50;
+    private int rateGlobal = 0;
+
+    /**
+     * 解析啟動參數，例如：--mode=nio --port=8888 --event-loops=4
+     * @throws IllegalArgumentException 參數無法識別或取值非法
+     */
+    public static ServerConfig parse(String[] args) {
+        ServerConfig config = new ServerConfig();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (!arg.startsWith("--") || eq < 0) {
+                throw new IllegalArgumentException("參數格式錯誤（應為 --key=value）：" + arg);
+            }
+            String key = arg.substring(2, eq);
+            String value = arg.substring(eq + 1);
+            switch (key) {
+                case "port":
+                    config.port = parseInt(key, value, 1, 65535);
+                    break;
+                case "mode":
+                    config.mode = parseMode(value);
+                    break;
+                case "event-loops":
+                    config.eventLoops = parseInt(key, value, 1, 1024);
+                    break;
+                case "queue-capacity":
+                    config.queueCapacity = parseInt(key, value, 16, 1 << 20);
+                    break;
+                case "overflow-policy":
+                    config.overflowPolicy = parsePolicy(value);
+                    break;
+                case "stats-interval":
+                    config.statsInterval = parseInt(key, value, 0, 86400);
+                    break;
+                case "presence-window":
+                    config.presenceWindow = parseInt(key, value, 0, 10000);
+                    break;
+                case "metrics-port":
+                    config.metricsPort = parseInt(key, value, 0, 65535);
+                    break;
+                case "log-level":
+                    config.logLevel = Log.parseLevel(value);
+                    break;
+                case "history-dir":
+                    config.historyDir = parseDir(value);
+                    break;
+                case "history-segment-mb":
+                    config.historySegmentMb = parseInt(key, value, 1, 1024);
+                    break;
+                case "history-max-mb":
+                    config.historyMaxMb = parseInt(key, value, 0, 1 << 20);
+                    break;
+                case "offline-dir":
+                    config.offlineDir = parseDir(value);
+                    break;
+                case "offline-max-mb":
+                    config.offlineMaxMb = parseInt(key, value, 0, 1 << 20);
+                    break;
+                case "recent-size":
+                    config.recentSize = parseInt(key, value, 0, 100000);
+                    break;
+                case "recent-max-kb":
+                    config.recentMaxKb = parseInt(key, value, 64, 1 << 20);
+                    break;
+                case "recent-offheap":
+                    config.recentOffHeap = parseBoolean(key, value);
+                    break;
+                case "node-id":
+                    config.nodeId = parseNodeId(value);
+                    break;
+                case "cluster-port":
+                    config.clusterPort = parseInt(key, value, 0, 65535);
+                    break;
+                case "peers":
+                    config.peers = parsePeers(value);
+                    break;
+                case "cluster-bind":
+                    config.clusterBind = value.trim().isEmpty() ? null : value.trim();
+                    break;
+                case "cluster-secret":
+                    config.clusterSecret = value.isEmpty() ? null : value;
+                    break;
+                case "tcp-nodelay":
+                    config.tcpNoDelay = parseBoolean(key, value);
+                    break;
+                case "so-sndbuf-kb":
+                    config.sendBufferKb = parseInt(key, value, 0, 16384);
+                    break;
+                case "so-rcvbuf-kb":
+                    config.receiveBufferKb = parseInt(key, value, 0, 16384);
+                    break;
+                case "write-buffer-kb":
+                    config.writeBufferKb = parseInt(key, value, 4, 1024);
+                    break;
+                case "write-linger-ms":
+                    config.writeLingerMs = parseInt(key, value, 0, 100);
+                    break;
+                case "compression":
+                    config.compression = parseBoolean(key, value);
+                    break;
+                case "transfer-port":
+                    config.transferPort = parseInt(key, value, 0, 65535);
+                    break;
+                case "transfer-dir":
+                    config.transferDir = value.trim().isEmpty() ? "transfers" : value.trim();
+                    break;
+                case "transfer-max-mb":
+                    config.transferMaxMb = parseInt(key, value, 1, 1 << 20);
+                    break;
+                case "heartbeat-interval":
+                    config.heartbeatInterval = parseInt(key, value, 0, 3600);
+                    break;
+                case "idle-timeout":
+                    config.idleTimeout = parseInt(key, value, 1, 86400);
+                    break;
+                case "rate-limit":
+                    config.rateLimitAction = parseRateLimitAction(value);
+                    break;
+                case "rate-group":
+                    config.rateGroup = parseInt(key, value, 0, 1000000);
+                    break;
+                case "rate-private":
+                    config.ratePrivate = parseInt(key, value, 0, 1000000);
+                    break;
+                case "rate-other":
+                    config.rateOther = parseInt(key, value, 0, 1000000);
+                    break;
+                case "rate-global":
+                    config.rateGlobal = parseInt(key, value, 0, 10000000);
+                    break;
+                default:
+                    throw new IllegalArgumentException("未知參數：" + arg);
+            }
+        }
+        if (!config.peers.isEmpty() && config.clusterPort == 0) {
+            throw new IllegalArgumentException("--peers 需要同時指定 --cluster-port");
+        }
+        if (config.heartbeatInterval > 0 && config.idleTimeout <= config.heartbeatInterval) {
+            throw new IllegalArgumentException("--idle-timeout 須大於 --heartbeat-interval");
+        }
+        return config;
+    }
+
+    private static Mode parseMode(String value) {
+        try {
+            return Mode.valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("未知模式：" + value + "（可選 thread / virtual / nio）");
+        }
+    }
+
+    private static OverflowPolicy parsePolicy(String value) {
+        try {
+            return OverflowPolicy.valueOf(value.trim().toUpperCase().replace('-', '_'));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("未知溢出策略：" + value + "（可選 drop-oldest-presence / coalesce / disconnect）");
+        }
+    }
+
+    /**
+     * 限速動作：off 表示不限速（回傳 null）
+     */
+    private static RateLimitAction parseRateLimitAction(String value) {
+        String v = value.trim();
+        if (v.equalsIgnoreCase("off")) {
+            return null;
+        }
+        try {
+            return RateLimitAction.valueOf(v.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("未知限速動作：" + value + "（可選 delay / drop / disconnect / off）");
+        }
+    }
+
+    /**
+     * 目錄參數：off（或空值）表示關閉該功能
+     */
+    private static String parseDir(String value) {
+        String dir = value.trim();
+        return dir.isEmpty() || dir.equalsIgnoreCase("off") ? null : dir;
+    }
+
+    /**
+     * 節點名：集群內唯一，不能包含協定使用的分隔符
+     */
+    private static String parseNodeId(String value) {
+        String id = value.trim();
+        if (id.isEmpty() || id.indexOf('|') >= 0 || id.indexOf(',') >= 0) {
+            throw new IllegalArgumentException("--node-id 不能為空，也不能包含 | 或 ,：" + value);
+        }
+        return id;
+    }
+
+    /**
+     * 其他節點的集群位址：host:port,host:port（連線時才解析主機名）
+     */
+    private static List<InetSocketAddress> parsePeers(String value) {
+        List<InetSocketAddress> peers = new ArrayList<>();
+        for (String peer : value.split(",")) {
+            peer = peer.trim();
+            if (peer.isEmpty()) {
+                continue;
+            }
+            int colon = peer.lastIndexOf(':');
+            if (colon <= 0) {
+                throw new IllegalArgumentException("--peers 需為 host:port 清單：" + value);
+            }
+            int port = parseInt("peers", peer.substring(colon + 1), 1, 65535);
+            peers.add(InetSocketAddress.createUnresolved(peer.substring(0, colon), port));
+        }
+        return Collections.unmodifiableList(peers);
+    }
+
+    private static boolean parseBoolean(String key, String value) {
+        String v = value.trim().toLowerCase();
+        if (v.equals("true") || v.equals("false")) {
+            return v.equals("true");
+        }
+        throw new IllegalArgumentException("--" + key + " 需為 true 或 false：" + value);
+    }
+
+    static int parseInt(String key, String value, int min, int max) {
+        int n;
+        try {
+            n = Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("--" + key + " 需為整數：" + value);
+        }
+        if (n < min || n > max) {
+            throw new IllegalArgumentException("--" + key + " 取值範圍為 " + min + "~" + max + "：" + value);
+        }
+        return n;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public int getEventLoops() {
+        return eventLoops;
+    }
+
+    /**
+     * 建立一個會話的出站佇列（容量與溢出策略來自 --queue-capacity / --overflow-policy）
+     */
+    public OutboundQueue newOutboundQueue() {
+        return new OutboundQueue(queueCapacity, overflowPolicy);
+    }
+
+    /**
+     * 上線/下線合併視窗（毫秒）：視窗內的變化合併為一幀增量，0 表示立即發出
+     */
+    public int getPresenceWindow() {
+        return presenceWindow;
+    }
+
+    /**
+     * 出站佇列統計的輸出間隔（秒），0 表示關閉
+     */
+    public int getStatsInterval() {
+        return statsInterval;
+    }
+
+    /**
+     * 統計資料 HTTP 端點的埠號（只綁定本機回環位址），0 表示關閉
+     */
+    public int getMetricsPort() {
+        return metricsPort;
+    }
+
+    /**
+     * 日誌級別：info 以上預設輸出，debug 會記錄每一則訊息
+     */
+    public Log.Level getLogLevel() {
+        return logLevel;
+    }
+
+    /**
+     * 聊天記錄目錄（相對於工作目錄），--history-dir=off 時為 null，不保存記錄
+     */
+    public String getHistoryDir() {
+        return historyDir;
+    }
+
+    /**
+     * 聊天記錄每個分段檔案的大小（MB），寫滿後換新檔案
+     */
+    public int getHistorySegmentMb() {
+        return historySegmentMb;
+    }
+
+    /**
+     * 聊天記錄的總大小上限（MB），超過時刪除最舊的分段檔案（至少保留正在寫入的分段），0 表示不限
+     */
+    public int getHistoryMaxMb() {
+        return historyMaxMb;
+    }
+
+    /**
+     * 離線私聊的保存目錄（每個接收者一個佇列檔案），--offline-dir=off 時為 null，對方不在線的私聊直接失敗
+     */
+    public String getOfflineDir() {
+        return offlineDir;
+    }
+
+    /**
+     * 所有離線佇列檔案合計的大小上限（MB），已滿時新的離線私聊直接失敗，0 表示不限
+     */
+    public int getOfflineMaxMb() {
+        return offlineMaxMb;
+    }
+
+    /**
+     * 新用戶登入後重播的最近群聊條數，0 表示關閉
+     */
+    public int getRecentSize() {
+        return recentSize;
+    }
+
+    /**
+     * 最近群聊快取的位元組上限（KB）：訊息較長時實際重播的條數會少於 --recent-size
+     */
+    public int getRecentMaxKb() {
+        return recentMaxKb;
+    }
+
+    /**
+     * 最近群聊快取是否放在堆外記憶體
+     */
+    public boolean isRecentOffHeap() {
+        return recentOffHeap;
+    }
+
+    /**
+     * 本節點在集群中的名稱，未指定時為 node-<客戶端端口>
+     */
+    public String getNodeId() {
+        return nodeId != null ? nodeId : "node-" + port;
+    }
+
+    /**
+     * 集群節點之間互連的端口，0 表示不加入集群（單機運行）
+     */
+    public int getClusterPort() {
+        return clusterPort;
+    }
+
+    /**
+     * 其他節點的集群位址（每個節點主動連線清單中的全部節點）
+     * 未設定 --cluster-secret 時，集群端口只接受來自這些主機的連線
+     */
+    public List<InetSocketAddress> getPeers() {
+        return peers;
+    }
+
+    /**
+     * 集群端口綁定的位址（主機名或 IP），null 表示所有網路介面
+     */
+    public String getClusterBind() {
+        return clusterBind;
+    }
+
+    /**
+     * 集群共享密鑰：設定後節點握手時必須攜帶相同的密鑰（不再限制來源位址），null 表示未設定
+     */
+    public String getClusterSecret() {
+        return clusterSecret;
+    }
+
+    /**
+     * 套用客戶端連線的 TCP 參數（兩種模式共用；NIO 模式傳入 channel.socket()）
+     */
+    public void configure(Socket socket) throws SocketException {
+        socket.setTcpNoDelay(tcpNoDelay);
+        socket.setKeepAlive(true); // 未協商心跳的舊客戶端只能靠作業系統的 keepalive 發現斷線（Linux 預設約兩小時）
+        if (sendBufferKb > 0) {
+            socket.setSendBufferSize(sendBufferKb << 10);
+        }
+    }
+
+    /**
+     * 接收緩衝區須在監聽 socket 上設定，accept 出的連線才會以對應的視窗大小建立
+     */
+    public void configure(ServerSocket serverSocket) throws SocketException {
+        if (receiveBufferKb > 0) {
+            serverSocket.setReceiveBufferSize(receiveBufferKb << 10);
+        }
+    }
+
+    /**
+     * 單次寫出的位元組上限（KB）：執行緒模式為輸出緩衝區大小，NIO 模式為一次聚集寫出（writev）的上限
+     */
+    public int getWriteBufferKb() {
+        return writeBufferKb;
+    }
+
+    /**
+     * 出站資料的等待視窗（毫秒）：第一幀入隊後最多再等這麼久才寫出，讓之後的幀合併到同一次寫出，0 表示立即寫出
+     */
+    public int getWriteLingerMs() {
+        return writeLingerMs;
+    }
+
+    /**
+     * 是否接受客戶端協商 deflate-v2：每條連線各自保留壓縮上下文（約 300KB 本地記憶體），適合頻寬受限的無線網段
+     */
+    public boolean isCompression() {
+        return compression;
+    }
+
+    /**
+     * 檔案傳輸端口：檔案內容走獨立連線，不佔用聊天連線；0 表示關閉檔案傳輸
+     */
+    public int getTransferPort() {
+        return transferPort;
+    }
+
+    /**
+     * 傳輸中檔案的暫存目錄（相對於工作目錄），傳輸完成或取消後刪除暫存檔
+     */
+    public String getTransferDir() {
+        return transferDir;
+    }
+
+    /**
+     * 單個檔案的大小上限（MB）
+     */
+    public int getTransferMaxMb() {
+        return transferMaxMb;
+    }
+
+    /**
+     * 心跳間隔（秒）：協商了 heartbeat-v1 的連線空閒這麼久後伺服器發出 [PING]；0 表示關閉心跳與空閒斷線
+     */
+    public int getHeartbeatInterval() {
+        return heartbeatInterval;
+    }
+
+    /**
+     * 空閒逾時（秒）：協商了心跳的連線這麼久沒有任何資料（含 PONG）即斷開，並照常廣播下線通知
+     */
+    public int getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    /**
+     * 超過限速時的動作（--rate-limit），off 時為 null：不做任何限速檢查
+     */
+    public RateLimitAction getRateLimitAction() {
+        return rateLimitAction;
+    }
+
+    /**
+     * 每個使用者每秒最多的群聊與頻道訊息數（這兩種要扇出給許多人），0 表示不限
+     */
+    public int getRateGroup() {
+        return rateGroup;
+    }
+
+    /**
+     * 每個使用者每秒最多的私聊訊息數，0 表示不限
+     */
+    public int getRatePrivate() {
+        return ratePrivate;
+    }
+
+    /**
+     * 每個使用者每秒最多的其他請求數（歷史查詢、頻道操作、檔案傳輸等，心跳不計），0 表示不限
+     */
+    public int getRateOther() {
+        return rateOther;
+    }
+
+    /**
+     * 全部連線合計每秒最多處理的訊息數，0 表示不限；上限取決於機器效能，預設關閉
+     */
+    public int getRateGlobal() {
+        return rateGlobal;
+    }
+}
@@ -0,0 +1,353 @@
+package lanchat;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * 服务器统计：连接数、在线人数、按类型的收发消息数与字节数、广播扇出耗时、出站队列深度
+ * 计数器为全局 LongAdder，热路径上只有无锁的累加；出站队列深度等只在读取时遍历计算
+ * 通过 JMX（lanchat:type=ServerMetrics）与本机 HTTP 端点（--metrics-port，GET /metrics）输出
+ */
+public final class ServerMetrics implements ServerMetricsMBean {
+
+    static final LongAdder ACCEPTED = new LongAdder();            // 累计接受的连接
+    static final LongAdder ACTIVE_CONNECTIONS = new LongAdder();  // 当前打开的连接（含未登录）
+    static final LongAdder BYTES_IN = new LongAdder();
+    static final LongAdder BYTES_OUT = new LongAdder();
+    static final LongAdder SOCKET_WRITES = new LongAdder();       // 向客户端 socket 的写调用次数（约等于系统调用次数）
+    static final LatencyHistogram FAN_OUT = new LatencyHistogram(); // 一次广播放入所有出站队列的耗时（纳秒）
+    private static final LongAdder[] MESSAGES_IN = adders(MessageType.typeCount());
+    private static final LongAdder[] MESSAGES_OUT = adders(MessageType.typeCount());
+
+    private final SessionRegistry onlineUsers;
+
+    public ServerMetrics(SessionRegistry onlineUsers) {
+        this.onlineUsers = onlineUsers;
+    }
+
+    private static LongAdder[] adders(int n) {
+        LongAdder[] adders = new LongAdder[n];
+        for (int i = 0; i < n; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    /**
+     * 收到客户端的一帧
+     */
+    static void messageIn(byte type, int bytes) {
+        if (type >= 0 && type < MESSAGES_IN.length) {
+            MESSAGES_IN[type].increment();
+        }
+        BYTES_IN.add(bytes);
+    }
+
+    /**
+     * 向客户端写出一帧
+     */
+    static void messageOut(byte type, int bytes) {
+        if (type >= 0 && type < MESSAGES_OUT.length) {
+            MESSAGES_OUT[type].increment();
+        }
+        BYTES_OUT.add(bytes);
+    }
+
+    /**
+     * 注册 JMX，并在 --metrics-port 非 0 时启动只监听本机的 HTTP 端点
+     */
+    public void start(ServerConfig config) throws IOException {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName("lanchat:type=ServerMetrics"));
+        } catch (JMException e) {
+            Log.warn("JMX 注册失败：{}", e.getMessage());
+        }
+        if (config.getMetricsPort() == 0) {
+            return;
+        }
+        HttpServer http = HttpServer.create(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), config.getMetricsPort()), 0);
+        http.createContext("/metrics", exchange -> {
+            byte[] body = render().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        http.start(); // 默认单线程处理请求，不占用聊天线程
+        Log.info("统计端点：http://127.0.0.1:{}/metrics", config.getMetricsPort());
+    }
+
+    @Override
+    public long getAcceptedConnections() {
+        return ACCEPTED.sum();
+    }
+
+    @Override
+    public long getActiveConnections() {
+        return ACTIVE_CONNECTIONS.sum();
+    }
+
+    @Override
+    public int getOnlineUsers() {
+        return onlineUsers.size();
+    }
+
+    @Override
+    public long getMessagesIn() {
+        return sum(MESSAGES_IN);
+    }
+
+    @Override
+    public long getMessagesOut() {
+        return sum(MESSAGES_OUT);
+    }
+
+    @Override
+    public long getBytesIn() {
+        return BYTES_IN.sum();
+    }
+
+    @Override
+    public long getBytesOut() {
+        return BYTES_OUT.sum();
+    }
+
+    @Override
+    public long getSocketWrites() {
+        return SOCKET_WRITES.sum();
+    }
+
+    @Override
+    public long getDeflateInputBytes() {
+        return DeflateStream.INPUT_BYTES.sum();
+    }
+
+    @Override
+    public long getDeflateOutputBytes() {
+        return DeflateStream.OUTPUT_BYTES.sum();
+    }
+
+    @Override
+    public long getFanOutCount() {
+        return FAN_OUT.count();
+    }
+
+    @Override
+    public long getFanOutP50Micros() {
+        return FAN_OUT.percentile(50) / 1000;
+    }
+
+    @Override
+    public long getFanOutP99Micros() {
+        return FAN_OUT.percentile(99) / 1000;
+    }
+
+    @Override
+    public long getFanOutP999Micros() {
+        return FAN_OUT.percentile(99.9) / 1000;
+    }
+
+    @Override
+    public long getFanOutMaxMicros() {
+        return FAN_OUT.max() / 1000;
+    }
+
+    @Override
+    public long getOutboundQueuedFrames() {
+        long total = 0;
+        for (ChatSession session : onlineUsers.recipients()) {
+            total += session.outboundQueue().depth();
+        }
+        return total;
+    }
+
+    @Override
+    public int getOutboundQueueMaxDepth() {
+        int max = 0;
+        for (ChatSession session : onlineUsers.recipients()) {
+            max = Math.max(max, session.outboundQueue().depth());
+        }
+        return max;
+    }
+
+    @Override
+    public long getDroppedFrames() {
+        return OutboundQueue.DROPPED.sum();
+    }
+
+    @Override
+    public long getCoalescedFrames() {
+        return OutboundQueue.COALESCED.sum();
+    }
+
+    @Override
+    public long getSlowConsumerDisconnects() {
+        return OutboundQueue.SLOW_CONSUMERS.sum();
+    }
+
+    @Override
+    public long getDroppedLogEntries() {
+        return Log.DROPPED.sum();
+    }
+
+    @Override
+    public long getHistoryRecords() {
+        return MessageLog.APPENDED.sum();
+    }
+
+    @Override
+    public long getHistoryDropped() {
+        return MessageLog.DROPPED.sum();
+    }
+
+    @Override
+    public long getOfflineStored() {
+        return OfflineStore.STORED.sum();
+    }
+
+    @Override
+    public long getOfflineDelivered() {
+        return OfflineStore.DELIVERED.sum();
+    }
+
+    @Override
+    public long getClusterForwarded() {
+        return ClusterNode.FORWARDED.sum();
+    }
+
+    @Override
+    public long getClusterBatches() {
+        return ClusterNode.BATCHES.sum();
+    }
+
+    @Override
+    public long getClusterReceived() {
+        return ClusterNode.RECEIVED.sum();
+    }
+
+    @Override
+    public long getClusterDropped() {
+        return ClusterNode.DROPPED.sum();
+    }
+
+    @Override
+    public long getTransferBytesIn() {
+        return FileRelay.BYTES_IN.sum();
+    }
+
+    @Override
+    public long getTransferBytesOut() {
+        return FileRelay.BYTES_OUT.sum();
+    }
+
+    @Override
+    public long getTransfersCompleted() {
+        return FileRelay.COMPLETED.sum();
+    }
+
+    @Override
+    public long getHeartbeatPings() {
+        return HeartbeatWheel.PINGS.sum();
+    }
+
+    @Override
+    public long getIdleDisconnects() {
+        return HeartbeatWheel.IDLE_CLOSED.sum();
+    }
+
+    @Override
+    public long getRateLimitDelays() {
+        return RateLimiter.DELAYS.sum();
+    }
+
+    @Override
+    public long getRateLimitDropped() {
+        return RateLimiter.DROPPED.sum();
+    }
+
+    @Override
+    public long getRateLimitDisconnects() {
+        return RateLimiter.DISCONNECTS.sum();
+    }
+
+    /**
+     * 纯文本输出，每行「名称{标签} 数值」，可直接被 Prometheus 抓取
+     */
+    @Override
+    public String render() {
+        StringBuilder sb = new StringBuilder();
+        line(sb, "lanchat_connections_accepted_total", null, getAcceptedConnections());
+        line(sb, "lanchat_connections_active", null, getActiveConnections());
+        line(sb, "lanchat_online_users", null, getOnlineUsers());
+        for (byte type = 0; type < MESSAGES_IN.length; type++) {
+            line(sb, "lanchat_messages_in_total", MessageType.nameOf(type), MESSAGES_IN[type].sum());
+        }
+        for (byte type = 0; type < MESSAGES_OUT.length; type++) {
+            line(sb, "lanchat_messages_out_total", MessageType.nameOf(type), MESSAGES_OUT[type].sum());
+        }
+        line(sb, "lanchat_bytes_in_total", null, getBytesIn());
+        line(sb, "lanchat_bytes_out_total", null, getBytesOut());
+        line(sb, "lanchat_socket_writes_total", null, getSocketWrites());
+        line(sb, "lanchat_deflate_input_bytes_total", null, getDeflateInputBytes());
+        line(sb, "lanchat_deflate_output_bytes_total", null, getDeflateOutputBytes());
+        line(sb, "lanchat_fanout_count", null, getFanOutCount());
+        line(sb, "lanchat_fanout_micros{quantile=\"0.5\"}", getFanOutP50Micros());
+        line(sb, "lanchat_fanout_micros{quantile=\"0.99\"}", getFanOutP99Micros());
+        line(sb, "lanchat_fanout_micros{quantile=\"0.999\"}", getFanOutP999Micros());
+        line(sb, "lanchat_fanout_micros_max", null, getFanOutMaxMicros());
+        line(sb, "lanchat_outbound_queued_frames", null, getOutboundQueuedFrames());
+        line(sb, "lanchat_outbound_queue_max_depth", null, getOutboundQueueMaxDepth());
+        line(sb, "lanchat_outbound_dropped_total", null, getDroppedFrames());
+        line(sb, "lanchat_outbound_coalesced_total", null, getCoalescedFrames());
+        line(sb, "lanchat_slow_consumer_disconnects_total", null, getSlowConsumerDisconnects());
+        line(sb, "lanchat_log_dropped_total", null, getDroppedLogEntries());
+        line(sb, "lanchat_history_records_total", null, getHistoryRecords());
+        line(sb, "lanchat_history_dropped_total", null, getHistoryDropped());
+        line(sb, "lanchat_offline_stored_total", null, getOfflineStored());
+        line(sb, "lanchat_offline_delivered_total", null, getOfflineDelivered());
+        line(sb, "lanchat_cluster_forwarded_total", null, getClusterForwarded());
+        line(sb, "lanchat_cluster_batches_total", null, getClusterBatches());
+        line(sb, "lanchat_cluster_received_total", null, getClusterReceived());
+        line(sb, "lanchat_cluster_dropped_total", null, getClusterDropped());
+        line(sb, "lanchat_transfer_bytes_in_total", null, getTransferBytesIn());
+        line(sb, "lanchat_transfer_bytes_out_total", null, getTransferBytesOut());
+        line(sb, "lanchat_transfer_completed_total", null, getTransfersCompleted());
+        line(sb, "lanchat_heartbeat_pings_total", null, getHeartbeatPings());
+        line(sb, "lanchat_idle_disconnects_total", null, getIdleDisconnects());
+        line(sb, "lanchat_rate_limit_delays_total", null, getRateLimitDelays());
+        line(sb, "lanchat_rate_limit_dropped_total", null, getRateLimitDropped());
+        line(sb, "lanchat_rate_limit_disconnects_total", null, getRateLimitDisconnects());
+        return sb.toString();
+    }
+
+    private static void line(StringBuilder sb, String name, String type, long value) {
+        sb.append(name);
+        if (type != null) {
+            sb.append("{type=\"").append(type).append("\"}");
+        }
+        sb.append(' ').append(value).append('\n');
+    }
+
+    private static void line(StringBuilder sb, String nameWithLabels, long value) {
+        sb.append(nameWithLabels).append(' ').append(value).append('\n');
+    }
+
+    private static long sum(LongAdder[] adders) {
+        long total = 0;
+        for (LongAdder adder : adders) {
+            total += adder.sum();
+        }
+        return total;
+    }
+}
@@ -0,0 +1,87 @@
+package lanchat;
+
+/**
+ * JMX 管理介面（jconsole / VisualVM 中的 lanchat:type=ServerMetrics）
+ * 延迟单位为微秒
+ */
+public interface ServerMetricsMBean {
+
+    long getAcceptedConnections();
+
+    long getActiveConnections();
+
+    int getOnlineUsers();
+
+    long getMessagesIn();
+
+    long getMessagesOut();
+
+    long getBytesIn();
+
+    long getBytesOut();
+
+    long getSocketWrites();
+
+    long getDeflateInputBytes();
+
+    long getDeflateOutputBytes();
+
+    long getFanOutCount();
+
+    long getFanOutP50Micros();
+
+    long getFanOutP99Micros();
+
+    long getFanOutP999Micros();
+
+    long getFanOutMaxMicros();
+
+    long getOutboundQueuedFrames();
+
+    int getOutboundQueueMaxDepth();
+
+    long getDroppedFrames();
+
+    long getCoalescedFrames();
+
+    long getSlowConsumerDisconnects();
+
+    long getDroppedLogEntries();
+
+    long getHistoryRecords();
+
+    long getHistoryDropped();
+
+    long getOfflineStored();
+
+    long getOfflineDelivered();
+
+    long getClusterForwarded();
+
+    long getClusterBatches();
+
+    long getClusterReceived();
+
+    long getClusterDropped();
+
+    long getTransferBytesIn();
+
+    long getTransferBytesOut();
+
+    long getTransfersCompleted();
+
+    long getHeartbeatPings();
+
+    long getIdleDisconnects();
+
+    long getRateLimitDelays();
+
+    long getRateLimitDropped();
+
+    long getRateLimitDisconnects();
+
+    /**
+     * 与 HTTP 端点相同的纯文本输出
+     */
+    String render();
+}
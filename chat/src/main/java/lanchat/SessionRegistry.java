@@ -0,0 +1,220 @@
+package lanchat;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 在线用户注册表：用户名 → 会话
+ * 以用户名的 UTF-8 字节为键，转发私聊时可直接用接收缓冲区中的字段查找，不创建字符串
+ * 登录用 putIfAbsent 原子占用用户名；广播遍历的是上线/下线时重建的不可变快照数组，
+ * 发送路径既不加锁也不会与并发的上线/下线冲突
+ * 集群模式下另外记录其他节点的用户（用户名 → 节点名），它们出现在用户列表中、占用用户名，但不在广播数组里
+ */
+public class SessionRegistry {
+
+    /**
+     * 某一时刻的在线用户快照，创建后不再修改
+     * names 与 sessions 一一对应，只含本节点的用户；users 为用户列表（本节点用户在前，其后是其他节点的用户）
+     */
+    static final class Snapshot {
+        final String[] names;
+        final ChatSession[] sessions;
+        final String[] users;
+
+        Snapshot(String[] names, ChatSession[] sessions, String[] users) {
+            this.names = names;
+            this.sessions = sessions;
+            this.users = users;
+        }
+    }
+
+    /**
+     * 按 UTF-8 字节比较的用户名键
+     * 注册表中保存的键持有自己的字节副本；查找用的键（FrameView 复用）直接指向接收缓冲区
+     */
+    static final class NameKey {
+        private String name; // 只有注册表中保存的键才有
+        private byte[] bytes;
+        private int offset;
+        private int length;
+        private int hash;
+
+        static NameKey of(String name) {
+            byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+            NameKey key = new NameKey().set(bytes, 0, bytes.length);
+            key.name = name;
+            return key;
+        }
+
+        NameKey set(byte[] bytes, int offset, int length) {
+            this.bytes = bytes;
+            this.offset = offset;
+            this.length = length;
+            int h = 1;
+            for (int i = offset; i < offset + length; i++) {
+                h = 31 * h + bytes[i];
+            }
+            this.hash = h;
+            return this;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof NameKey)) {
+                return false;
+            }
+            NameKey other = (NameKey) o;
+            if (other.length != length || other.hash != hash) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (bytes[offset + i] != other.bytes[other.offset + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private final ConcurrentHashMap<NameKey, ChatSession> sessions = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<NameKey, String> remote = new ConcurrentHashMap<>(); // 其他节点的用户 → 节点名
+    private final ReentrantLock rebuildLock = new ReentrantLock(); // 只在上线/下线时使用，广播不经过此锁
+    private volatile Snapshot snapshot = new Snapshot(new String[0], new ChatSession[0], new String[0]);
+
+    /**
+     * 登录：用户名未被占用时加入注册表（集群中其他节点的用户也算占用）
+     * 两个节点几乎同时接受同名用户时都会成功，之后的在线状态同步中各自保留本地用户
+     * @return false 表示用户名已被占用
+     */
+    public boolean register(String username, ChatSession session) {
+        NameKey key = NameKey.of(username);
+        if (remote.containsKey(key) || sessions.putIfAbsent(key, session) != null) {
+            return false;
+        }
+        rebuild();
+        return true;
+    }
+
+    /**
+     * 记录其他节点上线的用户
+     * @return false 表示本节点已有同名用户（保留本地用户）或已记录过
+     */
+    boolean registerRemote(String username, String node) {
+        NameKey key = NameKey.of(username);
+        if (sessions.containsKey(key) || remote.putIfAbsent(key, node) != null) {
+            return false;
+        }
+        rebuild();
+        return true;
+    }
+
+    /**
+     * 其他节点的用户下线（只移除该节点记录的用户）
+     * @return true 表示确实移除了
+     */
+    boolean unregisterRemote(String username, String node) {
+        if (!remote.remove(NameKey.of(username), node)) {
+            return false;
+        }
+        rebuild();
+        return true;
+    }
+
+    /**
+     * 按用户名字节查找其他节点的用户所在节点（转发私聊），不是其他节点的用户时返回 null
+     */
+    String remoteNode(NameKey key) {
+        return remote.get(key);
+    }
+
+    /**
+     * 下线：只移除该用户名对应的这一个会话（同名的新会话不受影响）
+     * @return true 表示确实移除了
+     */
+    public boolean unregister(String username, ChatSession session) {
+        if (!sessions.remove(NameKey.of(username), session)) {
+            return false;
+        }
+        rebuild();
+        return true;
+    }
+
+    public ChatSession get(String username) {
+        return sessions.get(NameKey.of(username));
+    }
+
+    /**
+     * 按用户名字节查找（转发热路径），不创建字符串
+     */
+    ChatSession get(NameKey key) {
+        return sessions.get(key);
+    }
+
+    public int size() {
+        return sessions.size();
+    }
+
+    /**
+     * 当前所有在线会话（快照数组，调用方不得修改），用于广播
+     */
+    public ChatSession[] recipients() {
+        return snapshot.sessions;
+    }
+
+    /**
+     * 当前在线用户快照（用户名与会话一一对应）
+     */
+    Snapshot snapshot() {
+        return snapshot;
+    }
+
+    /**
+     * 重建快照：加锁保证最后一次重建一定看到此前所有的上线/下线
+     */
+    private void rebuild() {
+        rebuildLock.lock();
+        try {
+            int n = sessions.size();
+            String[] names = new String[n];
+            ChatSession[] array = new ChatSession[n];
+            int i = 0;
+            for (Map.Entry<NameKey, ChatSession> entry : sessions.entrySet()) {
+                if (i == n) {
+                    break; // 遍历期间有新用户加入，由其自己的重建收录
+                }
+                names[i] = entry.getKey().name;
+                array[i] = entry.getValue();
+                i++;
+            }
+            if (i < n) {
+                names = Arrays.copyOf(names, i);
+                array = Arrays.copyOf(array, i);
+            }
+            String[] users = names;
+            if (!remote.isEmpty()) {
+                users = Arrays.copyOf(names, i + remote.size());
+                int j = i;
+                for (NameKey key : remote.keySet()) {
+                    if (j == users.length) {
+                        break;
+                    }
+                    users[j++] = key.name;
+                }
+                if (j < users.length) {
+                    users = Arrays.copyOf(users, j);
+                }
+            }
+            snapshot = new Snapshot(names, array, users);
+        } finally {
+            rebuildLock.unlock();
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package lanchat;
+
+import java.io.BufferedOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 线程模式下的客户端发送端：发送者只把帧放入有界出站队列，
+ * 由提交到写线程池的排空任务写出（平台线程池或虚拟线程，与读线程同类），慢客户端只会阻塞自己的写任务
+ * 输出流只在创建时包装一次，同一时刻只有一个排空任务在写，无需加锁
+ * 排空任务把队列中的帧依次写入缓冲区（--write-buffer-kb），队列空或缓冲区满时才写出 socket，
+ * 一批消息只产生一次系统调用；--write-linger-ms 大于 0 时先等待该时长，让紧随其后的消息并入同一批
+ */
+public class SocketSession implements ChatSession {
+
+    private final Socket socket;
+    private final OutputStream out;
+    private final OutboundQueue queue;
+    private final Executor writers;
+    private final long lingerNanos;
+    private final AtomicBoolean draining = new AtomicBoolean(); // 是否已有排空任务在运行
+    private volatile String username; // 登录成功前为 null
+    private volatile Set<String> features = Collections.emptySet(); // 握手协商后启用的功能
+    private volatile Codec codec = TextCodec.INSTANCE; // 握手后双向使用的编码
+    private volatile DeflateStream compression;        // 协商了压缩时不为 null（读线程解压、写出时压缩）
+    private DeflateStream deflating;                   // 写出方向已经开始压缩（WELCOME 之后），只在排空任务中访问
+    private volatile boolean closeAfterFlush;
+    private volatile boolean closed;
+    private volatile long lastRead = System.nanoTime(); // 由读线程在每次收到消息后更新
+
+    public SocketSession(Socket socket, ServerConfig config, Executor writers) throws IOException {
+        this.socket = socket;
+        this.out = new BufferedOutputStream(new CountingOutputStream(socket.getOutputStream()),
+                config.getWriteBufferKb() << 10);
+        this.queue = config.newOutboundQueue();
+        this.writers = writers;
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(config.getWriteLingerMs());
+    }
+
+    @Override
+    public void send(Frame frame) {
+        if (closed) {
+            return;
+        }
+        if (!queue.offer(frame)) {
+            Log.warn("客户端消费过慢，断开连接：{}", socket.getInetAddress().getHostAddress());
+            close();
+            return;
+        }
+        scheduleDrain();
+    }
+
+    @Override
+    public void hold() {
+        queue.hold();
+    }
+
+    @Override
+    public void release(List<Frame> first, long skipLoggedUpTo) {
+        queue.release(first, skipLoggedUpTo);
+        scheduleDrain();
+    }
+
+    @Override
+    public void closeAfterFlush() {
+        closeAfterFlush = true;
+        scheduleDrain();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        queue.clear();
+        DeflateStream stream = compression;
+        if (stream != null) {
+            stream.end(); // 正在写出的压缩随之失败，按连接已断开处理
+        }
+        try {
+            socket.close(); // 读线程随之收到异常，完成下线清理
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public String getUsername() {
+        return username;
+    }
+
+    @Override
+    public void setUsername(String username) {
+        this.username = username;
+    }
+
+    @Override
+    public boolean hasFeature(String feature) {
+        return features.contains(feature);
+    }
+
+    @Override
+    public void setFeatures(Set<String> features) {
+        this.features = features;
+        this.codec = Codec.forFeatures(features);
+    }
+
+    @Override
+    public Codec codec() {
+        return codec;
+    }
+
+    @Override
+    public void setCompression(DeflateStream stream) {
+        this.compression = stream;
+    }
+
+    /**
+     * 连接级压缩流，未协商压缩时为 null（读线程据此解压）
+     */
+    DeflateStream compression() {
+        return compression;
+    }
+
+    @Override
+    public OutboundQueue outboundQueue() {
+        return queue;
+    }
+
+    @Override
+    public long lastReadNanos() {
+        return lastRead;
+    }
+
+    /**
+     * 读线程收到一条消息后调用，供空闲检测使用
+     */
+    void markRead() {
+        lastRead = System.nanoTime();
+    }
+
+    private void scheduleDrain() {
+        if (draining.compareAndSet(false, true)) {
+            writers.execute(this::drain);
+        }
+    }
+
+    /**
+     * 排空任务：写出队列中所有帧，队列空时才 flush
+     * 退出前再检查一次队列，避免与刚入队的发送者互相错过
+     */
+    private void drain() {
+        do {
+            if (lingerNanos > 0) {
+                LockSupport.parkNanos(lingerNanos);
+            }
+            try {
+                Frame frame;
+                while ((frame = queue.poll()) != null) {
+                    if (deflating == null) {
+                        ServerMetrics.messageOut(frame.type(), frame.writeTo(out, codec));
+                        if (frame.type() == MessageType.WELCOME_TYPE) {
+                            deflating = compression; // WELCOME 以文本发出，之后的帧都压缩
+                        }
+                    } else {
+                        byte[] bytes = frame.compress(deflating);
+                        out.write(bytes);
+                        ServerMetrics.messageOut(frame.type(), bytes.length);
+                    }
+                    if (queue.isEmpty()) {
+                        out.flush();
+                    }
+                }
+            } catch (IOException e) {
+                // 对方已断开：由该用户自己的读线程发现并完成下线清理
+                queue.clear();
+            }
+            if (closeAfterFlush) {
+                close();
+            }
+            draining.set(false);
+        } while (!closed && !queue.isEmpty() && draining.compareAndSet(false, true));
+    }
+
+    /**
+     * 统计写入 socket 输出流的次数（每次对应一次 send 系统调用）
+     */
+    private static final class CountingOutputStream extends FilterOutputStream {
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            ServerMetrics.SOCKET_WRITES.increment();
+            out.write(b, off, len);
+        }
+    }
+}
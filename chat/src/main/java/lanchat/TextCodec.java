@@ -0,0 +1,93 @@
+package lanchat;
+
+import java.net.ProtocolException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 文本行编码（原始协议）：前缀|字段1|字段2\n
+ * 直接在字节上按类型的字段个数切分（| 与换行都是单字节，不会落在 UTF-8 多字节字符中间），
+ * 最后一个字段保留其中的 |，不使用正则
+ */
+public final class TextCodec implements Codec {
+
+    public static final TextCodec INSTANCE = new TextCodec();
+
+    private TextCodec() {
+    }
+
+    @Override
+    public int id() {
+        return 0;
+    }
+
+    @Override
+    public byte[] encode(Message message) {
+        return (message.toString() + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public int frameLength(byte[] buf, int offset, int length) throws ProtocolException {
+        for (int i = 0; i < length; i++) {
+            if (buf[offset + i] == '\n') {
+                return i + 1;
+            }
+        }
+        if (length > MAX_FRAME_BYTES) {
+            throw new ProtocolException("单行超过 " + MAX_FRAME_BYTES + " 字节");
+        }
+        return -1;
+    }
+
+    @Override
+    public void view(byte[] buf, int offset, int frameLength, FrameView view) throws ProtocolException {
+        int end = offset + lineLength(buf, offset, frameLength);
+        int bar = indexOf(buf, offset, end, (byte) '|');
+        int prefixEnd = bar < 0 ? end : bar;
+        byte type = end > offset && buf[offset] == '['
+                ? MessageType.typeOf(buf, offset, prefixEnd - offset) : MessageType.TEXT;
+        view.reset(this, buf, offset, frameLength, type);
+        if (type == MessageType.TEXT) {
+            view.addField(offset, end - offset); // 没有已知前缀的行整行作为纯文本
+            return;
+        }
+        int count = MessageType.fieldCount(type);
+        int start = bar + 1;
+        for (int n = 0; bar >= 0 && n < count; n++) {
+            int next = n == count - 1 ? -1 : indexOf(buf, start, end, (byte) '|');
+            view.addField(start, (next < 0 ? end : next) - start);
+            start = next + 1;
+            bar = next;
+        }
+        // 字段不足（格式错误）时按实际个数返回，由路由层判断
+    }
+
+    /**
+     * 取出一帧的原始文本（去掉行尾 \n 或 \r\n），用于握手行
+     */
+    public static String decodeLine(byte[] buf, int offset, int frameLength) {
+        return new String(buf, offset, lineLength(buf, offset, frameLength), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 去掉行尾 \n 或 \r\n 后的长度
+     */
+    private static int lineLength(byte[] buf, int offset, int frameLength) {
+        int length = frameLength;
+        if (length > 0 && buf[offset + length - 1] == '\n') {
+            length--;
+        }
+        if (length > 0 && buf[offset + length - 1] == '\r') {
+            length--; // 兼容 Windows 客户端的 \r\n
+        }
+        return length;
+    }
+
+    private static int indexOf(byte[] buf, int from, int end, byte b) {
+        for (int i = from; i < end; i++) {
+            if (buf[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
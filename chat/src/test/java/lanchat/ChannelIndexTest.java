@@ -0,0 +1,91 @@
+package lanchat;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * 频道索引：加入/离开与成员数组、每人频道数上限、频道名校验、下线时离开全部频道
+ */
+class ChannelIndexTest {
+
+    @Test
+    void joinAndLeaveReplaceTheMemberArray() {
+        ChannelIndex channels = new ChannelIndex();
+        TestSession alice = session("alice");
+        TestSession bob = session("bob");
+        assertNull(channels.join(alice, "运维"));
+        assertNull(channels.join(bob, "运维"));
+        assertNull(channels.join(alice, "运维")); // 已是成员视为成功，不重复加入
+        ChannelIndex.Channel channel = channels.get(SessionRegistry.NameKey.of("运维"));
+        ChatSession[] before = channel.members;
+        assertArrayEquals(new ChatSession[] {alice, bob}, before);
+        assertEquals("运维:2", channels.list());
+
+        assertNull(channels.leave(alice, "运维"));
+        assertArrayEquals(new ChatSession[] {alice, bob}, before); // 转发中持有的旧数组不变
+        assertArrayEquals(new ChatSession[] {bob}, channel.members);
+        assertNotNull(channels.leave(alice, "运维"));
+        assertNotNull(channels.leave(alice, "不存在"));
+
+        assertNull(channels.leave(bob, "运维")); // 最后一个成员离开后删除频道
+        assertNull(channels.get(SessionRegistry.NameKey.of("运维")));
+        assertEquals(0, channels.size());
+        assertEquals("", channels.list());
+    }
+
+    @Test
+    void eachUserJoinsAtMostTheLimit() {
+        ChannelIndex channels = new ChannelIndex();
+        TestSession alice = session("alice");
+        for (int i = 0; i < ChannelIndex.MAX_CHANNELS_PER_USER; i++) {
+            assertNull(channels.join(alice, "c" + i));
+        }
+        assertNotNull(channels.join(alice, "one-more"));
+        assertNull(channels.get(SessionRegistry.NameKey.of("one-more")));
+        assertNull(channels.join(alice, "c0")); // 已加入的频道不受上限影响
+
+        // 离开一个之后可以再加入新的
+        assertNull(channels.leave(alice, "c0"));
+        assertNull(channels.join(alice, "one-more"));
+        assertNull(channels.join(session("bob"), "c0")); // 上限按人计算
+    }
+
+    @Test
+    void invalidNamesAreRefused() {
+        ChannelIndex channels = new ChannelIndex();
+        TestSession alice = session("alice");
+        assertNotNull(channels.join(alice, ""));
+        assertNotNull(channels.join(alice, "a|b"));
+        assertNotNull(channels.join(alice, "a,b"));
+        assertNotNull(channels.join(alice, "a:b"));
+        assertNotNull(channels.join(alice, "频道名超过三十二字节的频道名称")); // 15 个汉字，45 字节
+        assertNull(channels.join(alice, "十个汉字的频道名称啊")); // 30 字节
+        assertEquals(1, channels.size());
+    }
+
+    @Test
+    void leaveAllRemovesTheSessionFromEveryChannel() {
+        ChannelIndex channels = new ChannelIndex();
+        TestSession alice = session("alice");
+        TestSession bob = session("bob");
+        channels.join(alice, "a");
+        channels.join(alice, "b");
+        channels.join(bob, "b");
+        channels.leaveAll(alice);
+        assertNull(channels.get(SessionRegistry.NameKey.of("a")));
+        assertArrayEquals(new ChatSession[] {bob}, channels.get(SessionRegistry.NameKey.of("b")).members);
+        assertEquals("b:1", channels.list());
+        channels.leaveAll(alice); // 重复调用无影响
+        for (int i = 0; i < ChannelIndex.MAX_CHANNELS_PER_USER; i++) {
+            assertNull(channels.join(alice, "c" + i)); // 频道数重新计算
+        }
+    }
+
+    private static TestSession session(String name) {
+        return new TestSession(name, TextCodec.INSTANCE);
+    }
+}
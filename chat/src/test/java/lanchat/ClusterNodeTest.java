@@ -0,0 +1,156 @@
+package lanchat;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 集群节点（本机两个节点，或测试代替对方节点直接收发帧）：在线状态同步、群聊与私聊转发、同名用户冲突、
+ * 只接受集群成员的连接
+ */
+class ClusterNodeTest {
+
+    @Test
+    void presenceAndMessagesReachTheOtherNode() throws Exception {
+        int portA = freePort();
+        int portB = freePort();
+        Node a = new Node("--node-id=a", "--cluster-port=" + portA, "--peers=127.0.0.1:" + portB);
+        Node b = new Node("--node-id=b", "--cluster-port=" + portB, "--peers=127.0.0.1:" + portA);
+        TestSession alice = a.login("alice");
+        TestSession bob = b.login("bob");
+        await(() -> "b".equals(a.users.remoteNode(key("bob"))) && "a".equals(b.users.remoteNode(key("alice"))));
+        assertTrue(Arrays.asList(b.users.snapshot().users).contains("alice"));
+
+        a.router.route(alice, view(Message.of(MessageType.GROUP, "alice", "大家好")));
+        a.router.route(alice, view(Message.of(MessageType.PRIVATE, "alice", "bob", "在吗")));
+        await(() -> received(bob, Message.of(MessageType.PRIVATE, "alice", "bob", "在吗")));
+        assertTrue(received(bob, Message.of(MessageType.GROUP, "alice", "大家好"))); // 同一条链路，先于私聊到达
+
+        a.router.logout("alice", alice);
+        await(() -> b.users.remoteNode(key("alice")) == null);
+    }
+
+    @Test
+    void conflictingRemoteUserIsRegisteredWhenTheLocalOneLeaves() throws Exception {
+        int port = freePort();
+        Node a = new Node("--node-id=a", "--cluster-port=" + port, "--cluster-secret=s3cret");
+        TestSession carol = a.login("carol");
+        try (Socket peer = new Socket()) {
+            assertEquals(Message.of(MessageType.PEER_HELLO_TYPE, "a"), hello(peer, port, "s3cret"));
+            OutputStream out = peer.getOutputStream();
+
+            presence(out, MessageType.PRESENCE_SNAPSHOT, "carol,dave");
+            await(() -> "x".equals(a.users.remoteNode(key("dave"))));
+            assertSame(carol, a.users.get("carol")); // 保留本地用户
+            assertNull(a.users.remoteNode(key("carol")));
+
+            a.router.logout("carol", carol);
+            await(() -> "x".equals(a.users.remoteNode(key("carol"))));
+
+            presence(out, MessageType.PRESENCE_DELTA, "-carol");
+            await(() -> a.users.remoteNode(key("carol")) == null);
+            assertEquals("x", a.users.remoteNode(key("dave")));
+        }
+    }
+
+    @Test
+    void strangersAreRefused() throws Exception {
+        // 设置了密钥：密钥不符的连接不回复节点名，发来的在线状态也不会被记入
+        int port = freePort();
+        new Node("--node-id=a", "--cluster-port=" + port, "--cluster-secret=s3cret");
+        try (Socket peer = new Socket()) {
+            assertNull(hello(peer, port, "guess"));
+        }
+        // 未设置密钥：只接受 --peers 中的主机（这里只有一个不可达的地址）
+        int other = freePort();
+        new Node("--node-id=b", "--cluster-port=" + other, "--peers=192.0.2.1:9");
+        try (Socket peer = new Socket()) {
+            assertNull(hello(peer, other, ""));
+        }
+        try (Socket peer = new Socket()) {
+            assertEquals(Message.of(MessageType.PEER_HELLO_TYPE, "a"), hello(peer, port, "s3cret"));
+        }
+    }
+
+    private static final class Node {
+        final SessionRegistry users = new SessionRegistry();
+        final MessageRouter router;
+
+        Node(String... args) throws IOException {
+            String[] all = Arrays.copyOf(args, args.length + 2);
+            all[args.length] = "--presence-window=0";
+            all[args.length + 1] = "--heartbeat-interval=0";
+            ServerConfig config = ServerConfig.parse(all);
+            ClusterNode cluster = ClusterNode.open(config, users);
+            router = new MessageRouter(users, config, null, null, cluster, null);
+            cluster.start(router);
+        }
+
+        TestSession login(String name) {
+            TestSession session = new TestSession(name, TextCodec.INSTANCE);
+            assertNull(router.login(Handshake.parse(name), session));
+            return session;
+        }
+    }
+
+    /**
+     * 以节点 x 的身份握手，返回对方回复的 [PEER_HELLO]，被拒绝时为 null
+     */
+    private static Message hello(Socket peer, int port, String secret) throws IOException {
+        peer.connect(new InetSocketAddress("127.0.0.1", port), 5000);
+        peer.setSoTimeout(5000);
+        OutputStream out = peer.getOutputStream();
+        out.write(BinaryCodec.INSTANCE.encode(Message.of(MessageType.PEER_HELLO_TYPE, "x", secret)));
+        out.flush();
+        return new FrameReader(peer.getInputStream(), BinaryCodec.INSTANCE).read();
+    }
+
+    private static void presence(OutputStream out, String kind, String users) throws IOException {
+        out.write(BinaryCodec.INSTANCE.encode(Message.of(MessageType.PEER_PRESENCE_TYPE, kind, users)));
+        out.flush();
+    }
+
+    private static boolean received(TestSession session, Message message) {
+        try {
+            return session.messages().contains(message);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static SessionRegistry.NameKey key(String name) {
+        return SessionRegistry.NameKey.of(name);
+    }
+
+    private static FrameView view(Message message) throws IOException {
+        byte[] bytes = BinaryCodec.INSTANCE.encode(message);
+        FrameView view = new FrameView();
+        BinaryCodec.INSTANCE.view(bytes, 0, bytes.length, view);
+        return view;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "等待超时");
+            Thread.sleep(10);
+        }
+    }
+}
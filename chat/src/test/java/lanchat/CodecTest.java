@@ -0,0 +1,135 @@
+package lanchat;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.ProtocolException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * 文本与二进制编码：往返、半帧、超长帧与格式错误
+ */
+class CodecTest {
+
+    private static final Message[] SAMPLES = {
+        Message.of(MessageType.GROUP, "alice", "你好，大家好"),
+        Message.of(MessageType.PRIVATE, "alice", "bob", "内容里有 | 竖线"),
+        Message.of(MessageType.CHANNEL, "java", "bob", ""),
+        Message.of(MessageType.PRESENCE_SYNC_TYPE),
+        Message.text("纯文本提示"),
+    };
+
+    @Test
+    void textRoundTrip() throws ProtocolException {
+        for (Message message : SAMPLES) {
+            assertEquals(message, roundTrip(TextCodec.INSTANCE, message));
+        }
+    }
+
+    @Test
+    void binaryRoundTrip() throws ProtocolException {
+        for (Message message : SAMPLES) {
+            assertEquals(message, roundTrip(BinaryCodec.INSTANCE, message));
+        }
+        // 二进制帧的字段可以包含换行
+        Message multiline = Message.of(MessageType.GROUP, "alice", "第一行\n第二行|还有竖线");
+        assertEquals(multiline, roundTrip(BinaryCodec.INSTANCE, multiline));
+    }
+
+    @Test
+    void textAcceptsCrLf() throws ProtocolException {
+        byte[] line = "[GROUP]|alice|hi\r\n".getBytes(StandardCharsets.UTF_8);
+        assertEquals(line.length, TextCodec.INSTANCE.frameLength(line, 0, line.length));
+        assertEquals(Message.of(MessageType.GROUP, "alice", "hi"), TextCodec.INSTANCE.decode(line, 0, line.length));
+    }
+
+    @Test
+    void viewDoesNotCopyAndHonoursOffset() throws ProtocolException {
+        for (Codec codec : new Codec[] {TextCodec.INSTANCE, BinaryCodec.INSTANCE}) {
+            byte[] frame = codec.encode(SAMPLES[1]);
+            byte[] buf = new byte[frame.length + 10];
+            System.arraycopy(frame, 0, buf, 7, frame.length);
+            FrameView view = new FrameView();
+            codec.view(buf, 7, codec.frameLength(buf, 7, frame.length + 3), view);
+            assertEquals(MessageType.PRIVATE, view.type());
+            assertEquals(3, view.fieldCount());
+            assertEquals("bob", view.field(1));
+            assertEquals(frame.length, view.frameLength());
+            assertArrayEquals(frame, view.copyFrame());
+        }
+    }
+
+    @Test
+    void partialFramesNeedMoreData() throws ProtocolException {
+        for (Codec codec : new Codec[] {TextCodec.INSTANCE, BinaryCodec.INSTANCE}) {
+            byte[] frame = codec.encode(SAMPLES[0]);
+            for (int length = 0; length < frame.length; length++) {
+                assertEquals(-1, codec.frameLength(frame, 0, length), codec + " 前 " + length + " 字节");
+            }
+            assertEquals(frame.length, codec.frameLength(frame, 0, frame.length));
+        }
+    }
+
+    @Test
+    void twoFramesInOneBuffer() throws ProtocolException {
+        byte[] first = BinaryCodec.INSTANCE.encode(SAMPLES[0]);
+        byte[] second = BinaryCodec.INSTANCE.encode(SAMPLES[1]);
+        byte[] buf = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, buf, first.length, second.length);
+        int length = BinaryCodec.INSTANCE.frameLength(buf, 0, buf.length);
+        assertEquals(first.length, length);
+        assertEquals(SAMPLES[1], BinaryCodec.INSTANCE.decode(buf, length, BinaryCodec.INSTANCE.frameLength(buf, length, second.length)));
+    }
+
+    @Test
+    void oversizedFramesAreRejected() {
+        byte[] header = new byte[5];
+        int n = BinaryCodec.writeVarint(header, 0, Codec.MAX_FRAME_BYTES);
+        assertThrows(ProtocolException.class, () -> BinaryCodec.INSTANCE.frameLength(header, 0, n));
+
+        byte[] line = new byte[Codec.MAX_FRAME_BYTES + 1];
+        Arrays.fill(line, (byte) 'a');
+        assertThrows(ProtocolException.class, () -> TextCodec.INSTANCE.frameLength(line, 0, line.length));
+    }
+
+    @Test
+    void malformedBinaryFramesAreRejected() {
+        // 长度为 0 的帧体
+        assertThrows(ProtocolException.class, () -> BinaryCodec.INSTANCE.frameLength(new byte[] {0}, 0, 1));
+        // varint 超过 5 字节
+        byte[] longVarint = {(byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 1};
+        assertThrows(ProtocolException.class, () -> BinaryCodec.INSTANCE.frameLength(longVarint, 0, longVarint.length));
+        // 未知类型
+        byte[] unknownType = {1, 120};
+        assertThrows(ProtocolException.class, () -> BinaryCodec.INSTANCE.view(unknownType, 0, 2, new FrameView()));
+        // 字段长度超出帧尾
+        byte[] badField = {3, MessageType.GROUP, 5, 'a'};
+        assertThrows(ProtocolException.class, () -> BinaryCodec.INSTANCE.view(badField, 0, badField.length, new FrameView()));
+    }
+
+    @Test
+    void varintBoundaries() throws ProtocolException {
+        byte[] buf = new byte[5];
+        for (int value : new int[] {0, 127, 128, 16383, 16384, Integer.MAX_VALUE}) {
+            int size = BinaryCodec.writeVarint(buf, 0, value);
+            assertEquals(BinaryCodec.varintSize(value), size);
+            long header = BinaryCodec.readVarint(buf, 0, size);
+            assertEquals(value, (int) (header >>> 32));
+            assertEquals(size, (int) header);
+            if (size > 1) {
+                assertEquals(-1, BinaryCodec.readVarint(buf, 0, size - 1));
+            }
+        }
+    }
+
+    private static Message roundTrip(Codec codec, Message message) throws ProtocolException {
+        byte[] frame = codec.encode(message);
+        int length = codec.frameLength(frame, 0, frame.length);
+        assertEquals(frame.length, length);
+        return codec.decode(frame, 0, length);
+    }
+}
@@ -0,0 +1,188 @@
+package lanchat;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 连接级压缩：逐帧往返、大块输入分成多个线路帧、短消息的压缩率、解压上限
+ */
+class DeflateStreamTest {
+
+    private static final String[] USERS = {
+        "alice", "bob", "carol", "dave", "小明", "小红", "王工", "eve", "mallory", "trent",
+    };
+    private static final String[] WORDS = {
+        "好的", "收到", "明天几点开会？", "午饭吃什么", "ok", "我马上到", "文件已经发到群里了",
+        "谢谢！", "下午三点会议室见", "http://intranet/wiki/周报", "哈哈", "稍等一下",
+    };
+
+    @Test
+    void roundTripFrameByFrame() throws IOException {
+        List<String> names = DeflateStream.dictionaryNames(USERS, "alice");
+        DeflateStream sender = new DeflateStream(DeflateStream.dictionary(names));
+        DeflateStream receiver = new DeflateStream(DeflateStream.dictionary(names));
+        List<Message> messages = chat(500, new Random(1));
+        for (Message message : messages) {
+            byte[] frame = BinaryCodec.INSTANCE.encode(message);
+            assertEquals(Collections.singletonList(message), inflate(receiver, sender.compress(frame, 0, frame.length)));
+        }
+        sender.end();
+        receiver.end();
+    }
+
+    @Test
+    void largeInputIsSplitIntoSeveralWireFrames() throws IOException {
+        byte[] dictionary = DeflateStream.dictionary(Collections.singletonList("alice"));
+        DeflateStream sender = new DeflateStream(dictionary);
+        DeflateStream receiver = new DeflateStream(dictionary);
+        Random random = new Random(2);
+        List<Message> messages = new ArrayList<>();
+        byte[] all = new byte[0];
+        while (all.length < 3 * DeflateStream.MAX_INPUT_BYTES) {
+            byte[] content = new byte[random.nextInt(2000)];
+            random.nextBytes(content); // 随机内容几乎不可压缩
+            Message message = Message.of(MessageType.GROUP, "alice", Arrays.toString(content));
+            messages.add(message);
+            byte[] frame = BinaryCodec.INSTANCE.encode(message);
+            all = Arrays.copyOf(all, all.length + frame.length);
+            System.arraycopy(frame, 0, all, all.length - frame.length, frame.length);
+        }
+        byte[] wire = sender.compress(all, 0, all.length);
+        assertTrue(wireFrames(wire) >= 3, "线路帧数 " + wireFrames(wire));
+        assertEquals(messages, inflate(receiver, wire));
+    }
+
+    @Test
+    void shortChatFramesCompressWell() throws IOException {
+        List<String> names = DeflateStream.dictionaryNames(USERS, "alice");
+        DeflateStream sender = new DeflateStream(DeflateStream.dictionary(names));
+        DeflateStream receiver = new DeflateStream(DeflateStream.dictionary(names));
+        long input = 0;
+        long output = 0;
+        long separate = 0; // 对照：每帧用新的上下文单独压缩
+        for (Message message : chat(200, new Random(3))) {
+            byte[] frame = BinaryCodec.INSTANCE.encode(message);
+            byte[] wire = sender.compress(frame, 0, frame.length); // 每条消息单独发送、单独刷出
+            input += frame.length;
+            output += wire.length;
+            assertEquals(Collections.singletonList(message), inflate(receiver, wire));
+
+            DeflateStream fresh = new DeflateStream(DeflateStream.dictionary(names));
+            separate += fresh.compress(frame, 0, frame.length).length;
+            fresh.end();
+        }
+        // 平均每帧约 25 字节，每次刷出固定多 5 字节左右
+        assertTrue(output * 5 < input * 3, "压缩前 " + input + " 字节，压缩后 " + output + " 字节");
+        assertTrue(output * 4 < separate * 3, "连续压缩 " + output + " 字节，逐帧单独压缩 " + separate + " 字节");
+    }
+
+    @Test
+    void dictionaryShrinksTheFirstFrames() throws IOException {
+        DeflateStream withNames = new DeflateStream(DeflateStream.dictionary(Arrays.asList(USERS)));
+        DeflateStream without = new DeflateStream(DeflateStream.dictionary(Collections.<String>emptyList()));
+        byte[] frame = BinaryCodec.INSTANCE.encode(Message.of(MessageType.PRIVATE, "mallory", "trent", "在吗"));
+        int a = withNames.compress(frame, 0, frame.length).length;
+        int b = without.compress(frame, 0, frame.length).length;
+        assertTrue(a < b, "有用户名字典 " + a + " 字节，没有 " + b + " 字节");
+    }
+
+    @Test
+    void dictionaryNamesKeepSelfLastAndNewestOthers() {
+        String[] online = new String[2000];
+        for (int i = 0; i < online.length; i++) {
+            online[i] = "user-" + i;
+        }
+        List<String> names = DeflateStream.dictionaryNames(online, "user-5");
+        assertEquals("user-5", names.get(names.size() - 1));
+        assertEquals("user-1999", names.get(names.size() - 2));
+        assertTrue(names.size() < online.length);
+        assertEquals(1, Collections.frequency(names, "user-5"));
+    }
+
+    @Test
+    void oversizedInflateIsRejected() throws IOException {
+        byte[] dictionary = DeflateStream.dictionary(Collections.<String>emptyList());
+        DeflateStream sender = new DeflateStream(dictionary);
+        DeflateStream receiver = new DeflateStream(dictionary);
+        // 一个 MAX_INPUT_BYTES 的线路帧合法，把多个拼成一个线路帧后解压结果超过上限
+        byte[] zeros = new byte[DeflateStream.MAX_INPUT_BYTES * 5];
+        byte[] wire = sender.compress(zeros, 0, zeros.length);
+        byte[] body = new byte[0];
+        for (int pos = 0; pos < wire.length; ) {
+            int length = BinaryCodec.INSTANCE.frameLength(wire, pos, wire.length - pos);
+            int header = (int) BinaryCodec.readVarint(wire, pos, length);
+            body = Arrays.copyOf(body, body.length + length - header);
+            System.arraycopy(wire, pos + header, body, body.length - (length - header), length - header);
+            pos += length;
+        }
+        byte[] bomb = new byte[BinaryCodec.varintSize(body.length) + body.length];
+        int n = BinaryCodec.writeVarint(bomb, 0, body.length);
+        System.arraycopy(body, 0, bomb, n, body.length);
+        byte[] out = new byte[DeflateStream.MAX_INFLATED_BYTES + 1];
+        assertThrows(ProtocolException.class, () -> receiver.inflate(bomb, 0, bomb.length, out, 0));
+    }
+
+    @Test
+    void endedStreamRefusesWork() {
+        DeflateStream stream = new DeflateStream(DeflateStream.dictionary(Collections.singletonList("alice")));
+        stream.end();
+        assertThrows(IOException.class, () -> stream.compress(new byte[1], 0, 1));
+        assertThrows(ProtocolException.class, () -> stream.inflate(new byte[] {1, 0}, 0, 2, new byte[1], 0));
+    }
+
+    private static List<Message> chat(int count, Random random) {
+        List<Message> messages = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            String from = USERS[random.nextInt(USERS.length)];
+            String content = WORDS[random.nextInt(WORDS.length)];
+            if (random.nextInt(4) == 0) {
+                messages.add(Message.of(MessageType.PRIVATE, from, USERS[random.nextInt(USERS.length)], content));
+            } else {
+                messages.add(Message.of(MessageType.GROUP, from, content));
+            }
+        }
+        return messages;
+    }
+
+    /**
+     * 逐个解压线路帧，解压结果拼接后按二进制帧切分
+     */
+    private static List<Message> inflate(DeflateStream stream, byte[] wire) throws ProtocolException {
+        byte[] plain = new byte[0];
+        int plainLength = 0;
+        for (int pos = 0; pos < wire.length; ) {
+            int length = BinaryCodec.INSTANCE.frameLength(wire, pos, wire.length - pos);
+            assertTrue(length > 0, "线路帧不完整");
+            plain = Arrays.copyOf(plain, plainLength + DeflateStream.MAX_INFLATED_BYTES + 1);
+            plainLength += stream.inflate(wire, pos, length, plain, plainLength);
+            pos += length;
+        }
+        List<Message> messages = new ArrayList<>();
+        for (int pos = 0; pos < plainLength; ) {
+            int length = BinaryCodec.INSTANCE.frameLength(plain, pos, plainLength - pos);
+            assertTrue(length > 0, "解压结果中有半帧");
+            messages.add(BinaryCodec.INSTANCE.decode(plain, pos, length));
+            pos += length;
+        }
+        return messages;
+    }
+
+    private static int wireFrames(byte[] wire) throws ProtocolException {
+        int n = 0;
+        for (int pos = 0; pos < wire.length; n++) {
+            pos += BinaryCodec.INSTANCE.frameLength(wire, pos, wire.length - pos);
+        }
+        return n;
+    }
+}
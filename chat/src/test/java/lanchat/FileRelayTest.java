@@ -0,0 +1,215 @@
+package lanchat;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 文件传输中转（测试代替收发双方直接连接传输端口）：边上传边下载、上传与下载断线续传、取消与下线时删除暂存文件
+ */
+class FileRelayTest {
+
+    private static final int SIZE = 300 * 1024;
+    private static final int FIRST = 100 * 1024;
+
+    @TempDir
+    Path dir;
+
+    private final SessionRegistry users = new SessionRegistry();
+    private final TestSession alice = session("alice");
+    private final TestSession bob = session("bob");
+    private int port;
+    private FileRelay relay;
+
+    @Test
+    void uploadAndDownloadResumeAfterDisconnect() throws Exception {
+        open();
+        byte[] data = new byte[SIZE];
+        new Random(1).nextBytes(data);
+        String id = offerAndAccept(data.length);
+
+        // 上传前 100KB 后断开；下载紧跟上传，在上传结束前就能取到已收到的字节
+        try (Socket put = connect("PUT|" + id)) {
+            assertEquals("OK|0", readLine(put.getInputStream()));
+            put.getOutputStream().write(data, 0, FIRST);
+            put.getOutputStream().flush();
+            try (Socket get = connect("GET|" + id + "|0")) {
+                DataInputStream in = new DataInputStream(get.getInputStream());
+                assertEquals("OK|" + SIZE, readLine(in));
+                byte[] first = new byte[FIRST];
+                in.readFully(first);
+                assertArrayEquals(Arrays.copyOf(data, FIRST), first);
+            }
+        }
+
+        // 重连后上传从服务器已收到的字节数继续，下载从本地已有的字节数继续
+        try (Socket put = connect("PUT|" + id)) {
+            assertEquals("OK|" + FIRST, readLine(put.getInputStream()));
+            put.getOutputStream().write(data, FIRST, SIZE - FIRST);
+            put.getOutputStream().flush();
+            try (Socket get = connect("GET|" + id + "|" + FIRST)) {
+                InputStream in = get.getInputStream();
+                assertEquals("OK|" + SIZE, readLine(in));
+                assertArrayEquals(Arrays.copyOfRange(data, FIRST, SIZE), readAll(in));
+            }
+        }
+        Message done = Message.of(MessageType.FILE_DONE_TYPE, id);
+        await(() -> received(alice, done) && received(bob, done));
+        assertEquals(0, relay.size());
+        assertFalse(Files.exists(dir.resolve(id + ".part")));
+    }
+
+    @Test
+    void cancelAndLogoutDeleteTheSpoolFile() throws Exception {
+        open();
+        String id = offerAndAccept(1024);
+        assertTrue(Files.exists(dir.resolve(id + ".part")));
+        relay.cancel(bob, id, "");
+        assertTrue(received(alice, Message.of(MessageType.FILE_CANCEL_TYPE, id, "bob 取消了传输")));
+        assertFalse(Files.exists(dir.resolve(id + ".part")));
+        try (Socket put = connect("PUT|" + id)) {
+            assertTrue(readLine(put.getInputStream()).startsWith("ERR|"));
+        }
+
+        String other = offerAndAccept(1024);
+        relay.cancelAll(alice);
+        assertTrue(received(bob, Message.of(MessageType.FILE_CANCEL_TYPE, other, "alice 已下线")));
+        assertFalse(Files.exists(dir.resolve(other + ".part")));
+        assertEquals(0, relay.size());
+    }
+
+    @Test
+    void offersAreChecked() throws Exception {
+        open("--transfer-max-mb=1");
+        relay.offer(alice, "alice", "10", "a.txt");
+        relay.offer(alice, "carol", "10", "a.txt");
+        relay.offer(alice, "bob", String.valueOf((1 << 20) + 1), "a.txt");
+        relay.offer(alice, "bob", "-1", "a.txt");
+        relay.offer(alice, "bob", "10", "dir/");
+        assertEquals(0, relay.size());
+        assertTrue(bob.sent().isEmpty());
+
+        // 提议只带文件名部分；每人同时进行的传输有上限
+        relay.offer(alice, "bob", "10", "C:\\tmp\\a.txt");
+        Message offer = bob.messages().get(0);
+        assertEquals("a.txt", offer.field(4));
+        for (int i = 1; i < FileRelay.MAX_TRANSFERS_PER_USER; i++) {
+            relay.offer(alice, "bob", "10", "a.txt");
+        }
+        int before = alice.sent().size();
+        relay.offer(alice, "bob", "10", "a.txt");
+        assertEquals(FileRelay.MAX_TRANSFERS_PER_USER, relay.size());
+        assertEquals(before + 1, alice.sent().size());
+        assertEquals(MessageType.TEXT, alice.messages().get(before).type());
+    }
+
+    private void open(String... extra) throws IOException {
+        port = freePort();
+        String[] args = Arrays.copyOf(extra, extra.length + 2);
+        args[extra.length] = "--transfer-port=" + port;
+        args[extra.length + 1] = "--transfer-dir=" + dir;
+        relay = FileRelay.open(ServerConfig.parse(args), users);
+        assertNotNull(relay);
+    }
+
+    /**
+     * alice 向 bob 提议发送文件，bob 接受，返回传输编号
+     */
+    private String offerAndAccept(long size) throws IOException {
+        relay.offer(alice, "bob", String.valueOf(size), "data.bin");
+        Message offer = last(bob, MessageType.FILE_OFFER_TYPE);
+        relay.accept(bob, offer.field(0));
+        assertEquals(Message.of(MessageType.FILE_ACCEPT_TYPE, offer.field(0), String.valueOf(port)),
+                last(alice, MessageType.FILE_ACCEPT_TYPE));
+        return offer.field(0);
+    }
+
+    private TestSession session(String name) {
+        TestSession session = new TestSession(name, TextCodec.INSTANCE);
+        assertTrue(users.register(name, session));
+        return session;
+    }
+
+    private Socket connect(String header) throws IOException {
+        Socket socket = new Socket();
+        socket.connect(new InetSocketAddress("127.0.0.1", port), 5000);
+        socket.setSoTimeout(10000);
+        OutputStream out = socket.getOutputStream();
+        out.write((header + "\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+        return socket;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != '\n') {
+            assertTrue(b >= 0, "连接已关闭");
+            line.write(b);
+        }
+        return new String(line.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    private static Message last(TestSession session, byte type) throws IOException {
+        Message found = null;
+        for (Message message : session.messages()) {
+            if (message.type() == type) {
+                found = message;
+            }
+        }
+        assertNotNull(found);
+        return found;
+    }
+
+    private static boolean received(TestSession session, Message message) {
+        try {
+            return session.messages().contains(message);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "等待超时");
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package lanchat;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 心跳时间轮（时间由测试给定，间隔 15 秒、超时 45 秒）：空闲时发 PING、收到数据后顺延、超时断开、下线后移除
+ */
+class HeartbeatWheelTest {
+
+    private static final long T0 = 1_000_000_000L;
+
+    private final SessionRegistry users = new SessionRegistry();
+    private final HeartbeatWheel wheel = new HeartbeatWheel(users, seconds(15), seconds(45), T0);
+
+    @Test
+    void idleSessionIsPingedThenClosed() {
+        TestSession alice = login("alice");
+        wheel.advance(T0);
+        wheel.advance(T0 + seconds(14));
+        assertEquals(0, pings(alice));
+        wheel.advance(T0 + seconds(15));
+        assertEquals(1, pings(alice));
+        wheel.advance(T0 + seconds(30));
+        assertEquals(1, pings(alice)); // 同一段空闲只发一次
+
+        long closed = HeartbeatWheel.IDLE_CLOSED.sum();
+        wheel.advance(T0 + seconds(45));
+        assertTrue(alice.isClosed());
+        assertEquals(closed + 1, HeartbeatWheel.IDLE_CLOSED.sum());
+    }
+
+    @Test
+    void pongPostponesTheTimeout() {
+        TestSession alice = login("alice");
+        wheel.advance(T0);
+        wheel.advance(T0 + seconds(15));
+        assertEquals(1, pings(alice));
+        alice.setLastReadNanos(T0 + seconds(16)); // 收到 PONG
+
+        // 超时检查点到达时连接不算空闲过久：为新的空闲时段再发一次 PING，超时从 PONG 起算
+        wheel.advance(T0 + seconds(45));
+        assertFalse(alice.isClosed());
+        assertEquals(2, pings(alice));
+        wheel.advance(T0 + seconds(60));
+        assertFalse(alice.isClosed());
+        wheel.advance(T0 + seconds(61));
+        assertTrue(alice.isClosed());
+    }
+
+    @Test
+    void activeSessionIsNeverPinged() {
+        TestSession alice = login("alice");
+        for (int s = 0; s <= 120; s++) {
+            alice.setLastReadNanos(T0 + seconds(s) - seconds(s % 10)); // 每 10 秒发一次消息
+            wheel.advance(T0 + seconds(s));
+        }
+        assertEquals(0, pings(alice));
+        assertFalse(alice.isClosed());
+    }
+
+    @Test
+    void loggedOutSessionIsDropped() {
+        TestSession alice = login("alice");
+        wheel.advance(T0);
+        users.unregister("alice", alice);
+        wheel.advance(T0 + seconds(100));
+        assertEquals(0, pings(alice));
+        assertFalse(alice.isClosed());
+
+        // 同名用户重新登录是另一个会话，旧会话不会再被检查
+        TestSession again = new TestSession("alice", TextCodec.INSTANCE);
+        again.setLastReadNanos(T0 + seconds(100));
+        assertTrue(users.register("alice", again));
+        wheel.add(again);
+        wheel.advance(T0 + seconds(200));
+        assertEquals(0, pings(alice));
+        assertTrue(again.isClosed());
+    }
+
+    private TestSession login(String name) {
+        TestSession session = new TestSession(name, TextCodec.INSTANCE);
+        session.setLastReadNanos(T0);
+        assertTrue(users.register(name, session));
+        wheel.add(session);
+        return session;
+    }
+
+    private static long pings(TestSession session) {
+        return session.sent().stream().filter(frame -> frame.type() == MessageType.PING_TYPE).count();
+    }
+
+    private static long seconds(long s) {
+        return TimeUnit.SECONDS.toNanos(s);
+    }
+}
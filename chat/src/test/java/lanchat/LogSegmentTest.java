@@ -0,0 +1,140 @@
+package lanchat;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 分段恢复：崩溃留下的不完整尾部记录被截断，损坏或不完整的索引被丢弃后重建
+ */
+class LogSegmentTest {
+
+    private static final int CAPACITY = 1 << 20;
+    private static final int BODY = 1000; // 每条约 1KB，约 4 条一条索引
+    private static final int RECORD = LogSegment.HEADER + BODY + LogSegment.TRAILER;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void reopenKeepsAllRecords() throws IOException {
+        write(1, 20);
+        LogSegment segment = LogSegment.open(dir, 1, CAPACITY);
+        assertEquals(20, segment.lastSeq());
+        assertEquals(20 * RECORD, segment.end());
+        segment.close();
+    }
+
+    @Test
+    void tornTailIsTruncated() throws IOException {
+        write(1, 10);
+        // 第 10 条写了开头的长度，结尾的长度没写完
+        patch(".log", 9 * RECORD + LogSegment.HEADER + BODY, new byte[LogSegment.TRAILER]);
+        // 之后还有一条只写了长度的记录
+        patch(".log", 10 * RECORD, ByteBuffer.allocate(4).putInt(BODY).array());
+
+        LogSegment segment = LogSegment.open(dir, 1, CAPACITY);
+        assertEquals(9, segment.lastSeq());
+        assertEquals(9 * RECORD, segment.end());
+        // 从截断处继续写，重新打开后新记录紧接在第 9 条之后
+        assertTrue(segment.append(10, 10, 0, body(10)));
+        segment.publish();
+        segment.force();
+        segment.close();
+
+        segment = LogSegment.open(dir, 1, CAPACITY);
+        assertEquals(10, segment.lastSeq());
+        assertEquals(10 * RECORD, segment.end());
+        assertEquals(10, segment.reader().getLong(9 * RECORD + 4));
+        segment.close();
+    }
+
+    @Test
+    void recordWithWrongSeqEndsTheSegment() throws IOException {
+        write(1, 10);
+        // 最后一条索引之后的第 10 条长度完整，序号不连续
+        patch(".log", 9 * RECORD + 4, ByteBuffer.allocate(8).putLong(99).array());
+        LogSegment segment = LogSegment.open(dir, 1, CAPACITY);
+        assertEquals(9, segment.lastSeq());
+        segment.close();
+    }
+
+    @Test
+    void corruptIndexIsRebuilt() throws IOException {
+        write(1, 50);
+        byte[] index = Files.readAllBytes(index());
+        assertTrue(index.length >= 5 * 20, "测试数据应产生多条索引");
+
+        // 第 4 条索引指向记录中间
+        patch(".idx", 3 * 20 + 16, ByteBuffer.allocate(4).putInt(3 * RECORD * 4 + 7).array());
+        assertRebuilt(50, index);
+
+        // 索引文件整体是垃圾
+        byte[] garbage = new byte[index.length];
+        Arrays.fill(garbage, (byte) 0x5A);
+        Files.write(index(), garbage);
+        assertRebuilt(50, index);
+
+        // 最后一条索引只写了一半
+        Files.write(index(), Arrays.copyOf(index, index.length + 7));
+        assertRebuilt(50, index);
+
+        // 索引文件丢失
+        Files.delete(index());
+        assertRebuilt(50, index);
+    }
+
+    /**
+     * 重新打开后记录完整、索引文件与原来逐字节相同，并且按索引查找的起点正确
+     */
+    private void assertRebuilt(long lastSeq, byte[] expectedIndex) throws IOException {
+        LogSegment segment = LogSegment.open(dir, 1, CAPACITY);
+        assertEquals(lastSeq, segment.lastSeq());
+        assertArrayEquals(expectedIndex, Files.readAllBytes(index()));
+        ByteBuffer buf = segment.reader();
+        for (long seq = 1; seq <= lastSeq; seq++) {
+            int pos = segment.seek(seq, false, segment.end());
+            assertTrue(pos <= (seq - 1) * RECORD);
+            assertTrue(pos == 0 || buf.getLong(pos + 4) < seq);
+        }
+        segment.close();
+    }
+
+    private void write(long from, long to) throws IOException {
+        LogSegment segment = LogSegment.create(dir, 1, CAPACITY);
+        for (long seq = from; seq <= to; seq++) {
+            assertTrue(segment.append(seq, seq, 0, body(seq)));
+        }
+        segment.publish();
+        segment.force();
+        segment.close();
+    }
+
+    private static byte[] body(long seq) {
+        byte[] body = new byte[BODY];
+        Arrays.fill(body, (byte) seq);
+        return body;
+    }
+
+    private Path index() {
+        return dir.resolve(String.format("%020d.idx", 1));
+    }
+
+    private void patch(String suffix, long position, byte[] bytes) throws IOException {
+        try (FileChannel channel = FileChannel.open(dir.resolve(String.format("%020d", 1) + suffix),
+                StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(bytes), position);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package lanchat;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 消息日志：写线程被 append 唤醒，总大小超过上限时删除最旧的分段，续传时能判断记录是否有遗漏，
+ * 续传补发过的记录不再随暂存的广播重复发送
+ */
+class MessageLogTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void oldSegmentsAreDeletedBeyondMaxSize() throws Exception {
+        MessageLog log = MessageLog.open(ServerConfig.parse(new String[] {
+            "--history-dir=" + dir, "--history-segment-mb=1", "--history-max-mb=2"
+        }));
+        try {
+            char[] filler = new char[900];
+            Arrays.fill(filler, 'x');
+            String content = new String(filler);
+            int count = 3000; // 约 2.8MB，至少滚动两次
+            for (int i = 0; i < count; i++) {
+                log.append(Frame.of(Message.of(MessageType.GROUP, "alice", content)));
+            }
+            awaitSeq(log, count);
+            assertTrue(segmentFiles() <= 2, "分段数 " + segmentFiles());
+
+            List<ByteBuffer> last = log.last("alice", "", 3);
+            assertEquals(3, last.size());
+            assertEquals(String.valueOf(count), seqOf(last.get(2)));
+            // 续传只能从保留下来的最早记录开始
+            List<ByteBuffer> missed = log.missed("alice", 0, count);
+            assertTrue(Long.parseLong(seqOf(missed.get(0))) > 1);
+            // 被删除的记录在续传位置之后时视为有遗漏，之前的不算
+            long first = Long.parseLong(seqOf(missed.get(0)));
+            assertTrue(log.lostSince(0));
+            assertTrue(log.lostSince(first - 2));
+            assertFalse(log.lostSince(first - 1));
+            assertFalse(log.lostSince(count));
+
+            // 写线程空闲休眠后，新记录仍被及时写入
+            Thread.sleep(50);
+            log.append(Frame.of(Message.of(MessageType.GROUP, "alice", "hi")));
+            awaitSeq(log, count + 1);
+        } finally {
+            log.close();
+        }
+    }
+
+    @Test
+    void resumedRecordsAreSkippedWhenHeldFramesAreReleased() throws Exception {
+        MessageLog log = MessageLog.open(ServerConfig.parse(new String[] {"--history-dir=" + dir}));
+        try {
+            OutboundQueue queue = new OutboundQueue(16, OverflowPolicy.DROP_OLDEST_PRESENCE);
+            queue.hold();
+            // 注册之后、续传查询之前的广播：先送入（暂存的）出站队列，再写入日志
+            Frame first = Frame.of(Message.of(MessageType.GROUP, "alice", "一"));
+            Frame second = Frame.of(Message.of(MessageType.GROUP, "alice", "二"));
+            Frame notice = Frame.text("不记录的提示");
+            for (Frame frame : Arrays.asList(first, notice, second)) {
+                queue.offer(frame);
+                if (frame != notice) {
+                    log.append(frame);
+                }
+            }
+            awaitSeq(log, 2);
+            long upTo = log.lastSeq();
+            Frame later = Frame.of(Message.of(MessageType.GROUP, "alice", "三"));
+            queue.offer(later);
+            log.append(later); // 补发截止之后写入，不论何时写入都照常发送
+            assertTrue(queue.isEmpty());
+
+            List<ByteBuffer> missed = log.missed("bob", 0, upTo);
+            assertEquals(2, missed.size());
+            Frame replayed = Frame.stored(missed.get(0));
+            queue.release(Arrays.asList(replayed, Frame.stored(missed.get(1))), upTo);
+            assertEquals(4, queue.depth());
+            assertSame(replayed, queue.poll());
+            queue.poll();
+            assertSame(notice, queue.poll());
+            assertSame(later, queue.poll());
+        } finally {
+            log.close();
+        }
+    }
+
+    private static void awaitSeq(MessageLog log, long seq) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (log.lastSeq() < seq) {
+            assertTrue(System.currentTimeMillis() < deadline, "写线程未写入序号 " + seq);
+            Thread.sleep(5);
+        }
+    }
+
+    private int segmentFiles() throws IOException {
+        int n = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*.log")) {
+            for (Path ignored : files) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    private static String seqOf(ByteBuffer record) throws Exception {
+        byte[] bytes = new byte[record.remaining()];
+        record.duplicate().get(bytes);
+        return BinaryCodec.INSTANCE.decode(bytes, 0, bytes.length).field(0);
+    }
+}
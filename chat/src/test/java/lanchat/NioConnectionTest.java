@@ -0,0 +1,177 @@
+package lanchat;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * NIO 连接的入站限速（本机启动一个单事件循环的服务器，测试代替客户端直接收发帧）：
+ * 超限时暂停读取、到期后按顺序继续处理，暂停期间同一事件循环的其他连接不受影响；disconnect 时断开
+ */
+class NioConnectionTest {
+
+    private static final int BURST = 4; // --rate-group=2：最多积攒两秒，即 4 条
+
+    @Test
+    void pausedConnectionResumesInOrderWithoutBlockingTheLoop() throws Exception {
+        Server server = new Server("--rate-limit=delay");
+        try (Client bob = server.login("bob"); Client alice = server.login("alice"); Client carol = server.login("carol")) {
+            long delays = RateLimiter.DELAYS.sum();
+            long start = System.nanoTime();
+            alice.sendGroups(BURST + 3); // 一次写出，超限的帧留在半帧缓冲区
+            List<Message> first = bob.readGroups(BURST);
+            assertEquals(groups("alice", 0, BURST), first);
+            assertTrue(RateLimiter.DELAYS.sum() > delays);
+
+            // alice 暂停期间 carol 的消息照常转发，先于 alice 剩下的消息到达
+            carol.sendGroups(1);
+            assertEquals(groups("carol", 0, 1), bob.readGroups(1));
+
+            // 之后每 500ms 放行一条，不丢失、不乱序
+            assertEquals(groups("alice", BURST, BURST + 3), bob.readGroups(3));
+            assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(1200));
+        }
+    }
+
+    @Test
+    void disconnectActionClosesTheFlooder() throws Exception {
+        Server server = new Server("--rate-limit=disconnect");
+        try (Client bob = server.login("bob"); Client alice = server.login("alice")) {
+            alice.sendGroups(BURST + 5);
+            assertEquals(groups("alice", 0, BURST), bob.readGroups(BURST));
+            assertTrue(alice.readToEnd().contains(Message.text("发送过快，连接已被服务器断开！")));
+            await(() -> server.users.get("alice") == null);
+            assertEquals(0, bob.readGroups(1).size()); // 超限之后的消息没有转发
+        }
+    }
+
+    private static final class Server {
+        final SessionRegistry users = new SessionRegistry();
+        final int port;
+
+        Server(String action) throws IOException {
+            port = freePort();
+            ServerConfig config = ServerConfig.parse(new String[] {
+                "--mode=nio", "--port=" + port, "--event-loops=1", "--rate-group=2", action,
+                "--presence-window=0", "--heartbeat-interval=0"
+            });
+            MessageRouter router = new MessageRouter(users, config, null, null, null, null);
+            ServerSocketChannel channel = NioChatServer.bind(config);
+            NioChatServer server = new NioChatServer(config, router);
+            Thread acceptor = new Thread(() -> {
+                try {
+                    server.start(channel);
+                } catch (IOException e) {
+                    throw new AssertionError(e);
+                }
+            }, "nio-test-acceptor");
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+
+        Client login(String name) throws Exception {
+            Client client = new Client(port, name);
+            await(() -> users.get(name) != null);
+            return client;
+        }
+    }
+
+    private static final class Client implements AutoCloseable {
+        final String name;
+        final Socket socket = new Socket();
+        final FrameReader reader;
+
+        Client(int port, String name) throws IOException {
+            this.name = name;
+            socket.connect(new InetSocketAddress("127.0.0.1", port), 5000);
+            socket.setSoTimeout(5000);
+            socket.getOutputStream().write((name + "\n").getBytes(StandardCharsets.UTF_8));
+            reader = new FrameReader(socket.getInputStream(), TextCodec.INSTANCE);
+        }
+
+        void sendGroups(int count) throws IOException {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            for (Message message : groups(name, 0, count)) {
+                out.write(TextCodec.INSTANCE.encode(message));
+            }
+            socket.getOutputStream().write(out.toByteArray());
+            socket.getOutputStream().flush();
+        }
+
+        /**
+         * 读取接下来的 count 条群聊消息（跳过上下线通知等），等不到时提前返回：只读一条时等 1 秒，否则 5 秒
+         */
+        List<Message> readGroups(int count) throws IOException {
+            List<Message> groups = new ArrayList<>();
+            socket.setSoTimeout(count == 1 ? 1000 : 5000);
+            try {
+                while (groups.size() < count) {
+                    Message message = reader.read();
+                    if (message == null) {
+                        break;
+                    }
+                    if (message.type() == MessageType.GROUP) {
+                        groups.add(message);
+                    }
+                }
+            } catch (SocketTimeoutException e) {
+                // 没有更多消息
+            }
+            return groups;
+        }
+
+        List<Message> readToEnd() throws IOException {
+            List<Message> messages = new ArrayList<>();
+            Message message;
+            while ((message = reader.read()) != null) {
+                messages.add(message);
+            }
+            return messages;
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+
+    /**
+     * sender 的第 from 到 to - 1 条群聊消息（内容为编号），与服务器转发的格式相同
+     */
+    private static List<Message> groups(String sender, int from, int to) {
+        Message[] messages = new Message[to - from];
+        for (int i = from; i < to; i++) {
+            messages[i - from] = Message.of(MessageType.GROUP, sender, String.valueOf(i));
+        }
+        return Arrays.asList(messages);
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "等待超时");
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package lanchat;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 离线私聊：按顺序分块送达（每块不超过 64KB），重启后从磁盘继续，送达完毕删除队列文件；
+ * 只为登录过的用户保存，队列文件合计不超过上限
+ */
+class OfflineStoreTest {
+
+    private static final int COUNT = 300;      // 每条约 1KB，共约 300KB，至少分 5 块
+    private static final int CHUNK_BYTES = 64 * 1024;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void deliversInOrderInChunks() throws Exception {
+        SessionRegistry users = new SessionRegistry();
+        OfflineStore store = open(users);
+        try {
+            storeAll(store);
+            TestSession bob = login(users, BinaryCodec.INSTANCE);
+            store.deliver(bob);
+            assertDelivered(bob);
+        } finally {
+            store.close();
+        }
+        assertFalse(queueFileExists(), "送达后应删除队列文件");
+    }
+
+    @Test
+    void queueSurvivesRestart() throws Exception {
+        SessionRegistry users = new SessionRegistry();
+        OfflineStore store = open(users);
+        storeAll(store);
+        store.close(); // 等待保存完成
+        assertTrue(queueFileExists());
+
+        // 新实例没有内存缓存，全部从文件读出
+        store = open(users);
+        try {
+            TestSession bob = login(users, TextCodec.INSTANCE); // 文本客户端：逐条重新编码
+            store.deliver(bob);
+            assertDelivered(bob);
+        } finally {
+            store.close();
+        }
+        assertFalse(queueFileExists());
+    }
+
+    @Test
+    void stopsWhenReceiverLeavesAndResumesOnNextLogin() throws Exception {
+        SessionRegistry users = new SessionRegistry();
+        OfflineStore store = open(users);
+        try {
+            storeAll(store);
+            TestSession gone = new TestSession("bob", BinaryCodec.INSTANCE); // 未注册：已经下线
+            store.deliver(gone);
+            TestSession bob = login(users, BinaryCodec.INSTANCE);
+            store.deliver(bob);
+            assertDelivered(bob);
+            assertTrue(gone.sent().isEmpty());
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    void onlyKnownUsersGetAMailboxAndTheNamesSurviveRestart() throws Exception {
+        SessionRegistry users = new SessionRegistry();
+        OfflineStore store = open(users);
+        store.onLogin("bob");
+        assertTrue(store.knows("bob"));
+        assertFalse(store.knows("mallory"));
+        store.store("carol", Frame.of(Message.of(MessageType.PRIVATE, "alice", "carol", "hi")), null);
+        store.close();
+
+        store = open(users);
+        try {
+            assertTrue(store.knows("bob"));
+            assertTrue(store.knows("carol"), "已有队列文件的接收者视为登录过");
+            assertFalse(store.knows("mallory"));
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    void totalSizeIsCapped() throws Exception {
+        SessionRegistry users = new SessionRegistry();
+        OfflineStore store = OfflineStore.open(ServerConfig.parse(new String[] {
+            "--offline-dir=" + dir, "--offline-max-mb=1"
+        }), users);
+        TestSession alice = new TestSession("alice", BinaryCodec.INSTANCE);
+        int count = 1500; // 约 1.5MB，分给多个接收者，每个队列都远小于 4MB
+        try {
+            for (int i = 0; i < count; i++) {
+                String receiver = "user" + (i % 10);
+                store.store(receiver, Frame.of(Message.of(MessageType.PRIVATE, "alice", receiver, content(i))), alice);
+            }
+        } finally {
+            store.close(); // 等待全部保存完成
+        }
+        List<Message> notices = alice.messages();
+        assertEquals(count, notices.size());
+        long refused = notices.stream().filter(m -> m.field(0).contains("离线消息已满")).count();
+        assertTrue(refused > 0 && refused < count, "被拒绝 " + refused + " 条");
+        assertTrue(queueBytes() <= 1 << 20, "队列文件合计 " + queueBytes() + " 字节");
+
+        // 重启后仍按磁盘上的总量计算
+        store = OfflineStore.open(ServerConfig.parse(new String[] {
+            "--offline-dir=" + dir, "--offline-max-mb=1"
+        }), users);
+        TestSession again = new TestSession("alice", BinaryCodec.INSTANCE);
+        try {
+            store.store("user0", Frame.of(Message.of(MessageType.PRIVATE, "alice", "user0", content(0))), again);
+        } finally {
+            store.close();
+        }
+        assertTrue(again.messages().get(0).field(0).contains("离线消息已满"));
+    }
+
+    private OfflineStore open(SessionRegistry users) throws Exception {
+        return OfflineStore.open(ServerConfig.parse(new String[] {"--offline-dir=" + dir}), users);
+    }
+
+    private static void storeAll(OfflineStore store) {
+        for (int i = 0; i < COUNT; i++) {
+            store.store("bob", Frame.of(Message.of(MessageType.PRIVATE, "alice", "bob", content(i))), null);
+        }
+    }
+
+    private static TestSession login(SessionRegistry users, Codec codec) {
+        TestSession session = new TestSession("bob", codec);
+        assertTrue(users.register("bob", session));
+        return session;
+    }
+
+    private static void assertDelivered(TestSession bob) throws Exception {
+        long deadline = System.currentTimeMillis() + 10_000;
+        List<Message> messages;
+        while ((messages = bob.messages()).size() < COUNT) {
+            assertTrue(System.currentTimeMillis() < deadline, "只送达了 " + messages.size() + " 条");
+            Thread.sleep(5);
+        }
+        assertEquals(COUNT, messages.size());
+        for (int i = 0; i < COUNT; i++) {
+            assertEquals(Message.of(MessageType.PRIVATE, "alice", "bob", content(i)), messages.get(i));
+        }
+        List<Frame> chunks = bob.sent();
+        assertTrue(chunks.size() >= 5, "应分块送达，实际 " + chunks.size() + " 块");
+        for (Frame chunk : chunks) {
+            assertTrue(chunk.bytes(bob.codec()).length <= CHUNK_BYTES + Codec.MAX_FRAME_BYTES);
+        }
+    }
+
+    private static String content(int i) {
+        char[] filler = new char[1000];
+        Arrays.fill(filler, (char) ('a' + i % 26));
+        return i + ":" + new String(filler);
+    }
+
+    private long queueBytes() throws Exception {
+        long total = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*.q")) {
+            for (Path file : files) {
+                total += Files.size(file);
+            }
+        }
+        return total;
+    }
+
+    private boolean queueFileExists() throws Exception {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*.q")) {
+            return files.iterator().hasNext();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package lanchat;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 出站队列的溢出策略：丢弃最旧的状态帧、合并用户列表、直接断开，以及登录时的暂存与释放
+ */
+class OutboundQueueTest {
+
+    @Test
+    void dropOldestPresenceMakesRoomForChat() {
+        OutboundQueue queue = new OutboundQueue(4, OverflowPolicy.DROP_OLDEST_PRESENCE);
+        Frame online = presence("alice");
+        assertTrue(queue.offer(online));
+        for (int i = 0; i < 3; i++) {
+            assertTrue(queue.offer(chat(i)));
+        }
+        long dropped = OutboundQueue.DROPPED.sum();
+        assertTrue(queue.offer(chat(3))); // 丢弃最旧的上线通知
+        assertEquals(dropped + 1, OutboundQueue.DROPPED.sum());
+        assertEquals(4, queue.depth());
+
+        // 队列全是聊天消息：新的状态通知直接丢弃，新的聊天消息要求断开
+        assertTrue(queue.offer(presence("bob")));
+        assertEquals(dropped + 2, OutboundQueue.DROPPED.sum());
+        assertFalse(queue.offer(chat(4)));
+        assertEquals(Arrays.asList("0", "1", "2", "3"), texts(queue));
+    }
+
+    @Test
+    void coalesceKeepsOnlyTheNewestUserList() {
+        OutboundQueue queue = new OutboundQueue(3, OverflowPolicy.COALESCE);
+        assertTrue(queue.offer(PresenceBroadcaster.userListFrame(new String[] {"alice"})));
+        assertTrue(queue.offer(chat(0)));
+        Frame newest = PresenceBroadcaster.userListFrame(new String[] {"alice", "bob"});
+        long coalesced = OutboundQueue.COALESCED.sum();
+        assertTrue(queue.offer(newest));
+        assertEquals(coalesced + 1, OutboundQueue.COALESCED.sum());
+        assertEquals(2, queue.depth());
+
+        // 队列已满时新列表取代旧列表腾出位置；只有聊天消息时断开
+        assertTrue(queue.offer(chat(1)));
+        assertTrue(queue.offer(PresenceBroadcaster.userListFrame(new String[] {"bob"})));
+        assertEquals(3, queue.depth());
+        assertFalse(queue.offer(chat(2)));
+        assertEquals(Frame.Kind.CHAT, queue.poll().kind());
+        assertEquals(Frame.Kind.CHAT, queue.poll().kind());
+        assertEquals(Frame.Kind.USER_LIST, queue.poll().kind());
+    }
+
+    @Test
+    void disconnectWhenFull() {
+        OutboundQueue queue = new OutboundQueue(2, OverflowPolicy.DISCONNECT);
+        long slow = OutboundQueue.SLOW_CONSUMERS.sum();
+        assertTrue(queue.offer(presence("alice")));
+        assertTrue(queue.offer(chat(0)));
+        assertFalse(queue.offer(presence("bob")));
+        assertEquals(slow + 1, OutboundQueue.SLOW_CONSUMERS.sum());
+        assertEquals(2, queue.highWatermark());
+    }
+
+    @Test
+    void heldFramesCountTowardCapacityAndFollowTheReleasedOnes() {
+        OutboundQueue queue = new OutboundQueue(3, OverflowPolicy.DROP_OLDEST_PRESENCE);
+        queue.hold();
+        assertTrue(queue.offer(presence("alice")));
+        assertTrue(queue.offer(chat(0)));
+        assertTrue(queue.offer(chat(1)));
+        assertTrue(queue.isEmpty()); // 暂存的帧不可取出
+        assertTrue(queue.offer(chat(2))); // 暂存的状态帧同样可被丢弃
+        assertFalse(queue.offer(chat(3)));
+
+        Frame snapshot = PresenceBroadcaster.snapshotFrame(1, new String[] {"alice"});
+        queue.release(Arrays.asList(snapshot, chat(9)), -1);
+        assertEquals(5, queue.depth());
+        assertSame(snapshot, queue.poll());
+        assertEquals(Arrays.asList("9", "0", "1", "2"), texts(queue));
+        assertTrue(queue.offer(chat(4))); // 释放后恢复正常入队
+        assertEquals(Frame.Kind.CHAT, queue.poll().kind());
+    }
+
+    private static Frame chat(int i) {
+        return Frame.text(String.valueOf(i));
+    }
+
+    private static Frame presence(String user) {
+        return Frame.of(Message.of(MessageType.ONLINE, user));
+    }
+
+    private static List<String> texts(OutboundQueue queue) {
+        List<String> texts = new ArrayList<>();
+        Frame frame;
+        while ((frame = queue.poll()) != null) {
+            texts.add(frame.message().field(0));
+        }
+        return texts;
+    }
+}
@@ -0,0 +1,123 @@
+package lanchat;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 登录后的投递顺序：在线列表快照、最近群聊重放，然后才是注册后暂存的广播与登录时要求的后续投递（离线私聊、续传补发）
+ */
+class PresenceBroadcasterTest {
+
+    @Test
+    void followUpRunsAfterSnapshotAndReplay() throws Exception {
+        SessionRegistry users = new SessionRegistry();
+        RecentMessages recent = new RecentMessages(8, 64 * 1024, false);
+        recent.record(Frame.forward(view(Message.of(MessageType.GROUP, "alice", "早上好"))));
+        PresenceBroadcaster presence = new PresenceBroadcaster(users, 0, recent);
+
+        TestSession bob = new TestSession("bob", BinaryCodec.INSTANCE);
+        bob.setFeatures(Collections.singleton(MessageType.FEATURE_PRESENCE));
+        assertTrue(users.register("bob", bob));
+        CountDownLatch done = new CountDownLatch(1);
+        presence.onJoin("bob", bob, true, () -> {
+            bob.send(Frame.text("离线消息"));
+            done.countDown();
+        });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+
+        List<Message> messages = bob.messages();
+        assertEquals(3, messages.size());
+        assertEquals(MessageType.PRESENCE_TYPE, messages.get(0).type());
+        assertEquals(Message.of(MessageType.GROUP, "alice", "早上好"), messages.get(1));
+        assertEquals(Message.text("离线消息"), messages.get(2));
+    }
+
+    @Test
+    void liveFramesWaitForSnapshotAndReplay() throws Exception {
+        SessionRegistry users = new SessionRegistry();
+        RecentMessages recent = new RecentMessages(8, 64 * 1024, false);
+        recent.record(Frame.forward(view(Message.of(MessageType.GROUP, "alice", "早上好"))));
+        PresenceBroadcaster presence = new PresenceBroadcaster(users, 100, recent);
+
+        TestSession bob = new TestSession("bob", BinaryCodec.INSTANCE);
+        bob.setFeatures(Collections.singleton(MessageType.FEATURE_PRESENCE));
+        presence.beginJoin(bob);
+        assertTrue(users.register("bob", bob));
+        CountDownLatch done = new CountDownLatch(1);
+        presence.onJoin("bob", bob, true, done::countDown);
+        bob.send(Frame.forward(view(Message.of(MessageType.GROUP, "alice", "开会了")))); // 合并窗口内的广播
+        assertTrue(bob.sent().isEmpty());
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+
+        List<Message> messages = bob.messages();
+        assertEquals(3, messages.size());
+        assertEquals(Message.of(MessageType.PRESENCE_TYPE, "1", MessageType.PRESENCE_SNAPSHOT, "bob"), messages.get(0));
+        assertEquals(Message.of(MessageType.GROUP, "alice", "早上好"), messages.get(1));
+        assertEquals(Message.of(MessageType.GROUP, "alice", "开会了"), messages.get(2));
+    }
+
+    @Test
+    void joiningSessionSkipsDeltasBeforeItsSnapshot() throws Exception {
+        SessionRegistry users = new SessionRegistry();
+        PresenceBroadcaster presence = new PresenceBroadcaster(users, 0);
+        TestSession bob = new TestSession("bob", BinaryCodec.INSTANCE);
+        bob.setFeatures(Collections.singleton(MessageType.FEATURE_PRESENCE));
+        presence.beginJoin(bob);
+        assertTrue(users.register("bob", bob));
+
+        // bob 的 JOIN 提交之前，carol 的上线增量先发出
+        TestSession carol = new TestSession("carol", BinaryCodec.INSTANCE);
+        carol.setFeatures(Collections.singleton(MessageType.FEATURE_PRESENCE));
+        assertTrue(users.register("carol", carol));
+        CountDownLatch carolFlushed = new CountDownLatch(1);
+        presence.onJoin("carol", carol, true, carolFlushed::countDown);
+        assertTrue(carolFlushed.await(5, TimeUnit.SECONDS));
+
+        CountDownLatch bobFlushed = new CountDownLatch(1);
+        presence.onJoin("bob", bob, true, bobFlushed::countDown);
+        assertTrue(bobFlushed.await(5, TimeUnit.SECONDS));
+        List<Message> messages = bob.messages();
+        assertEquals(1, messages.size()); // 只有快照，没有过时的增量
+        assertEquals(MessageType.PRESENCE_SNAPSHOT, messages.get(0).field(1));
+        assertEquals("2", messages.get(0).field(0));
+    }
+
+    @Test
+    void failedLoginResumesSending() {
+        PresenceBroadcaster presence = new PresenceBroadcaster(new SessionRegistry(), 0);
+        TestSession bob = new TestSession("bob", BinaryCodec.INSTANCE);
+        presence.beginJoin(bob);
+        bob.send(Frame.text("用户名已被占用，请重新输入！"));
+        presence.abortJoin(bob);
+        assertEquals(1, bob.sent().size());
+    }
+
+    @Test
+    void followUpIsSkippedWhenSessionAlreadyLeft() throws Exception {
+        SessionRegistry users = new SessionRegistry();
+        PresenceBroadcaster presence = new PresenceBroadcaster(users, 0);
+        TestSession bob = new TestSession("bob", BinaryCodec.INSTANCE);
+        CountDownLatch ran = new CountDownLatch(1);
+        presence.onJoin("bob", bob, true, ran::countDown); // 未注册：快照之前已下线
+        CountDownLatch flushed = new CountDownLatch(1);
+        TestSession carol = new TestSession("carol", BinaryCodec.INSTANCE);
+        assertTrue(users.register("carol", carol));
+        presence.onJoin("carol", carol, true, flushed::countDown);
+        assertTrue(flushed.await(5, TimeUnit.SECONDS));
+        assertEquals(1, ran.getCount());
+    }
+
+    private static FrameView view(Message message) throws Exception {
+        byte[] bytes = BinaryCodec.INSTANCE.encode(message);
+        FrameView view = new FrameView();
+        BinaryCodec.INSTANCE.view(bytes, 0, bytes.length, view);
+        return view;
+    }
+}
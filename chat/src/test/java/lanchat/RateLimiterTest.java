@@ -0,0 +1,116 @@
+package lanchat;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 入站限速（时间由测试给定）：突发额度、按速率恢复、全局桶不足时退回连接自己的令牌、全局桶的并发扣除
+ */
+class RateLimiterTest {
+
+    private static final long T0 = 1_000_000_000L;
+
+    @Test
+    void burstThenSteadyRate() {
+        RateLimiter limiter = limiter("--rate-group=10");
+        RateLimiter.Quota quota = new RateLimiter.Quota(T0);
+        // 最多积攒两秒的令牌
+        for (int i = 0; i < 20; i++) {
+            assertEquals(0, limiter.acquire(quota, MessageType.GROUP, T0), "第 " + i + " 条");
+        }
+        assertEquals(ms(100), limiter.acquire(quota, MessageType.GROUP, T0));
+        assertEquals(ms(100), limiter.acquire(quota, MessageType.GROUP, T0)); // 被拒绝时不扣令牌
+        assertEquals(ms(40), limiter.acquire(quota, MessageType.GROUP, T0 + ms(60)));
+
+        // 之后按每 100ms 一条放行
+        assertEquals(0, limiter.acquire(quota, MessageType.GROUP, T0 + ms(100)));
+        assertEquals(ms(100), limiter.acquire(quota, MessageType.GROUP, T0 + ms(100)));
+
+        // 其他类别各有各的桶，心跳不限速
+        assertEquals(0, limiter.acquire(quota, MessageType.PRIVATE, T0 + ms(100)));
+        for (int i = 0; i < 100; i++) {
+            assertEquals(0, limiter.acquire(quota, MessageType.PING_TYPE, T0 + ms(100)));
+        }
+
+        // 空闲再久，突发额度也不超过两秒
+        long later = T0 + TimeUnit.SECONDS.toNanos(60);
+        for (int i = 0; i < 20; i++) {
+            assertEquals(0, limiter.acquire(quota, MessageType.GROUP, later));
+        }
+        assertTrue(limiter.acquire(quota, MessageType.GROUP, later) > 0);
+    }
+
+    @Test
+    void globalRefusalRefundsTheConnectionToken() {
+        RateLimiter limiter = limiter("--rate-group=10", "--rate-global=5"); // 全局最多积攒 10 条
+        RateLimiter.Quota flooder = new RateLimiter.Quota(T0);
+        RateLimiter.Quota quiet = new RateLimiter.Quota(T0);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(0, limiter.acquire(flooder, MessageType.GROUP, T0));
+        }
+        // 全局桶已空：拒绝时连接自己的令牌被退回，反复重试不会耗尽自己的桶
+        for (int i = 0; i < 50; i++) {
+            assertEquals(ms(200), limiter.acquire(quiet, MessageType.GROUP, T0));
+        }
+        assertEquals(0, limiter.acquire(quiet, MessageType.GROUP, T0 + ms(200)));
+    }
+
+    @Test
+    void connectionRefusalDoesNotSpendGlobalTokens() {
+        RateLimiter limiter = limiter("--rate-group=1", "--rate-global=5");
+        RateLimiter.Quota flooder = new RateLimiter.Quota(T0);
+        RateLimiter.Quota quiet = new RateLimiter.Quota(T0);
+        assertEquals(0, limiter.acquire(flooder, MessageType.GROUP, T0));
+        assertEquals(0, limiter.acquire(flooder, MessageType.GROUP, T0));
+        for (int i = 0; i < 100; i++) {
+            assertTrue(limiter.acquire(flooder, MessageType.GROUP, T0) > 0); // 被自己的桶挡住
+        }
+        // 全局桶只被扣了 2 条，其他连接还能用剩下的 8 条
+        RateLimiter.Quota[] others = new RateLimiter.Quota[8];
+        for (int i = 0; i < others.length; i++) {
+            others[i] = new RateLimiter.Quota(T0);
+            assertEquals(0, limiter.acquire(others[i], MessageType.GROUP, T0));
+        }
+        assertEquals(ms(200), limiter.acquire(quiet, MessageType.GROUP, T0));
+    }
+
+    @Test
+    void concurrentAcquiresSpendTheGlobalBucketExactly() throws Exception {
+        // 只限全局：2000 条的突发额度被多个线程同时扣除，CAS 重试后不多不少
+        RateLimiter limiter = limiter("--rate-group=0", "--rate-private=0", "--rate-other=0", "--rate-global=1000");
+        AtomicInteger admitted = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            Thread thread = new Thread(() -> {
+                RateLimiter.Quota quota = new RateLimiter.Quota(T0);
+                for (int i = 0; i < 1000; i++) {
+                    if (limiter.acquire(quota, MessageType.GROUP, T0) == 0) {
+                        admitted.incrementAndGet();
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(2000, admitted.get());
+        assertEquals(ms(1), limiter.acquire(new RateLimiter.Quota(T0), MessageType.GROUP, T0));
+    }
+
+    private static RateLimiter limiter(String... args) {
+        return RateLimiter.create(ServerConfig.parse(args), T0);
+    }
+
+    private static long ms(long millis) {
+        return TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+}
@@ -0,0 +1,162 @@
+package lanchat;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.ProtocolException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 最近群聊缓存：槽位与字节区各自绕回、被覆盖的记录不重放、并发写入不产生损坏的记录
+ */
+class RecentMessagesTest {
+
+    @Test
+    void keepsTheNewestSlotsAfterWraparound() throws ProtocolException {
+        for (boolean offHeap : new boolean[] {false, true}) {
+            RecentMessages recent = new RecentMessages(4, 64 * 1024, offHeap);
+            for (int i = 0; i < 10; i++) {
+                recent.record(forward(BinaryCodec.INSTANCE, message(i, 10)));
+            }
+            assertEquals(expected(6, 10, 10), replay(recent, recent.head(), BinaryCodec.INSTANCE));
+        }
+    }
+
+    @Test
+    void keepsWhatFitsAfterArenaWraparound() throws ProtocolException {
+        for (boolean offHeap : new boolean[] {false, true}) {
+            // 每条约 130 字节，字节区只放得下七条左右，且记录不会正好铺满字节区
+            RecentMessages recent = new RecentMessages(100, 1000, offHeap);
+            for (int i = 0; i < 25; i++) {
+                recent.record(forward(BinaryCodec.INSTANCE, message(i, 100)));
+            }
+            List<Message> replayed = replay(recent, recent.head(), BinaryCodec.INSTANCE);
+            assertTrue(replayed.size() >= 5 && replayed.size() <= 7, "重放了 " + replayed.size() + " 条");
+            assertEquals(expected(25 - replayed.size(), 25, 100), replayed);
+        }
+    }
+
+    @Test
+    void overwrittenRecordsAreNotReplayed() throws ProtocolException {
+        // 槽位被更新的记录占用
+        RecentMessages bySlot = new RecentMessages(4, 64 * 1024, false);
+        for (int i = 0; i < 3; i++) {
+            bySlot.record(forward(BinaryCodec.INSTANCE, message(i, 10)));
+        }
+        long head = bySlot.head();
+        for (int i = 3; i < 8; i++) {
+            bySlot.record(forward(BinaryCodec.INSTANCE, message(i, 10)));
+        }
+        assertTrue(replay(bySlot, head, BinaryCodec.INSTANCE).isEmpty());
+
+        // 槽位还在，字节已被覆盖
+        RecentMessages byBytes = new RecentMessages(100, 1000, false);
+        for (int i = 0; i < 3; i++) {
+            byBytes.record(forward(BinaryCodec.INSTANCE, message(i, 100)));
+        }
+        head = byBytes.head();
+        for (int i = 3; i < 20; i++) {
+            byBytes.record(forward(BinaryCodec.INSTANCE, message(i, 100)));
+        }
+        assertTrue(replay(byBytes, head, BinaryCodec.INSTANCE).isEmpty());
+    }
+
+    @Test
+    void replayIsReencodedForTheReceiver() throws ProtocolException {
+        RecentMessages recent = new RecentMessages(8, 64 * 1024, false);
+        recent.record(forward(TextCodec.INSTANCE, message(0, 10)));
+        recent.record(forward(BinaryCodec.INSTANCE, message(1, 10)));
+        assertEquals(expected(0, 2, 10), replay(recent, recent.head(), BinaryCodec.INSTANCE));
+        assertEquals(expected(0, 2, 10), replay(recent, recent.head(), TextCodec.INSTANCE));
+    }
+
+    @Test
+    void oversizedMessagesAreNotCached() throws ProtocolException {
+        RecentMessages recent = new RecentMessages(8, 1000, false);
+        recent.record(forward(BinaryCodec.INSTANCE, message(0, 10)));
+        recent.record(forward(BinaryCodec.INSTANCE, message(1, 600)));
+        assertEquals(expected(0, 1, 10), replay(recent, recent.head(), BinaryCodec.INSTANCE));
+    }
+
+    @Test
+    void concurrentWritersNeverProduceTornRecords() throws Exception {
+        RecentMessages recent = new RecentMessages(16, 4096, true);
+        int writers = 4;
+        int perWriter = 5000;
+        List<Thread> threads = new ArrayList<>();
+        for (int w = 0; w < writers; w++) {
+            int writer = w;
+            Thread t = new Thread(() -> {
+                for (int i = 0; i < perWriter; i++) {
+                    recent.record(forward(BinaryCodec.INSTANCE,
+                            Message.of(MessageType.GROUP, "w" + writer, writer + ":" + i + ":" + filler(i % 200))));
+                }
+            });
+            threads.add(t);
+            t.start();
+        }
+        // 写入的同时重放：读到的每条都必须完整
+        while (threads.get(0).isAlive()) {
+            assertWellFormed(replay(recent, recent.head(), BinaryCodec.INSTANCE));
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertEquals((long) writers * perWriter, recent.head());
+        List<Message> replayed = replay(recent, recent.head(), BinaryCodec.INSTANCE);
+        assertTrue(!replayed.isEmpty() && replayed.size() <= 16);
+        assertWellFormed(replayed);
+    }
+
+    private static void assertWellFormed(List<Message> messages) {
+        for (Message message : messages) {
+            String[] parts = message.field(1).split(":", 3);
+            assertEquals("w" + parts[0], message.field(0));
+            assertEquals(filler(Integer.parseInt(parts[1]) % 200), parts[2]);
+        }
+    }
+
+    private static Message message(int i, int length) {
+        String prefix = "消息" + i + ":";
+        return Message.of(MessageType.GROUP, "alice", prefix + filler(length - prefix.length()));
+    }
+
+    private static List<Message> expected(int from, int to, int length) {
+        List<Message> messages = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            messages.add(message(i, length));
+        }
+        return messages;
+    }
+
+    private static String filler(int length) {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append((char) ('a' + i % 26));
+        }
+        return sb.toString();
+    }
+
+    private static Frame forward(Codec codec, Message message) {
+        byte[] bytes = codec.encode(message);
+        FrameView view = new FrameView();
+        try {
+            codec.view(bytes, 0, bytes.length, view);
+        } catch (ProtocolException e) {
+            throw new AssertionError(e);
+        }
+        return Frame.forward(view);
+    }
+
+    private static List<Message> replay(RecentMessages recent, long upTo, Codec codec) throws ProtocolException {
+        TestSession session = new TestSession("bob", codec);
+        Frame frame = recent.replay(codec, upTo);
+        if (frame != null) {
+            session.send(frame);
+        }
+        return session.messages();
+    }
+}
@@ -0,0 +1,133 @@
+package lanchat;
+
+import java.net.ProtocolException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 测试用会话：send 的帧按顺序记下，出站队列始终为空（不会被当作积压的慢客户端）
+ */
+final class TestSession implements ChatSession {
+
+    private final Codec codec;
+    private final OutboundQueue queue = new OutboundQueue(16, OverflowPolicy.DROP_OLDEST_PRESENCE);
+    private final List<Frame> sent = new ArrayList<>();
+    private List<Frame> held; // hold() 之后 send 的帧，release 时接在 first 之后
+    private volatile Set<String> features = Collections.emptySet();
+    private volatile String username;
+    private volatile long lastRead = -1; // 测试给定的最近收到数据的时间，-1 表示总是刚收到
+    private volatile boolean closed;
+
+    TestSession(String username, Codec codec) {
+        this.username = username;
+        this.codec = codec;
+    }
+
+    @Override
+    public synchronized void send(Frame frame) {
+        (held != null ? held : sent).add(frame);
+    }
+
+    @Override
+    public synchronized void hold() {
+        if (held == null) {
+            held = new ArrayList<>();
+        }
+    }
+
+    @Override
+    public synchronized void release(List<Frame> first, long skipLoggedUpTo) {
+        sent.addAll(first);
+        if (held != null) {
+            for (Frame frame : held) {
+                if (frame.loggedSeq() < 0 || frame.loggedSeq() > skipLoggedUpTo) {
+                    sent.add(frame);
+                }
+            }
+            held = null;
+        }
+    }
+
+    /**
+     * 到目前为止收到的帧（副本），不含暂存的帧
+     */
+    synchronized List<Frame> sent() {
+        return new ArrayList<>(sent);
+    }
+
+    /**
+     * 把收到的帧按本会话的编码拆成消息：一帧可能合并了多条（离线消息分块、最近群聊重放）
+     */
+    List<Message> messages() throws ProtocolException {
+        List<Message> messages = new ArrayList<>();
+        for (Frame frame : sent()) {
+            byte[] bytes = frame.bytes(codec);
+            int pos = 0;
+            while (pos < bytes.length) {
+                int length = codec.frameLength(bytes, pos, bytes.length - pos);
+                messages.add(codec.decode(bytes, pos, length));
+                pos += length;
+            }
+        }
+        return messages;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public void closeAfterFlush() {
+    }
+
+    @Override
+    public String getUsername() {
+        return username;
+    }
+
+    @Override
+    public void setUsername(String username) {
+        this.username = username;
+    }
+
+    @Override
+    public boolean hasFeature(String feature) {
+        return features.contains(feature);
+    }
+
+    @Override
+    public void setFeatures(Set<String> features) {
+        this.features = features;
+    }
+
+    @Override
+    public Codec codec() {
+        return codec;
+    }
+
+    @Override
+    public void setCompression(DeflateStream stream) {
+        // 测试中不协商压缩
+    }
+
+    @Override
+    public OutboundQueue outboundQueue() {
+        return queue;
+    }
+
+    @Override
+    public long lastReadNanos() {
+        return lastRead < 0 ? System.nanoTime() : lastRead;
+    }
+
+    void setLastReadNanos(long nanos) {
+        lastRead = nanos;
+    }
+}